@@ -32,6 +32,14 @@ import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_BLOCKCHAIN_
 import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_WALLET_PASSWORD_KEY;
 import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_WALLET_PATH_KEY;
 import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CONTRACT_ADDRESS_KEY;
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_BLOCKCHAIN_ROOT_BATCH_SIZE_DEFAULT;
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_BLOCKCHAIN_ROOT_BATCH_SIZE_KEY;
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_BLOCKCHAIN_TX_CONFIRMATIONS_DEFAULT;
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_BLOCKCHAIN_TX_CONFIRMATIONS_KEY;
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_BLOCKCHAIN_TX_MAX_IN_FLIGHT_DEFAULT;
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_BLOCKCHAIN_TX_MAX_IN_FLIGHT_KEY;
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_BLOCKCHAIN_TX_RESEND_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_BLOCKCHAIN_TX_RESEND_MS_KEY;
 
 import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
@@ -408,6 +416,12 @@ public class DFSClient implements java.io.Closeable, RemotePeerFactory,
       		conf.get(DFS_CLIENT_WALLET_PATH_KEY),
       		Long.parseLong(conf.get(DFS_BLOCKCHAIN_CHAINID_KEY)),
       		conf.get(DFS_CONTRACT_ADDRESS_KEY));
+      this.con.setUploads(
+      		conf.getInt(DFS_CLIENT_BLOCKCHAIN_TX_MAX_IN_FLIGHT_KEY, DFS_CLIENT_BLOCKCHAIN_TX_MAX_IN_FLIGHT_DEFAULT),
+      		conf.getInt(DFS_CLIENT_BLOCKCHAIN_TX_CONFIRMATIONS_KEY, DFS_CLIENT_BLOCKCHAIN_TX_CONFIRMATIONS_DEFAULT),
+      		conf.getLong(DFS_CLIENT_BLOCKCHAIN_TX_RESEND_MS_KEY, DFS_CLIENT_BLOCKCHAIN_TX_RESEND_MS_DEFAULT));
+      this.con.setRootBatching(
+      		conf.getInt(DFS_CLIENT_BLOCKCHAIN_ROOT_BATCH_SIZE_KEY, DFS_CLIENT_BLOCKCHAIN_ROOT_BATCH_SIZE_DEFAULT));
 		} catch (Exception e) {
 			// well... maybe exit?
 			System.out.println("Failed to initialize credentials or establish connection to geth client...");
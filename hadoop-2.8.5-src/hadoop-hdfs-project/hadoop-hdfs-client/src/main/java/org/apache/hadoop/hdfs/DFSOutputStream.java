@@ -17,28 +17,29 @@
  */
 package org.apache.hadoop.hdfs;
 
-import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.channels.ClosedChannelException;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.blockchain.RootBatch;
 import org.apache.hadoop.classification.InterfaceAudience;
-import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.crypto.CryptoProtocolVersion;
 import org.apache.hadoop.fs.CanSetDropBehind;
 import org.apache.hadoop.fs.CreateFlag;
-import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSOutputSummer;
 import org.apache.hadoop.fs.FileAlreadyExistsException;
 import org.apache.hadoop.fs.FileEncryptionInfo;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.ParentNotDirectoryException;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.Syncable;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
@@ -64,7 +65,7 @@ import org.apache.hadoop.hdfs.util.ByteArrayManager;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.MultipleIOException;
 import org.apache.hadoop.ipc.RemoteException;
-import org.apache.hadoop.merkle_trees.MerkleTree;
+import org.apache.hadoop.merkle_trees.MerkleTreeBuilder;
 import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.util.DataChecksum;
@@ -129,9 +130,15 @@ public class DFSOutputStream extends FSOutputSummer
   protected final AtomicReference<CachingStrategy> cachingStrategy;
   private FileEncryptionInfo fileEncryptionInfo;
   private int writePacketSize;
-  // a buffer used to store the block data
-  protected ByteArrayOutputStream block_buffer;
+  // computes the merkle root of the current block while it is written
+  protected MerkleTreeBuilder merkle_builder;
   protected long mtree_total_time = 0;
+  // the root is computed by the last datanode of the pipeline instead, and
+  // by the client as well for a fraction of the blocks (the current one if
+  // hash_block) to check it
+  private final boolean merkle_pipeline_root;
+  private final double merkle_spot_check;
+  private boolean hash_block;
 
   /** Use {@link ByteArrayManager} to create buffer for non-heartbeat packets.*/
   protected DFSPacket createPacket(int packetSize, int chunksPerPkt,
@@ -201,7 +208,14 @@ public class DFSOutputStream extends FSOutputSummer
     this.blockSize = stat.getBlockSize();
     this.blockReplication = stat.getReplication();
     this.fileEncryptionInfo = stat.getFileEncryptionInfo();
-    this.block_buffer = new ByteArrayOutputStream();
+    this.merkle_builder = new MerkleTreeBuilder(
+        dfsClient.getConf().getDefaultChunkSize(),
+        dfsClient.getConf().getDefaultMerkleTreeHeight());
+    // the root of a short last block longer than the limit is read back
+    this.merkle_builder.limitPrefix(MerkleTreeBuilder.STREAM_PREFIX_LIMIT);
+    this.merkle_pipeline_root = dfsClient.getConf().isMerklePipelineRoot();
+    this.merkle_spot_check = dfsClient.getConf().getMerkleSpotCheckFraction();
+    this.hash_block = pickHashBlock();
     this.cachingStrategy = new AtomicReference<>(
         dfsClient.getDefaultWriteCachingStrategy());
     this.addBlockFlags = EnumSet.noneOf(AddBlockFlag.class);
@@ -333,15 +347,26 @@ public class DFSOutputStream extends FSOutputSummer
       getStreamer().setBytesCurBlock(lastBlock.getBlockSize());
       adjustPacketChunkSize(stat);
       getStreamer().setPipelineInConstruction(lastBlock);
-      // When appending to existing blocks reload data of last block (that got modified)
-      // and calculate merkle root 
-      FSDataInputStream in = null;
-      Configuration conf = new Configuration();
-      FileSystem fs = FileSystem.get(conf);
-      Path inFile = new Path(src);
-      in = fs.open(inFile);
-      //take the data of the current block in order to fill it and create the total merkle tree
-      IOUtils.copyLarge(in, this.block_buffer, initialFileSize-lastBlock.getBlockSize(), lastBlock.getBlockSize());
+      // When appending to a block that covers all the leaves of the merkle tree, the
+      // data appended does not change the tree and its root is already uploaded (see
+      // DataStreamer#uploadRoot). The leaves of a shorter block wrap around all of its
+      // data, which is read back (the pipeline does it from its replica when it returns
+      // the root)
+      if (this.hash_block && lastBlock.getBlockSize() >= this.merkle_builder.getCoverage()) {
+        this.merkle_builder.resume(null, lastBlock.getBlockSize());
+      } else if (this.hash_block) {
+        DFSInputStream in = dfsClient.open(src);
+        try {
+          //take the data of the current block in order to fill it and create the total merkle tree
+          IOUtils.copyLarge(in, this.merkle_builder, initialFileSize-lastBlock.getBlockSize(), lastBlock.getBlockSize());
+        } finally {
+          in.close();
+        }
+        if (this.merkle_builder.getLength() != lastBlock.getBlockSize()) {
+          throw new IOException("Could not read the last block of " + src + " back, "
+              + this.merkle_builder.getLength() + " of " + lastBlock.getBlockSize() + " bytes read");
+        }
+      }
     } else {
       computePacketChunkSize(dfsClient.getConf().getWritePacketSize(),
           bytesPerChecksum);
@@ -445,8 +470,12 @@ public class DFSOutputStream extends FSOutputSummer
     currentPacket.writeData(b, offset, len);
     currentPacket.incNumChunks();
     getStreamer().incBytesCurBlock(len);
-    // write the packet data to our buffer (accumulating the whole block)
-    this.block_buffer.write(b, offset, len);
+    // hash the packet data as it goes (merkle root of the whole block)
+    if (this.hash_block) {
+      long mtree_start = System.nanoTime();
+      this.merkle_builder.write(b, offset, len);
+      mtree_total_time += System.nanoTime() - mtree_start;
+    }
     // If packet is full, enqueue it for transmission
     //
     if (currentPacket.getNumChunks() == currentPacket.getMaxChunks() ||
@@ -520,16 +549,7 @@ public class DFSOutputStream extends FSOutputSummer
    */
   protected void endBlock() throws IOException {
     if (getStreamer().getBytesCurBlock() == blockSize) {
-    	long mtree_start = System.currentTimeMillis();
-      MerkleTree tree = new MerkleTree(this.block_buffer.toByteArray(),
-      																this.dfsClient.getConf().getDefaultChunkSize(),
-      																this.dfsClient.getConf().getDefaultMerkleTreeHeight());
-      this.block_buffer.reset();
-      tree.build();
-      mtree_total_time += System.currentTimeMillis() - mtree_start;
-      //System.out.println("Generated hash from endblock : "+tree.getRoot());
-      // add merkle root to queue for later (when block id is known)
-      getStreamer().push_root_hash(tree.getRoot());
+      queueRoot();
       setCurrentPacketToEmpty();
       enqueueCurrentPacket();
       getStreamer().setBytesCurBlock(0);
@@ -537,6 +557,31 @@ public class DFSOutputStream extends FSOutputSummer
     }
   }
 
+  /**
+   * Adds the merkle root of the block that ends to the queue of the streamer
+   * for later (when block id is known), or lets the streamer expect it from
+   * the pipeline.
+   */
+  private void queueRoot() {
+    long mtree_start = System.nanoTime();
+    if (!this.merkle_pipeline_root) {
+      getStreamer().push_root_hash(this.merkle_builder.finish());
+    } else {
+      getStreamer().expect_root(
+          this.hash_block ? this.merkle_builder.finish() : null);
+      this.hash_block = pickHashBlock();
+    }
+    mtree_total_time += System.nanoTime() - mtree_start;
+  }
+
+  /**
+   * @return whether the client computes the merkle root of the next block
+   */
+  private boolean pickHashBlock() {
+    return !this.merkle_pipeline_root || (this.merkle_spot_check > 0
+        && ThreadLocalRandom.current().nextDouble() < this.merkle_spot_check);
+  }
+
   @Deprecated
   public void sync() throws IOException {
     hflush();
@@ -759,16 +804,12 @@ public class DFSOutputStream extends FSOutputSummer
       //
       // If there is data in the current buffer, send it across
       //
-      long mtree_start = System.currentTimeMillis();
-      MerkleTree tree = new MerkleTree(this.block_buffer.toByteArray(),
-														      		this.dfsClient.getConf().getDefaultChunkSize(),
-																			this.dfsClient.getConf().getDefaultMerkleTreeHeight());
-      this.block_buffer.reset();
-      tree.build();
-      mtree_total_time += System.currentTimeMillis() - mtree_start;
-      //System.out.println("Generated hash from flush interval "+tree.getRoot());
-      // add merkle root to queue for later (when block id is known)
-      getStreamer().push_root_hash(tree.getRoot());
+      if (currentPacket != null) {
+        queueRoot();
+      } else {
+        // no block is ending
+        getStreamer().push_root_hash(this.merkle_builder.finish());
+      }
       getStreamer().queuePacket(currentPacket);
       currentPacket = null;
       toWaitFor = getStreamer().getLastQueuedSeqno();
@@ -946,12 +987,16 @@ public class DFSOutputStream extends FSOutputSummer
     boolean fileComplete = false;
     int retries = conf.getNumBlockWriteLocateFollowingRetry();
     // remove root hash of last block from list and upload
-    this.dfsClient.getConnection().uploadHash(last.getBlockPoolId(), last.getBlockId(), getStreamer().remove_last_hash());
-    // wait for all the merkle root uploads to complete before completing and finalizing the file
+    getStreamer().uploadRoot(last, getStreamer().remove_last_hash());
+    List<RootBatch> batches = getStreamer().commitRoots(last.getBlockPoolId());
+    // wait for the merkle root uploads of this file to be submitted (or confirmed) before completing and finalizing it
     //long wait_start = System.currentTimeMillis();
-    this.dfsClient.getConnection().waitForUploads();
+    this.dfsClient.getConnection().waitForUploads(getStreamer().getUploads());
+    if (!batches.isEmpty()) {
+      saveRootBatches(last.getBlockPoolId(), batches);
+    }
     //System.out.println("Time spent waiting until transaction sending completes: "+Long.toString(System.currentTimeMillis()-wait_start));
-    System.out.println("Time spent building merkle trees: "+Long.toString(mtree_total_time));
+    LOG.debug("Time spent building merkle trees: {} ms", TimeUnit.NANOSECONDS.toMillis(mtree_total_time));
     while (!fileComplete) {
       fileComplete =
           dfsClient.namenode.complete(src, dfsClient.clientName, last, fileId);
@@ -984,6 +1029,32 @@ public class DFSOutputStream extends FSOutputSummer
     }
   }
 
+  /**
+   * Keeps each batch of merkle roots committed by this stream in a file of
+   * its own (see {@link RootBatch#pathOf(String, long)}), so the DataNodes
+   * can rebuild the paths of their blocks whatever the size of the file.
+   * The directory is created world-writable and sticky, like /tmp, as every
+   * writer adds its batches there.
+   */
+  private void saveRootBatches(String bp_id, List<RootBatch> batches) {
+    try {
+      dfsClient.primitiveMkdir(RootBatch.DIR + "/" + bp_id,
+          new FsPermission((short) 01777), true);
+      for (RootBatch batch : batches) {
+        OutputStream out = dfsClient.create(
+            RootBatch.pathOf(bp_id, batch.getFirstBlockId()), true);
+        try {
+          out.write(RootBatch.writeAll(Collections.singletonList(batch)));
+        } finally {
+          out.close();
+        }
+      }
+    } catch (IOException e) {
+      // the roots are on-chain anyway, only the paths are lost
+      DFSClient.LOG.warn("Could not save the merkle root batches of " + src, e);
+    }
+  }
+
   @VisibleForTesting
   public void setArtificialSlowdown(long period) {
     getStreamer().setArtificialSlowdown(period);
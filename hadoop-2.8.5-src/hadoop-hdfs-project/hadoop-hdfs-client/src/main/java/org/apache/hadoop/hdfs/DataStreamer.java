@@ -44,6 +44,9 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.common.annotations.VisibleForTesting;
+import org.apache.hadoop.blockchain.ClientConnection;
+import org.apache.hadoop.blockchain.RootBatch;
+import org.apache.hadoop.blockchain.TxPipeline;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.StorageType;
 import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.BlockWrite;
@@ -76,6 +79,7 @@ import org.apache.hadoop.hdfs.util.ByteArrayManager;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.MultipleIOException;
 import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.merkle_trees.MerkleTreeBuilder;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.token.Token;
@@ -144,6 +148,152 @@ class DataStreamer extends Daemon {
 		}
   }
 
+  // roots computed by the client for the blocks whose root comes from the
+  // pipeline, to check it against (null for the blocks it was not computed)
+  private final LinkedList<byte[]> spot_roots = new LinkedList<byte[]>();
+
+  /**
+   * Expects the merkle root of the current block from the last datanode of
+   * the pipeline, with the ack of the last packet of the block.
+   * @param root the root computed by the client, null to trust the pipeline
+   */
+  public void expect_root(byte[] root) {
+    synchronized (this.spot_roots) {
+      this.spot_roots.add(root);
+    }
+  }
+
+  /**
+   * Queues the root of the block acked by the pipeline, checked against the
+   * one computed by the client if any.
+   * @param root the root returned by the pipeline, null if none
+   */
+  private void pipeline_root(byte[] root) {
+    byte[] expected;
+    synchronized (this.spot_roots) {
+      expected = this.spot_roots.poll();
+    }
+    if (expected != null && !Arrays.equals(expected, root)) {
+      if (root != null) {
+        LOG.warn("The merkle root of " + block + " returned by the pipeline"
+            + " does not match the one computed by the client");
+      }
+      root = expected;
+    }
+    push_root_hash(root);
+  }
+
+  // offset in the file of the next block whose merkle root is uploaded
+  private long rootOffset;
+  // the next root is the one of the block appended to, which may already be
+  // in a batch committed by its writer, and batches are written once
+  private boolean appendedRoot = false;
+  // the block appended to covered all the leaves, its tree did not change
+  private boolean appendedCovered = false;
+  // merkle roots of the blocks of the file, when they are committed in batches
+  private final List<RootBatch> root_batches = new ArrayList<RootBatch>();
+  private RootBatch root_batch = new RootBatch();
+  // the merkle root uploads of this stream, waited for when the file is closed
+  private final List<TxPipeline.Tx> uploads = new ArrayList<TxPipeline.Tx>();
+
+  /**
+   * Uploads the merkle root of a block, or adds it to the current batch
+   * and commits the batch once it is full. The blocks of the stream are
+   * uploaded in order.
+   * @param root the root of the block, or null if the pipeline did not
+   * return one and the client did not compute it (e.g. a short block
+   * longer than the data it keeps), to read the block back
+   */
+  void uploadRoot(ExtendedBlock block, byte[] root) throws IOException {
+    long offset = this.rootOffset;
+    this.rootOffset += block.getNumBytes();
+    boolean appended = this.appendedRoot;
+    this.appendedRoot = false;
+    if (appended && this.appendedCovered) {
+      // the data past the coverage does not change the tree, the root
+      // uploaded by the writer of the block is still its root
+      LOG.debug("The merkle root of {} did not change", block);
+      return;
+    }
+    if (root == null) {
+      LOG.info("The merkle root of " + block
+          + " was not computed while it was written, reading it back");
+      root = readRoot(block, offset);
+    }
+    ClientConnection con = this.dfsClient.getConnection();
+    // the files of the batches themselves are not batched, or closing one
+    // would write another
+    if (con.getRootBatchSize() <= 0 || appended
+        || src.startsWith(RootBatch.DIR + "/")) {
+      addUpload(con.uploadHash(block.getBlockPoolId(), block.getBlockId(), root));
+      return;
+    }
+    synchronized (this.root_batches) {
+      this.root_batch.add(block.getBlockId(), root);
+      if (this.root_batch.size() >= con.getRootBatchSize()) {
+        commitRoots(block.getBlockPoolId());
+      }
+    }
+  }
+
+  /**
+   * Computes the merkle root of a block from its data, as written.
+   * @param offset the offset of the block in the file
+   */
+  private byte[] readRoot(ExtendedBlock block, long offset)
+      throws IOException {
+    final DfsClientConf conf = dfsClient.getConf();
+    MerkleTreeBuilder builder = new MerkleTreeBuilder(
+        conf.getDefaultChunkSize(), conf.getDefaultMerkleTreeHeight());
+    // the data past the coverage of the leaves does not change the tree
+    long covered = Math.min(block.getNumBytes(), builder.getCoverage());
+    DFSInputStream in = dfsClient.open(src);
+    try {
+      in.seek(offset);
+      IOUtils.copyBytes(in, builder, covered, false);
+    } finally {
+      in.close();
+    }
+    if (builder.getLength() != covered) {
+      throw new IOException("Could not read " + block + " back, "
+          + builder.getLength() + " of " + covered + " bytes read");
+    }
+    return builder.finish();
+  }
+
+  /**
+   * Commits the batched roots that are not committed yet.
+   * @return all the batches of the file committed by this stream
+   */
+  List<RootBatch> commitRoots(String bp_id) {
+    synchronized (this.root_batches) {
+      if (!this.root_batch.isEmpty()) {
+        addUpload(this.dfsClient.getConnection().uploadBatch(bp_id,
+            this.root_batch));
+        this.root_batches.add(this.root_batch);
+        this.root_batch = new RootBatch();
+      }
+      return new ArrayList<RootBatch>(this.root_batches);
+    }
+  }
+
+  private void addUpload(TxPipeline.Tx tx) {
+    if (tx != null) {
+      synchronized (this.uploads) {
+        this.uploads.add(tx);
+      }
+    }
+  }
+
+  /**
+   * @return the merkle root uploads sent by this stream so far
+   */
+  List<TxPipeline.Tx> getUploads() {
+    synchronized (this.uploads) {
+      return new ArrayList<TxPipeline.Tx>(this.uploads);
+    }
+  }
+
   private class RefetchEncryptionKeyPolicy {
     private int fetchEncryptionKeyTimes = 0;
     private InvalidEncryptionKeyException lastException;
@@ -546,6 +696,8 @@ class DataStreamer extends Daemon {
   private final LoadingCache<DatanodeInfo, DatanodeInfo> excludedNodes;
   private final String[] favoredNodes;
   private final EnumSet<AddBlockFlag> addBlockFlags;
+  // the last datanode of the pipeline returns the merkle root of the block
+  private final boolean merklePipelineRoot;
 
   private DataStreamer(HdfsFileStatus stat, ExtendedBlock block,
                        DFSClient dfsClient, String src,
@@ -570,6 +722,8 @@ class DataStreamer extends Daemon {
     this.excludedNodes = initExcludedNodes(conf.getExcludedNodesCacheExpiry());
     this.errorState = new ErrorState(conf.getDatanodeRestartTimeout());
     this.addBlockFlags = flags;
+    this.merklePipelineRoot = conf.isMerklePipelineRoot();
+    this.rootOffset = stat.getLen();
   }
 
   /**
@@ -599,6 +753,11 @@ class DataStreamer extends Daemon {
     stage = BlockConstructionStage.PIPELINE_SETUP_APPEND;
     bytesSent = block.getNumBytes();
     accessToken = lastBlock.getBlockToken();
+    rootOffset -= lastBlock.getBlockSize();
+    appendedRoot = true;
+    final DfsClientConf conf = dfsClient.getConf();
+    appendedCovered = lastBlock.getBlockSize()
+        >= (long) conf.getDefaultChunkSize() << conf.getDefaultMerkleTreeHeight();
   }
 
   /**
@@ -1174,6 +1333,10 @@ class DataStreamer extends Daemon {
                 "Failing the last packet for testing.");
           }
 
+          if (merklePipelineRoot && isLastPacketInBlock) {
+            pipeline_root(ack.getMerkleRoot());
+          }
+
           // update bytesAcked
           block.setNumBytes(one.getLastByteOffsetBlock());
 
@@ -1282,6 +1445,11 @@ class DataStreamer extends Daemon {
           pipelineRecoveryCount = 0;
           dataQueue.notifyAll();
         }
+        if (merklePipelineRoot) {
+          // no datanode hashed the block, the client reads it back unless
+          // it hashed it
+          pipeline_root(null);
+        }
         endBlock();
       } else {
         initDataStreaming();
@@ -1741,7 +1909,8 @@ class DataStreamer extends Daemon {
             dfsClient.clientName, nodes, nodeStorageTypes, null, bcs,
             nodes.length, block.getNumBytes(), bytesSent, newGS,
             checksum4WriteBlock, cachingStrategy.get(), isLazyPersistFile,
-            (targetPinnings != null && targetPinnings[0]), targetPinnings);
+            (targetPinnings != null && targetPinnings[0]), targetPinnings,
+            merklePipelineRoot);
 
         // receive ack for connect
         BlockOpResponseProto resp = BlockOpResponseProto.parseFrom(
@@ -1851,14 +2020,15 @@ class DataStreamer extends Daemon {
     final DfsClientConf conf = dfsClient.getConf(); 
     int retries = conf.getNumBlockWriteLocateFollowingRetry();
     long sleeptime = conf.getBlockWriteLocateFollowingInitialDelayMs();
+    if (oldBlock != null) {
+      // upload merkle root for last transmitted block, once whatever the
+      // retries of addBlock
+      uploadRoot(oldBlock, pop_root_hash());
+    }
     while (true) {
       long localstart = Time.monotonicNow();
       while (true) {
         try {
-          if(oldBlock != null){
-            // upload merkle root for last transmitted block
-            this.dfsClient.getConnection().uploadHash(oldBlock.getBlockPoolId(), oldBlock.getBlockId(), pop_root_hash());
-          }
           return dfsClient.namenode.addBlock(src, dfsClient.clientName,
               oldBlock, excluded, stat.getFileId(), favoredNodes,
               addBlockFlags);
@@ -34,10 +34,22 @@ public interface HdfsClientConfigKeys {
   String  DFS_CLIENT_WALLET_PASSWORD_KEY = "dfs.client.wallet.password";
   String  DFS_CLIENT_WALLET_PATH_KEY = "dfs.client.wallet.path";
   String  DFS_CONTRACT_ADDRESS_KEY = "dfs.contract.address";
+  String  DFS_CLIENT_BLOCKCHAIN_TX_MAX_IN_FLIGHT_KEY = "dfs.client.blockchain.tx.max.in.flight";
+  int     DFS_CLIENT_BLOCKCHAIN_TX_MAX_IN_FLIGHT_DEFAULT = 64;
+  String  DFS_CLIENT_BLOCKCHAIN_TX_CONFIRMATIONS_KEY = "dfs.client.blockchain.tx.confirmations";
+  int     DFS_CLIENT_BLOCKCHAIN_TX_CONFIRMATIONS_DEFAULT = 0;
+  String  DFS_CLIENT_BLOCKCHAIN_TX_RESEND_MS_KEY = "dfs.client.blockchain.tx.resend.ms";
+  long    DFS_CLIENT_BLOCKCHAIN_TX_RESEND_MS_DEFAULT = 60000;
+  String  DFS_CLIENT_BLOCKCHAIN_ROOT_BATCH_SIZE_KEY = "dfs.client.blockchain.root.batch.size";
+  int     DFS_CLIENT_BLOCKCHAIN_ROOT_BATCH_SIZE_DEFAULT = 0;
   String  DFS_CHUNK_SIZE_KEY = "dfs.merkle.chunksize";
   int     DFS_CHUNK_SIZE_DEFAULT = 512;
   String  DFS_MERKLE_TREE_HEIGHT_KEY = "dfs.merkle.tree.height";
   int     DFS_MERKLE_TREE_HEIGHT_DEFAULT = 16;
+  String  DFS_CLIENT_MERKLE_PIPELINE_ROOT_KEY = "dfs.client.merkle.pipeline.root";
+  boolean DFS_CLIENT_MERKLE_PIPELINE_ROOT_DEFAULT = false;
+  String  DFS_CLIENT_MERKLE_SPOT_CHECK_FRACTION_KEY = "dfs.client.merkle.spot.check.fraction";
+  double  DFS_CLIENT_MERKLE_SPOT_CHECK_FRACTION_DEFAULT = 0.0;
   String  DFS_BLOCK_SIZE_KEY = "dfs.blocksize";
   long    DFS_BLOCK_SIZE_DEFAULT = 128*1024*1024;
   String  DFS_REPLICATION_KEY = "dfs.replication";
@@ -37,6 +37,10 @@ import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CHUNK_SIZE_
 import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CHUNK_SIZE_KEY;
 import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_MERKLE_TREE_HEIGHT_DEFAULT;
 import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_MERKLE_TREE_HEIGHT_KEY;
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_MERKLE_PIPELINE_ROOT_DEFAULT;
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_MERKLE_PIPELINE_ROOT_KEY;
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_MERKLE_SPOT_CHECK_FRACTION_DEFAULT;
+import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_CLIENT_MERKLE_SPOT_CHECK_FRACTION_KEY;
 import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_BLOCK_SIZE_DEFAULT;
 import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_BLOCK_SIZE_KEY;
 import static org.apache.hadoop.hdfs.client.HdfsClientConfigKeys.DFS_BYTES_PER_CHECKSUM_DEFAULT;
@@ -122,6 +126,8 @@ public class DfsClientConf {
   private final int blockWriteLocateFollowingInitialDelayMs;
   private final int defaultChunkSize;
   private final int defaultMerkleTreeHeight;
+  private final boolean merklePipelineRoot;
+  private final double merkleSpotCheckFraction;
   private final long defaultBlockSize;
   private final long prefetchSize;
   private final short defaultReplication;
@@ -218,6 +224,11 @@ public class DfsClientConf {
 
     defaultChunkSize = conf.getInt(DFS_CHUNK_SIZE_KEY, DFS_CHUNK_SIZE_DEFAULT);
     defaultMerkleTreeHeight = conf.getInt(DFS_MERKLE_TREE_HEIGHT_KEY, DFS_MERKLE_TREE_HEIGHT_DEFAULT);
+    merklePipelineRoot = conf.getBoolean(DFS_CLIENT_MERKLE_PIPELINE_ROOT_KEY,
+        DFS_CLIENT_MERKLE_PIPELINE_ROOT_DEFAULT);
+    merkleSpotCheckFraction = conf.getDouble(
+        DFS_CLIENT_MERKLE_SPOT_CHECK_FRACTION_KEY,
+        DFS_CLIENT_MERKLE_SPOT_CHECK_FRACTION_DEFAULT);
     defaultBlockSize = conf.getLongBytes(DFS_BLOCK_SIZE_KEY,
         DFS_BLOCK_SIZE_DEFAULT);
     defaultReplication = (short) conf.getInt(
@@ -492,6 +503,22 @@ public class DfsClientConf {
     return defaultMerkleTreeHeight;
   }
 
+  /**
+   * @return whether the merkle roots of the blocks are computed by the last
+   *         datanode of the write pipeline rather than by the client
+   */
+  public boolean isMerklePipelineRoot() {
+    return merklePipelineRoot;
+  }
+
+  /**
+   * @return the fraction of the blocks whose merkle root is also computed by
+   *         the client, to check the one of the pipeline
+   */
+  public double getMerkleSpotCheckFraction() {
+    return merkleSpotCheckFraction;
+  }
+
   /**
    * @return the defaultBlockSize
    */
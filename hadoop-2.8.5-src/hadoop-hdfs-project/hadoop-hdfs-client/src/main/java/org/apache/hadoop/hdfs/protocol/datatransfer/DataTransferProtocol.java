@@ -95,6 +95,8 @@ public interface DataTransferProtocol {
    * @param latestGenerationStamp the latest generation stamp of the block.
    * @param pinning whether to pin the block, so Balancer won't move it.
    * @param targetPinnings whether to pin the block on target datanode
+   * @param merkleRoot whether the last datanode of the pipeline returns the
+   *                   merkle root of the block with the last packet ack
    */
   void writeBlock(final ExtendedBlock blk,
       final StorageType storageType,
@@ -112,7 +114,8 @@ public interface DataTransferProtocol {
       final CachingStrategy cachingStrategy,
       final boolean allowLazyPersist,
       final boolean pinning,
-      final boolean[] targetPinnings) throws IOException;
+      final boolean[] targetPinnings,
+      final boolean merkleRoot) throws IOException;
   /**
    * Transfer a block to another datanode.
    * The block stage must be
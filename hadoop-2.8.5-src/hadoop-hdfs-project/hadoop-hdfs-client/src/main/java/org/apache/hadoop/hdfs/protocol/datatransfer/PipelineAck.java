@@ -30,6 +30,7 @@ import org.apache.hadoop.classification.InterfaceStability;
 
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.PipelineAckProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.TextFormat;
 import org.apache.hadoop.hdfs.util.LongBitFormat;
 
@@ -112,18 +113,33 @@ public class PipelineAck {
    */
   public PipelineAck(long seqno, int[] replies,
                      long downstreamAckTimeNanos) {
+    this(seqno, replies, downstreamAckTimeNanos, null);
+  }
+
+  /**
+   * Constructor
+   * @param seqno sequence number
+   * @param replies an array of replies
+   * @param downstreamAckTimeNanos ack RTT in nanoseconds, 0 if no next DN in pipeline
+   * @param merkleRoot the merkle root of the block, null if none
+   */
+  public PipelineAck(long seqno, int[] replies,
+                     long downstreamAckTimeNanos, byte[] merkleRoot) {
     ArrayList<Status> statusList = Lists.newArrayList();
     ArrayList<Integer> flagList = Lists.newArrayList();
     for (int r : replies) {
       statusList.add(StatusFormat.getStatus(r));
       flagList.add(r);
     }
-    proto = PipelineAckProto.newBuilder()
+    PipelineAckProto.Builder builder = PipelineAckProto.newBuilder()
       .setSeqno(seqno)
       .addAllReply(statusList)
       .addAllFlag(flagList)
-      .setDownstreamAckTimeNanos(downstreamAckTimeNanos)
-      .build();
+      .setDownstreamAckTimeNanos(downstreamAckTimeNanos);
+    if (merkleRoot != null) {
+      builder.setMerkleRoot(ByteString.copyFrom(merkleRoot));
+    }
+    proto = builder.build();
   }
 
   /**
@@ -165,6 +181,15 @@ public class PipelineAck {
     return proto.getDownstreamAckTimeNanos();
   }
 
+  /**
+   * Get the merkle root of the block, computed by the last datanode of the
+   * pipeline and sent with the ack of the last packet of the block
+   * @return the merkle root, null if the ack does not carry one
+   */
+  public byte[] getMerkleRoot() {
+    return proto.hasMerkleRoot() ? proto.getMerkleRoot().toByteArray() : null;
+  }
+
   /**
    * Check if this ack contains error status
    * @return true if all statuses are SUCCESS
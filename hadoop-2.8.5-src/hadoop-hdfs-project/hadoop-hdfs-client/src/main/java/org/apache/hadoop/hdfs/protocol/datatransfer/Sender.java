@@ -130,7 +130,8 @@ public class Sender implements DataTransferProtocol {
       final CachingStrategy cachingStrategy,
       final boolean allowLazyPersist,
       final boolean pinning,
-      final boolean[] targetPinnings) throws IOException {
+      final boolean[] targetPinnings,
+      final boolean merkleRoot) throws IOException {
     ClientOperationHeaderProto header = DataTransferProtoUtil.buildClientHeader(
         blk, clientName, blockToken);
 
@@ -152,7 +153,8 @@ public class Sender implements DataTransferProtocol {
         .setCachingStrategy(getCachingStrategy(cachingStrategy))
         .setAllowLazyPersist(allowLazyPersist)
         .setPinning(pinning)
-        .addAllTargetPinnings(PBHelperClient.convert(targetPinnings, 1));
+        .addAllTargetPinnings(PBHelperClient.convert(targetPinnings, 1))
+        .setMerkleRoot(merkleRoot);
 
     if (source != null) {
       proto.setSource(PBHelperClient.convertDatanodeInfo(source));
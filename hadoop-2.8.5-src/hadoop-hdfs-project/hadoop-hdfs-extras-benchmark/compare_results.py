@@ -0,0 +1,44 @@
+import json
+import sys
+
+# Compares two JMH result files (JSON) and reports the benchmarks whose
+# score got worse by more than the threshold. Exits with 1 if any did.
+# usage: compare_results.py baseline.json current.json [threshold_percent]
+
+def load(path):
+    with open(path, 'r') as fp:
+        results = {}
+        for entry in json.load(fp):
+            params = entry.get("params", {})
+            key = entry["benchmark"] + "".join(
+                ":{}={}".format(k, params[k]) for k in sorted(params))
+            metric = entry["primaryMetric"]
+            results[key] = (entry["mode"], metric["score"], metric["scoreUnit"])
+        return results
+
+baseline = load(sys.argv[1])
+current = load(sys.argv[2])
+threshold = float(sys.argv[3]) if len(sys.argv) > 3 else 10.0
+
+regressions = 0
+for key in sorted(current.keys()):
+    if key not in baseline:
+        print("NEW        {} {:.3f} {}".format(key, current[key][1], current[key][2]))
+        continue
+    mode, score, unit = current[key]
+    base = baseline[key][1]
+    if base == 0:
+        continue
+    # throughput is better when higher, all the time modes when lower
+    change = (score - base) / base * 100
+    if mode != "thrpt":
+        change = -change
+    status = "OK"
+    if change < -threshold:
+        status = "REGRESSION"
+        regressions += 1
+    elif change > threshold:
+        status = "IMPROVED"
+    print("{:10} {} {:.3f} -> {:.3f} {} ({:+.1f}%)".format(status, key, base, score, unit, change))
+
+sys.exit(1 if regressions > 0 else 0)
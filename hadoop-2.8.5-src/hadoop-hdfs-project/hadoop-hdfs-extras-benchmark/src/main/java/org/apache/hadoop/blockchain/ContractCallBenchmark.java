@@ -0,0 +1,118 @@
+package org.apache.hadoop.blockchain;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Bytes32;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.crypto.Hash;
+
+/**
+ * The local part of the contract calls made per block (the transaction
+ * itself needs a node): hashing the block pool id and ABI encoding the
+ * arguments, built the same way as in {@link DataContract}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContractCallBenchmark {
+
+    // blocks per verify_batch call
+    static final int BATCH = 64;
+
+    @Param({"1", "8"})
+    public int chall_count;
+
+    private String bp_id;
+    private BigInteger block_id;
+    private byte[] root;
+    private List<BigInteger> numbers;
+    private List<BigInteger> batch_block_ids;
+    private List<BigInteger> batch_numbers;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(0);
+        this.bp_id = "BP-1438225185-127.0.0.1-1613125452132";
+        this.block_id = BigInteger.valueOf(1073741825L);
+        this.root = new byte[32];
+        random.nextBytes(this.root);
+        // 8 numbers of the proof per challenge, like ZKProofT
+        this.numbers = new ArrayList<>();
+        for (int i = 0; i < 8 * this.chall_count; i++) {
+            this.numbers.add(new BigInteger(254, random));
+        }
+        this.batch_block_ids = new ArrayList<>();
+        this.batch_numbers = new ArrayList<>();
+        for (int i = 0; i < BATCH; i++) {
+            this.batch_block_ids.add(this.block_id.add(BigInteger.valueOf(i)));
+            this.batch_numbers.addAll(this.numbers);
+        }
+    }
+
+    @Benchmark
+    public String addDigest() {
+        Function function = new Function(
+                Data.FUNC_ADD_DIGEST,
+                Arrays.<Type>asList(new Bytes32(Hash.sha3(this.bp_id.getBytes())),
+                new Uint256(this.block_id),
+                new Bytes32(this.root)),
+                Collections.<TypeReference<?>>emptyList());
+        return FunctionEncoder.encode(function);
+    }
+
+    @Benchmark
+    public String verify() {
+        Function function = new Function(
+                Data.FUNC_VERIFY,
+                Arrays.<Type>asList(new Bytes32(Hash.sha3(this.bp_id.getBytes())),
+                new Uint256(this.block_id),
+                new DynamicArray<Uint256>(
+                        Uint256.class,
+                        org.web3j.abi.Utils.typeMap(this.numbers, Uint256.class))),
+                Collections.<TypeReference<?>>emptyList());
+        return FunctionEncoder.encode(function);
+    }
+
+    // a single call for BATCH blocks, compare with BATCH times verify
+    @Benchmark
+    public String verifyBatch() {
+        Function function = new Function(
+                DataContract.FUNC_VERIFY_BATCH,
+                Arrays.<Type>asList(new Bytes32(Hash.sha3(this.bp_id.getBytes())),
+                new DynamicArray<Uint256>(
+                        Uint256.class,
+                        org.web3j.abi.Utils.typeMap(this.batch_block_ids, Uint256.class)),
+                new DynamicArray<Uint256>(
+                        Uint256.class,
+                        org.web3j.abi.Utils.typeMap(this.batch_numbers, Uint256.class))),
+                Collections.<TypeReference<?>>emptyList());
+        return FunctionEncoder.encode(function);
+    }
+
+}
@@ -0,0 +1,142 @@
+package org.apache.hadoop.blockchain;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Bytes32;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthEstimateGas;
+import org.web3j.protocol.http.HttpService;
+import org.web3j.utils.Numeric;
+
+/**
+ * The gas per block of a verify transaction against verify_batch ones of
+ * growing size, the part of the DataNode reports that JMH cannot measure:
+ * <pre>
+ *   java -cp benchmarks.jar org.apache.hadoop.blockchain.VerifyGasEstimate [node contract from]
+ * </pre>
+ * The intrinsic gas of the transactions (21000 and their calldata) is always
+ * computed. Given a node, the address of a Data contract compiled from
+ * data.sol and an account, the whole gas of each transaction is estimated by
+ * the node too (eth_estimateGas, nothing is sent). The proofs are made of the
+ * generators of the curve, so they go through the whole pairing check of the
+ * verifier and the blocks are reported corrupt, like the ones of a real proof
+ * that does not verify.
+ */
+public final class VerifyGasEstimate {
+
+    static final String BP_ID = "BP-1438225185-127.0.0.1-1613125452132";
+    static final long FIRST_BLOCK_ID = 1073741825L;
+    static final int[] BATCH_SIZES = {1, 2, 4, 8, 16, 32, 64};
+
+    // a.x, a.y, b.x (c0, c1), b.y (c0, c1), c.x, c.y, in the order of the verifier contract
+    private static final List<BigInteger> PROOF = Collections.unmodifiableList(Arrays.asList(
+            BigInteger.ONE, BigInteger.valueOf(2),
+            new BigInteger("10857046999023057135944570762232829481370756359578518086990519993285655852781"),
+            new BigInteger("11559732032986387107991004021392285783925812861821192530917403151452391805634"),
+            new BigInteger("8495653923123431417604973247489272438418190587263600148770280649306958101930"),
+            new BigInteger("4082367875863433681332203403145435568316851327593401208105741076214120093531"),
+            BigInteger.ONE, BigInteger.valueOf(2)));
+
+    private VerifyGasEstimate() {
+    }
+
+    /**
+     * @return the proof numbers of count blocks, a valid (but wrong) proof per block
+     */
+    static List<BigInteger> proofs(int count) {
+        List<BigInteger> numbers = new ArrayList<>(count * PROOF.size());
+        for (int i = 0; i < count; i++) {
+            numbers.addAll(PROOF);
+        }
+        return numbers;
+    }
+
+    static List<BigInteger> blockIds(int count) {
+        List<BigInteger> block_ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            block_ids.add(BigInteger.valueOf(FIRST_BLOCK_ID + i));
+        }
+        return block_ids;
+    }
+
+    /**
+     * @return the call DatanodeConnection makes for the blocks: verify for a
+     * single one, verify_batch otherwise, built the same way as in {@link DataContract}
+     */
+    static Function call(byte[] bp_id, List<BigInteger> block_ids, List<BigInteger> numbers) {
+        if (block_ids.size() == 1) {
+            return new Function(
+                    Data.FUNC_VERIFY,
+                    Arrays.<Type>asList(new Bytes32(bp_id),
+                    new Uint256(block_ids.get(0)),
+                    new DynamicArray<Uint256>(
+                            Uint256.class,
+                            org.web3j.abi.Utils.typeMap(numbers, Uint256.class))),
+                    Collections.<TypeReference<?>>emptyList());
+        }
+        return new Function(
+                DataContract.FUNC_VERIFY_BATCH,
+                Arrays.<Type>asList(new Bytes32(bp_id),
+                new DynamicArray<Uint256>(
+                        Uint256.class,
+                        org.web3j.abi.Utils.typeMap(block_ids, Uint256.class)),
+                new DynamicArray<Uint256>(
+                        Uint256.class,
+                        org.web3j.abi.Utils.typeMap(numbers, Uint256.class))),
+                Collections.<TypeReference<?>>emptyList());
+    }
+
+    /**
+     * @return 21000 plus 16 per non-zero and 4 per zero byte of the calldata (EIP-2028)
+     */
+    static long intrinsicGas(byte[] calldata) {
+        long gas = 21000;
+        for (byte b : calldata) {
+            gas += b == 0 ? 4 : 16;
+        }
+        return gas;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 0 && args.length != 3) {
+            System.err.println("Usage: VerifyGasEstimate [node contract from]");
+            System.exit(1);
+        }
+        Web3j web3j = args.length == 3 ? Web3j.build(new HttpService(args[0])) : null;
+        byte[] bp_id = Hash.sha3(BP_ID.getBytes());
+        System.out.println("blocks\tfunction\tcalldata_bytes\tintrinsic_gas/block\testimated_gas/block");
+        try {
+            for (int count : BATCH_SIZES) {
+                Function function = call(bp_id, blockIds(count), proofs(count));
+                String data = FunctionEncoder.encode(function);
+                byte[] calldata = Numeric.hexStringToByteArray(data);
+                String estimated = "-";
+                if (web3j != null) {
+                    EthEstimateGas gas = web3j.ethEstimateGas(
+                            Transaction.createEthCallTransaction(args[2], args[1], data)).send();
+                    estimated = gas.hasError() ? "error: " + gas.getError().getMessage()
+                            : gas.getAmountUsed().divide(BigInteger.valueOf(count)).toString();
+                }
+                System.out.println(count + "\t" + function.getName() + "\t" + calldata.length + "\t"
+                        + intrinsicGas(calldata) / count + "\t" + estimated);
+            }
+        } finally {
+            if (web3j != null) {
+                web3j.shutdown();
+            }
+        }
+    }
+
+}
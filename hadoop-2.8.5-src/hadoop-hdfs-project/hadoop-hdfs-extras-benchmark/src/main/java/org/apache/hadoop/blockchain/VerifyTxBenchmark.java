@@ -0,0 +1,83 @@
+package org.apache.hadoop.blockchain;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.Hash;
+import org.web3j.crypto.RawTransaction;
+import org.web3j.crypto.TransactionEncoder;
+
+/**
+ * The blocks per second a DataNode can put in signed verify transactions,
+ * one per block (blocks = 1) or verify_batch ones of the given size: ABI
+ * encoding and signing, as the transaction manager of the connections does.
+ * The gas of the same transactions is given by {@link VerifyGasEstimate}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VerifyTxBenchmark {
+
+    private static final long CHAIN_ID = 4217;
+    private static final String CONTRACT = "0x9fa427dE298287D627bBe47b5e2eFFac4eA4F45c";
+
+    @Param({"1", "8", "64"})
+    public int blocks;
+
+    private byte[] bp_id;
+    private List<BigInteger> block_ids;
+    private List<BigInteger> numbers;
+    private Credentials creds;
+    private BigInteger nonce;
+
+    /** The blocks signed per second, next to the transactions per second of the primary score. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Blocks {
+        public long blocks;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.blocks = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.bp_id = Hash.sha3(VerifyGasEstimate.BP_ID.getBytes());
+        this.block_ids = VerifyGasEstimate.blockIds(this.blocks);
+        this.numbers = VerifyGasEstimate.proofs(this.blocks);
+        this.creds = Credentials.create("0x4c0883a69102937d6231471b5dbb6204fe5129617082792ae468d01a3f362318");
+        this.nonce = BigInteger.ZERO;
+    }
+
+    @Benchmark
+    public byte[] signVerify(Blocks counter) {
+        String data = FunctionEncoder.encode(VerifyGasEstimate.call(this.bp_id, this.block_ids, this.numbers));
+        RawTransaction tx = RawTransaction.createTransaction(this.nonce, BigInteger.ONE,
+                Connection.GAS_LIMIT, CONTRACT, data);
+        this.nonce = this.nonce.add(BigInteger.ONE);
+        counter.blocks += this.blocks;
+        return TransactionEncoder.signMessage(tx, CHAIN_ID, this.creds);
+    }
+
+}
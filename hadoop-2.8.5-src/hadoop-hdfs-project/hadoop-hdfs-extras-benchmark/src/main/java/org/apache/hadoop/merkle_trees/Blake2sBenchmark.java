@@ -0,0 +1,123 @@
+package org.apache.hadoop.merkle_trees;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the reusable {@link Blake2sHasher} with the allocating digest
+ * that was used before it (kept here as the legacy methods).
+ * Every operation hashes {@link #BATCH} messages, so the scores of
+ * the plain and the batched digests are directly comparable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Blake2sBenchmark {
+
+    static final int BATCH = 64;
+    private static final int HASH_SIZE = 32;
+
+    @Param({"64", "512", "4096"})
+    public int chunk_size;
+
+    private byte[] chunks;
+    private byte[] nodes;
+    private byte[] out;
+    private Blake2sHasher hasher;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(0);
+        this.chunks = new byte[BATCH * this.chunk_size];
+        random.nextBytes(this.chunks);
+        this.nodes = new byte[2 * BATCH * HASH_SIZE];
+        random.nextBytes(this.nodes);
+        this.out = new byte[BATCH * HASH_SIZE];
+        this.hasher = new Blake2sHasher();
+    }
+
+    // the digest before the reusable engine: new state, message and working vector per call
+    static byte[] legacyDigest(byte[] input) {
+        int[] m = new int[16];
+        int[] h = Blake2s.blake2s_init();
+        int blocks = input.length / 64;
+        int offset = 0;
+        for (int i = 0; i < blocks; i++) {
+            for (int j = 0; j < m.length; j++) {
+                m[j] = Util.bytesToInt(input, offset);
+                offset += 4;
+            }
+            Blake2s.blake2s_compression(h, m, (i + 1) * 64, 0, i == blocks - 1);
+        }
+        return Util.intsToBytes(h);
+    }
+
+    @Benchmark
+    public byte[] legacyLeaves() {
+        byte[] chunk = new byte[this.chunk_size];
+        for (int i = 0; i < BATCH; i++) {
+            System.arraycopy(this.chunks, i * this.chunk_size, chunk, 0, this.chunk_size);
+            byte[] hash = legacyDigest(chunk);
+            System.arraycopy(hash, 0, this.out, i * HASH_SIZE, HASH_SIZE);
+        }
+        return this.out;
+    }
+
+    @Benchmark
+    public byte[] hasherLeaves() {
+        for (int i = 0; i < BATCH; i++) {
+            this.hasher.digest(this.chunks, i * this.chunk_size, this.chunk_size, this.out, i * HASH_SIZE);
+        }
+        return this.out;
+    }
+
+    @Benchmark
+    public byte[] hasherLeavesBatch() {
+        this.hasher.digestBatch(this.chunks, 0, this.chunk_size, BATCH, this.out, 0);
+        return this.out;
+    }
+
+    @Benchmark
+    public byte[] legacyParents() {
+        byte[] left = new byte[HASH_SIZE];
+        byte[] right = new byte[HASH_SIZE];
+        for (int i = 0; i < BATCH; i++) {
+            System.arraycopy(this.nodes, 2 * i * HASH_SIZE, left, 0, HASH_SIZE);
+            System.arraycopy(this.nodes, (2 * i + 1) * HASH_SIZE, right, 0, HASH_SIZE);
+            byte[] hash = legacyDigest(Util.concatBytes(left, right));
+            System.arraycopy(hash, 0, this.out, i * HASH_SIZE, HASH_SIZE);
+        }
+        return this.out;
+    }
+
+    @Benchmark
+    public byte[] hasherParents() {
+        for (int i = 0; i < BATCH; i++) {
+            this.hasher.digestPair(this.nodes, 2 * i * HASH_SIZE, this.nodes, (2 * i + 1) * HASH_SIZE, this.out, i * HASH_SIZE);
+        }
+        return this.out;
+    }
+
+    @Benchmark
+    public byte[] hasherParentsBatch() {
+        this.hasher.digestBatch(this.nodes, 0, 2 * HASH_SIZE, BATCH, this.out, 0);
+        return this.out;
+    }
+
+}
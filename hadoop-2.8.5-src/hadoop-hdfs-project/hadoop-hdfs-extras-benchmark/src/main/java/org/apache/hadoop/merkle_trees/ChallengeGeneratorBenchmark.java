@@ -0,0 +1,76 @@
+package org.apache.hadoop.merkle_trees;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.web3j.crypto.Hash;
+
+/**
+ * Compares the {@link ChallengeGenerator} with the BigInteger derivation
+ * that was used before it (kept here as the legacy method), for a power
+ * of two number of chunks and for another one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChallengeGeneratorBenchmark {
+
+    @Param({"8192", "10000"})
+    public int chunk_count;
+
+    @Param({"1", "8"})
+    public int chall_count;
+
+    private byte[] seed;
+    private long block_id;
+    private int[] challenges;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // as packed by peek_seed: seed, block pool and address
+        this.seed = new byte[84];
+        new Random(0).nextBytes(this.seed);
+        this.block_id = 1073741825L;
+        this.challenges = new int[this.chall_count];
+    }
+
+    // the derivation before the generator: new arrays and BigIntegers every round
+    static int[] legacyChallenges(byte[] seed, BigInteger block_id, int chunk_count, int chall_count) {
+        int[] challenges = new int[chall_count];
+        BigInteger tmp = new BigInteger(Hash.sha3(Util.encode_packed(seed, block_id)));
+        challenges[0] = tmp.mod(BigInteger.valueOf(chunk_count)).intValue();
+        for (int i = 1; i < chall_count; i++) {
+            tmp = new BigInteger(Hash.sha3(Util.encode_packed(tmp, block_id)));
+            challenges[i] = tmp.mod(BigInteger.valueOf(chunk_count)).intValue();
+        }
+        return challenges;
+    }
+
+    @Benchmark
+    public int[] legacy() {
+        return legacyChallenges(this.seed, BigInteger.valueOf(this.block_id), this.chunk_count, this.chall_count);
+    }
+
+    @Benchmark
+    public int[] generator() {
+        ChallengeGenerator.generator().generate(this.seed, this.block_id, this.chunk_count, this.challenges);
+        return this.challenges;
+    }
+
+}
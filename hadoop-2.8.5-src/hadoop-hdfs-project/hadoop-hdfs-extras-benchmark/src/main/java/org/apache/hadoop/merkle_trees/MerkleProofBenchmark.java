@@ -0,0 +1,85 @@
+package org.apache.hadoop.merkle_trees;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The per block work of a block report once the tree is built:
+ * deriving the challenges, extracting their paths and serializing
+ * them as ZoKrates witness arguments.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MerkleProofBenchmark {
+
+    @Param({"10", "16", "20"})
+    public int tree_height;
+
+    @Param({"512"})
+    public int chunk_size;
+
+    @Param({"1", "8"})
+    public int chall_count;
+
+    private MerkleTree tree;
+    private byte[] seed;
+    private long block_id;
+    private int chunk;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        byte[] block = MerkleTreeBenchmark.randomBlock(this.chunk_size, this.tree_height);
+        this.tree = new MerkleTree(block, this.chunk_size, this.tree_height);
+        this.tree.build();
+        Random random = new Random(1);
+        this.seed = new byte[32];
+        random.nextBytes(this.seed);
+        this.block_id = 1073741825L;
+        this.chunk = random.nextInt(1 << this.tree_height);
+    }
+
+    @Benchmark
+    public LinkedList<Integer> genChallenges() {
+        return this.tree.gen_challenges(this.seed, this.block_id, this.chall_count);
+    }
+
+    @Benchmark
+    public Pair<List<Boolean>, List<byte[]>> getPath() {
+        return this.tree.getPath(this.chunk);
+    }
+
+    @Benchmark
+    public MerkleProof getMerkleProof() {
+        return this.tree.getMerkleProof(this.block_id, this.seed, this.chall_count);
+    }
+
+    // the proof is consumed by nextWitness, so it is created in the measured code too
+    @Benchmark
+    public void nextWitness(Blackhole bh) {
+        MerkleProof proof = this.tree.getMerkleProof(this.block_id, this.seed, this.chall_count);
+        while (!proof.isEmpty()) {
+            bh.consume(proof.nextWitness());
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+package org.apache.hadoop.merkle_trees;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to hash a whole block into a {@link MerkleTree}, as done for every
+ * block on the client (DFSOutputStream) and in the DataNode block report.
+ * <p>
+ * The block is capped at {@link #MAX_BLOCK_LENGTH}, larger trees cycle it
+ * like they would for a short block. The largest configurations hash
+ * several GB per operation, select them with -p when needed.
+ * <p>
+ * The short variants hash a {@link #SHORT_BLOCK_LENGTH} block (a small
+ * file), whose leaves repeat, against the legacy build hashing all of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class MerkleTreeBenchmark {
+
+    static final int MAX_BLOCK_LENGTH = 128 * 1024 * 1024;
+    static final int SHORT_BLOCK_LENGTH = 4096;
+
+    @Param({"10", "12", "14", "16", "18", "20"})
+    public int tree_height;
+
+    @Param({"64", "512", "4096"})
+    public int chunk_size;
+
+    private byte[] block;
+    private ByteBuffer direct_block;
+    private byte[] short_block;
+
+    static byte[] randomBlock(int chunk_size, int tree_height) {
+        long coverage = (long) chunk_size << tree_height;
+        byte[] block = new byte[(int) Math.min(coverage, MAX_BLOCK_LENGTH)];
+        new Random(0).nextBytes(block);
+        return block;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.block = randomBlock(this.chunk_size, this.tree_height);
+        this.direct_block = ByteBuffer.allocateDirect(this.block.length);
+        this.direct_block.put(this.block).flip();
+        this.short_block = new byte[SHORT_BLOCK_LENGTH];
+        new Random(1).nextBytes(this.short_block);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.block = null;
+        this.direct_block = null;
+        this.short_block = null;
+    }
+
+    @Benchmark
+    public byte[] build() {
+        MerkleTree tree = new MerkleTree(this.block, this.chunk_size, this.tree_height);
+        tree.build();
+        return tree.getRoot();
+    }
+
+    // like the DataNode, hashing a memory-mapped replica
+    @Benchmark
+    public byte[] buildDirect() {
+        MerkleTree tree = new MerkleTree(this.direct_block, this.chunk_size, this.tree_height);
+        tree.build();
+        return tree.getRoot();
+    }
+
+    // like DFSOutputStream, hashing the block while it is written in packets
+    @Benchmark
+    public byte[] builder() {
+        MerkleTreeBuilder builder = new MerkleTreeBuilder(this.chunk_size, this.tree_height);
+        int packet = 64 * 1024;
+        for (int off = 0; off < this.block.length; off += packet) {
+            builder.write(this.block, off, Math.min(packet, this.block.length - off));
+        }
+        return builder.finish();
+    }
+
+    @Benchmark
+    public byte[] buildShort() {
+        MerkleTree tree = new MerkleTree(this.short_block, this.chunk_size, this.tree_height);
+        tree.build();
+        return tree.getRoot();
+    }
+
+    @Benchmark
+    public byte[] builderShort() {
+        MerkleTreeBuilder builder = new MerkleTreeBuilder(this.chunk_size, this.tree_height);
+        builder.write(this.short_block, 0, this.short_block.length);
+        return builder.finish();
+    }
+
+    // the build before the periods: every leaf of the cycled block is hashed
+    @Benchmark
+    public byte[] legacyBuildShort() {
+        int chunk_count = 1 << this.tree_height;
+        byte[] nodes = new byte[(2 * chunk_count - 1) * 32];
+        byte[] chunk = new byte[this.chunk_size];
+        for (int i = 0; i < chunk_count; i++) {
+            int start = (int) (((long) i * this.chunk_size) % this.short_block.length);
+            for (int j = 0; j < this.chunk_size; j++) {
+                chunk[j] = this.short_block[(start + j) % this.short_block.length];
+            }
+            Blake2s.digest(chunk, 0, this.chunk_size, nodes, (chunk_count - 1 + i) * 32);
+        }
+        Blake2sHasher hasher = Blake2s.hasher();
+        for (int width = chunk_count / 2; width > 0; width /= 2) {
+            hasher.digestBatch(nodes, (2 * width - 1) * 32, 64, width, nodes, (width - 1) * 32);
+        }
+        return Arrays.copyOf(nodes, 32);
+    }
+
+}
@@ -0,0 +1,81 @@
+package org.apache.hadoop.merkle_trees;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The encoders of {@link Util}, used for the challenges, the roots
+ * uploaded by the client and the ZoKrates arguments.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilBenchmark {
+
+    private byte[] hash;
+    private String hex;
+    private BigInteger block_id;
+    private BigInteger previous;
+    private int[] words;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(0);
+        this.hash = new byte[32];
+        random.nextBytes(this.hash);
+        this.hex = Util.bytesToHex(this.hash);
+        this.block_id = BigInteger.valueOf(1073741825L);
+        this.previous = new BigInteger(this.hash);
+        this.words = new int[8];
+        for (int i = 0; i < this.words.length; i++) {
+            this.words[i] = random.nextInt();
+        }
+    }
+
+    @Benchmark
+    public byte[] encodePackedSeed() {
+        return Util.encode_packed(this.hash, this.block_id);
+    }
+
+    @Benchmark
+    public byte[] encodePackedChallenge() {
+        return Util.encode_packed(this.previous, this.block_id);
+    }
+
+    @Benchmark
+    public String[] rootToZokFields() {
+        return Util.rootToZokFields(this.hash);
+    }
+
+    @Benchmark
+    public String bytesToHex() {
+        return Util.bytesToHex(this.hash);
+    }
+
+    @Benchmark
+    public byte[] hexStringToByteArray() {
+        return Util.hexStringToByteArray(this.hex);
+    }
+
+    @Benchmark
+    public byte[] intsToBytes() {
+        return Util.intsToBytes(this.words);
+    }
+
+}
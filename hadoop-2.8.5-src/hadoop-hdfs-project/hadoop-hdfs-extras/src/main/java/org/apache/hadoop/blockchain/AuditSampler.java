@@ -0,0 +1,112 @@
+package org.apache.hadoop.blockchain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.merkle_trees.Keccak256;
+
+/**
+ * Picks the replicas proven by a sampled report: the ones with the lowest
+ * rank, where the rank of a block is the first 8 bytes of
+ * <pre>
+ * keccak256(abi.encodePacked(seed, block_id))
+ * </pre>
+ * (the challenges of a block hash them the other way around). Anyone who
+ * knows the seed and the replicas of the DataNode can tell which ones had
+ * to be proven, and the DataNode cannot know them before the seed exists.
+ * <p>
+ * The number of sampled replicas is the smallest one for which a report
+ * misses all the corrupt replicas with a probability below the target,
+ * for a given fraction of corrupt replicas (drawn without replacement).
+ * <p>
+ * A sampler must not be shared between threads.
+ */
+public class AuditSampler {
+
+    private static final int WORD_SIZE = 32;
+
+    private final Keccak256 keccak = new Keccak256();
+    private byte[] input = new byte[2 * WORD_SIZE];
+    private final byte[] hash = new byte[WORD_SIZE];
+
+    /**
+     * @param replica_count The number of replicas of the DataNode
+     * @param detection The probability to prove at least one corrupt replica, in [0, 1]
+     * @param corrupt_fraction The fraction of corrupt replicas to detect, in (0, 1]
+     * @return The number of replicas to prove, at most replica_count
+     */
+    public static int sample_size(int replica_count, double detection, double corrupt_fraction) {
+        if (replica_count <= 0 || detection <= 0) {
+            return 0;
+        }
+        if (detection >= 1 || corrupt_fraction <= 0) {
+            return replica_count;
+        }
+        // at least one corrupt replica
+        long corrupt = Math.max(1, (long) Math.ceil(corrupt_fraction * replica_count));
+        double miss = 1;
+        int n = 0;
+        // probability that the first n picks are all intact
+        while (n < replica_count && miss > 1 - detection) {
+            miss *= (double) (replica_count - corrupt - n) / (replica_count - n);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * @param seed The packed seed of the report, as returned by peek_seed
+     * @return The rank of the block, to be compared as an unsigned long
+     */
+    public long rank(byte[] seed, long block_id) {
+        if (this.input.length != seed.length + WORD_SIZE) {
+            this.input = new byte[seed.length + WORD_SIZE];
+        }
+        System.arraycopy(seed, 0, this.input, 0, seed.length);
+        // block_id as a big-endian uint256
+        for (int i = 0; i < WORD_SIZE; i++) {
+            this.input[seed.length + WORD_SIZE - 1 - i] = i < 8 ? (byte) (block_id >>> (8 * i)) : 0;
+        }
+        this.keccak.digest(this.input, 0, this.input.length, this.hash, 0);
+        long rank = 0;
+        for (int i = 0; i < 8; i++) {
+            rank = (rank << 8) | (this.hash[i] & 0xFF);
+        }
+        return rank;
+    }
+
+    /**
+     * @return The ids of the count blocks of lowest rank, by increasing rank
+     */
+    public List<Long> select(byte[] seed, List<Long> block_ids, int count) {
+        if (count <= 0) {
+            return new ArrayList<Long>();
+        }
+        // the highest of the lowest ranks on top, [rank, block_id]
+        PriorityQueue<long[]> lowest = new PriorityQueue<long[]>(count, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                int c = Long.compareUnsigned(b[0], a[0]);
+                return c != 0 ? c : Long.compare(b[1], a[1]);
+            }
+        });
+        for (long block_id : block_ids) {
+            long[] entry = new long[]{rank(seed, block_id), block_id};
+            if (lowest.size() < count) {
+                lowest.add(entry);
+            } else if (lowest.comparator().compare(entry, lowest.peek()) > 0) {
+                lowest.poll();
+                lowest.add(entry);
+            }
+        }
+        List<Long> selected = new ArrayList<Long>(lowest.size());
+        while (!lowest.isEmpty()) {
+            selected.add(lowest.poll()[1]);
+        }
+        Collections.reverse(selected);
+        return selected;
+    }
+}
@@ -2,92 +2,138 @@ package org.apache.hadoop.blockchain;
 
 import java.io.IOException;
 import java.math.BigInteger;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Collection;
 
-import org.apache.hadoop.merkle_trees.Pair;
 import org.apache.hadoop.merkle_trees.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.web3j.crypto.CipherException;
 import org.web3j.crypto.Hash;
+import org.web3j.tx.gas.DefaultGasProvider;
 
 public class ClientConnection extends Connection {
-	
-		private Thread uploadThread = null;
-		private BlockingQueue<Pair<Pair<String, Long>, byte[]>> upload_queue = new LinkedBlockingQueue<Pair<Pair<String,Long>,byte[]>>();
+
+		private static final Logger LOG = LoggerFactory.getLogger(ClientConnection.class);
+
+		private TxPipeline pipeline = null;
+		private int max_in_flight = 64;
+		private int confirmations = 0;
+		private long resend_ms = 60000;
+		private int root_batch_size = 0;
+		// whether the deployed contract has add_digest_batch, null until known
+		private Boolean root_batching = null;
 
     public ClientConnection(String blockhain, String password, String keystore_path, long chainId, String contract_address) throws IOException, CipherException {
         super(blockhain, password, keystore_path, chainId, contract_address);
     }
-    
+
     /**
-     * Just a simple Runnable to upload hashes without blocking the main threads
+     * Sets how the add_digest transactions are sent, before the first upload.
+     * @param max_in_flight Maximum number of transactions sent and not mined yet
+     * @param confirmations Blocks a transaction must be under before {@link #waitForUploads(Collection)}
+     * returns, 0 to only wait until the node accepted it
+     * @param resend_ms Time without a receipt before a transaction is sent again with a higher gas price
      */
-    private class UploadHashT implements Runnable {
-    	
-    	//private List<Pair<Long,CompletableFuture<TransactionReceipt>>> f_txrs = new ArrayList<Pair<Long,CompletableFuture<TransactionReceipt>>>();
-    	
-			@Override
-			public void run() {
-				try {
-					// just poll on queue for new hashes to upload
-					while (true) {
-						Pair<Pair<String, Long>, byte[]> toUpload = upload_queue.take();
-						// terminate when you recieve pair with null value (consider all hashes uploaded)
-						if(toUpload.getFirst() == null || toUpload.getSecond() == null) {
-							break;
-						}
-						String bp_id = toUpload.getFirst().getFirst();
-						Long block_id = toUpload.getFirst().getSecond();
-						byte[] root = toUpload.getSecond();
-						// only one thread interacts with the smart contract, so no need for synchronizing anything
-						System.out.println("Uploading hash for block: "+block_id+" -> 0x" + Util.bytesToHex(root));
-			      try {
-							//f_txrs.add(new Pair<Long, CompletableFuture<TransactionReceipt>>(block_id,contract_wrapper.add_digest(Hash.sha3(bp_id.getBytes()), BigInteger.valueOf(block_id), root).sendAsync()));
-			      	contract_wrapper.add_digest(Hash.sha3(bp_id.getBytes()), BigInteger.valueOf(block_id), root).sendAsync();
-						} catch (Exception e) {
-							System.out.println("EXCEPTION for block " + Long.toString(block_id) + ": " + e.getMessage());
-						}
-			      //Thread.sleep(300);
-					}
-					// maybe dont wait, time varies too much and ruins the experiments
-					//for (Pair<Long,CompletableFuture<TransactionReceipt>> ftxr : this.f_txrs) {
-					//	System.out.println("Hash upload for block \""+Long.toString(ftxr.getFirst())+"\" complete with status: "+ftxr.getSecond().get().getStatus());
-					//}
-				} catch (Exception e) {
-					// oh well, we tried...
-					System.out.println("Upload hash thread got interupted. Operation failed.");
-				}
-			}
-    	
+    public synchronized void setUploads(int max_in_flight, int confirmations, long resend_ms) {
+    	this.max_in_flight = max_in_flight;
+    	this.confirmations = confirmations;
+    	this.resend_ms = resend_ms;
+    }
+
+    /**
+     * Commits the merkle roots of up to max_blocks blocks of a file in a single
+     * add_digest_batch transaction (see {@link RootBatch}), 0 to upload them one by one.
+     */
+    public synchronized void setRootBatching(int max_blocks) {
+    	this.root_batch_size = Math.max(0, max_blocks);
+    }
+
+    /**
+     * @return the maximum number of blocks of a batch, 0 if the roots are uploaded
+     * one by one, as they are when the deployed contract has no add_digest_batch
+     */
+    public synchronized int getRootBatchSize() {
+    	if(this.root_batch_size > 0 && this.root_batching == null) {
+    		try {
+    			this.root_batching = this.contract_wrapper.has(DataContract.FUNC_ADD_DIGEST_BATCH);
+    		} catch (IOException e) {
+    			// asked again for the next block
+    			LOG.warn("Could not fetch the code of the contract: " + e.getMessage());
+    			return 0;
+    		}
+    		if(!this.root_batching) {
+    			LOG.warn("The contract at " + this.contract_wrapper.getContractAddress() + " has no add_digest_batch, uploading the roots one by one.");
+    		}
+    	}
+    	return Boolean.TRUE.equals(this.root_batching) ? this.root_batch_size : 0;
+    }
+
+    private synchronized TxPipeline getPipeline() {
+    	if(this.pipeline == null) {
+    		this.pipeline = new TxPipeline(this.web3j, this.creds, this.chainId, this.contract_wrapper.getContractAddress(),
+    				DefaultGasProvider.GAS_PRICE, GAS_LIMIT, this.max_in_flight, this.confirmations, this.resend_ms);
+    	}
+    	return this.pipeline;
     }
 
     /**
      * Uploads merkle root hash for the given block id to the blockchain.
      * Transaction is signed and sent asynchronously, without waiting for result.
-     * (UPDATE: it has to block as parallel txs can fail. See tx nonce)
+     * Nonces are handed out by the {@link TxPipeline}, so it only blocks while
+     * too many uploads are in flight.
      * @param bp_id BlockpoolID that the block is being uploaded to
      * @param block_id Unique identifier of the block
      * @param root The merkle root hash of the block
+     * @return the transaction, for {@link #waitForUploads(Collection)}, null if it could not be sent
      */
-    public void uploadHash(String bp_id, long block_id, byte[] root){
-    	// just start a thread to handle it and return normal execution
-    	this.upload_queue.add(new Pair<Pair<String,Long>, byte[]>(new Pair<String, Long>(bp_id, block_id), root));
-    	if(this.uploadThread == null) {
-    		this.uploadThread = new Thread(new UploadHashT());
-    		this.uploadThread.start();
+    public TxPipeline.Tx uploadHash(String bp_id, long block_id, byte[] root){
+    	LOG.info("Uploading hash for block: "+block_id+" -> 0x" + Util.bytesToHex(root));
+    	try {
+    		return getPipeline().send(this.contract_wrapper.add_digest(Hash.sha3(bp_id.getBytes()), BigInteger.valueOf(block_id), root).encodeFunctionCall());
+    	} catch (Exception e) {
+    		LOG.error("Could not upload the hash of block " + Long.toString(block_id) + ": " + e.getMessage());
+    		return null;
     	}
     }
-    
-    public void waitForUploads() {
-    	// throw dummy item to the queue and wait for the uploadThread to terminate
-    	if(this.uploadThread != null) {
-      	this.upload_queue.add(new Pair<Pair<String,Long>, byte[]>(null, null));
+
+    /**
+     * Commits the aggregate root of a batch of blocks to the blockchain,
+     * asynchronously like {@link #uploadHash(String, long, byte[])}.
+     * @param bp_id BlockpoolID of the blocks
+     * @return the transaction, null if it could not be sent
+     */
+    public TxPipeline.Tx uploadBatch(String bp_id, RootBatch batch){
+    	byte[] root = batch.getRoot();
+    	LOG.info("Uploading hash for blocks: "+batch.getFirstBlockId()+".."+batch.getLastBlockId()
+    			+" ("+batch.size()+") -> 0x" + Util.bytesToHex(root));
+    	try {
+    		return getPipeline().send(this.contract_wrapper.add_digest_batch(Hash.sha3(bp_id.getBytes()), BigInteger.valueOf(batch.getFirstBlockId()),
+    				BigInteger.valueOf(batch.getLastBlockId()), BigInteger.valueOf(batch.size()), root).encodeFunctionCall());
+    	} catch (Exception e) {
+    		LOG.error("Could not upload the hash of blocks " + batch.getFirstBlockId() + ".." + batch.getLastBlockId() + ": " + e.getMessage());
+    		return null;
+    	}
+    }
+
+    /**
+     * Waits until the given uploads are submitted, or confirmed at the configured depth,
+     * not the ones of the other files written with the connection.
+     * @param uploads the transactions returned by the uploads of a file
+     */
+    public void waitForUploads(Collection<TxPipeline.Tx> uploads) {
+    	TxPipeline pipeline;
+    	synchronized (this) {
+    		pipeline = this.pipeline;
+    	}
+    	if(pipeline != null) {
     		try {
-					this.uploadThread.join();
+    			if(!pipeline.flush(uploads)) {
+    				LOG.warn("Some hash uploads failed.");
+    			}
 				} catch (InterruptedException e) {
 					// nothing really, just leave it be
 				}
     	}
     }
-    
+
 }
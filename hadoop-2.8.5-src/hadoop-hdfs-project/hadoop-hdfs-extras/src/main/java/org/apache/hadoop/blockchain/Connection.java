@@ -12,17 +12,22 @@ import org.web3j.crypto.WalletUtils;
 import org.web3j.tx.FastRawTransactionManager;
 import org.web3j.tx.TransactionManager;
 import org.web3j.tx.gas.DefaultGasProvider;
+import org.web3j.tx.gas.StaticGasProvider;
 
 @SuppressWarnings("deprecation")
 public class Connection {
-    private final Web3j web3j;
-    private final Credentials creds;
+    protected static final BigInteger GAS_LIMIT = BigInteger.valueOf(4500000);
+
+    protected final Web3j web3j;
+    protected final Credentials creds;
+    protected final long chainId;
     protected final TransactionManager txManager;
-    protected Data contract_wrapper;
+    protected DataContract contract_wrapper;
 
     Connection(String blockhain, String password, String keystore_path, long chainId) throws IOException, CipherException{
         this.web3j = Web3j.build(new HttpService(blockhain));
         this.creds = WalletUtils.loadCredentials(password, new File(keystore_path));
+        this.chainId = chainId;
         this.txManager = new FastRawTransactionManager(this.web3j, this.creds, chainId);
         this.contract_wrapper = null;
     }
@@ -30,13 +35,22 @@ public class Connection {
     Connection(String blockhain, String password, String keystore_path, long chainId, String contract_address) throws IOException, CipherException{
         this.web3j = Web3j.build(new HttpService(blockhain));
         this.creds = WalletUtils.loadCredentials(password, new File(keystore_path));
+        this.chainId = chainId;
         this.txManager = new FastRawTransactionManager(this.web3j, this.creds, chainId);
         this.connect(contract_address);
     }
 
+    Connection(Web3j web3j, Credentials creds, long chainId, TransactionManager txManager, String contract_address) {
+        this.web3j = web3j;
+        this.creds = creds;
+        this.chainId = chainId;
+        this.txManager = txManager;
+        this.connect(contract_address);
+    }
+
     public void connect(String contract_address){
         try {
-            this.contract_wrapper = Data.load(contract_address, this.web3j, this.txManager, DefaultGasProvider.GAS_PRICE, BigInteger.valueOf(4500000));
+            this.contract_wrapper = DataContract.load(contract_address, this.web3j, this.txManager, new StaticGasProvider(DefaultGasProvider.GAS_PRICE, GAS_LIMIT));
         } catch (Exception e) {
             System.out.println("Failed to resolve smart contract address. Please ensure its format is valid.");
             System.exit(1);
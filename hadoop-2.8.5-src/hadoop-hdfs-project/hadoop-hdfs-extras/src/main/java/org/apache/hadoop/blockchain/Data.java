@@ -1,4 +1,4 @@
-package dnode;
+package org.apache.hadoop.blockchain;
 
 import io.reactivex.Flowable;
 import io.reactivex.functions.Function;
@@ -0,0 +1,211 @@
+package org.apache.hadoop.blockchain;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.web3j.abi.EventEncoder;
+import org.web3j.abi.EventValues;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.Utils;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Bool;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.Event;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Bytes32;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.RemoteFunctionCall;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthGetCode;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.tx.TransactionManager;
+import org.web3j.tx.gas.ContractGasProvider;
+import org.web3j.utils.Numeric;
+
+import io.reactivex.Flowable;
+import io.reactivex.functions.Predicate;
+
+/**
+ * The generated {@link Data} wrapper, with the functions of data.sol that
+ * are newer than its BINARY (the batched proofs and roots).
+ * <p>
+ * Data.java is only ever written by smart_contracts/generate_wrapper.sh, so a
+ * contract deployed from it may lack these functions: {@link #has(String)}
+ * looks for their selector in the deployed code, and the connections fall
+ * back to the functions every deployment has when it is not there.
+ * <p>
+ * The same goes for the BlockReport event, whose datanode is indexed in
+ * data.sol and not in the BINARY: its events are decoded whichever way the
+ * deployed contract emits them (see {@link #decodeBlockReport(Log)}).
+ */
+public class DataContract extends Data {
+
+    public static final String FUNC_VERIFY_BATCH = "verify_batch";
+
+    public static final String FUNC_ADD_DIGEST_BATCH = "add_digest_batch";
+
+    public static final String FUNC_VERIFY_FROM_BATCH = "verify_from_batch";
+
+    /** BlockReport as declared in data.sol, with the datanode indexed. */
+    public static final Event BLOCKREPORT_INDEXED_EVENT = new Event("BlockReport",
+            Arrays.<TypeReference<?>>asList(new TypeReference<Bytes32>(true) {}, new TypeReference<Address>(true) {}, new TypeReference<Uint256>() {}, new TypeReference<Uint256>() {}, new TypeReference<Bool>() {}));
+
+    /** The signatures of the functions that may not be deployed, by name. */
+    private static final Map<String, String> SIGNATURES = new HashMap<String, String>();
+
+    static {
+        SIGNATURES.put(FUNC_VERIFY_BATCH, "verify_batch(bytes32,uint256[],uint256[])");
+        SIGNATURES.put(FUNC_ADD_DIGEST_BATCH, "add_digest_batch(bytes32,uint256,uint256,uint256,bytes32)");
+        SIGNATURES.put(FUNC_VERIFY_FROM_BATCH, "verify_from_batch(bytes32,uint256,bytes32,uint256,uint256,bytes32[],uint256[])");
+    }
+
+    private final Web3j web3j;
+    // the code of the deployed contract, fetched once
+    private volatile byte[] code = null;
+
+    protected DataContract(String contractAddress, Web3j web3j, TransactionManager transactionManager, ContractGasProvider contractGasProvider) {
+        super(contractAddress, web3j, transactionManager, contractGasProvider);
+        this.web3j = web3j;
+    }
+
+    public static DataContract load(String contractAddress, Web3j web3j, TransactionManager transactionManager, ContractGasProvider contractGasProvider) {
+        return new DataContract(contractAddress, web3j, transactionManager, contractGasProvider);
+    }
+
+    /**
+     * @param function the name of one of the functions of this class
+     * @return true if the deployed contract has it
+     * @throws IOException if the code of the contract could not be fetched,
+     * it is then fetched again by the next call
+     */
+    public boolean has(String function) throws IOException {
+        byte[] code = this.code;
+        if(code == null) {
+            EthGetCode response = this.web3j.ethGetCode(getContractAddress(), DefaultBlockParameterName.LATEST).send();
+            if(response.hasError()) {
+                throw new IOException(response.getError().getMessage());
+            }
+            code = Numeric.hexStringToByteArray(response.getCode());
+            this.code = code;
+        }
+        return hasSelector(code, SIGNATURES.get(function));
+    }
+
+    /**
+     * The dispatcher of solc compares the selector of the call with the one
+     * of each function, pushed with a PUSH4 (0x63).
+     * @return true if the code pushes the selector of the function
+     */
+    static boolean hasSelector(byte[] code, String signature) {
+        byte[] selector = Arrays.copyOf(Hash.sha3(signature.getBytes()), 4);
+        for (int i = 0; i + selector.length < code.length; i++) {
+            if(code[i] == 0x63 && Arrays.equals(Arrays.copyOfRange(code, i + 1, i + 1 + selector.length), selector)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes a BlockReport event with its datanode indexed or not: both
+     * layouts have the same signature, only their number of topics differs.
+     * @return the event, null if the log is not a BlockReport
+     */
+    public static BlockReportEventResponse decodeBlockReport(Log log) {
+        EventValues values = staticExtractEventParameters(isIndexed(log) ? BLOCKREPORT_INDEXED_EVENT : BLOCKREPORT_EVENT, log);
+        if(values == null) {
+            return null;
+        }
+        // the fields in the order of the event, the indexed ones are first in both
+        List<Type> fields = new ArrayList<Type>(values.getIndexedValues());
+        fields.addAll(values.getNonIndexedValues());
+        BlockReportEventResponse event = new BlockReportEventResponse();
+        event.log = log;
+        event.blockpool = (byte[]) fields.get(0).getValue();
+        event.datanode = (String) fields.get(1).getValue();
+        event.time = (BigInteger) fields.get(2).getValue();
+        event.blockId = (BigInteger) fields.get(3).getValue();
+        event.corrupt = (Boolean) fields.get(4).getValue();
+        return event;
+    }
+
+    /** @return true if the log is a BlockReport emitted with the datanode indexed */
+    public static boolean isIndexed(Log log) {
+        return log.getTopics() != null && log.getTopics().size() == 3;
+    }
+
+    @Override
+    public List<BlockReportEventResponse> getBlockReportEvents(TransactionReceipt transactionReceipt) {
+        List<BlockReportEventResponse> responses = new ArrayList<BlockReportEventResponse>();
+        for (Log log : transactionReceipt.getLogs()) {
+            BlockReportEventResponse event = decodeBlockReport(log);
+            if(event != null) {
+                responses.add(event);
+            }
+        }
+        return responses;
+    }
+
+    @Override
+    public Flowable<BlockReportEventResponse> blockReportEventFlowable(EthFilter filter) {
+        final String signature = EventEncoder.encode(BLOCKREPORT_EVENT);
+        return this.web3j.ethLogFlowable(filter).filter(new Predicate<Log>() {
+            @Override
+            public boolean test(Log log) {
+                return log.getTopics() != null && !log.getTopics().isEmpty() && signature.equals(log.getTopics().get(0));
+            }
+        }).map(new io.reactivex.functions.Function<Log, BlockReportEventResponse>() {
+            @Override
+            public BlockReportEventResponse apply(Log log) {
+                return decodeBlockReport(log);
+            }
+        });
+    }
+
+    public RemoteFunctionCall<TransactionReceipt> verify_batch(byte[] _bp_id, List<BigInteger> _block_ids, List<BigInteger> numbers) {
+        final Function function = new Function(
+                FUNC_VERIFY_BATCH,
+                Arrays.<Type>asList(new Bytes32(_bp_id),
+                new DynamicArray<Uint256>(Uint256.class, Utils.typeMap(_block_ids, Uint256.class)),
+                new DynamicArray<Uint256>(Uint256.class, Utils.typeMap(numbers, Uint256.class))),
+                Collections.<TypeReference<?>>emptyList());
+        return executeRemoteCallTransaction(function);
+    }
+
+    public RemoteFunctionCall<TransactionReceipt> add_digest_batch(byte[] _bp_id, BigInteger _first_block_id, BigInteger _last_block_id, BigInteger _count, byte[] _root) {
+        final Function function = new Function(
+                FUNC_ADD_DIGEST_BATCH,
+                Arrays.<Type>asList(new Bytes32(_bp_id),
+                new Uint256(_first_block_id),
+                new Uint256(_last_block_id),
+                new Uint256(_count),
+                new Bytes32(_root)),
+                Collections.<TypeReference<?>>emptyList());
+        return executeRemoteCallTransaction(function);
+    }
+
+    public RemoteFunctionCall<TransactionReceipt> verify_from_batch(byte[] _bp_id, BigInteger _block_id, byte[] _root, BigInteger _batch, BigInteger _index, List<byte[]> _siblings, List<BigInteger> numbers) {
+        final Function function = new Function(
+                FUNC_VERIFY_FROM_BATCH,
+                Arrays.<Type>asList(new Bytes32(_bp_id),
+                new Uint256(_block_id),
+                new Bytes32(_root),
+                new Uint256(_batch),
+                new Uint256(_index),
+                new DynamicArray<Bytes32>(Bytes32.class, Utils.typeMap(_siblings, Bytes32.class)),
+                new DynamicArray<Uint256>(Uint256.class, Utils.typeMap(numbers, Uint256.class))),
+                Collections.<TypeReference<?>>emptyList());
+        return executeRemoteCallTransaction(function);
+    }
+}
@@ -2,29 +2,101 @@ package org.apache.hadoop.blockchain;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import org.apache.hadoop.merkle_trees.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.web3j.crypto.CipherException;
+import org.web3j.crypto.Credentials;
+import org.web3j.abi.EventEncoder;
 import org.web3j.crypto.Hash;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.tx.TransactionManager;
+import org.web3j.utils.Numeric;
+
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
 
 public class DatanodeConnection extends Connection {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DatanodeConnection.class);
 		
 		private static Random randomness = new Random(System.currentTimeMillis());
     private Thread proofThread = null;
     private BlockingQueue<Pair<Pair<String, Long>, List<BigInteger>>> upload_queue = new LinkedBlockingQueue<Pair<Pair<String,Long>,List<BigInteger>>>();
+    private volatile int batch_size = 1;
+    private volatile long batch_delay_ms = 0;
+    // the prefetched seeds by block pool, with the time they were requested
+    private final Map<String, Pair<Long, CompletableFuture<byte[]>>> seeds = new HashMap<String, Pair<Long, CompletableFuture<byte[]>>>();
+    // the submitted proofs waiting for their BlockReport event, null when not subscribed
+    private volatile ReportTracker tracker = null;
+    private Disposable subscription = null;
+    private ScheduledExecutorService resubmitter = null;
+    // the chain block of the last BlockReport event, where a new subscription resumes
+    private BigInteger last_event_block = null;
+    // whether the contract emits BlockReport with the datanode indexed, so the node can filter on it
+    private boolean indexed_reports = false;
+    private long resubscribe_delay_ms = MIN_RESUBSCRIBE_DELAY_MS;
+    static final long MIN_RESUBSCRIBE_DELAY_MS = 1000;
+    static final long MAX_RESUBSCRIBE_DELAY_MS = 30000;
+    // the paths of the proven blocks whose root was committed in a batch, by bp_id + "_" + block_id
+    private final Map<String, BatchPath> batch_paths = new ConcurrentHashMap<String, BatchPath>();
+    // the functions of data.sol the deployed contract was found to lack, warned about once
+    private final Set<String> missing_functions = ConcurrentHashMap.newKeySet();
+    // the number of proofs of each block pool queued or sent, and not mined yet
+    private final Map<String, Integer> in_flight = new HashMap<String, Integer>();
+
+    /**
+     * Where the root of a block is in a committed {@link RootBatch}.
+     */
+    private static final class BatchPath {
+    	final byte[] root;
+    	final long batch;
+    	final int index;
+    	final List<byte[]> siblings;
+
+    	BatchPath(byte[] root, long batch, int index, List<byte[]> siblings) {
+    		this.root = root;
+    		this.batch = batch;
+    		this.index = index;
+    		this.siblings = siblings;
+    	}
+    }
 		
     public DatanodeConnection(String blockchain, String password, String keystore_path, long chainId) throws IOException, CipherException{
         super(blockchain, password, keystore_path, chainId);
     }
+
+    DatanodeConnection(Web3j web3j, Credentials creds, long chainId, TransactionManager txManager, String contract_address) {
+        super(web3j, creds, chainId, txManager, contract_address);
+    }
     
     private class UploadProofT implements Runnable {
     	
     	//private List<Pair<Long,CompletableFuture<TransactionReceipt>>> f_txrs = new ArrayList<Pair<Long,CompletableFuture<TransactionReceipt>>>();
+    	// the proofs taken from the queue and not submitted yet
+    	private List<Pair<Pair<String, Long>, List<BigInteger>>> batch = null;
     	
 			@Override
 			public void run() {
@@ -33,21 +105,26 @@ public class DatanodeConnection extends Connection {
 					while (true) {
 						Pair<Pair<String, Long>, List<BigInteger>> toUpload = upload_queue.take();
 						// terminate when you recieve pair with null value (consider all hashes uploaded)
-						if(toUpload.getFirst() == null || toUpload.getSecond() == null) {
+						if(!isValid(toUpload)) {
 							continue;
 						}
-						String bp_id = toUpload.getFirst().getFirst();
-						Long block_id = toUpload.getFirst().getSecond();
-						List<BigInteger> numbers = toUpload.getSecond();
-			      try {
-							//f_txrs.add(new Pair<Long, CompletableFuture<TransactionReceipt>>(block_id,contract_wrapper.add_digest(Hash.sha3(bp_id.getBytes()), BigInteger.valueOf(block_id), root).sendAsync()));
-			      	synchronized (contract_wrapper) {
-				      	contract_wrapper.verify(Hash.sha3(bp_id.getBytes()), BigInteger.valueOf(block_id), numbers).sendAsync();
-					      //Thread.sleep(300);
+						// then gather more proofs, until the batch is full or its time window is over
+						batch = new ArrayList<Pair<Pair<String, Long>, List<BigInteger>>>();
+						batch.add(toUpload);
+						long deadline = System.currentTimeMillis() + batch_delay_ms;
+						while (batch.size() < batch_size) {
+							long wait = deadline - System.currentTimeMillis();
+							Pair<Pair<String, Long>, List<BigInteger>> next = wait > 0 ? upload_queue.poll(wait, TimeUnit.MILLISECONDS) : upload_queue.poll();
+							if(next == null) {
+								break;
+							}
+							if(isValid(next)) {
+								batch.add(next);
 							}
-						} catch (Exception e) {
-							// well just ignore...
 						}
+						List<Pair<Pair<String, Long>, List<BigInteger>>> full = batch;
+						batch = null;
+						submit(full);
 					}
 					// maybe dont wait, time varies too much and ruins the experiments
 					//for (Pair<Long,CompletableFuture<TransactionReceipt>> ftxr : this.f_txrs) {
@@ -55,25 +132,466 @@ public class DatanodeConnection extends Connection {
 					//}
 				} catch (Exception e) {
 					// oh well, we tried...
-					System.out.println("Upload proof thread got interupted. Operation failed.");
+					LOG.warn("Upload proof thread got interupted. Operation failed.", e);
 				} finally {
+					// the proofs left behind will never be mined
+					List<Pair<Pair<String, Long>, List<BigInteger>>> dropped = new ArrayList<Pair<Pair<String, Long>, List<BigInteger>>>();
+					if(batch != null) {
+						dropped.addAll(batch);
+					}
+					upload_queue.drainTo(dropped);
+					for (Pair<Pair<String, Long>, List<BigInteger>> toUpload : dropped) {
+						if(isValid(toUpload)) {
+							settled(toUpload.getFirst());
+						}
+					}
 					proofThread = null;
 					upload_queue = new LinkedBlockingQueue<Pair<Pair<String,Long>,List<BigInteger>>>();
 				}
 			}
+
+			private boolean isValid(Pair<Pair<String, Long>, List<BigInteger>> toUpload) {
+				return toUpload.getFirst() != null && toUpload.getSecond() != null;
+			}
+
+			// one transaction per block pool of the batch
+			private void submit(List<Pair<Pair<String, Long>, List<BigInteger>>> batch) {
+				Map<String, List<Pair<Pair<String, Long>, List<BigInteger>>>> per_bp = new LinkedHashMap<String, List<Pair<Pair<String, Long>, List<BigInteger>>>>();
+				for (Pair<Pair<String, Long>, List<BigInteger>> toUpload : batch) {
+					String bp_id = toUpload.getFirst().getFirst();
+					if(!per_bp.containsKey(bp_id)) {
+						per_bp.put(bp_id, new ArrayList<Pair<Pair<String, Long>, List<BigInteger>>>());
+					}
+					per_bp.get(bp_id).add(toUpload);
+				}
+				for (Map.Entry<String, List<Pair<Pair<String, Long>, List<BigInteger>>>> entry : per_bp.entrySet()) {
+					String bp_id = entry.getKey();
+					List<Pair<Pair<String, Long>, List<BigInteger>>> proofs = new ArrayList<Pair<Pair<String, Long>, List<BigInteger>>>();
+					for (Pair<Pair<String, Long>, List<BigInteger>> toUpload : entry.getValue()) {
+						submitted(toUpload);
+						// the root of the block is only on-chain in its batch, it cannot be in a verify_batch
+						BatchPath path = batch_path(toUpload.getFirst(), tracker == null);
+						if(path != null && deployed(DataContract.FUNC_VERIFY_FROM_BATCH)) {
+							submitFromBatch(toUpload.getFirst(), path, toUpload.getSecond());
+						} else {
+							proofs.add(toUpload);
+						}
+					}
+					if(proofs.isEmpty()) {
+						continue;
+					}
+					// a verify per block if the deployed contract has no verify_batch
+					if(proofs.size() == 1 || !deployed(DataContract.FUNC_VERIFY_BATCH)) {
+						for (Pair<Pair<String, Long>, List<BigInteger>> toUpload : proofs) {
+							submitOne(toUpload.getFirst(), toUpload.getSecond());
+						}
+						continue;
+					}
+		      try {
+						//f_txrs.add(new Pair<Long, CompletableFuture<TransactionReceipt>>(block_id,contract_wrapper.add_digest(Hash.sha3(bp_id.getBytes()), BigInteger.valueOf(block_id), root).sendAsync()));
+						List<BigInteger> block_ids = new ArrayList<BigInteger>(proofs.size());
+						List<BigInteger> numbers = new ArrayList<BigInteger>();
+						for (Pair<Pair<String, Long>, List<BigInteger>> toUpload : proofs) {
+							block_ids.add(BigInteger.valueOf(toUpload.getFirst().getSecond()));
+							numbers.addAll(toUpload.getSecond());
+						}
+						final long start = System.currentTimeMillis();
+						final int count = proofs.size();
+						final List<Pair<Pair<String, Long>, List<BigInteger>>> sent = proofs;
+						CompletableFuture<TransactionReceipt> receipt;
+						synchronized (contract_wrapper) {
+							receipt = contract_wrapper.verify_batch(Hash.sha3(bp_id.getBytes()), block_ids, numbers).sendAsync();
+						}
+						receipt.whenComplete(new BiConsumer<TransactionReceipt, Throwable>() {
+							@Override
+							public void accept(TransactionReceipt txr, Throwable t) {
+								if(t != null) {
+									LOG.warn("verify_batch of " + count + " blocks failed: " + t.getMessage());
+									for (Pair<Pair<String, Long>, List<BigInteger>> toUpload : sent) {
+										failed(toUpload.getFirst());
+									}
+								} else {
+									report(txr, count, System.currentTimeMillis() - start);
+								}
+								for (Pair<Pair<String, Long>, List<BigInteger>> toUpload : sent) {
+									settled(toUpload.getFirst());
+								}
+							}
+						});
+					} catch (Exception e) {
+						// sent again with the next expired proofs, if the outcome is tracked
+						LOG.warn("Could not send the proofs of " + proofs.size() + " blocks: " + e.getMessage());
+						for (Pair<Pair<String, Long>, List<BigInteger>> toUpload : proofs) {
+							failed(toUpload.getFirst());
+							settled(toUpload.getFirst());
+						}
+					}
+				}
+			}
+
+			private void submitOne(final Pair<String, Long> block, List<BigInteger> numbers) {
+				try {
+					CompletableFuture<TransactionReceipt> receipt;
+					synchronized (contract_wrapper) {
+						receipt = contract_wrapper.verify(Hash.sha3(block.getFirst().getBytes()), BigInteger.valueOf(block.getSecond()), numbers).sendAsync();
+						//Thread.sleep(300);
+					}
+					receipt.whenComplete(new BiConsumer<TransactionReceipt, Throwable>() {
+						@Override
+						public void accept(TransactionReceipt txr, Throwable t) {
+							if(t != null) {
+								LOG.warn("verify of block " + block.getSecond() + " failed: " + t.getMessage());
+								failed(block);
+							}
+							settled(block);
+						}
+					});
+				} catch (Exception e) {
+					LOG.warn("Could not send the proof of block " + block.getSecond() + ": " + e.getMessage());
+					failed(block);
+					settled(block);
+				}
+			}
+
+			private void submitFromBatch(final Pair<String, Long> block, BatchPath path, List<BigInteger> numbers) {
+				try {
+					CompletableFuture<TransactionReceipt> receipt;
+					synchronized (contract_wrapper) {
+						receipt = contract_wrapper.verify_from_batch(Hash.sha3(block.getFirst().getBytes()), BigInteger.valueOf(block.getSecond()),
+								path.root, BigInteger.valueOf(path.batch), BigInteger.valueOf(path.index), path.siblings, numbers).sendAsync();
+					}
+					receipt.whenComplete(new BiConsumer<TransactionReceipt, Throwable>() {
+						@Override
+						public void accept(TransactionReceipt txr, Throwable t) {
+							if(t != null) {
+								LOG.warn("verify_from_batch of block " + block.getSecond() + " failed: " + t.getMessage());
+								failed(block);
+							}
+							settled(block);
+						}
+					});
+				} catch (Exception e) {
+					LOG.warn("Could not send the proof of block " + block.getSecond() + ": " + e.getMessage());
+					failed(block);
+					settled(block);
+				}
+			}
     	
     }
 
+    // false if the deployed contract lacks the function, or its code cannot be fetched yet
+    private boolean deployed(String function) {
+    	try {
+    		if(this.contract_wrapper.has(function)) {
+    			return true;
+    		}
+    		if(this.missing_functions.add(function)) {
+    			LOG.warn("The contract at " + this.contract_wrapper.getContractAddress() + " has no " + function + ", falling back to verify.");
+    		}
+    	} catch (IOException e) {
+    		LOG.warn("Could not fetch the code of the contract: " + e.getMessage());
+    	}
+    	return false;
+    }
+
+    // kept until the outcome of the proof is known if it is tracked, as it may be sent again
+    private BatchPath batch_path(Pair<String, Long> block, boolean remove) {
+    	String key = block.getFirst() + "_" + block.getSecond();
+    	return remove ? this.batch_paths.remove(key) : this.batch_paths.get(key);
+    }
+
+    private void submitted(Pair<Pair<String, Long>, List<BigInteger>> toUpload) {
+    	ReportTracker tracker = this.tracker;
+    	if(tracker != null) {
+    		tracker.submitted(toUpload.getFirst().getFirst(), toUpload.getFirst().getSecond(), toUpload.getSecond(), System.currentTimeMillis());
+    	}
+    }
+
+    // the transaction of the proof is mined, or will never be
+    private void settled(Pair<String, Long> block) {
+    	synchronized (this.in_flight) {
+    		Integer count = this.in_flight.get(block.getFirst());
+    		if(count == null || count <= 1) {
+    			this.in_flight.remove(block.getFirst());
+    		} else {
+    			this.in_flight.put(block.getFirst(), count - 1);
+    		}
+    	}
+    }
+
+    /**
+     * @return true while proofs of the block pool are queued for upload,
+     * sent and not mined yet, or (if the outcome is tracked) waiting for
+     * their BlockReport event: a new seed would make them unverifiable
+     */
+    public boolean has_pending_proofs(String bp_id) {
+    	synchronized (this.in_flight) {
+    		if(this.in_flight.containsKey(bp_id)) {
+    			return true;
+    		}
+    	}
+    	ReportTracker tracker = this.tracker;
+    	return tracker != null && tracker.size(bp_id) > 0;
+    }
+
+    private void failed(Pair<String, Long> block) {
+    	ReportTracker tracker = this.tracker;
+    	if(tracker != null) {
+    		tracker.failed(block.getFirst(), block.getSecond());
+    	}
+    }
+
+    /**
+     * Subscribes to the BlockReport events of this DataNode, handing the
+     * outcome of each submitted proof to the listener as soon as its event
+     * is mined. Proofs whose event does not come within timeout_ms (or whose
+     * transaction failed) are sent again, up to max_resubmits times, before
+     * their block is reported missing.
+     * <p>
+     * The events of the other DataNodes are dropped. Once an event shows the
+     * deployed contract indexes the address of the DataNode (data.sol, not
+     * the BINARY of {@link Data}), the subscription is made again with the
+     * node filtering on it. If the subscription fails, it is made again after a delay
+     * growing up to MAX_RESUBSCRIBE_DELAY_MS, from the chain block of the
+     * last event so the ones mined in between are not lost; those seen
+     * twice are dropped by the {@link ReportTracker}.
+     */
+    public synchronized void subscribe_reports(ReportTracker.Listener listener, long timeout_ms, int max_resubmits) {
+    	if(this.tracker != null) {
+    		return;
+    	}
+    	final ReportTracker tracker = new ReportTracker(forget_paths(listener), timeout_ms, max_resubmits);
+    	this.resubmitter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    		@Override
+    		public Thread newThread(Runnable r) {
+    			Thread t = new Thread(r, "BlockReport resubmitter");
+    			t.setDaemon(true);
+    			return t;
+    		}
+    	});
+    	long period = Math.max(1000, timeout_ms / 4);
+    	this.resubmitter.scheduleWithFixedDelay(new Runnable() {
+    		@Override
+    		public void run() {
+    			try {
+    				for (ReportTracker.Submission s : tracker.expired(System.currentTimeMillis())) {
+    					upload_proof(s.getBp_id(), s.getBlock_id(), s.getNumbers());
+    				}
+    			} catch (Exception e) {
+    				LOG.warn("Could not resubmit proofs: " + e.getMessage());
+    			}
+    		}
+    	}, period, period, TimeUnit.MILLISECONDS);
+    	this.tracker = tracker;
+    	this.last_event_block = null;
+    	this.indexed_reports = false;
+    	this.resubscribe_delay_ms = MIN_RESUBSCRIBE_DELAY_MS;
+    	subscribe(tracker);
+    }
+
+    private synchronized void subscribe(final ReportTracker tracker) {
+    	if(this.tracker != tracker) {
+    		// unsubscribed in the meantime
+    		return;
+    	}
+    	EthFilter filter = new EthFilter(this.last_event_block == null ? DefaultBlockParameterName.LATEST
+    			: DefaultBlockParameter.valueOf(this.last_event_block), DefaultBlockParameterName.LATEST, this.contract_wrapper.getContractAddress());
+    	filter.addSingleTopic(EventEncoder.encode(Data.BLOCKREPORT_EVENT));
+    	if(this.indexed_reports) {
+    		// any block pool, this DataNode only
+    		filter.addNullTopic();
+    		filter.addSingleTopic(Numeric.toHexStringWithPrefixZeroPadded(Numeric.toBigInt(getAddress()), 64));
+    	}
+    	try {
+    		this.subscription = this.contract_wrapper.blockReportEventFlowable(filter)
+    				.subscribe(new Consumer<Data.BlockReportEventResponse>() {
+    					@Override
+    					public void accept(Data.BlockReportEventResponse event) {
+    						reported(tracker, event);
+    					}
+    				}, new Consumer<Throwable>() {
+    					@Override
+    					public void accept(Throwable t) {
+    						resubscribe(tracker, t);
+    					}
+    				});
+    	} catch (RuntimeException e) {
+    		resubscribe(tracker, e);
+    	}
+    }
+
+    private void reported(ReportTracker tracker, Data.BlockReportEventResponse event) {
+    	synchronized (this) {
+    		// the events come through again
+    		this.resubscribe_delay_ms = MIN_RESUBSCRIBE_DELAY_MS;
+    		if(event.log != null && event.log.getBlockNumber() != null) {
+    			this.last_event_block = event.log.getBlockNumber();
+    		}
+    		if(!this.indexed_reports && event.log != null && DataContract.isIndexed(event.log) && this.tracker == tracker) {
+    			// from the block of this event on, the ones seen twice are dropped by the tracker
+    			this.indexed_reports = true;
+    			if(this.subscription != null) {
+    				this.subscription.dispose();
+    			}
+    			subscribe(tracker);
+    		}
+    	}
+    	if(!getAddress().equalsIgnoreCase(event.datanode)) {
+    		return;
+    	}
+    	try {
+    		tracker.reported(event.blockpool, event.blockId.longValue(), event.corrupt);
+    	} catch (Exception e) {
+    		// keep the subscription going
+    		LOG.warn("Could not handle the report of block " + event.blockId, e);
+    	}
+    }
+
+    private synchronized void resubscribe(final ReportTracker tracker, Throwable t) {
+    	if(this.tracker != tracker) {
+    		return;
+    	}
+    	long delay = this.resubscribe_delay_ms;
+    	this.resubscribe_delay_ms = Math.min(MAX_RESUBSCRIBE_DELAY_MS, delay * 2);
+    	LOG.warn("Lost the BlockReport events, subscribing again in " + delay + "ms -> " + t.getMessage());
+    	if(this.subscription != null) {
+    		this.subscription.dispose();
+    		this.subscription = null;
+    	}
+    	this.resubmitter.schedule(new Runnable() {
+    		@Override
+    		public void run() {
+    			subscribe(tracker);
+    		}
+    	}, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // drops the path of a block once the outcome of its proof is known
+    private ReportTracker.Listener forget_paths(final ReportTracker.Listener listener) {
+    	return new ReportTracker.Listener() {
+    		@Override
+    		public void reported(String bp_id, long block_id, boolean corrupt) {
+    			batch_paths.remove(bp_id + "_" + block_id);
+    			listener.reported(bp_id, block_id, corrupt);
+    		}
+
+    		@Override
+    		public void missing(String bp_id, long block_id) {
+    			batch_paths.remove(bp_id + "_" + block_id);
+    			listener.missing(bp_id, block_id);
+    		}
+    	};
+    }
+
+    public synchronized void unsubscribe_reports() {
+    	this.tracker = null;
+    	if(this.subscription != null) {
+    		this.subscription.dispose();
+    		this.subscription = null;
+    	}
+    	if(this.resubmitter != null) {
+    		this.resubmitter.shutdownNow();
+    		this.resubmitter = null;
+    	}
+    }
+
+    // per-block results of a batch, from the BlockReport events it emitted
+    private void report(TransactionReceipt txr, int count, long elapsed_ms) {
+    	List<Data.BlockReportEventResponse> events = this.contract_wrapper.getBlockReportEvents(txr);
+    	List<BigInteger> corrupt = new ArrayList<BigInteger>();
+    	for (Data.BlockReportEventResponse event : events) {
+    		if(event.corrupt) {
+    			corrupt.add(event.blockId);
+    		}
+    	}
+    	BigInteger gas = txr.getGasUsed();
+    	LOG.info("<verify_batch>: blocks=" + count + " reported=" + events.size()
+    			+ " corrupt=" + corrupt + " gas=" + gas + " gas_per_block=" + gas.divide(BigInteger.valueOf(count))
+    			+ " time_ms=" + elapsed_ms);
+    }
+
+    /**
+     * Groups the uploaded proofs into verify_batch transactions of up to
+     * batch_size blocks, waiting at most batch_delay_ms for a batch to fill.
+     * A batch size of 1 (the default) sends a verify transaction per block,
+     * as does a deployed contract without verify_batch.
+     */
+    public void setBatching(int batch_size, long batch_delay_ms) {
+    	this.batch_size = Math.max(1, batch_size);
+    	this.batch_delay_ms = Math.max(0, batch_delay_ms);
+    }
+
     public void upload_proof(String bp_id, long block_id,	List<BigInteger> numbers) throws Exception {
         if(this.proofThread == null) {
         	this.proofThread = new Thread(new UploadProofT());
         	this.proofThread.start();
         }
     		// just add proof to upload queue
+        if(bp_id != null && numbers != null) {
+        	synchronized (this.in_flight) {
+        		Integer count = this.in_flight.get(bp_id);
+        		this.in_flight.put(bp_id, count == null ? 1 : count + 1);
+        	}
+        }
         this.upload_queue.add(new Pair<Pair<String,Long>, List<BigInteger>>(new Pair<String, Long>(bp_id, block_id), numbers));
         //return this.contract_wrapper.verify(Hash.sha3(bp_id.getBytes()), BigInteger.valueOf(block_id), numbers).sendAsync();
     }
 
+    /**
+     * Uploads the proof of a block whose merkle root was committed in a
+     * batch rather than on its own: it is sent alone in a verify_from_batch
+     * transaction, with the path of the root up to the committed batch
+     * (identified by its first block id, see {@link RootBatch}).
+     */
+    public void upload_proof_from_batch(String bp_id, long block_id, List<BigInteger> numbers,
+    		byte[] root, long batch, int index, List<byte[]> siblings) throws Exception {
+    	this.batch_paths.put(bp_id + "_" + block_id, new BatchPath(root, batch, index, siblings));
+    	upload_proof(bp_id, block_id, numbers);
+    }
+
+    /**
+     * Creates the next seed of the block pool in the background, so the
+     * report that takes it does not wait for the create_seed transaction
+     * to be mined. Nothing is done if a seed is already cached.
+     * The on-chain seed changes as soon as create_seed is mined, so it must
+     * only be called once the proofs of the previous report are verified
+     * (see {@link #has_pending_proofs(String)}).
+     */
+    public synchronized void prefetch_seed(final String bp_id) {
+    	if(this.seeds.containsKey(bp_id)) {
+    		return;
+    	}
+    	ReportTracker tracker = this.tracker;
+    	if(tracker != null) {
+    		// the proofs still waiting for their event cannot be verified with the new seed
+    		tracker.abandon(bp_id);
+    	}
+    	CompletableFuture<byte[]> seed = this.contract_wrapper.create_seed(Hash.sha3(bp_id.getBytes()), BigInteger.valueOf(Math.abs(randomness.nextLong()))).sendAsync()
+    			.thenCompose(new Function<TransactionReceipt, CompletableFuture<byte[]>>() {
+    				@Override
+    				public CompletableFuture<byte[]> apply(TransactionReceipt txr) {
+    					return contract_wrapper.peek_seed(Hash.sha3(bp_id.getBytes())).sendAsync();
+    				}
+    			});
+    	this.seeds.put(bp_id, new Pair<Long, CompletableFuture<byte[]>>(System.currentTimeMillis(), seed));
+    }
+
+    /**
+     * Takes the seed of the next report of the block pool: the prefetched one
+     * if it was requested less than validity_ms ago and did not fail, or else
+     * a new one. The seed may still be pending, so the report can start hashing
+     * and only wait for it when the challenges are needed.
+     */
+    public synchronized CompletableFuture<byte[]> take_seed(String bp_id, long validity_ms) {
+    	Pair<Long, CompletableFuture<byte[]>> cached = this.seeds.remove(bp_id);
+    	if(cached != null && System.currentTimeMillis() - cached.getFirst() <= validity_ms
+    			&& !cached.getSecond().isCompletedExceptionally()) {
+    		return cached.getSecond();
+    	}
+    	prefetch_seed(bp_id);
+    	return this.seeds.remove(bp_id).getSecond();
+    }
+
     public byte[] get_seed(String bp_id) throws Exception{
     		CompletableFuture<byte[]> seed;
     		synchronized (this) {
@@ -0,0 +1,210 @@
+package org.apache.hadoop.blockchain;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.merkle_trees.Util;
+import org.web3j.crypto.Hash;
+
+/**
+ * Keeps the proofs submitted by a DataNode until the BlockReport event of
+ * their block is seen, so that the outcome of every proof gets back to the
+ * DataNode: the verdict of the reported blocks, and the blocks whose proof
+ * was never verified even after being submitted again.
+ * <p>
+ * A proof is only valid for the seed it was made with, the pending proofs
+ * of a block pool are given up as soon as a new seed is created for it.
+ */
+public class ReportTracker {
+
+    /**
+     * Outcome of the proofs of a DataNode.
+     */
+    public interface Listener {
+        // the BlockReport event of the block was mined
+        void reported(String bp_id, long block_id, boolean corrupt);
+        // no event came for the block, even after submitting its proof again
+        void missing(String bp_id, long block_id);
+    }
+
+    /**
+     * A proof waiting for its event.
+     */
+    public static final class Submission {
+        final String bp_id;
+        final long block_id;
+        final List<BigInteger> numbers;
+        // when it was last sent, 0 to send it again right away
+        long sent_at;
+        int attempts;
+
+        Submission(String bp_id, long block_id, List<BigInteger> numbers) {
+            this.bp_id = bp_id;
+            this.block_id = block_id;
+            this.numbers = numbers;
+        }
+
+        public String getBp_id() {
+            return this.bp_id;
+        }
+
+        public long getBlock_id() {
+            return this.block_id;
+        }
+
+        public List<BigInteger> getNumbers() {
+            return this.numbers;
+        }
+    }
+
+    private final Listener listener;
+    private final long timeout_ms;
+    private final int max_resubmits;
+    // the block pools by the hash found in the events
+    private final Map<String, String> block_pools = new HashMap<String, String>();
+    private final Map<String, Submission> pending = new LinkedHashMap<String, Submission>();
+
+    /**
+     * @param timeout_ms How long to wait for the event of a proof before sending it again
+     * @param max_resubmits How many times a proof is sent again before its block is missing
+     */
+    public ReportTracker(Listener listener, long timeout_ms, int max_resubmits) {
+        this.listener = listener;
+        this.timeout_ms = timeout_ms;
+        this.max_resubmits = Math.max(0, max_resubmits);
+    }
+
+    public long getTimeout() {
+        return this.timeout_ms;
+    }
+
+    private static String hash(String bp_id) {
+        return Util.bytesToHex(Hash.sha3(bp_id.getBytes()));
+    }
+
+    private static String key(String bp_hash, long block_id) {
+        return bp_hash + "_" + block_id;
+    }
+
+    /**
+     * Records that the proof of a block was sent (again).
+     */
+    public synchronized void submitted(String bp_id, long block_id, List<BigInteger> numbers, long now) {
+        String bp_hash = hash(bp_id);
+        this.block_pools.put(bp_hash, bp_id);
+        String key = key(bp_hash, block_id);
+        Submission s = this.pending.get(key);
+        if (s == null || s.numbers != numbers) {
+            // a new proof of the block replaces the previous one
+            s = new Submission(bp_id, block_id, numbers);
+            this.pending.put(key, s);
+        }
+        s.sent_at = now;
+        s.attempts++;
+    }
+
+    /**
+     * Records that the transaction carrying the proof of a block failed,
+     * it is sent again by the next {@link #expired(long)}.
+     */
+    public synchronized void failed(String bp_id, long block_id) {
+        Submission s = this.pending.get(key(hash(bp_id), block_id));
+        if (s != null) {
+            s.sent_at = 0;
+        }
+    }
+
+    /**
+     * Hands the BlockReport event of this DataNode to the listener, once
+     * per submission: the events of a proof mined twice (sent again while
+     * the first one was pending) or seen again after a resubscription are
+     * dropped.
+     * @return false if no proof of the block is waiting for its event
+     */
+    public boolean reported(byte[] bp_hash, long block_id, boolean corrupt) {
+        String hash = Util.bytesToHex(bp_hash);
+        String bp_id;
+        synchronized (this) {
+            bp_id = this.block_pools.get(hash);
+            if (bp_id == null || this.pending.remove(key(hash, block_id)) == null) {
+                return false;
+            }
+        }
+        this.listener.reported(bp_id, block_id, corrupt);
+        return true;
+    }
+
+    /**
+     * Looks for the proofs whose event did not come in time: those that can
+     * still be sent again are returned (and considered sent), the blocks of
+     * the others are handed to the listener as missing.
+     */
+    public List<Submission> expired(long now) {
+        List<Submission> resubmit = new ArrayList<Submission>();
+        List<Submission> missing = new ArrayList<Submission>();
+        synchronized (this) {
+            Iterator<Submission> it = this.pending.values().iterator();
+            while (it.hasNext()) {
+                Submission s = it.next();
+                if (s.sent_at > 0 && now - s.sent_at <= this.timeout_ms) {
+                    continue;
+                }
+                if (s.attempts > this.max_resubmits) {
+                    it.remove();
+                    missing.add(s);
+                } else {
+                    // until it goes through the upload queue again
+                    s.sent_at = now;
+                    resubmit.add(s);
+                }
+            }
+        }
+        for (Submission s : missing) {
+            this.listener.missing(s.bp_id, s.block_id);
+        }
+        return resubmit;
+    }
+
+    /**
+     * Gives up the pending proofs of a block pool, as they cannot be
+     * verified anymore once its seed changes.
+     */
+    public void abandon(String bp_id) {
+        List<Submission> missing = new ArrayList<Submission>();
+        synchronized (this) {
+            Iterator<Submission> it = this.pending.values().iterator();
+            while (it.hasNext()) {
+                Submission s = it.next();
+                if (s.bp_id.equals(bp_id)) {
+                    it.remove();
+                    missing.add(s);
+                }
+            }
+        }
+        for (Submission s : missing) {
+            this.listener.missing(s.bp_id, s.block_id);
+        }
+    }
+
+    public synchronized int size() {
+        return this.pending.size();
+    }
+
+    /**
+     * @return The number of proofs of the block pool waiting for their event
+     */
+    public synchronized int size(String bp_id) {
+        int size = 0;
+        for (Submission s : this.pending.values()) {
+            if (s.bp_id.equals(bp_id)) {
+                size++;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,203 @@
+package org.apache.hadoop.blockchain;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.merkle_trees.Util;
+import org.web3j.crypto.Hash;
+
+/**
+ * The merkle roots of a batch of blocks, committed on-chain at once by
+ * add_digest_batch as the root of a tree over them (a merkle-of-roots).
+ * <p>
+ * The leaves are keccak256(block_id, root) in the order the blocks were
+ * added, padded with zero hashes to a power of 2, and a parent is the
+ * keccak256 of its two children. The batch is identified on-chain by the id
+ * of its first block, along with the id of its last block and its number of
+ * blocks, and cannot be committed again. The path of a block is checked by
+ * verify_from_batch, which also checks the block is in that range.
+ * <p>
+ * Each committed batch is also kept in a file of its own under {@link #DIR}
+ * (see {@link #pathOf(String, long)} and {@link #writeAll(List)}), so the
+ * DataNodes can rebuild the paths of their blocks from there, whatever the
+ * number of blocks of the files.
+ */
+public class RootBatch {
+
+    /** Directory of the committed batches, one file per batch under the block pool id. */
+    public static final String DIR = "/.blockchain/roots";
+    private static final int HASH_SIZE = 32;
+
+    private final List<Long> block_ids = new ArrayList<Long>();
+    private final List<byte[]> roots = new ArrayList<byte[]>();
+
+    public void add(long block_id, byte[] root) {
+        assert(root.length == HASH_SIZE);
+        this.block_ids.add(block_id);
+        this.roots.add(root);
+    }
+
+    public int size() {
+        return this.block_ids.size();
+    }
+
+    public boolean isEmpty() {
+        return this.block_ids.isEmpty();
+    }
+
+    /** @return the id of the first block, which identifies the batch on-chain */
+    public long getFirstBlockId() {
+        return this.block_ids.get(0);
+    }
+
+    public long getLastBlockId() {
+        return this.block_ids.get(this.block_ids.size() - 1);
+    }
+
+    /** @return the position of the last entry of the block, or -1 */
+    public int indexOf(long block_id) {
+        return this.block_ids.lastIndexOf(block_id);
+    }
+
+    /** @return the position of the last entry of the block with that root, or -1 */
+    public int indexOf(long block_id, byte[] root) {
+        for (int i = size() - 1; i >= 0; i--) {
+            if(this.block_ids.get(i) == block_id && Arrays.equals(this.roots.get(i), root)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public byte[] getBlockRoot(int index) {
+        return this.roots.get(index);
+    }
+
+    /** @return the aggregate root of the batch */
+    public byte[] getRoot() {
+        List<byte[]> level = leaves();
+        while (level.size() > 1) {
+            level = parents(level);
+        }
+        return level.get(0);
+    }
+
+    /** @return the siblings of the leaf at the given index, from the leaf up */
+    public List<byte[]> getPath(int index) {
+        List<byte[]> path = new ArrayList<byte[]>();
+        List<byte[]> level = leaves();
+        while (level.size() > 1) {
+            path.add(level.get(index ^ 1));
+            level = parents(level);
+            index /= 2;
+        }
+        return path;
+    }
+
+    // the leaves, padded to a power of 2
+    private List<byte[]> leaves() {
+        assert(!isEmpty());
+        List<byte[]> leaves = new ArrayList<byte[]>();
+        for (int i = 0; i < size(); i++) {
+            leaves.add(leaf(this.block_ids.get(i), this.roots.get(i)));
+        }
+        while (Integer.bitCount(leaves.size()) != 1) {
+            leaves.add(new byte[HASH_SIZE]);
+        }
+        return leaves;
+    }
+
+    private static List<byte[]> parents(List<byte[]> level) {
+        List<byte[]> parents = new ArrayList<byte[]>(level.size() / 2);
+        for (int i = 0; i < level.size(); i += 2) {
+            parents.add(Hash.sha3(Util.concatBytes(level.get(i), level.get(i + 1))));
+        }
+        return parents;
+    }
+
+    static byte[] leaf(long block_id, byte[] root) {
+        return Hash.sha3(Util.encode_packed(root, BigInteger.valueOf(block_id)));
+    }
+
+    /**
+     * Recomputes the aggregate root from a block and its path, like the contract does.
+     */
+    public static byte[] rootOf(long block_id, byte[] root, int index, List<byte[]> path) {
+        byte[] node = leaf(block_id, root);
+        for (byte[] sibling : path) {
+            node = Hash.sha3((index & 1) == 1 ? Util.concatBytes(sibling, node) : Util.concatBytes(node, sibling));
+            index >>= 1;
+        }
+        return node;
+    }
+
+    /**
+     * Finds the batch that committed the root of a block, the last one
+     * if it is in more than one.
+     * @return the batch or null
+     */
+    public static RootBatch find(List<RootBatch> batches, long block_id) {
+        for (int i = batches.size() - 1; i >= 0; i--) {
+            if(batches.get(i).indexOf(block_id) >= 0) {
+                return batches.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the file of the batch of the block pool, named after its first
+     * block like the batch is on-chain, where it is written once (the block
+     * appended to by a stream is committed on its own, not in its batches)
+     */
+    public static String pathOf(String bp_id, long first_block_id) {
+        return DIR + "/" + bp_id + "/" + first_block_id;
+    }
+
+    /**
+     * Serializes batches: for each of them, the number of blocks
+     * and then the id and the root of every block.
+     */
+    public static byte[] writeAll(List<RootBatch> batches) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (RootBatch batch : batches) {
+                out.writeInt(batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    out.writeLong(batch.block_ids.get(i));
+                    out.write(batch.roots.get(i));
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // cannot happen in memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static List<RootBatch> readAll(byte[] value) throws IOException {
+        List<RootBatch> batches = new ArrayList<RootBatch>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+        while (in.available() > 0) {
+            RootBatch batch = new RootBatch();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long block_id = in.readLong();
+                byte[] root = new byte[HASH_SIZE];
+                in.readFully(root);
+                batch.add(block_id, root);
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+}
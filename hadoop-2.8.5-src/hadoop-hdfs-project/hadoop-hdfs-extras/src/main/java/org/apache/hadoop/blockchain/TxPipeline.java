@@ -0,0 +1,352 @@
+package org.apache.hadoop.blockchain;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.RawTransaction;
+import org.web3j.crypto.TransactionEncoder;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.response.EthSendTransaction;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.utils.Numeric;
+
+/**
+ * Sends the transactions of an account to a contract without waiting
+ * for one another.
+ * <p>
+ * Nonces are handed out locally, so up to max_in_flight signed transactions
+ * can be pending at once. Their receipts are polled in the background, and a
+ * transaction still without a receipt after resend_ms is sent again with the
+ * same nonce and a higher gas price, in case it was dropped or underpriced.
+ * A caller can wait for a transaction to be submitted (accepted by the node)
+ * or confirmed (mined under the given number of blocks).
+ * <p>
+ * A transaction still not mined after MAX_RESENDS resends fails, and its
+ * nonce is filled with an empty transfer to the account itself, or the next
+ * nonces could never be mined. If even that one is not mined, the next nonce
+ * is taken from the node again.
+ * <p>
+ * The pipeline must be the only sender of the account.
+ */
+public class TxPipeline {
+
+    // a pending transaction is only replaced for at least 10% more gas
+    private static final int BUMP_PERCENT = 125;
+    private static final int MAX_RESENDS = 5;
+    private static final long POLL_MS = 1000;
+    // an empty transfer, to fill the nonce of a dropped transaction
+    private static final BigInteger TRANSFER_GAS = BigInteger.valueOf(21000);
+
+    private static final Logger LOG = LoggerFactory.getLogger(TxPipeline.class);
+
+    /**
+     * A transaction of the pipeline.
+     */
+    public static class Tx {
+        private BigInteger nonce;
+        private final String data;
+        private final BigInteger gas_limit;
+        private BigInteger gas_price;
+        // hashes of every version that was sent, any of them may be mined
+        private final List<String> hashes = new ArrayList<String>();
+        private long sent_at;
+        private int resends = 0;
+        // the transaction failed, the nonce is used by an empty transfer
+        private boolean filler = false;
+        private TransactionReceipt receipt = null;
+        private final CompletableFuture<String> submitted = new CompletableFuture<String>();
+        private final CompletableFuture<TransactionReceipt> confirmed = new CompletableFuture<TransactionReceipt>();
+
+        private Tx(String data, BigInteger gas_price, BigInteger gas_limit) {
+            this.data = data;
+            this.gas_price = gas_price;
+            this.gas_limit = gas_limit;
+        }
+
+        /** @return completes with the hash of the transaction once the node accepted it */
+        public CompletableFuture<String> submitted() {
+            return this.submitted;
+        }
+
+        /** @return completes with the receipt once it is deep enough in the chain */
+        public CompletableFuture<TransactionReceipt> confirmed() {
+            return this.confirmed;
+        }
+
+        BigInteger getNonce() {
+            return this.nonce;
+        }
+
+        BigInteger getGasPrice() {
+            return this.gas_price;
+        }
+    }
+
+    private final Web3j web3j;
+    private final Credentials creds;
+    private final long chain_id;
+    private final String to;
+    private final BigInteger gas_price;
+    private final BigInteger gas_limit;
+    private final int confirmations;
+    private final long resend_ms;
+    private final Semaphore in_flight;
+    // the pending transactions by nonce
+    private final Map<BigInteger, Tx> pending = new TreeMap<BigInteger, Tx>();
+    private BigInteger next_nonce = null;
+    private final ScheduledExecutorService tracker;
+
+    /**
+     * @param max_in_flight maximum number of transactions sent and not mined yet
+     * @param confirmations blocks on top of (and including) the one of a
+     * transaction before it is confirmed, {@link #flush(Collection)} only waits for the
+     * submission if 0
+     * @param resend_ms time without a receipt before a transaction is sent again
+     */
+    public TxPipeline(Web3j web3j, Credentials creds, long chain_id, String to, BigInteger gas_price, BigInteger gas_limit,
+            int max_in_flight, int confirmations, long resend_ms) {
+        this(web3j, creds, chain_id, to, gas_price, gas_limit, max_in_flight, confirmations, resend_ms, POLL_MS);
+    }
+
+    /**
+     * @param poll_ms time between two polls of the receipts, 0 to only poll
+     * when {@link #poll()} is called
+     */
+    TxPipeline(Web3j web3j, Credentials creds, long chain_id, String to, BigInteger gas_price, BigInteger gas_limit,
+            int max_in_flight, int confirmations, long resend_ms, long poll_ms) {
+        this.web3j = web3j;
+        this.creds = creds;
+        this.chain_id = chain_id;
+        this.to = to;
+        this.gas_price = gas_price;
+        this.gas_limit = gas_limit;
+        this.confirmations = Math.max(0, confirmations);
+        this.resend_ms = resend_ms;
+        this.in_flight = new Semaphore(Math.max(1, max_in_flight));
+        this.tracker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "TxPipeline");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        if(poll_ms > 0) {
+            this.tracker.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        poll();
+                    } catch (Exception e) {
+                        LOG.warn("Failed to poll transaction receipts: " + e.getMessage());
+                    }
+                }
+            }, poll_ms, poll_ms, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Signs and sends a call of the contract, blocking only while
+     * max_in_flight transactions are already pending.
+     * @param data The encoded function call
+     */
+    public Tx send(String data) throws IOException, InterruptedException {
+        this.in_flight.acquire();
+        Tx tx = new Tx(data, this.gas_price, this.gas_limit);
+        try {
+            synchronized (this) {
+                if(this.next_nonce == null) {
+                    this.next_nonce = chainNonce();
+                }
+                takeNonce(tx);
+            }
+        } catch (IOException e) {
+            this.in_flight.release();
+            throw e;
+        }
+        submit(tx);
+        return tx;
+    }
+
+    // the next nonce not used by a pending transaction, after a re-sync from the node
+    private void takeNonce(Tx tx) {
+        while (this.pending.containsKey(this.next_nonce)) {
+            this.next_nonce = this.next_nonce.add(BigInteger.ONE);
+        }
+        tx.nonce = this.next_nonce;
+        this.next_nonce = this.next_nonce.add(BigInteger.ONE);
+        this.pending.put(tx.nonce, tx);
+    }
+
+    /**
+     * Waits until the given transactions are submitted, or confirmed if the
+     * pipeline has a confirmation depth, whatever the other transactions of
+     * the pipeline.
+     * @return false if any of them failed
+     */
+    public boolean flush(Collection<Tx> txs) throws InterruptedException {
+        boolean ok = true;
+        for (Tx tx : txs) {
+            try {
+                if(this.confirmations == 0) {
+                    tx.submitted.get();
+                } else {
+                    tx.confirmed.get();
+                }
+            } catch (Exception e) {
+                if(e instanceof InterruptedException) {
+                    throw (InterruptedException) e;
+                }
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    // the next nonce of the account, counting the transactions in the pool of the node
+    private BigInteger chainNonce() throws IOException {
+        return this.web3j.ethGetTransactionCount(this.creds.getAddress(), DefaultBlockParameterName.PENDING)
+                .send().getTransactionCount();
+    }
+
+    // (re)sends the current version of the transaction, without waiting for the node
+    private void submit(final Tx tx) {
+        RawTransaction raw;
+        synchronized (this) {
+            if(tx.filler) {
+                raw = RawTransaction.createEtherTransaction(tx.nonce, tx.gas_price, TRANSFER_GAS,
+                        this.creds.getAddress(), BigInteger.ZERO);
+            } else {
+                raw = RawTransaction.createTransaction(tx.nonce, tx.gas_price, tx.gas_limit, this.to, tx.data);
+            }
+            tx.sent_at = System.currentTimeMillis();
+        }
+        String signed = Numeric.toHexString(TransactionEncoder.signMessage(raw, this.chain_id, this.creds));
+        this.web3j.ethSendRawTransaction(signed).sendAsync().whenComplete(new BiConsumer<EthSendTransaction, Throwable>() {
+            @Override
+            public void accept(EthSendTransaction resp, Throwable t) {
+                onSubmitted(tx, resp, t);
+            }
+        });
+    }
+
+    private void onSubmitted(Tx tx, EthSendTransaction resp, Throwable t) {
+        String error = t != null ? String.valueOf(t.getMessage()) : (resp.hasError() ? resp.getError().getMessage() : null);
+        synchronized (this) {
+            if(error == null) {
+                // still tracked until mined, a dropped transaction would hold back the next nonces
+                tx.hashes.add(resp.getTransactionHash());
+                tx.submitted.complete(resp.getTransactionHash());
+                return;
+            }
+            LOG.warn("Transaction " + tx.nonce + " was not accepted: " + error);
+            if(tx.filler && error.contains("nonce too low")) {
+                // the nonce is used already, by one of the versions that failed
+                done(tx);
+                return;
+            }
+            if(!error.contains("nonce too low") || !tx.hashes.isEmpty()) {
+                // sent again by the tracker once resend_ms is over
+                return;
+            }
+            // the nonce was used by another sender of the account, take the next one
+            this.pending.remove(tx.nonce);
+            try {
+                BigInteger chain = chainNonce();
+                this.next_nonce = this.next_nonce == null ? chain : this.next_nonce.max(chain);
+            } catch (IOException e) {
+                // keep the local one
+                if(this.next_nonce == null) {
+                    this.next_nonce = tx.nonce.add(BigInteger.ONE);
+                }
+            }
+            takeNonce(tx);
+        }
+        submit(tx);
+    }
+
+    // looks for the receipts of the pending transactions, and resends the late ones
+    void poll() throws IOException {
+        List<Tx> txs;
+        synchronized (this) {
+            txs = new ArrayList<Tx>(this.pending.values());
+        }
+        if(txs.isEmpty()) {
+            return;
+        }
+        BigInteger head = this.web3j.ethBlockNumber().send().getBlockNumber();
+        for (Tx tx : txs) {
+            List<String> hashes;
+            synchronized (this) {
+                hashes = new ArrayList<String>(tx.hashes);
+            }
+            for (int i = 0; i < hashes.size() && tx.receipt == null; i++) {
+                tx.receipt = this.web3j.ethGetTransactionReceipt(hashes.get(i)).send().getTransactionReceipt().orElse(null);
+            }
+            if(tx.receipt != null) {
+                BigInteger depth = head.subtract(tx.receipt.getBlockNumber()).add(BigInteger.ONE);
+                if(depth.compareTo(BigInteger.valueOf(this.confirmations)) >= 0) {
+                    done(tx);
+                    if(!tx.receipt.isStatusOK()) {
+                        LOG.warn("Transaction " + tx.receipt.getTransactionHash() + " failed with status " + tx.receipt.getStatus());
+                    }
+                    tx.confirmed.complete(tx.receipt);
+                }
+            } else if(System.currentTimeMillis() - tx.sent_at > this.resend_ms) {
+                if(tx.resends >= MAX_RESENDS && tx.filler) {
+                    // the gap stays, the next transactions take it from the node
+                    LOG.error("The nonce " + tx.nonce + " could not be filled, taking the next ones from the node");
+                    synchronized (this) {
+                        this.next_nonce = null;
+                    }
+                    done(tx);
+                    continue;
+                }
+                if(tx.resends >= MAX_RESENDS) {
+                    IOException e = new IOException("Transaction " + tx.nonce + " was not mined after " + tx.resends + " resends");
+                    tx.submitted.completeExceptionally(e);
+                    tx.confirmed.completeExceptionally(e);
+                    LOG.warn(e.getMessage() + ", filling its nonce with an empty transfer");
+                }
+                synchronized (this) {
+                    if(tx.resends >= MAX_RESENDS) {
+                        tx.filler = true;
+                        tx.resends = 0;
+                    } else {
+                        tx.resends++;
+                    }
+                    // the versions sent are replaced, the filler included, only for a higher gas price
+                    tx.gas_price = tx.gas_price.multiply(BigInteger.valueOf(BUMP_PERCENT)).divide(BigInteger.valueOf(100));
+                }
+                LOG.info("Transaction " + tx.nonce + " has no receipt, resending it with gas price " + tx.gas_price);
+                submit(tx);
+            }
+        }
+    }
+
+    private synchronized void done(Tx tx) {
+        if(this.pending.remove(tx.nonce) != null) {
+            this.in_flight.release();
+        }
+    }
+
+    public void close() {
+        this.tracker.shutdownNow();
+    }
+}
@@ -1,5 +1,7 @@
 package org.apache.hadoop.merkle_trees;
 
+import java.nio.ByteBuffer;
+
 /**
  * Just a simple implementation of BLAKE2s hash function
  * @see <a href="https://blake2.net">blake2.net</a>
@@ -9,11 +11,11 @@ public class Blake2s {
 
     private static final int BLOCK_SIZE = 64;
 	private static final int[] p = new int[]{0, 0};
-    private static final int IV[] = {
+    static final int IV[] = {
 		0x6A09E667, 0XBB67AE85, 0X3C6EF372, 0xA54FF53A,
 		0X510E527F, 0X9B05688C, 0x1F83D9AB, 0X5BE0CD19
 	};
-    private static final int[][] SIGMA = {
+    static final int[][] SIGMA = {
 		{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15},
 		{14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3},
 		{11, 8, 12, 0, 5, 2, 15, 13, 10, 14, 3, 6, 7, 1, 9, 4},
@@ -25,6 +27,20 @@ public class Blake2s {
 		{6, 15, 14, 9, 11, 3, 0, 8, 12, 2, 13, 7, 1, 4, 10, 5},
 		{10, 2, 8, 4, 7, 6, 1, 5, 15, 11, 9, 14, 3, 12, 13, 0}
 	};
+	// one reusable engine per thread, so the static digests do not allocate
+	private static final ThreadLocal<Blake2sHasher> HASHERS = new ThreadLocal<Blake2sHasher>() {
+		@Override
+		protected Blake2sHasher initialValue() {
+			return new Blake2sHasher();
+		}
+	};
+
+	/**
+	 * @return The engine of the calling thread, not to be shared with others
+	 */
+	public static Blake2sHasher hasher(){
+		return HASHERS.get();
+	}
 
     public static void mixing_g(int[] v, int a, int b, int c, int d, int x, int y){
         v[a] += v[b] + x;
@@ -38,7 +54,14 @@ public class Blake2s {
     }
 
     public static void blake2s_compression(int[] h, int[] m, int t0, int t1, boolean last){
-		int[] v = new int[16];
+		compress(h, m, new int[16], t0, t1, last);
+	}
+
+	/**
+	 * Same as {@link #blake2s_compression}, using v as the working vector
+	 * instead of allocating one.
+	 */
+	public static void compress(int[] h, int[] m, int[] v, int t0, int t1, boolean last){
 		System.arraycopy(h, 0, v, 0, 8);
 		System.arraycopy(IV, 0, v, 8, 8);
 		v[12] ^= t0;
@@ -61,44 +84,42 @@ public class Blake2s {
 	}
 
 	public static int[] blake2s_init(){
-		int[] h = new int[]{
-			IV[0] ^ 0x01010000 ^ 0x00000020,
-			IV[1],
-			IV[2],
-			IV[3],
-			IV[4],
-			IV[5],
-			IV[6] ^ p[0],
-			IV[7] ^ p[1]
-		};
+		int[] h = new int[8];
+		init(h);
 		return h;
 	}
 
+	/**
+	 * Resets a caller-supplied state to the initial one (32 byte digest, no key).
+	 */
+	public static void init(int[] h){
+		System.arraycopy(IV, 0, h, 0, 8);
+		h[0] ^= 0x01010000 ^ 0x00000020;
+		h[6] ^= p[0];
+		h[7] ^= p[1];
+	}
+
     public static byte[] digest(byte[] input){
-		assert(input.length % BLOCK_SIZE == 0);
-		int offset = 0;
-		int[] m = new int[16];
-		int[] h = blake2s_init();
-		int t0 = 0, t1 = 0;
-		for (int i = 0; i < input.length / BLOCK_SIZE - 1; i++) {
-			t0 += 64;
-			if(t0 == 0)
-				t1++;
-			for (int j = 0; j < m.length; j++) {
-				m[j] = Util.bytesToInt(input, offset);
-				offset+=4;
-			}
-			blake2s_compression(h, m, t0, t1, false);
-		}
-		t0 += 64;
-		if(t0 == 0)
-			t1++;
-		for (int j = 0; j < m.length; j++) {
-			m[j] = Util.bytesToInt(input, offset);
-			offset+=4;
-		}
-		blake2s_compression(h, m, t0, t1, true);
-		return Util.intsToBytes(h);
+		byte[] out = new byte[32];
+		digest(input, 0, input.length, out, 0);
+		return out;
+	}
+
+	/**
+	 * Hashes input[offset, offset+length) and writes the 32 byte digest
+	 * to out[out_offset, out_offset+32), without copying the input.
+	 */
+	public static void digest(byte[] input, int offset, int length, byte[] out, int out_offset){
+		hasher().digest(input, offset, length, out, out_offset);
+	}
+
+	/**
+	 * Same as {@link #digest(byte[], int, int, byte[], int)} but reads the
+	 * input from a (possibly direct or memory-mapped) buffer, using absolute
+	 * big-endian reads so the buffer's position is left untouched.
+	 */
+	public static void digest(ByteBuffer input, int offset, int length, byte[] out, int out_offset){
+		hasher().digest(input, offset, length, out, out_offset);
 	}
 
 }
@@ -0,0 +1,185 @@
+package org.apache.hadoop.merkle_trees;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reusable {@link Blake2s} engine that does not allocate per hash.
+ * It keeps its own state and message arrays, so an instance must not be
+ * shared between threads (use one per thread, or {@link Blake2s#hasher()}).
+ * <p>
+ * Besides plain digests, it can hash a parent node straight from the
+ * offsets of its two children, and hash many messages of the same length
+ * at once, in lockstep lanes that the JIT can unroll or vectorize.
+ */
+public class Blake2sHasher {
+
+    private static final int BLOCK_SIZE = 64;
+    private static final int HASH_SIZE = 32;
+    // number of messages hashed in lockstep by the batch methods
+    static final int LANES = 8;
+
+    private final int[] h = new int[8];
+    private final int[] m = new int[16];
+    private final int[] v = new int[16];
+    // lane-interleaved state, message and working vector (word * LANES + lane)
+    private final int[] lh = new int[8 * LANES];
+    private final int[] lm = new int[16 * LANES];
+    private final int[] lv = new int[16 * LANES];
+
+    /**
+     * Hashes input[offset, offset+length) to out[out_offset, out_offset+32).
+     * The input and output may overlap.
+     */
+    public void digest(byte[] input, int offset, int length, byte[] out, int out_offset){
+        assert(length % BLOCK_SIZE == 0 && length > 0);
+        Blake2s.init(this.h);
+        int blocks = length / BLOCK_SIZE;
+        for (int i = 0; i < blocks; i++) {
+            for (int j = 0; j < 16; j++) {
+                this.m[j] = Util.bytesToInt(input, offset);
+                offset += 4;
+            }
+            long t = (long) (i + 1) * BLOCK_SIZE;
+            Blake2s.compress(this.h, this.m, this.v, (int) t, (int) (t >>> 32), i == blocks - 1);
+        }
+        Util.intsToBytes(this.h, out, out_offset);
+    }
+
+    /**
+     * Same as {@link #digest(byte[], int, int, byte[], int)} reading from a
+     * big-endian buffer with absolute reads (its position is left untouched).
+     */
+    public void digest(ByteBuffer input, int offset, int length, byte[] out, int out_offset){
+        assert(length % BLOCK_SIZE == 0 && length > 0);
+        assert(input.order() == ByteOrder.BIG_ENDIAN);
+        Blake2s.init(this.h);
+        int blocks = length / BLOCK_SIZE;
+        for (int i = 0; i < blocks; i++) {
+            for (int j = 0; j < 16; j++) {
+                this.m[j] = input.getInt(offset);
+                offset += 4;
+            }
+            long t = (long) (i + 1) * BLOCK_SIZE;
+            Blake2s.compress(this.h, this.m, this.v, (int) t, (int) (t >>> 32), i == blocks - 1);
+        }
+        Util.intsToBytes(this.h, out, out_offset);
+    }
+
+    /**
+     * Hashes the concatenation of two 32 byte hashes (a parent node),
+     * without concatenating them first. The output may overlap either input.
+     */
+    public void digestPair(byte[] left, int left_offset, byte[] right, int right_offset, byte[] out, int out_offset){
+        Blake2s.init(this.h);
+        for (int j = 0; j < 8; j++) {
+            this.m[j] = Util.bytesToInt(left, left_offset + 4 * j);
+            this.m[j + 8] = Util.bytesToInt(right, right_offset + 4 * j);
+        }
+        Blake2s.compress(this.h, this.m, this.v, BLOCK_SIZE, 0, true);
+        Util.intsToBytes(this.h, out, out_offset);
+    }
+
+    /**
+     * Hashes count consecutive messages of the same length, starting at
+     * input[offset], and writes their digests one after the other from
+     * out[out_offset]. The output may only overlap the input from its
+     * start (e.g. to reduce a level of a tree in place).
+     */
+    public void digestBatch(byte[] input, int offset, int length, int count, byte[] out, int out_offset){
+        digestBatch(input, null, offset, length, count, out, out_offset);
+    }
+
+    /**
+     * Same as {@link #digestBatch(byte[], int, int, int, byte[], int)},
+     * reading from a big-endian buffer with absolute reads.
+     */
+    public void digestBatch(ByteBuffer input, int offset, int length, int count, byte[] out, int out_offset){
+        assert(input.order() == ByteOrder.BIG_ENDIAN);
+        digestBatch(null, input, offset, length, count, out, out_offset);
+    }
+
+    // reads from the array if there is one, otherwise from the buffer
+    private void digestBatch(byte[] array, ByteBuffer buffer, int offset, int length, int count, byte[] out, int out_offset){
+        assert(length % BLOCK_SIZE == 0 && length > 0 && count >= 0);
+        int blocks = length / BLOCK_SIZE;
+        for (int first = 0; first < count; first += LANES) {
+            int lanes = Math.min(LANES, count - first);
+            int base = offset + first * length;
+            Blake2s.init(this.h);
+            for (int w = 0; w < 8; w++) {
+                for (int l = 0; l < LANES; l++) {
+                    this.lh[w * LANES + l] = this.h[w];
+                }
+            }
+            for (int i = 0; i < blocks; i++) {
+                for (int l = 0; l < lanes; l++) {
+                    int pos = base + l * length + i * BLOCK_SIZE;
+                    for (int j = 0; j < 16; j++) {
+                        this.lm[j * LANES + l] = array != null ?
+                                Util.bytesToInt(array, pos + 4 * j) : buffer.getInt(pos + 4 * j);
+                    }
+                }
+                long t = (long) (i + 1) * BLOCK_SIZE;
+                compressLanes((int) t, (int) (t >>> 32), i == blocks - 1);
+            }
+            for (int l = 0; l < lanes; l++) {
+                int pos = out_offset + (first + l) * HASH_SIZE;
+                for (int w = 0; w < 8; w++) {
+                    Util.intToBytes(this.lh[w * LANES + l], out, pos + 4 * w);
+                }
+            }
+        }
+    }
+
+    // the compression function, for all the lanes at once (unused lanes are harmless)
+    private void compressLanes(int t0, int t1, boolean last){
+        int[] lv = this.lv;
+        System.arraycopy(this.lh, 0, lv, 0, 8 * LANES);
+        for (int w = 0; w < 8; w++) {
+            int iv = Blake2s.IV[w];
+            if(w == 4)
+                iv ^= t0;
+            else if(w == 5)
+                iv ^= t1;
+            else if(w == 6 && last)
+                iv = ~iv;
+            for (int l = 0; l < LANES; l++) {
+                lv[(w + 8) * LANES + l] = iv;
+            }
+        }
+        for (int i = 0; i < 10; i++) {
+            int[] s = Blake2s.SIGMA[i];
+            mixLanes(0, 4,  8, 12, s[ 0], s[ 1]);
+            mixLanes(1, 5,  9, 13, s[ 2], s[ 3]);
+            mixLanes(2, 6, 10, 14, s[ 4], s[ 5]);
+            mixLanes(3, 7, 11, 15, s[ 6], s[ 7]);
+            mixLanes(0, 5, 10, 15, s[ 8], s[ 9]);
+            mixLanes(1, 6, 11, 12, s[10], s[11]);
+            mixLanes(2, 7,  8, 13, s[12], s[13]);
+            mixLanes(3, 4,  9, 14, s[14], s[15]);
+        }
+        for (int k = 0; k < 8 * LANES; k++) {
+            this.lh[k] ^= lv[k] ^ lv[k + 8 * LANES];
+        }
+    }
+
+    // Blake2s.mixing_g, as a simple loop over the lanes
+    private void mixLanes(int a, int b, int c, int d, int x, int y){
+        int[] lv = this.lv;
+        int[] lm = this.lm;
+        a *= LANES; b *= LANES; c *= LANES; d *= LANES;
+        x *= LANES; y *= LANES;
+        for (int l = 0; l < LANES; l++) {
+            lv[a + l] += lv[b + l] + lm[x + l];
+            lv[d + l] = Integer.rotateRight(lv[d + l] ^ lv[a + l], 16);
+            lv[c + l] += lv[d + l];
+            lv[b + l] = Integer.rotateRight(lv[b + l] ^ lv[c + l], 12);
+            lv[a + l] += lv[b + l] + lm[y + l];
+            lv[d + l] = Integer.rotateRight(lv[d + l] ^ lv[a + l], 8);
+            lv[c + l] += lv[d + l];
+            lv[b + l] = Integer.rotateRight(lv[b + l] ^ lv[c + l], 7);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package org.apache.hadoop.merkle_trees;
+
+/**
+ * Derives the challenged chunks of a block from a seed, bit for bit like
+ * gen_challenges of the Data contract:
+ * <pre>
+ * tmp = uint(keccak256(abi.encodePacked(block_id, seed)))
+ * challenges[0] = tmp % num_chunks
+ * tmp = uint(keccak256(abi.encodePacked(tmp, block_id)))
+ * challenges[1] = tmp % num_chunks
+ * ...
+ * </pre>
+ * Everything is done in fixed scratch buffers, with the hashes read as
+ * unsigned 256 bit integers, so it can run for every block of a report
+ * (or of an audit) without allocating.
+ * <p>
+ * A generator must not be shared between threads, see {@link #generator()}.
+ */
+public class ChallengeGenerator {
+
+    private static final int WORD_SIZE = 32;
+    // one reusable generator per thread
+    private static final ThreadLocal<ChallengeGenerator> GENERATORS = new ThreadLocal<ChallengeGenerator>() {
+        @Override
+        protected ChallengeGenerator initialValue() {
+            return new ChallengeGenerator();
+        }
+    };
+
+    /**
+     * @return The generator of the calling thread, not to be shared with others
+     */
+    public static ChallengeGenerator generator() {
+        return GENERATORS.get();
+    }
+
+    private final Keccak256 keccak = new Keccak256();
+    // (block_id, seed) of the first round, resized to the seed
+    private byte[] first = new byte[2 * WORD_SIZE];
+    // (previous hash, block_id) of the next rounds, the hash is written in place
+    private final byte[] next = new byte[2 * WORD_SIZE];
+
+    /**
+     * @param seed The packed seed, as returned by peek_seed
+     * @param block_id The id of the block, taken as an unsigned integer
+     * @param chunk_count The number of chunks (leaves) of the block
+     * @param challenges Filled with the indexes of the challenged chunks
+     */
+    public void generate(byte[] seed, long block_id, int chunk_count, int[] challenges) {
+        assert(chunk_count > 0);
+        if (this.first.length != WORD_SIZE + seed.length) {
+            this.first = new byte[WORD_SIZE + seed.length];
+        }
+        putUint(block_id, this.first, 0);
+        System.arraycopy(seed, 0, this.first, WORD_SIZE, seed.length);
+        this.keccak.digest(this.first, 0, this.first.length, this.next, 0);
+        putUint(block_id, this.next, WORD_SIZE);
+        for (int i = 0; i < challenges.length; i++) {
+            if (i > 0) {
+                this.keccak.digest(this.next, 0, this.next.length, this.next, 0);
+            }
+            challenges[i] = mod(this.next, chunk_count);
+        }
+    }
+
+    public int[] generate(byte[] seed, long block_id, int chunk_count, int chall_count) {
+        int[] challenges = new int[chall_count];
+        generate(seed, block_id, chunk_count, challenges);
+        return challenges;
+    }
+
+    // block_id as a big-endian uint256
+    private static void putUint(long x, byte[] out, int offset) {
+        for (int i = 0; i < WORD_SIZE - 8; i++) {
+            out[offset + i] = 0;
+        }
+        for (int i = 0; i < 8; i++) {
+            out[offset + WORD_SIZE - 1 - i] = (byte) (x >>> (8 * i));
+        }
+    }
+
+    // the first 32 bytes, as a big-endian uint256, modulo n
+    static int mod(byte[] word, int n) {
+        if ((n & (n - 1)) == 0) {
+            // 2^256 is a multiple of n, only the low bits matter
+            return Util.bytesToInt(word, WORD_SIZE - 4) & (n - 1);
+        }
+        long r = 0;
+        for (int i = 0; i < WORD_SIZE; i++) {
+            r = ((r << 8) | (word[i] & 0xFF)) % n;
+        }
+        return (int) r;
+    }
+}
@@ -0,0 +1,119 @@
+package org.apache.hadoop.merkle_trees;
+
+import java.util.Arrays;
+
+/**
+ * Keccak-256 as used by Ethereum (keccak256 in Solidity, the original
+ * padding rather than the one of SHA3-256), writing the digest into a given
+ * array so that repeated digests do not allocate.
+ * <p>
+ * An instance keeps its state between calls, it must not be shared
+ * between threads.
+ * @see <a href="https://keccak.team/keccak_specs_summary.html">keccak.team</a>
+ */
+public class Keccak256 {
+
+    public static final int HASH_SIZE = 32;
+    // bytes absorbed per permutation (1600 - 2 * 256 bits)
+    private static final int RATE = 136;
+    private static final long[] RC = {
+        0x0000000000000001L, 0x0000000000008082L, 0x800000000000808aL, 0x8000000080008000L,
+        0x000000000000808bL, 0x0000000080000001L, 0x8000000080008081L, 0x8000000000008009L,
+        0x000000000000008aL, 0x0000000000000088L, 0x0000000080008009L, 0x000000008000000aL,
+        0x000000008000808bL, 0x800000000000008bL, 0x8000000000008089L, 0x8000000000008003L,
+        0x8000000000008002L, 0x8000000000000080L, 0x000000000000800aL, 0x800000008000000aL,
+        0x8000000080008081L, 0x8000000000008080L, 0x0000000080000001L, 0x8000000080008008L
+    };
+    // rotation and destination lane of each step of rho and pi
+    private static final int[] ROTC = {
+        1, 3, 6, 10, 15, 21, 28, 36, 45, 55, 2, 14, 27, 41, 56, 8, 25, 43, 62, 18, 39, 61, 20, 44
+    };
+    private static final int[] PILN = {
+        10, 7, 11, 17, 18, 3, 5, 16, 8, 21, 24, 4, 15, 23, 19, 13, 12, 2, 20, 14, 22, 9, 6, 1
+    };
+
+    private final long[] a = new long[25];
+    private final long[] c = new long[5];
+
+    /**
+     * Hashes input[offset, offset+length) into out[out_offset, out_offset+32).
+     * The output may overlap the input, it is written once all of it is read.
+     */
+    public void digest(byte[] input, int offset, int length, byte[] out, int out_offset) {
+        assert(offset + length <= input.length && out_offset + HASH_SIZE <= out.length);
+        Arrays.fill(this.a, 0);
+        while (length >= RATE) {
+            for (int i = 0; i < RATE / 8; i++) {
+                this.a[i] ^= littleEndianLong(input, offset + 8 * i);
+            }
+            permute();
+            offset += RATE;
+            length -= RATE;
+        }
+        for (int i = 0; i < length; i++) {
+            xorByte(i, input[offset + i]);
+        }
+        // pad10*1 with the Keccak domain bit
+        xorByte(length, (byte) 0x01);
+        xorByte(RATE - 1, (byte) 0x80);
+        permute();
+        for (int i = 0; i < HASH_SIZE; i++) {
+            out[out_offset + i] = (byte) (this.a[i >>> 3] >>> (8 * (i & 7)));
+        }
+    }
+
+    public byte[] digest(byte[] input) {
+        byte[] out = new byte[HASH_SIZE];
+        digest(input, 0, input.length, out, 0);
+        return out;
+    }
+
+    private void xorByte(int position, byte b) {
+        this.a[position >>> 3] ^= (b & 0xFFL) << (8 * (position & 7));
+    }
+
+    private static long littleEndianLong(byte[] arr, int offset) {
+        long x = 0;
+        for (int i = 7; i >= 0; i--) {
+            x = (x << 8) | (arr[offset + i] & 0xFFL);
+        }
+        return x;
+    }
+
+    // Keccak-f[1600]
+    private void permute() {
+        long[] a = this.a;
+        long[] c = this.c;
+        for (int round = 0; round < 24; round++) {
+            // theta
+            for (int i = 0; i < 5; i++) {
+                c[i] = a[i] ^ a[i + 5] ^ a[i + 10] ^ a[i + 15] ^ a[i + 20];
+            }
+            for (int i = 0; i < 5; i++) {
+                long t = c[(i + 4) % 5] ^ Long.rotateLeft(c[(i + 1) % 5], 1);
+                for (int j = 0; j < 25; j += 5) {
+                    a[j + i] ^= t;
+                }
+            }
+            // rho and pi
+            long t = a[1];
+            for (int i = 0; i < 24; i++) {
+                int j = PILN[i];
+                long next = a[j];
+                a[j] = Long.rotateLeft(t, ROTC[i]);
+                t = next;
+            }
+            // chi
+            for (int j = 0; j < 25; j += 5) {
+                for (int i = 0; i < 5; i++) {
+                    c[i] = a[j + i];
+                }
+                for (int i = 0; i < 5; i++) {
+                    a[j + i] ^= ~c[(i + 1) % 5] & c[(i + 2) % 5];
+                }
+            }
+            // iota
+            a[0] ^= RC[round];
+        }
+    }
+}
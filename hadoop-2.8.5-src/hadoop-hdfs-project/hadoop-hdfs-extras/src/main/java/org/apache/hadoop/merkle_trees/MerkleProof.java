@@ -2,6 +2,7 @@ package org.apache.hadoop.merkle_trees;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -47,6 +48,10 @@ public class MerkleProof {
     	return this.challenges.isEmpty();
     }
     
+    public byte[] getRoot() {
+    	return this.root;
+    }
+    
     public void skip() {
     	this.challenges.pop();
     	this.chunks.pop();
@@ -54,6 +59,33 @@ public class MerkleProof {
     	this.paths.pop();
     }
     
+    /**
+     * Checks that every remaining chunk, hashed along its path,
+     * leads to the root of the proof.
+     * @return false if any of the paths does not match the root
+     */
+    public boolean verify() {
+    	Blake2sHasher hasher = Blake2s.hasher();
+    	Iterator<List<byte[]>> sibling_it = this.siblings.iterator();
+    	Iterator<List<Boolean>> path_it = this.paths.iterator();
+    	for(byte[] chunk : this.chunks) {
+    		byte[] hash = Blake2s.digest(chunk);
+    		Iterator<Boolean> path = path_it.next().iterator();
+    		for(byte[] sibling : sibling_it.next()) {
+    			// true means the current node is the right child
+    			if(path.next()) {
+    				hasher.digestPair(sibling, 0, hash, 0, hash, 0);
+    			} else {
+    				hasher.digestPair(hash, 0, sibling, 0, hash, 0);
+    			}
+    		}
+    		if(!Arrays.equals(hash, this.root)) {
+    			return false;
+    		}
+    	}
+    	return true;
+    }
+    
     private static void appendToList(List<String> ls, byte[] item) {
     	assert(item.length % 4 == 0);
     	for(int i = 0; i < item.length; i += 4) {
@@ -63,6 +95,16 @@ public class MerkleProof {
     
     public List<String> nextWitness() {
     	List<String> command = new ArrayList<String>(Arrays.asList("./zokrates", "compute-witness", "-a"));
+    	command.addAll(nextWitnessArgs());
+    	return command;
+    }
+    
+    /**
+     * Same as {@link #nextWitness()}, without the ZoKrates command,
+     * i.e. only the arguments of the circuit.
+     */
+    public List<String> nextWitnessArgs() {
+    	List<String> command = new ArrayList<String>();
     	// first goes the index
     	command.add(Integer.toString(this.challenges.pop()));
     	// second is the root hash
@@ -83,4 +125,38 @@ public class MerkleProof {
     	return command;
     }
 
+    /**
+     * The arguments of merkle_proof_multi.zok, which proves all the remaining
+     * challenges at once: their indexes, the root and the nullifier (shared
+     * by all of them), then their chunks, siblings and paths one after the other.
+     * All the challenges are consumed. With a single challenge, the same as
+     * {@link #nextWitnessArgs()}.
+     */
+    public List<String> witnessArgs() {
+    	List<String> command = new ArrayList<String>();
+    	for(int index : this.challenges) {
+    		command.add(Integer.toString(index));
+    	}
+    	command.addAll(Arrays.asList((Util.rootToZokFields(this.root))));
+    	command.add(Integer.toString(this.randomness));
+    	for(byte[] chunk : this.chunks) {
+    		appendToList(command, chunk);
+    	}
+    	for(List<byte[]> path_siblings : this.siblings) {
+    		for(byte[] sibling : path_siblings) {
+    			appendToList(command, sibling);
+    		}
+    	}
+    	for(List<Boolean> path : this.paths) {
+    		for(boolean b : path) {
+    			command.add(b ? "1" : "0");
+    		}
+    	}
+    	this.challenges.clear();
+    	this.chunks.clear();
+    	this.siblings.clear();
+    	this.paths.clear();
+    	return command;
+    }
+
 }
@@ -1,165 +1,317 @@
 package org.apache.hadoop.merkle_trees;
 
-import java.math.BigInteger;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
-import org.web3j.crypto.Hash;
-
 /**
  * Representation of a classic Merkle Tree created
- * from a given byte array. It has constant size,
- * and also keeps the raw data in chunks.
+ * from a given byte array or buffer. It has constant size.
+ * <p>
+ * All node hashes are kept in a single array in heap order
+ * (root at 0, children of node i at 2i+1 and 2i+2), and the
+ * chunks are read from the raw data only when requested.
+ * The data may be a memory-mapped file, in which case it is
+ * hashed without ever being copied on the heap.
+ * <p>
+ * A tree can also be created from the stored hashes of its top
+ * levels, in which case only the subtrees needed for the requested
+ * paths are hashed again.
+ * <p>
+ * The leaves of a block shorter than the data they cover repeat with
+ * a period (see {@link #leafPeriod(long, int, int)}), and so do the nodes
+ * of every level above them: only the distinct ones are hashed, the
+ * others are copied.
  */
 public class MerkleTree{
 
-    protected Node root;
-    protected ArrayList<Node> leaves;
-    private ArrayList<byte[]> chunks;
+    protected static final int HASH_SIZE = 32;
 
-    protected class Node{
-        private byte[] hash;
-        private Node parent;
-        private Node left, right;
+    private final ByteBuffer block;
+    private final int block_length;
+    private final int chunk_size;
+    private final int chunk_count;
+    // hashes of all nodes, leaves start at node (chunk_count - 1)
+    protected final byte[] nodes;
+    // only the first stored_nodes are kept, the rest are computed on demand
+    private final int stored_nodes;
+    // the leaves repeat every period leaves (chunk_count if they do not)
+    private final int period;
+    private boolean built;
 
-        //Leaf Node
-        public Node(byte[] data){
-            // compute hash from data
-            this.hash = Blake2s.digest(data);
-            this.parent = null;
-            this.left = null;
-            this.right = null;
-        }
+    /**
+     * Fill all the leaves with correpsonding chunks' hashes.
+     * Chunks are formed from repeating the sequence of bytes of the given block.
+     * @param block The raw data
+     * @param chunk_size The size of each chunk in bytes
+     * @param tree_height The height of the resulting merkle tree
+     */
+    public MerkleTree(byte[] block, int chunk_size, int tree_height){
+        this(ByteBuffer.wrap(block), chunk_size, tree_height);
+    }
 
-        //Intermidiate or root node
-        public Node(Node left, Node right){
-            //compute hash from children Nodes
-            this.hash = Blake2s.digest(Util.concatBytes(left.getHash(), right.getHash()));
-            this.parent = null;
-            this.left = left;
-            this.right = right;
+    /**
+     * Same as {@link #MerkleTree(byte[], int, int)}, reading the data
+     * between the position and the limit of the given buffer.
+     * The buffer must not be released while the tree is in use.
+     */
+    public MerkleTree(ByteBuffer block, int chunk_size, int tree_height){
+        this(block, chunk_size, tree_height, null);
+    }
 
-            left.parent = this;
-            right.parent = this;
+    /**
+     * Creates a tree whose top levels were already computed, e.g. stored
+     * by {@link #writeLevels(OutputStream, int)} when the block was first
+     * hashed. No chunk is hashed here, the hashes of the lower levels are
+     * recomputed from the data only for the nodes that are requested
+     * (i.e. the siblings on the paths of the challenged chunks).
+     * @param levels The hashes of the top levels in heap order, or null
+     * to hash all the leaves now (the tree must then be built)
+     */
+    public MerkleTree(ByteBuffer block, int chunk_size, int tree_height, byte[] levels){
+        // make no assertion about block length, just cover as much of its data as possible
+    	//assert(block.length <= chunk_count * chunk_size);
+    	assert(tree_height >= 0 && tree_height < 31); // just to be safe
+  		// Just in case we have an empty block
+        if(!block.hasRemaining()){
+            // Initialize all zeroes
+            block = ByteBuffer.allocate(chunk_size);
         }
-
-        public byte[] getHash(){
-            return this.hash;
+        this.block = block.slice().order(ByteOrder.BIG_ENDIAN);
+        this.block_length = this.block.remaining();
+        this.chunk_size = chunk_size;
+        this.chunk_count = 1 << tree_height;
+        if(levels != null) {
+            // must hold complete levels, starting from the root
+            assert(levels.length % HASH_SIZE == 0 && levels.length <= (2 * this.chunk_count - 1) * HASH_SIZE);
+            assert(Integer.bitCount(levels.length / HASH_SIZE + 1) == 1);
+            this.nodes = levels;
+            this.stored_nodes = levels.length / HASH_SIZE;
+            this.period = this.chunk_count;
+            this.built = true;
+            return;
         }
-
-        public Node getParent(){
-            return this.parent;
+        this.nodes = new byte[(2 * this.chunk_count - 1) * HASH_SIZE];
+        this.stored_nodes = 2 * this.chunk_count - 1;
+        this.period = leafPeriod(this.block_length, chunk_size, this.chunk_count);
+        this.built = false;
+        // compute hash of every distinct chunk, straight from the block when it does not wrap around
+        byte[] current_chunk = new byte[chunk_size];
+        int leaf = this.chunk_count - 1;
+        // the first pass over the block has its chunks one after the other, hash them in lockstep
+        int direct = (int) Math.min(this.period, this.block_length / chunk_size);
+        Blake2s.hasher().digestBatch(this.block, 0, chunk_size, direct, this.nodes, leaf * HASH_SIZE);
+        for (int i = direct; i < this.period; i++) {
+            hashChunk(i, this.nodes, (leaf + i) * HASH_SIZE, current_chunk);
         }
+        repeat(this.nodes, leaf * HASH_SIZE, this.period, this.chunk_count);
+    }
 
-        public Node getLeft(){
-            return this.left;
+    /**
+     * Leaf i covers the bytes of the block from (i * chunk_size) % block_length,
+     * so the leaves of a short block repeat once that offset is back to 0,
+     * i.e. every block_length / gcd(block_length, chunk_size) leaves (a 4KB
+     * block of 512 byte chunks has 8 distinct leaves, whatever the height).
+     * @return The period of the leaves, chunk_count if they do not repeat
+     */
+    static int leafPeriod(long block_length, int chunk_size, int chunk_count) {
+        long a = block_length, b = chunk_size;
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
         }
+        long period = block_length / a;
+        return period < chunk_count ? (int) period : chunk_count;
+    }
 
-        public Node getRight(){
-            return this.right;
+    /**
+     * The period of the nodes of a level, given the one of the level below:
+     * node j hashes children 2j and 2j+1, so it repeats every period / 2
+     * nodes when the period of the children is even, every period otherwise.
+     */
+    private static int parentPeriod(int period) {
+        return (period & 1) == 0 ? period / 2 : period;
+    }
+
+    // copies the first distinct hashes at offset until count hashes are filled
+    private static void repeat(byte[] hashes, int offset, int distinct, int count) {
+        for (int filled = distinct; filled < count; ) {
+            int n = Math.min(filled, count - filled);
+            System.arraycopy(hashes, offset, hashes, offset + filled * HASH_SIZE, n * HASH_SIZE);
+            filled += n;
         }
     }
 
     /**
-     * Fill all the leaves with correpsonding chunks' hashes.
-     * Chunks are formed from repeating the sequence of bytes of the given block.
-     * @param block The raw data
-     * @param chunk_size The size of each chunk in bytes
-     * @param tree_height The height of the resulting merkle tree
+     * Computes the root of the tree of a short block whose leaves repeat,
+     * hashing and keeping only the distinct nodes of each level, i.e. without
+     * allocating the tree (used by {@link MerkleTreeBuilder} once the block
+     * is complete).
+     * @param block The (non-empty) data between its position and its limit
+     * @return The merkle root, or null if the leaves of the block do not repeat
      */
-    public MerkleTree(byte[] block, int chunk_size, int tree_height){
-        // make no assertion about block length, just cover as much of its data as possible
-    	//assert(block.length <= chunk_count * chunk_size);
-    	assert(tree_height >= 0); // just to be safe
-    	final int chunk_count = (int) Math.pow(2, tree_height);
-  		// Just in case we have an empty block
-        if(block.length == 0){
-            // Initialize all zeroes
-            block = new byte[chunk_size];
-        }
-        // init fields
-        this.chunks = new ArrayList<byte[]>();
-        this.leaves = new ArrayList<Node>();
-        this.root = null;
-        // fill chunk and compute hash
-        int block_index = 0;
-        for (int i = 0; i < chunk_count; i++) {
-            int chunk_index = 0;
-            byte[] current_chunk = new byte[chunk_size];
-            while (chunk_index < chunk_size) {
-                int to_copy = Math.min(chunk_size - chunk_index, block.length - block_index);
-                System.arraycopy(block, block_index, current_chunk, chunk_index, to_copy);
-                chunk_index += to_copy;
-                block_index += to_copy;
-                if(block_index >= block.length){
-                    block_index = 0;
-                }
-            }
-            this.chunks.add(current_chunk);
-            this.leaves.add(new Node(current_chunk));
+    static byte[] periodicRoot(ByteBuffer block, int chunk_size, int tree_height) {
+        block = block.slice();
+        int block_length = block.remaining();
+        int chunk_count = 1 << tree_height;
+        int period = leafPeriod(block_length, chunk_size, chunk_count);
+        if (period == chunk_count) {
+            return null;
+        }
+        // room for the children of the distinct nodes of the next level
+        byte[] level = new byte[2 * period * HASH_SIZE];
+        byte[] current_chunk = new byte[chunk_size];
+        for (int i = 0; i < period; i++) {
+            readChunk(block, block_length, chunk_size, i, current_chunk);
+            Blake2s.digest(current_chunk, 0, chunk_size, level, i * HASH_SIZE);
         }
+        Blake2sHasher hasher = Blake2s.hasher();
+        int distinct = period;
+        for (int width = chunk_count / 2; width > 0; width /= 2) {
+            period = parentPeriod(period);
+            int next = Math.min(period, width);
+            repeat(level, 0, distinct, 2 * next);
+            hasher.digestBatch(level, 0, 2 * HASH_SIZE, next, level, 0);
+            distinct = next;
+        }
+        return Arrays.copyOf(level, HASH_SIZE);
     }
 
     /**
      * Builds the Merkle Tree from the initialized leaves.
      */
     public void build(){
-        ArrayList<Node> current, prev;
-        current = this.leaves;
-        // Building the tree from bottom-up
-        while (current.size() > 1) {
-            prev = current;
-            current = new ArrayList<Node>();
-            for (int i = 0; i < prev.size(); i+=2) {
-                current.add(new Node(prev.get(i), prev.get(i+1)));
-            }
+        if(this.built) {
+            return;
         }
-        this.root = current.get(0);
+        // Building the tree from bottom-up, level by level
+        // (the nodes of a level are contiguous, and so are the children of each one)
+        Blake2sHasher hasher = Blake2s.hasher();
+        int period = this.period;
+        for (int width = this.chunk_count / 2; width > 0; width /= 2) {
+            period = parentPeriod(period);
+            int distinct = Math.min(period, width);
+            hasher.digestBatch(this.nodes, (2 * width - 1) * HASH_SIZE, 2 * HASH_SIZE, distinct, this.nodes, (width - 1) * HASH_SIZE);
+            repeat(this.nodes, (width - 1) * HASH_SIZE, distinct, width);
+        }
+        this.built = true;
+    }
+
+    /**
+     * Writes the hashes of the top levels of the (built) tree in heap order,
+     * so they can later be passed to {@link #MerkleTree(ByteBuffer, int, int, byte[])}.
+     * @param levels The number of levels to write, from 1 (root only) to tree_height + 1
+     */
+    public void writeLevels(OutputStream out, int levels) throws IOException {
+        assert(this.built && levels > 0 && (1 << levels) - 1 <= this.stored_nodes);
+        out.write(this.nodes, 0, ((1 << levels) - 1) * HASH_SIZE);
     }
 
     public byte[] getRoot() {
-        return this.root.getHash();
+        return getHash(0);
     }
-    
+
+    protected byte[] getHash(int node) {
+        if(node >= this.stored_nodes) {
+            return computeHash(node);
+        }
+        return Arrays.copyOfRange(this.nodes, node * HASH_SIZE, (node + 1) * HASH_SIZE);
+    }
+
+    // recomputes the hash of a node that was not stored, from the chunks below it
+    private byte[] computeHash(int node) {
+        int depth = 31 - Integer.numberOfLeadingZeros(node + 1);
+        int width = this.chunk_count >>> depth;
+        int first = (node + 1 - (1 << depth)) * width;
+        byte[] level = new byte[width * HASH_SIZE];
+        byte[] current_chunk = new byte[this.chunk_size];
+        for (int j = 0; j < width; j++) {
+            hashChunk(first + j, level, j * HASH_SIZE, current_chunk);
+        }
+        // reduce level by level in place, both children of a node are adjacent
+        Blake2sHasher hasher = Blake2s.hasher();
+        for (; width > 1; width >>= 1) {
+            hasher.digestBatch(level, 0, 2 * HASH_SIZE, width / 2, level, 0);
+        }
+        return Arrays.copyOf(level, HASH_SIZE);
+    }
+
+    private void hashChunk(int i, byte[] out, int out_offset, byte[] current_chunk) {
+        int start = (int) (((long) i * this.chunk_size) % this.block_length);
+        if(start + this.chunk_size <= this.block_length) {
+            Blake2s.digest(this.block, start, this.chunk_size, out, out_offset);
+        } else {
+            readChunk(i, current_chunk);
+            Blake2s.digest(current_chunk, 0, this.chunk_size, out, out_offset);
+        }
+    }
+
+    private void readChunk(int i, byte[] current_chunk) {
+        readChunk(this.block, this.block_length, this.chunk_size, i, current_chunk);
+    }
+
+    private static void readChunk(ByteBuffer block, int block_length, int chunk_size, int i, byte[] current_chunk) {
+        // work on a duplicate, so concurrent readers do not share a position
+        ByteBuffer data = block.duplicate();
+        int block_index = (int) (((long) i * chunk_size) % block_length);
+        int chunk_index = 0;
+        while (chunk_index < chunk_size) {
+            int to_copy = Math.min(chunk_size - chunk_index, block_length - block_index);
+            data.position(block_index);
+            data.get(current_chunk, chunk_index, to_copy);
+            chunk_index += to_copy;
+            block_index += to_copy;
+            if(block_index >= block_length){
+                block_index = 0;
+            }
+        }
+    }
+
     public byte[] getChunk(int i) {
-    	return this.chunks.get(i);
+    	byte[] current_chunk = new byte[this.chunk_size];
+    	readChunk(i, current_chunk);
+    	return current_chunk;
     }
-    
+
     public Pair<List<Boolean>, List<byte[]>> getPath(int i) {
     	ArrayList<Boolean> path = new ArrayList<>();
     	ArrayList<byte[]> siblings = new ArrayList<>();
-    	Node prev, current = this.leaves.get(i);
-    	while(current != this.root) {
-    		prev = current;
-    		current = current.getParent();
-    		if(current.left == prev) {
+    	int current = this.chunk_count - 1 + i;
+    	while(current != 0) {
+    		if(current % 2 == 1) {
+    			// left child, sibling on the right
     			path.add(false);
-    			siblings.add(current.getRight().getHash());
+    			siblings.add(getHash(current + 1));
     		} else {
     			path.add(true);
-    			siblings.add(current.getLeft().getHash());
+    			siblings.add(getHash(current - 1));
     		}
+    		current = (current - 1) / 2;
     	}
     	return new Pair<>(path, siblings);
-    }    
-    
-    private LinkedList<Integer> gen_challenges(byte[] seed, BigInteger block_id, int chall_count){
+    }
+
+    // package-private for the benchmarks
+    LinkedList<Integer> gen_challenges(byte[] seed, long block_id, int chall_count){
         assert(chall_count > 0);
+        int[] indexes = ChallengeGenerator.generator().generate(seed, block_id, this.chunk_count, chall_count);
         LinkedList<Integer> challenges = new LinkedList<>();
-        BigInteger tmp = new BigInteger(Hash.sha3(Util.encode_packed(seed, block_id)));
-        challenges.add(tmp.mod(BigInteger.valueOf(this.chunks.size())).intValue());
-        for (int i = 1; i < chall_count; i++) {
-            tmp = new BigInteger(Hash.sha3(Util.encode_packed(tmp, block_id)));
-            challenges.add(tmp.mod(BigInteger.valueOf(this.chunks.size())).intValue());
+        for (int i : indexes) {
+            challenges.add(i);
         }
         return challenges;
     }
-    
+
     // produces a struct with all data required to create the zk-proofs
     public MerkleProof getMerkleProof(long block_id, byte[] seed, int chall_count) {
-    	LinkedList<Integer> challenges = gen_challenges(seed, BigInteger.valueOf(block_id), chall_count);
+    	LinkedList<Integer> challenges = gen_challenges(seed, block_id, chall_count);
     	LinkedList<byte[]> chunks = new LinkedList<>();
     	LinkedList<List<Boolean>> paths = new LinkedList<>();
     	LinkedList<List<byte[]>> siblings = new LinkedList<>();
@@ -0,0 +1,333 @@
+package org.apache.hadoop.merkle_trees;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Computes the root of a {@link MerkleTree} incrementally, while the data
+ * of the block is being written. Every chunk is hashed as soon as it is
+ * complete and only the roots of the pending (left) subtrees are kept,
+ * one for each level of the tree.
+ * <p>
+ * For blocks shorter than the data covered by the leaves, the remaining
+ * leaves are formed by repeating the block (just like {@link MerkleTree}),
+ * so the raw bytes are kept only until the block covers all the leaves, and
+ * at most up to a limit (see {@link #limitPrefix(long)}).
+ * When the repeated leaves have a short period, the root is computed from
+ * the distinct nodes only (see {@link MerkleTree#periodicRoot}).
+ * <p>
+ * The builder can also keep the top levels of the tree (see
+ * {@link #keepLevels(int)}), recording the root of every subtree of the
+ * lowest kept level as soon as it is complete.
+ * <p>
+ * Once the block covers all the leaves, the data written after does not
+ * change the tree (see {@link #skip(long)}), and such a block is resumed
+ * from the top levels of its tree (see {@link #resume(byte[], long)}).
+ */
+public class MerkleTreeBuilder extends OutputStream {
+
+    /** The raw data kept by the builders of the blocks being written, see {@link #limitPrefix(long)} */
+    public static final long STREAM_PREFIX_LIMIT = 4L << 20;
+
+    private static final int HASH_SIZE = 32;
+
+    private final int chunk_size;
+    private final int tree_height;
+    private final long chunk_count;
+    // number of bytes covered by the leaves of the tree
+    private final long coverage;
+
+    // roots of the pending subtrees, frontier[l] is valid if bit l of leaf_count is set
+    private final byte[][] frontier;
+    private final byte[] chunk;
+    // hashes of the latest leaves, and the node being merged into the frontier
+    private final byte[] leaves;
+    private final byte[] node;
+    private final Blake2sHasher hasher = new Blake2sHasher();
+    private int chunk_fill;
+    private long leaf_count;
+    private long length;
+    // raw data of the block, kept only while it is shorter than the coverage and the limit
+    private byte[] prefix;
+    private long prefix_limit;
+    // number of top levels kept (0 for none), and the hashes of those levels in heap order
+    private int kept_levels;
+    private byte[] kept;
+    // false once a block is resumed without its tree, its root is then unknown
+    private boolean known;
+
+    public MerkleTreeBuilder(int chunk_size, int tree_height) {
+        assert(tree_height >= 0 && chunk_size > 0);
+        this.chunk_size = chunk_size;
+        this.tree_height = tree_height;
+        this.chunk_count = 1L << tree_height;
+        this.coverage = this.chunk_count * chunk_size;
+        this.frontier = new byte[tree_height + 1][HASH_SIZE];
+        this.chunk = new byte[chunk_size];
+        this.leaves = new byte[Blake2sHasher.LANES * HASH_SIZE];
+        this.node = new byte[HASH_SIZE];
+        this.prefix_limit = this.coverage;
+        this.reset();
+    }
+
+    /**
+     * Discards all the data written so far and starts a new block.
+     */
+    public void reset() {
+        this.chunk_fill = 0;
+        this.leaf_count = 0;
+        this.length = 0;
+        this.prefix = new byte[Math.min(this.chunk_size, (int) Math.min(this.coverage, Integer.MAX_VALUE))];
+        this.kept = this.kept_levels > 0 ? new byte[((1 << this.kept_levels) - 1) * HASH_SIZE] : null;
+        this.known = true;
+    }
+
+    /**
+     * Keeps the top levels of the tree of the next blocks, to be returned
+     * by {@link #finishLevels()}. Discards the data written so far.
+     * @param levels The number of levels, from 1 (root only) to tree_height + 1, or 0 for none
+     */
+    public void keepLevels(int levels) {
+        assert(levels >= 0 && levels <= this.tree_height + 1);
+        this.kept_levels = levels;
+        reset();
+    }
+
+    /**
+     * Limits the raw data kept for the leaves of short blocks: the root of
+     * a block shorter than the coverage and longer than the limit is not
+     * computed (see {@link #finish()}), and it has to be read back instead.
+     * Discards the data written so far.
+     * @param bytes The limit, capped to the coverage
+     */
+    public void limitPrefix(long bytes) {
+        assert(bytes >= 0);
+        this.prefix_limit = Math.min(bytes, this.coverage);
+        reset();
+    }
+
+    /**
+     * @return The number of bytes written since the start of the block
+     */
+    public long getLength() {
+        return this.length;
+    }
+
+    /**
+     * @return The number of bytes covered by the leaves of the tree, the
+     * data of the block past it does not change the tree
+     */
+    public long getCoverage() {
+        return this.coverage;
+    }
+
+    /**
+     * Counts data past the coverage as written, without hashing it, so a
+     * block is resumed from its covered data only.
+     * @param n The number of bytes
+     * @throws IllegalStateException If the block does not cover all the
+     * leaves yet
+     */
+    public void skip(long n) {
+        assert(n >= 0);
+        if(n > 0 && this.length < this.coverage) {
+            throw new IllegalStateException("The leaves are not all covered yet");
+        }
+        this.length += n;
+    }
+
+    /**
+     * Starts a new block from one that already covers all the leaves, so
+     * none of its data has to be read back: the data written after it
+     * does not change the tree.
+     * @param levels The hashes of the top levels of its tree in heap order
+     * (as written by {@link MerkleTree#writeLevels}), at least the root and
+     * the kept levels, or null if the tree is not known, {@link #finish()}
+     * then returns null
+     * @param length The length of the block
+     * @throws IllegalArgumentException If the block does not cover all the
+     * leaves, or levels are missing
+     */
+    public void resume(byte[] levels, long length) {
+        if(length < this.coverage) {
+            throw new IllegalArgumentException("The leaves are not all covered");
+        }
+        if(levels != null && levels.length < Math.max(HASH_SIZE, this.kept == null ? 0 : this.kept.length)) {
+            throw new IllegalArgumentException("Missing levels of the tree");
+        }
+        reset();
+        this.prefix = null;
+        this.leaf_count = this.chunk_count;
+        this.length = length;
+        if(levels == null) {
+            this.known = false;
+            return;
+        }
+        System.arraycopy(levels, 0, this.frontier[this.tree_height], 0, HASH_SIZE);
+        if(this.kept != null) {
+            System.arraycopy(levels, 0, this.kept, 0, this.kept.length);
+        }
+    }
+
+    /**
+     * @return True if the block is shorter than the coverage and longer than
+     * the limit: its leaves wrap around data that was not kept, so its root
+     * is not computed unless more data covers all the leaves
+     */
+    public boolean isTruncated() {
+        return this.prefix == null && this.leaf_count < this.chunk_count;
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        assert(off >= 0 && len >= 0 && off + len <= b.length);
+        if(this.prefix != null) {
+            keep(b, off, len);
+        }
+        this.length += len;
+        absorb(b, off, len);
+    }
+
+    /**
+     * Completes the tree (repeating the data of a short block if needed)
+     * and resets the builder for the next block.
+     * @return The merkle root of the block written so far, null if it was
+     * resumed without its tree or it is short and longer than the limit
+     */
+    public byte[] finish() {
+        if(!this.known || isTruncated()) {
+            reset();
+            return null;
+        }
+        if(this.leaf_count < this.chunk_count) {
+            byte[] data = this.prefix;
+            int data_length = (int) this.length;
+            // Just in case we have an empty block, fill with zeroes
+            if(data_length == 0) {
+                data = new byte[this.chunk_size];
+                data_length = this.chunk_size;
+            }
+            byte[] root = MerkleTree.periodicRoot(ByteBuffer.wrap(data, 0, data_length), this.chunk_size, this.tree_height);
+            if(root != null) {
+                reset();
+                return root;
+            }
+            while(this.leaf_count < this.chunk_count) {
+                absorb(data, 0, data_length);
+            }
+        }
+        byte[] root = this.frontier[this.tree_height].clone();
+        reset();
+        return root;
+    }
+
+    /**
+     * Completes the tree like {@link #finish()}, and resets the builder.
+     * @return The hashes of the kept top levels of the tree, in heap order
+     * (as written by {@link MerkleTree#writeLevels}), null if the block
+     * was resumed without its tree or it is short and longer than the limit
+     */
+    public byte[] finishLevels() {
+        if(this.kept == null) {
+            throw new IllegalStateException("No levels are kept");
+        }
+        if(!this.known || isTruncated()) {
+            reset();
+            return null;
+        }
+        if(this.leaf_count < this.chunk_count) {
+            // the whole block is in the prefix, and the tree of a short block is cheap to build
+            byte[] data = this.prefix;
+            int data_length = (int) this.length;
+            MerkleTree tree = new MerkleTree(ByteBuffer.wrap(data, 0, data_length), this.chunk_size, this.tree_height);
+            tree.build();
+            byte[] levels = Arrays.copyOf(tree.nodes, this.kept.length);
+            reset();
+            return levels;
+        }
+        // the lowest kept level is complete, hash the ones above it
+        byte[] levels = this.kept;
+        for (int width = (1 << (this.kept_levels - 1)) / 2; width > 0; width /= 2) {
+            this.hasher.digestBatch(levels, (2 * width - 1) * HASH_SIZE, 2 * HASH_SIZE, width, levels, (width - 1) * HASH_SIZE);
+        }
+        reset();
+        return levels;
+    }
+
+    private void keep(byte[] b, int off, int len) {
+        long total = this.length + len;
+        if(total >= this.coverage) {
+            // from now on, the leaves will never wrap around the block
+            this.prefix = null;
+            return;
+        }
+        if(total > this.prefix_limit) {
+            // the root is only known if the block ends up covering all the leaves
+            this.prefix = null;
+            return;
+        }
+        if(total > this.prefix.length) {
+            byte[] grown = new byte[(int) Math.min(Math.max(total, 2L * this.prefix.length), this.prefix_limit)];
+            System.arraycopy(this.prefix, 0, grown, 0, (int) this.length);
+            this.prefix = grown;
+        }
+        System.arraycopy(b, off, this.prefix, (int) this.length, len);
+    }
+
+    private void absorb(byte[] b, int off, int len) {
+        while(len > 0 && this.leaf_count < this.chunk_count) {
+            if(this.chunk_fill == 0 && len >= this.chunk_size) {
+                // whole chunks are hashed in lockstep, straight from the caller's buffer
+                int count = (int) Math.min(Math.min(len / this.chunk_size, Blake2sHasher.LANES),
+                        this.chunk_count - this.leaf_count);
+                this.hasher.digestBatch(b, off, this.chunk_size, count, this.leaves, 0);
+                for (int i = 0; i < count; i++) {
+                    addLeaf(this.leaves, i * HASH_SIZE);
+                }
+                off += count * this.chunk_size;
+                len -= count * this.chunk_size;
+                continue;
+            }
+            int to_copy = Math.min(len, this.chunk_size - this.chunk_fill);
+            System.arraycopy(b, off, this.chunk, this.chunk_fill, to_copy);
+            this.chunk_fill += to_copy;
+            off += to_copy;
+            len -= to_copy;
+            if(this.chunk_fill == this.chunk_size) {
+                this.hasher.digest(this.chunk, 0, this.chunk_size, this.leaves, 0);
+                addLeaf(this.leaves, 0);
+                this.chunk_fill = 0;
+            }
+        }
+    }
+
+    private void addLeaf(byte[] hash, int offset) {
+        System.arraycopy(hash, offset, this.node, 0, HASH_SIZE);
+        // merge with the pending subtrees of equal size
+        int level = 0;
+        for (long n = this.leaf_count; (n & 1) == 1; n >>>= 1) {
+            keepNode(level);
+            this.hasher.digestPair(this.frontier[level], 0, this.node, 0, this.node, 0);
+            level++;
+        }
+        keepNode(level);
+        System.arraycopy(this.node, 0, this.frontier[level], 0, HASH_SIZE);
+        this.leaf_count++;
+    }
+
+    // records the node being merged if it is the root of a subtree of the lowest kept level
+    private void keepNode(int level) {
+        int depth = this.tree_height - level;
+        if(this.kept == null || depth != this.kept_levels - 1) {
+            return;
+        }
+        long index = (1L << depth) - 1 + (this.leaf_count >>> level);
+        System.arraycopy(this.node, 0, this.kept, (int) index * HASH_SIZE, HASH_SIZE);
+    }
+}
@@ -60,13 +60,22 @@ public class Util {
 
     public static byte[] intsToBytes(int[] arr){
         byte[] result = new byte[arr.length * 4];
+        intsToBytes(arr, result, 0);
+        return result;
+    }
+
+    public static void intsToBytes(int[] arr, byte[] out, int offset){
+        assert(offset + arr.length * 4 <= out.length);
         for (int i = 0; i < arr.length; i++) {
-            result[i*4] = (byte) (arr[i] >>> 24);
-            result[i*4+1] = (byte) (arr[i] >>> 16);
-            result[i*4+2] = (byte) (arr[i] >>> 8);
-            result[i*4+3] = (byte) (arr[i] >>> 0);
+            intToBytes(arr[i], out, offset+i*4);
         }
-        return result;
+    }
+
+    public static void intToBytes(int x, byte[] out, int offset){
+        out[offset] = (byte) (x >>> 24);
+        out[offset+1] = (byte) (x >>> 16);
+        out[offset+2] = (byte) (x >>> 8);
+        out[offset+3] = (byte) (x >>> 0);
     }
 
     public static byte[] concatBytes(byte[] a, byte[] b){
@@ -0,0 +1,77 @@
+package org.apache.hadoop.blockchain;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.web3j.protocol.Web3jService;
+import org.web3j.protocol.core.BatchRequest;
+import org.web3j.protocol.core.BatchResponse;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.websocket.events.Notification;
+
+import io.reactivex.Flowable;
+
+/**
+ * A node whose JSON-RPC calls are answered by the test itself, so the
+ * web3j classes are used as they are, without a node or mocks of them.
+ * Asynchronous calls are answered right away, on the calling thread.
+ */
+abstract class FakeNode implements Web3jService {
+
+  /**
+   * @param method the JSON-RPC method, e.g. eth_sendRawTransaction
+   * @return the result of the call, null for none (e.g. no receipt yet)
+   * @throws IOException to fail the call
+   */
+  abstract Object answer(String method, List<?> params) throws IOException;
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  @Override
+  public <T extends Response> T send(Request request, Class<T> type)
+      throws IOException {
+    Object result = answer(request.getMethod(), request.getParams());
+    try {
+      T response = type.newInstance();
+      ((Response) response).setResult(result);
+      return response;
+    } catch (InstantiationException | IllegalAccessException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  @Override
+  public <T extends Response> CompletableFuture<T> sendAsync(Request request,
+      Class<T> type) {
+    CompletableFuture<T> response = new CompletableFuture<T>();
+    try {
+      response.complete(send(request, type));
+    } catch (IOException e) {
+      response.completeExceptionally(e);
+    }
+    return response;
+  }
+
+  @Override
+  public BatchResponse sendBatch(BatchRequest request) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public CompletableFuture<BatchResponse> sendBatchAsync(BatchRequest request) {
+    throw new UnsupportedOperationException();
+  }
+
+  @SuppressWarnings("rawtypes")
+  @Override
+  public <T extends Notification<?>> Flowable<T> subscribe(Request request,
+      String unsubscribeMethod, Class<T> type) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void close() {
+  }
+}
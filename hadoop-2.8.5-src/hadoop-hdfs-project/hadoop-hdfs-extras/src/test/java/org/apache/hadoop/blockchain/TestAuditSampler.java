@@ -0,0 +1,58 @@
+package org.apache.hadoop.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestAuditSampler {
+
+  private static byte[] seed(int b) {
+    byte[] seed = new byte[64];
+    seed[63] = (byte) b;
+    return seed;
+  }
+
+  @Test
+  public void testSampleSize() {
+    assertEquals(0, AuditSampler.sample_size(100, 0, 0.01));
+    assertEquals(100, AuditSampler.sample_size(100, 1, 0.01));
+    assertEquals(0, AuditSampler.sample_size(0, 0.99, 0.01));
+    // one corrupt replica out of 10: missed by n picks with probability (10 - n) / 10
+    assertEquals(5, AuditSampler.sample_size(10, 0.5, 0.1));
+    assertEquals(9, AuditSampler.sample_size(10, 0.85, 0.1));
+    // about ln(0.01) / ln(0.99) for a large pool, whatever its size
+    int n = AuditSampler.sample_size(1000000, 0.99, 0.01);
+    assertTrue(n > 450 && n <= 459);
+    assertEquals(n, AuditSampler.sample_size(10000000, 0.99, 0.01), 2);
+  }
+
+  @Test
+  public void testSelectLowestRanks() {
+    final byte[] seed = seed(1);
+    List<Long> ids = new ArrayList<Long>();
+    for (long id = 1073741825L; id < 1073741825L + 1000; id++) {
+      ids.add(id);
+    }
+    final AuditSampler sampler = new AuditSampler();
+    List<Long> selected = sampler.select(seed, ids, 50);
+    List<Long> sorted = new ArrayList<Long>(ids);
+    Collections.sort(sorted, new Comparator<Long>() {
+      @Override
+      public int compare(Long a, Long b) {
+        return Long.compareUnsigned(sampler.rank(seed, a), sampler.rank(seed, b));
+      }
+    });
+    assertEquals(sorted.subList(0, 50), selected);
+    // the same for a given seed, another one for another seed
+    assertEquals(selected, new AuditSampler().select(seed, ids, 50));
+    assertNotEquals(selected, sampler.select(seed(2), ids, 50));
+    assertEquals(ids.size(), sampler.select(seed, ids, 5000).size());
+  }
+}
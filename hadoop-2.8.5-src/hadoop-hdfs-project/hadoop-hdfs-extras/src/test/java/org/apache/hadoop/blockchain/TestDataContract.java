@@ -0,0 +1,97 @@
+package org.apache.hadoop.blockchain;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.web3j.abi.EventEncoder;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Bool;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+public class TestDataContract {
+
+  @Test
+  public void testSelectors() {
+    byte[] code = Numeric.hexStringToByteArray(Data.BINARY);
+    assertTrue(DataContract.hasSelector(code,
+        "verify(bytes32,uint256,uint256[])"));
+    assertTrue(DataContract.hasSelector(code,
+        "add_digest(bytes32,uint256,bytes32)"));
+    // the generated wrapper predates the batches, its contract falls back
+    assertFalse(DataContract.hasSelector(code,
+        "verify_batch(bytes32,uint256[],uint256[])"));
+    assertFalse(DataContract.hasSelector(code,
+        "add_digest_batch(bytes32,uint256,uint256,uint256,bytes32)"));
+  }
+
+  @Test
+  public void testSelectorAtTheEnd() {
+    // PUSH4 and the selector of verify_batch as the last bytes of the code
+    byte[] code = Numeric.hexStringToByteArray("0x6000" + "63"
+        + Numeric.toHexStringNoPrefix(Hash.sha3(
+            "verify_batch(bytes32,uint256[],uint256[])".getBytes())).substring(0, 8));
+    assertTrue(DataContract.hasSelector(code,
+        "verify_batch(bytes32,uint256[],uint256[])"));
+  }
+
+  private static final String DATANODE =
+      "0x00000000000000000000000000000000000000aa";
+
+  // a BlockReport log, with the datanode indexed like in data.sol or not
+  private static Log blockReport(byte[] blockpool, boolean indexed) {
+    List<String> topics = new ArrayList<String>(Arrays.asList(
+        EventEncoder.encode(Data.BLOCKREPORT_EVENT),
+        Numeric.toHexString(blockpool)));
+    List<Type> data = new ArrayList<Type>();
+    if (indexed) {
+      topics.add(Numeric.toHexStringWithPrefixZeroPadded(
+          Numeric.toBigInt(DATANODE), 64));
+    } else {
+      data.add(new Address(DATANODE));
+    }
+    data.addAll(Arrays.<Type>asList(new Uint256(1234), new Uint256(42),
+        new Bool(true)));
+    Log log = new Log();
+    log.setTopics(topics);
+    log.setData("0x" + FunctionEncoder.encodeConstructor(data));
+    return log;
+  }
+
+  @Test
+  public void testDecodeBlockReport() {
+    byte[] blockpool = Hash.sha3("BP-1".getBytes());
+    for (boolean indexed : new boolean[]{false, true}) {
+      Log log = blockReport(blockpool, indexed);
+      assertEquals(indexed, DataContract.isIndexed(log));
+      Data.BlockReportEventResponse event = DataContract.decodeBlockReport(log);
+      assertArrayEquals(blockpool, event.blockpool);
+      assertEquals(DATANODE, event.datanode);
+      assertEquals(BigInteger.valueOf(1234), event.time);
+      assertEquals(BigInteger.valueOf(42), event.blockId);
+      assertTrue(event.corrupt);
+    }
+  }
+
+  @Test
+  public void testDecodeOtherEvent() {
+    Log log = blockReport(Hash.sha3("BP-1".getBytes()), false);
+    List<String> topics = new ArrayList<String>(log.getTopics());
+    topics.set(0, Numeric.toHexString(Hash.sha3("Other(bytes32)".getBytes())));
+    log.setTopics(topics);
+    assertNull(DataContract.decodeBlockReport(log));
+  }
+}
@@ -0,0 +1,120 @@
+package org.apache.hadoop.blockchain;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.tx.FastRawTransactionManager;
+import org.web3j.tx.response.PollingTransactionReceiptProcessor;
+import org.web3j.utils.Numeric;
+
+/**
+ * Checks that the proofs of a report stay pending until their
+ * transactions are mined, so the seed of the next report is not created
+ * under them (see {@link DatanodeConnection#has_pending_proofs(String)}).
+ */
+public class TestDatanodeConnection {
+
+  private static final Credentials CREDS = Credentials.create(
+      "0x4c0883a69102937d6231471b5dbb6204fe5129617082792ae468d01a3f362318");
+  private static final String CONTRACT = "0x9fa427dE298287D627bBe47b5e2eFFac4eA4F45c";
+  private static final long CHAIN_ID = 1337;
+  private static final String BP = "BP-1-127.0.0.1-1";
+
+  // a node with the contract of the BINARY, which mines the transactions it is told to
+  private final List<String> hashes = new CopyOnWriteArrayList<String>();
+  private final Set<String> mined = ConcurrentHashMap.newKeySet();
+  private volatile boolean reject = false;
+  private Web3j web3j;
+  private DatanodeConnection con;
+
+  @Before
+  public void setUp() {
+    this.web3j = Web3j.build(new FakeNode() {
+      @Override
+      Object answer(String method, List<?> params) throws IOException {
+        switch (method) {
+        case "eth_getCode":
+          return "0x";
+        case "eth_getTransactionCount":
+          return "0x0";
+        case "eth_sendRawTransaction":
+          if (reject) {
+            throw new IOException("rejected");
+          }
+          String hash = Hash.sha3((String) params.get(0));
+          hashes.add(hash);
+          return hash;
+        case "eth_getTransactionReceipt":
+          if (!mined.contains(params.get(0))) {
+            return null;
+          }
+          TransactionReceipt receipt = new TransactionReceipt();
+          receipt.setTransactionHash((String) params.get(0));
+          receipt.setBlockNumber(Numeric.encodeQuantity(BigInteger.TEN));
+          receipt.setStatus("0x1");
+          return receipt;
+        default:
+          throw new IOException("Unexpected call " + method);
+        }
+      }
+    });
+    this.con = new DatanodeConnection(this.web3j, CREDS, CHAIN_ID,
+        new FastRawTransactionManager(this.web3j, CREDS, CHAIN_ID,
+            new PollingTransactionReceiptProcessor(this.web3j, 10, 3000)),
+        CONTRACT);
+  }
+
+  @After
+  public void tearDown() {
+    this.web3j.shutdown();
+  }
+
+  private static List<BigInteger> proof() {
+    return Arrays.asList(BigInteger.ONE, BigInteger.TEN);
+  }
+
+  @Test(timeout = 30000)
+  public void testPendingUntilMined() throws Exception {
+    assertFalse(this.con.has_pending_proofs(BP));
+    this.con.upload_proof(BP, 1, proof());
+    // queued, then sent
+    assertTrue(this.con.has_pending_proofs(BP));
+    while (this.hashes.isEmpty()) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(100);
+    // sent and not mined, the seed must not change under it
+    assertTrue(this.con.has_pending_proofs(BP));
+    assertFalse(this.con.has_pending_proofs("BP-other"));
+    this.mined.add(this.hashes.get(0));
+    while (this.con.has_pending_proofs(BP)) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testSettledWhenRejected() throws Exception {
+    this.reject = true;
+    this.con.upload_proof(BP, 1, proof());
+    // the transaction will never be mined, nothing waits for it
+    while (this.con.has_pending_proofs(BP)) {
+      Thread.sleep(10);
+    }
+    assertTrue(this.hashes.isEmpty());
+  }
+}
@@ -0,0 +1,124 @@
+package org.apache.hadoop.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.web3j.crypto.Hash;
+
+public class TestReportTracker {
+
+  private static final String BP = "BP-1-127.0.0.1-1";
+
+  // records the outcomes as "bp/block/verdict"
+  private static class Outcomes implements ReportTracker.Listener {
+    final List<String> outcomes = new ArrayList<String>();
+
+    @Override
+    public void reported(String bp_id, long block_id, boolean corrupt) {
+      this.outcomes.add(bp_id + "/" + block_id + "/" + (corrupt ? "corrupt" : "ok"));
+    }
+
+    @Override
+    public void missing(String bp_id, long block_id) {
+      this.outcomes.add(bp_id + "/" + block_id + "/missing");
+    }
+  }
+
+  private static List<BigInteger> proof() {
+    return new ArrayList<BigInteger>(Arrays.asList(BigInteger.ONE, BigInteger.TEN));
+  }
+
+  @Test
+  public void testReported() {
+    Outcomes outcomes = new Outcomes();
+    ReportTracker tracker = new ReportTracker(outcomes, 1000, 1);
+    tracker.submitted(BP, 1, proof(), 10000);
+    tracker.submitted(BP, 2, proof(), 10000);
+    // the events carry the hash of the block pool
+    assertTrue(tracker.reported(Hash.sha3(BP.getBytes()), 2, true));
+    assertTrue(tracker.reported(Hash.sha3(BP.getBytes()), 1, false));
+    assertEquals(Arrays.asList(BP + "/2/corrupt", BP + "/1/ok"), outcomes.outcomes);
+    assertEquals(0, tracker.size());
+    assertFalse(tracker.reported(Hash.sha3("BP-other".getBytes()), 1, true));
+  }
+
+  @Test
+  public void testReportedOncePerSubmission() {
+    Outcomes outcomes = new Outcomes();
+    ReportTracker tracker = new ReportTracker(outcomes, 1000, 1);
+    tracker.submitted(BP, 1, proof(), 10000);
+    // the proof was sent twice and both transactions were mined
+    assertTrue(tracker.reported(Hash.sha3(BP.getBytes()), 1, false));
+    assertFalse(tracker.reported(Hash.sha3(BP.getBytes()), 1, false));
+    // the proof of the next report gets its own verdict
+    tracker.submitted(BP, 1, proof(), 20000);
+    assertTrue(tracker.reported(Hash.sha3(BP.getBytes()), 1, true));
+    assertEquals(Arrays.asList(BP + "/1/ok", BP + "/1/corrupt"), outcomes.outcomes);
+  }
+
+  @Test
+  public void testResubmitThenMissing() {
+    Outcomes outcomes = new Outcomes();
+    ReportTracker tracker = new ReportTracker(outcomes, 1000, 1);
+    List<BigInteger> proof = proof();
+    tracker.submitted(BP, 1, proof, 10000);
+    assertEquals(0, tracker.expired(11000).size());
+    // sent again once, with the same proof
+    List<ReportTracker.Submission> expired = tracker.expired(11001);
+    assertEquals(1, expired.size());
+    assertSame(proof, expired.get(0).getNumbers());
+    assertEquals(0, tracker.expired(11500).size());
+    tracker.submitted(BP, 1, proof, 11600);
+    assertEquals(0, tracker.expired(12600).size());
+    // then given up
+    assertEquals(0, tracker.expired(12601).size());
+    assertEquals(Arrays.asList(BP + "/1/missing"), outcomes.outcomes);
+    assertEquals(0, tracker.size());
+  }
+
+  @Test
+  public void testFailedIsSentAgainRightAway() {
+    ReportTracker tracker = new ReportTracker(new Outcomes(), 60000, 2);
+    tracker.submitted(BP, 1, proof(), 100);
+    tracker.submitted(BP, 2, proof(), 100);
+    tracker.failed(BP, 2);
+    List<ReportTracker.Submission> expired = tracker.expired(200);
+    assertEquals(1, expired.size());
+    assertEquals(2, expired.get(0).getBlock_id());
+  }
+
+  @Test
+  public void testAbandon() {
+    Outcomes outcomes = new Outcomes();
+    ReportTracker tracker = new ReportTracker(outcomes, 1000, 1);
+    tracker.submitted(BP, 1, proof(), 10000);
+    tracker.submitted("BP-other", 1, proof(), 10000);
+    // a new seed for the block pool
+    tracker.abandon(BP);
+    assertEquals(Arrays.asList(BP + "/1/missing"), outcomes.outcomes);
+    assertEquals(1, tracker.size());
+  }
+
+  @Test
+  public void testSizeOfBlockPool() {
+    Outcomes outcomes = new Outcomes();
+    ReportTracker tracker = new ReportTracker(outcomes, 1000, 1);
+    tracker.submitted(BP, 1, proof(), 10000);
+    tracker.submitted(BP, 2, proof(), 10000);
+    tracker.submitted("BP-other", 1, proof(), 10000);
+    assertEquals(2, tracker.size(BP));
+    assertTrue(tracker.reported(Hash.sha3(BP.getBytes()), 1, false));
+    assertEquals(1, tracker.size(BP));
+    tracker.abandon(BP);
+    assertEquals(0, tracker.size(BP));
+    assertEquals(1, tracker.size("BP-other"));
+  }
+}
@@ -0,0 +1,98 @@
+package org.apache.hadoop.blockchain;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestRootBatch {
+
+  private static RootBatch batch(long first_block_id, int size, long seed) {
+    Random random = new Random(seed);
+    RootBatch batch = new RootBatch();
+    for (int i = 0; i < size; i++) {
+      byte[] root = new byte[32];
+      random.nextBytes(root);
+      batch.add(first_block_id + i, root);
+    }
+    return batch;
+  }
+
+  @Test
+  public void testPaths() {
+    for (int size = 1; size <= 9; size++) {
+      RootBatch batch = batch(1000, size, size);
+      int depth = 32 - Integer.numberOfLeadingZeros(size - 1);
+      for (int i = 0; i < size; i++) {
+        List<byte[]> path = batch.getPath(i);
+        assertEquals(depth, path.size());
+        assertArrayEquals(batch.getRoot(),
+            RootBatch.rootOf(1000 + i, batch.getBlockRoot(i), i, path));
+      }
+    }
+  }
+
+  @Test
+  public void testWrongBlock() {
+    RootBatch batch = batch(1000, 5, 0);
+    List<byte[]> path = batch.getPath(2);
+    // another id, root or index does not lead to the committed root
+    assertEquals(false, Arrays.equals(batch.getRoot(),
+        RootBatch.rootOf(1003, batch.getBlockRoot(2), 2, path)));
+    assertEquals(false, Arrays.equals(batch.getRoot(),
+        RootBatch.rootOf(1002, batch.getBlockRoot(3), 2, path)));
+    assertEquals(false, Arrays.equals(batch.getRoot(),
+        RootBatch.rootOf(1002, batch.getBlockRoot(2), 3, path)));
+  }
+
+  @Test
+  public void testReadWrite() throws Exception {
+    List<RootBatch> batches = Arrays.asList(batch(1000, 3, 1), batch(1003, 1, 2));
+    // the serialized batches of successive writers are concatenated
+    byte[] value = RootBatch.writeAll(batches.subList(0, 1));
+    byte[] more = RootBatch.writeAll(batches.subList(1, 2));
+    byte[] both = Arrays.copyOf(value, value.length + more.length);
+    System.arraycopy(more, 0, both, value.length, more.length);
+    assertArrayEquals(RootBatch.writeAll(batches), both);
+
+    List<RootBatch> read = RootBatch.readAll(both);
+    assertEquals(2, read.size());
+    for (int i = 0; i < read.size(); i++) {
+      assertEquals(batches.get(i).size(), read.get(i).size());
+      assertEquals(batches.get(i).getFirstBlockId(), read.get(i).getFirstBlockId());
+      assertArrayEquals(batches.get(i).getRoot(), read.get(i).getRoot());
+    }
+    assertEquals(0, RootBatch.readAll(new byte[0]).size());
+  }
+
+  @Test
+  public void testFind() {
+    // the last block was appended to and committed again by the second batch
+    RootBatch first = batch(1000, 3, 1);
+    RootBatch second = batch(1002, 2, 2);
+    List<RootBatch> batches = Arrays.asList(first, second);
+    assertSame(first, RootBatch.find(batches, 1001));
+    assertSame(second, RootBatch.find(batches, 1002));
+    assertSame(second, RootBatch.find(batches, 1003));
+    assertNull(RootBatch.find(batches, 999));
+  }
+
+  @Test
+  public void testIndexOfRoot() {
+    // the block was committed again with another root
+    RootBatch batch = batch(1000, 3, 1);
+    byte[] old_root = batch.getBlockRoot(1);
+    byte[] new_root = batch(0, 1, 9).getBlockRoot(0);
+    batch.add(1001, new_root);
+    assertEquals(1, batch.indexOf(1001, old_root));
+    assertEquals(3, batch.indexOf(1001, new_root));
+    assertEquals(-1, batch.indexOf(1002, new_root));
+    assertEquals("/.blockchain/roots/BP-1/1000", RootBatch.pathOf("BP-1", 1000));
+  }
+}
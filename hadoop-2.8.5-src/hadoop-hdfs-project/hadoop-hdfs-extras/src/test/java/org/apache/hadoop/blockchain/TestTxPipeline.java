@@ -0,0 +1,180 @@
+package org.apache.hadoop.blockchain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.Hash;
+import org.web3j.crypto.RawTransaction;
+import org.web3j.crypto.TransactionDecoder;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.utils.Numeric;
+
+public class TestTxPipeline {
+
+  private static final Credentials CREDS = Credentials.create(
+      "0x4c0883a69102937d6231471b5dbb6204fe5129617082792ae468d01a3f362318");
+  private static final String CONTRACT = "0x9fa427dE298287D627bBe47b5e2eFFac4eA4F45c";
+  private static final BigInteger GAS_PRICE = BigInteger.valueOf(1000);
+  private static final BigInteger GAS_LIMIT = BigInteger.valueOf(100000);
+
+  // a node that accepts every transaction and mines the ones it is told to
+  private Web3j web3j;
+  private long chain_nonce;
+  private int nonce_queries;
+  private final List<String> hashes = new ArrayList<String>();
+  private final List<RawTransaction> sent = new ArrayList<RawTransaction>();
+  private final Set<String> mined = new HashSet<String>();
+  private TxPipeline pipeline;
+
+  @Before
+  public void setUp() {
+    this.chain_nonce = 7;
+    this.web3j = Web3j.build(new FakeNode() {
+      @Override
+      Object answer(String method, List<?> params) throws IOException {
+        switch (method) {
+        case "eth_getTransactionCount":
+          nonce_queries++;
+          return Numeric.encodeQuantity(BigInteger.valueOf(chain_nonce));
+        case "eth_sendRawTransaction":
+          String signed = (String) params.get(0);
+          sent.add(TransactionDecoder.decode(signed));
+          hashes.add(Hash.sha3(signed));
+          return Hash.sha3(signed);
+        case "eth_blockNumber":
+          return Numeric.encodeQuantity(BigInteger.valueOf(100));
+        case "eth_getTransactionReceipt":
+          if (!mined.contains(params.get(0))) {
+            return null;
+          }
+          TransactionReceipt receipt = new TransactionReceipt();
+          receipt.setTransactionHash((String) params.get(0));
+          receipt.setBlockNumber(Numeric.encodeQuantity(BigInteger.valueOf(100)));
+          receipt.setStatus("0x1");
+          return receipt;
+        default:
+          throw new IOException("Unexpected call " + method);
+        }
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    if (this.pipeline != null) {
+      this.pipeline.close();
+    }
+    this.web3j.shutdown();
+  }
+
+  // never polls by itself, and resends at every poll if resend_ms is negative
+  private TxPipeline pipeline(int max_in_flight, int confirmations, long resend_ms) {
+    this.pipeline = new TxPipeline(this.web3j, CREDS, 1337, CONTRACT, GAS_PRICE, GAS_LIMIT,
+        max_in_flight, confirmations, resend_ms, 0);
+    return this.pipeline;
+  }
+
+  @Test(timeout = 10000)
+  public void testNonces() throws Exception {
+    TxPipeline pipeline = pipeline(2, 1, 60000);
+    TxPipeline.Tx a = pipeline.send("0x01");
+    TxPipeline.Tx b = pipeline.send("0x02");
+    // the nonce is asked to the node once, then handed out locally
+    assertEquals(1, this.nonce_queries);
+    assertEquals(BigInteger.valueOf(7), a.getNonce());
+    assertEquals(BigInteger.valueOf(8), b.getNonce());
+    assertEquals(BigInteger.valueOf(7), this.sent.get(0).getNonce());
+    assertEquals(BigInteger.valueOf(8), this.sent.get(1).getNonce());
+    assertEquals(this.hashes.get(0), a.submitted().get());
+
+    // mining a frees its slot, and only a is waited for
+    this.mined.add(this.hashes.get(0));
+    pipeline.poll();
+    assertTrue(a.confirmed().isDone());
+    assertFalse(b.confirmed().isDone());
+    assertTrue(pipeline.flush(Collections.singletonList(a)));
+    TxPipeline.Tx c = pipeline.send("0x03");
+    assertEquals(BigInteger.valueOf(9), c.getNonce());
+  }
+
+  @Test(timeout = 10000)
+  public void testResendWithGasBump() throws Exception {
+    TxPipeline pipeline = pipeline(1, 1, -1);
+    TxPipeline.Tx tx = pipeline.send("0x01");
+    pipeline.poll();
+    pipeline.poll();
+    assertEquals(3, this.sent.size());
+    for (RawTransaction raw : this.sent) {
+      assertEquals(BigInteger.valueOf(7), raw.getNonce());
+      assertEquals(CONTRACT.toLowerCase(), raw.getTo().toLowerCase());
+    }
+    assertEquals(BigInteger.valueOf(1250), this.sent.get(1).getGasPrice());
+    assertEquals(BigInteger.valueOf(1562), this.sent.get(2).getGasPrice());
+
+    // any version that is mined confirms it
+    this.mined.add(this.hashes.get(1));
+    pipeline.poll();
+    assertEquals(this.hashes.get(1), tx.confirmed().get().getTransactionHash());
+    assertEquals(3, this.sent.size());
+  }
+
+  @Test(timeout = 10000)
+  public void testDropFillsTheNonce() throws Exception {
+    TxPipeline pipeline = pipeline(1, 1, -1);
+    TxPipeline.Tx tx = pipeline.send("0x01");
+    // the first version and 5 resends
+    for (int i = 0; i < 5; i++) {
+      pipeline.poll();
+    }
+    assertEquals(6, this.sent.size());
+    assertFalse(tx.confirmed().isDone());
+
+    // the next poll fails it, and sends an empty transfer with its nonce
+    pipeline.poll();
+    assertTrue(tx.confirmed().isCompletedExceptionally());
+    assertFalse(pipeline.flush(Arrays.asList(tx)));
+    RawTransaction filler = this.sent.get(6);
+    assertEquals(BigInteger.valueOf(7), filler.getNonce());
+    assertEquals(CREDS.getAddress().toLowerCase(), filler.getTo().toLowerCase());
+    assertEquals(BigInteger.ZERO, filler.getValue());
+    assertEquals(BigInteger.valueOf(21000), filler.getGasLimit());
+    assertTrue(filler.getGasPrice().compareTo(this.sent.get(5).getGasPrice()) > 0);
+
+    // once mined, the next transaction gets the next nonce
+    this.mined.add(this.hashes.get(6));
+    pipeline.poll();
+    TxPipeline.Tx next = pipeline.send("0x02");
+    assertEquals(BigInteger.valueOf(8), next.getNonce());
+    assertEquals(1, this.nonce_queries);
+  }
+
+  @Test(timeout = 10000)
+  public void testDropResyncsTheNonce() throws Exception {
+    TxPipeline pipeline = pipeline(1, 1, -1);
+    pipeline.send("0x01");
+    // the transaction, then its filler, are never mined
+    for (int i = 0; i < 12; i++) {
+      pipeline.poll();
+    }
+    assertEquals(12, this.sent.size());
+    // the nonce is asked to the node again, which did not use 7
+    TxPipeline.Tx next = pipeline.send("0x02");
+    assertEquals(2, this.nonce_queries);
+    assertEquals(BigInteger.valueOf(7), next.getNonce());
+  }
+}
@@ -0,0 +1,111 @@
+package org.apache.hadoop.merkle_trees;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestBlake2s {
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+
+  /**
+   * Blake2s reads the message words big-endian and counts whole blocks, so
+   * the RFC 7693 vectors are checked on the compression function, with the
+   * message loaded little-endian and the real byte count.
+   */
+  private static String rfcDigest(byte[] message) {
+    assert message.length <= 64;
+    int[] m = new int[16];
+    for (int i = 0; i < message.length; i++) {
+      m[i / 4] |= (message[i] & 0xFF) << (8 * (i % 4));
+    }
+    int[] h = new int[8];
+    Blake2s.init(h);
+    Blake2s.compress(h, m, new int[16], message.length, 0, true);
+    byte[] out = new byte[32];
+    for (int i = 0; i < out.length; i++) {
+      out[i] = (byte) (h[i / 4] >>> (8 * (i % 4)));
+    }
+    return Util.bytesToHex(out);
+  }
+
+  // the digest as computed before the reusable engine
+  private static byte[] referenceDigest(byte[] input) {
+    int[] h = Blake2s.blake2s_init();
+    int[] m = new int[16];
+    int blocks = input.length / 64;
+    for (int i = 0; i < blocks; i++) {
+      for (int j = 0; j < 16; j++) {
+        m[j] = Util.bytesToInt(input, i * 64 + 4 * j);
+      }
+      Blake2s.blake2s_compression(h, m, (i + 1) * 64, 0, i == blocks - 1);
+    }
+    return Util.intsToBytes(h);
+  }
+
+  @Test
+  public void testRfc7693Vectors() {
+    // RFC 7693, Appendix B
+    assertEquals(
+        "508c5e8c327c14e2e1a72ba34eeb452f37458b209ed63a294d999b4c86675982",
+        rfcDigest(new byte[]{'a', 'b', 'c'}));
+    // BLAKE2s-256 of the empty message
+    assertEquals(
+        "69217a3079908094e11121d042354a7c1f55b6482ca1a51e1b250dfd1ed0eef9",
+        rfcDigest(new byte[0]));
+  }
+
+  @Test
+  public void testDigestMatchesReference() {
+    Blake2sHasher hasher = new Blake2sHasher();
+    for (int length : new int[]{64, 128, 512, 4096}) {
+      byte[] input = randomBytes(length);
+      byte[] expected = referenceDigest(input);
+      assertArrayEquals(expected, Blake2s.digest(input));
+      byte[] out = new byte[40];
+      hasher.digest(input, 0, length, out, 8);
+      assertArrayEquals(expected, Arrays.copyOfRange(out, 8, 40));
+      hasher.digest(ByteBuffer.allocateDirect(length).put(input), 0, length, out, 0);
+      assertArrayEquals(expected, Arrays.copyOf(out, 32));
+    }
+  }
+
+  @Test
+  public void testDigestPair() {
+    Blake2sHasher hasher = new Blake2sHasher();
+    byte[] nodes = randomBytes(96);
+    byte[] expected = Blake2s.digest(Arrays.copyOfRange(nodes, 32, 96));
+    // output over the right child, like when merging a frontier
+    hasher.digestPair(nodes, 32, nodes, 64, nodes, 64);
+    assertArrayEquals(expected, Arrays.copyOfRange(nodes, 64, 96));
+  }
+
+  @Test
+  public void testDigestBatch() {
+    Blake2sHasher hasher = new Blake2sHasher();
+    for (int length : new int[]{64, 192}) {
+      for (int count : new int[]{0, 1, 7, 8, 9, 20}) {
+        byte[] input = randomBytes(length * count + 16);
+        byte[] expected = new byte[32 * count];
+        for (int i = 0; i < count; i++) {
+          hasher.digest(input, 16 + i * length, length, expected, 32 * i);
+        }
+        byte[] out = new byte[32 * count];
+        hasher.digestBatch(input, 16, length, count, out, 0);
+        assertArrayEquals(expected, out);
+        out = new byte[32 * count];
+        hasher.digestBatch(ByteBuffer.wrap(input), 16, length, count, out, 0);
+        assertArrayEquals(expected, out);
+      }
+    }
+  }
+}
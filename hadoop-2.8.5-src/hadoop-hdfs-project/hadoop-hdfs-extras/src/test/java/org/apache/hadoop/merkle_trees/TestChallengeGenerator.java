@@ -0,0 +1,115 @@
+package org.apache.hadoop.merkle_trees;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.web3j.crypto.Hash;
+import org.web3j.utils.Numeric;
+
+public class TestChallengeGenerator {
+
+  private static byte[] randomBytes(Random random, int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  /**
+   * gen_challenges of Data.sol, word by word: uints are 32 byte big-endian
+   * in abi.encodePacked and keccak256 results are read unsigned.
+   */
+  private static int[] solidityChallenges(byte[] seed, long block_id,
+      int num_chunks, int num_chall) {
+    BigInteger id = new BigInteger(1, Numeric.toBytesPadded(
+        BigInteger.valueOf(block_id), 8));
+    BigInteger n = BigInteger.valueOf(num_chunks);
+    int[] challenges = new int[num_chall];
+    BigInteger tmp = new BigInteger(1, Hash.sha3(
+        Util.concatBytes(Numeric.toBytesPadded(id, 32), seed)));
+    challenges[0] = tmp.mod(n).intValue();
+    for (int i = 1; i < num_chall; i++) {
+      tmp = new BigInteger(1, Hash.sha3(Util.concatBytes(
+          Numeric.toBytesPadded(tmp, 32), Numeric.toBytesPadded(id, 32))));
+      challenges[i] = tmp.mod(n).intValue();
+    }
+    return challenges;
+  }
+
+  @Test
+  public void testKeccakVectors() {
+    Keccak256 keccak = new Keccak256();
+    assertEquals(
+        "c5d2460186f7233c927e7db2dcc703c0e500b653ca82273b7bfad8045d85a470",
+        Util.bytesToHex(keccak.digest(new byte[0])));
+    assertEquals(
+        "4e03657aea45a94fc7d47ba826c8d667c0d1e6e33a64a036ec44f58fa12d6c45",
+        Util.bytesToHex(keccak.digest(new byte[]{'a', 'b', 'c'})));
+  }
+
+  @Test
+  public void testKeccakMatchesWeb3j() {
+    Keccak256 keccak = new Keccak256();
+    Random random = new Random(0);
+    // around the rate of 136 bytes, where the padding spills over
+    for (int length : new int[]{1, 32, 64, 84, 116, 135, 136, 137, 271,
+        272, 273, 1000}) {
+      byte[] input = randomBytes(random, length);
+      assertArrayEquals(Hash.sha3(input), keccak.digest(input));
+      byte[] out = new byte[length + 40];
+      keccak.digest(input, 0, length, out, 8);
+      assertArrayEquals(Hash.sha3(input), Arrays.copyOfRange(out, 8, 40));
+    }
+    // in place, like the rounds of the generator
+    byte[] buf = randomBytes(random, 64);
+    byte[] expected = Hash.sha3(buf);
+    keccak.digest(buf, 0, 64, buf, 0);
+    assertArrayEquals(expected, Arrays.copyOf(buf, 32));
+  }
+
+  @Test
+  public void testMatchesSolidity() {
+    Random random = new Random(1);
+    ChallengeGenerator generator = new ChallengeGenerator();
+    for (int num_chunks : new int[]{1, 2, 1024, 8192, 1 << 30, 3, 1000,
+        12345, Integer.MAX_VALUE}) {
+      for (int seed_length : new int[]{32, 84}) {
+        for (int i = 0; i < 20; i++) {
+          byte[] seed = randomBytes(random, seed_length);
+          long block_id = i == 0 ? Long.MAX_VALUE : 1073741825L + random.nextInt(1 << 20);
+          assertArrayEquals(solidityChallenges(seed, block_id, num_chunks, 8),
+              generator.generate(seed, block_id, num_chunks, 8));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testMod() {
+    Random random = new Random(2);
+    for (int n : new int[]{1, 7, 256, 8192, 10000, Integer.MAX_VALUE}) {
+      for (int i = 0; i < 50; i++) {
+        byte[] word = randomBytes(random, 32);
+        assertEquals(new BigInteger(1, word).mod(BigInteger.valueOf(n)).intValue(),
+            ChallengeGenerator.mod(word, n));
+      }
+    }
+  }
+
+  @Test
+  public void testMerkleTreeChallenges() {
+    // the proofs of the DataNodes challenge the chunks of the contract
+    MerkleTree tree = new MerkleTree(new byte[64 * 16], 64, 4);
+    byte[] seed = randomBytes(new Random(3), 84);
+    int[] expected = solidityChallenges(seed, 1073741825L, 16, 4);
+    int i = 0;
+    for (int challenge : tree.gen_challenges(seed, 1073741825L, 4)) {
+      assertEquals(expected[i++], challenge);
+    }
+    assertEquals(expected.length, i);
+  }
+}
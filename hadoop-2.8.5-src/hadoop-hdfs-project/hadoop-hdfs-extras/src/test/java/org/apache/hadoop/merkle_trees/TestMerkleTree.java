@@ -0,0 +1,156 @@
+package org.apache.hadoop.merkle_trees;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestMerkleTree {
+
+  private static final int CHUNK_SIZE = 64;
+  private static final int TREE_HEIGHT = 6;
+  private static final int CHALLENGES = 5;
+
+  private static byte[] randomBlock(int length) {
+    byte[] block = new byte[length];
+    new Random(length).nextBytes(block);
+    return block;
+  }
+
+  private static byte[] levels(MerkleTree tree, int levels) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    tree.writeLevels(out, levels);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testStoredLevels() throws IOException {
+    byte[] seed = randomBlock(32);
+    // short (wrapping) and longer than covered blocks
+    for (int length : new int[]{100, 5000}) {
+      byte[] block = randomBlock(length);
+      MerkleTree full = new MerkleTree(block, CHUNK_SIZE, TREE_HEIGHT);
+      full.build();
+      for (int levels = 1; levels <= TREE_HEIGHT + 1; levels++) {
+        MerkleTree sparse = new MerkleTree(ByteBuffer.wrap(block), CHUNK_SIZE,
+            TREE_HEIGHT, levels(full, levels));
+        sparse.build();
+        assertArrayEquals(full.getRoot(), sparse.getRoot());
+        MerkleProof expected = full.getMerkleProof(length, seed, CHALLENGES);
+        MerkleProof actual = sparse.getMerkleProof(length, seed, CHALLENGES);
+        assertTrue(actual.verify());
+        while (!expected.isEmpty()) {
+          assertEquals("levels " + levels, expected.nextWitness(),
+              actual.nextWitness());
+        }
+      }
+    }
+  }
+
+  // every node of the tree, hashing all the leaves one by one (the tree before periods)
+  private static byte[] referenceNodes(byte[] block, int chunk_size, int tree_height) {
+    int chunk_count = 1 << tree_height;
+    byte[] nodes = new byte[(2 * chunk_count - 1) * 32];
+    for (int i = 0; i < chunk_count; i++) {
+      byte[] chunk = new byte[chunk_size];
+      for (int j = 0; j < chunk_size; j++) {
+        chunk[j] = block[(int) (((long) i * chunk_size + j) % block.length)];
+      }
+      Blake2s.digest(chunk, 0, chunk_size, nodes, (chunk_count - 1 + i) * 32);
+    }
+    for (int node = chunk_count - 2; node >= 0; node--) {
+      Blake2s.digest(nodes, (2 * node + 1) * 32, 64, nodes, node * 32);
+    }
+    return nodes;
+  }
+
+  @Test
+  public void testLeafPeriod() {
+    assertEquals(8, MerkleTree.leafPeriod(4096, 512, 1 << 16));
+    assertEquals(1, MerkleTree.leafPeriod(512, 512, 1 << 16));
+    assertEquals(125, MerkleTree.leafPeriod(1000, 512, 1 << 16));
+    // long enough for all the leaves to differ
+    assertEquals(64, MerkleTree.leafPeriod(4096, 64, 64));
+    assertEquals(64, MerkleTree.leafPeriod(4000, 64, 64));
+    assertEquals(1 << 16, MerkleTree.leafPeriod(1L << 40, 512, 1 << 16));
+  }
+
+  @Test
+  public void testRepeatedLeaves() throws IOException {
+    // periods that are powers of two, odd, both, and no period at all
+    for (int length : new int[]{1, 32, 64, 100, 128, 192, 320, 1000, 2048,
+        4000, 4096, 5000}) {
+      byte[] block = randomBlock(length);
+      byte[] expected = referenceNodes(block, CHUNK_SIZE, TREE_HEIGHT);
+      MerkleTree tree = new MerkleTree(block, CHUNK_SIZE, TREE_HEIGHT);
+      tree.build();
+      assertArrayEquals("length " + length, expected,
+          levels(tree, TREE_HEIGHT + 1));
+      byte[] root = MerkleTree.periodicRoot(ByteBuffer.wrap(block),
+          CHUNK_SIZE, TREE_HEIGHT);
+      if (MerkleTree.leafPeriod(length, CHUNK_SIZE, 1 << TREE_HEIGHT) < (1 << TREE_HEIGHT)) {
+        assertArrayEquals("length " + length, Arrays.copyOf(expected, 32), root);
+      } else {
+        assertNull(root);
+      }
+    }
+  }
+
+  @Test
+  public void testVerifyDetectsChangedData() throws IOException {
+    byte[] block = randomBlock(5000);
+    MerkleTree full = new MerkleTree(block, CHUNK_SIZE, TREE_HEIGHT);
+    full.build();
+    byte[] stored = levels(full, 3);
+    // every chunk is challenged eventually, change all of them
+    for (int i = 0; i < block.length; i++) {
+      block[i] ^= 1;
+    }
+    MerkleTree sparse = new MerkleTree(ByteBuffer.wrap(block), CHUNK_SIZE,
+        TREE_HEIGHT, stored);
+    assertFalse(sparse.getMerkleProof(1, randomBlock(32), 1).verify());
+  }
+
+  @Test
+  public void testWitnessArgs() throws IOException {
+    byte[] seed = randomBlock(32);
+    MerkleTree tree = new MerkleTree(randomBlock(5000), CHUNK_SIZE, TREE_HEIGHT);
+    tree.build();
+    // a single challenge has the arguments of merkle_proof.zok
+    assertEquals(tree.getMerkleProof(1, seed, 1).nextWitnessArgs(),
+        tree.getMerkleProof(1, seed, 1).witnessArgs());
+
+    // all the challenges in one go, sharing the root and the nullifier
+    MerkleProof all = tree.getMerkleProof(1, seed, CHALLENGES);
+    MerkleProof each = tree.getMerkleProof(1, seed, CHALLENGES);
+    List<String> args = all.witnessArgs();
+    assertTrue(all.isEmpty());
+    int words = CHUNK_SIZE / 4;
+    assertEquals(CHALLENGES * (1 + words + 8 * TREE_HEIGHT + TREE_HEIGHT) + 3,
+        args.size());
+    for (int i = 0; i < CHALLENGES; i++) {
+      List<String> single = each.nextWitnessArgs();
+      assertEquals(single.get(0), args.get(i));
+      assertEquals(single.subList(1, 4), args.subList(CHALLENGES, CHALLENGES + 3));
+      int chunks = CHALLENGES + 3;
+      int siblings = chunks + CHALLENGES * words;
+      int paths = siblings + CHALLENGES * 8 * TREE_HEIGHT;
+      assertEquals(single.subList(4, 4 + words),
+          args.subList(chunks + i * words, chunks + (i + 1) * words));
+      assertEquals(single.subList(4 + words, 4 + words + 8 * TREE_HEIGHT),
+          args.subList(siblings + i * 8 * TREE_HEIGHT, siblings + (i + 1) * 8 * TREE_HEIGHT));
+      assertEquals(single.subList(4 + words + 8 * TREE_HEIGHT, single.size()),
+          args.subList(paths + i * TREE_HEIGHT, paths + (i + 1) * TREE_HEIGHT));
+    }
+  }
+}
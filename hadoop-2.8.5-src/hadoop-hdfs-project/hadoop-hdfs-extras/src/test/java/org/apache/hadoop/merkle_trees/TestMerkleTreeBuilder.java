@@ -0,0 +1,147 @@
+package org.apache.hadoop.merkle_trees;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestMerkleTreeBuilder {
+
+  private static final int CHUNK_SIZE = 64;
+  private static final int TREE_HEIGHT = 6;
+
+  private static byte[] expectedRoot(byte[] block) {
+    MerkleTree tree = new MerkleTree(block, CHUNK_SIZE, TREE_HEIGHT);
+    tree.build();
+    return tree.getRoot();
+  }
+
+  private static byte[] randomBlock(int length) {
+    byte[] block = new byte[length];
+    new Random(length).nextBytes(block);
+    return block;
+  }
+
+  @Test
+  public void testMatchesMerkleTree() {
+    MerkleTreeBuilder builder = new MerkleTreeBuilder(CHUNK_SIZE, TREE_HEIGHT);
+    // empty, short, unaligned, exactly covered and longer than covered
+    for (int length : new int[]{0, 1, 63, 64, 100, 1000, 4096, 5000}) {
+      byte[] block = randomBlock(length);
+      // write in uneven pieces, like packets of different sizes
+      int off = 0;
+      while (off < length) {
+        int len = Math.min(length - off, 1 + off % 97);
+        builder.write(block, off, len);
+        off += len;
+      }
+      assertArrayEquals("length " + length, expectedRoot(block),
+          builder.finish());
+    }
+  }
+
+  @Test
+  public void testResetBetweenBlocks() {
+    MerkleTreeBuilder builder = new MerkleTreeBuilder(CHUNK_SIZE, TREE_HEIGHT);
+    byte[] first = randomBlock(300);
+    byte[] second = randomBlock(700);
+    builder.write(first, 0, first.length);
+    builder.finish();
+    builder.write(second, 0, second.length);
+    assertArrayEquals(expectedRoot(second), builder.finish());
+  }
+
+  @Test
+  public void testKeptLevels() throws IOException {
+    MerkleTreeBuilder builder = new MerkleTreeBuilder(CHUNK_SIZE, TREE_HEIGHT);
+    for (int levels : new int[]{1, 3, TREE_HEIGHT + 1}) {
+      builder.keepLevels(levels);
+      for (int length : new int[]{0, 100, 4096, 5000}) {
+        byte[] block = randomBlock(length);
+        builder.write(block, 0, length);
+        MerkleTree tree = new MerkleTree(block, CHUNK_SIZE, TREE_HEIGHT);
+        tree.build();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        tree.writeLevels(expected, levels);
+        assertArrayEquals("levels " + levels + ", length " + length,
+            expected.toByteArray(), builder.finishLevels());
+      }
+    }
+  }
+
+  @Test
+  public void testSkipPastCoverage() {
+    MerkleTreeBuilder builder = new MerkleTreeBuilder(CHUNK_SIZE, TREE_HEIGHT);
+    byte[] block = randomBlock(5000);
+    // only the covered data of the block is read back
+    builder.write(block, 0, (int) builder.getCoverage());
+    builder.skip(block.length - builder.getCoverage());
+    assertEquals(block.length, builder.getLength());
+    assertArrayEquals(expectedRoot(block), builder.finish());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSkipUncovered() {
+    MerkleTreeBuilder builder = new MerkleTreeBuilder(CHUNK_SIZE, TREE_HEIGHT);
+    byte[] block = randomBlock(100);
+    // the leaves of a short block wrap around all of its data
+    builder.write(block, 0, block.length);
+    builder.skip(1);
+  }
+
+  @Test
+  public void testResume() throws IOException {
+    MerkleTreeBuilder builder = new MerkleTreeBuilder(CHUNK_SIZE, TREE_HEIGHT);
+    builder.keepLevels(3);
+    byte[] block = randomBlock(6000);
+    MerkleTree tree = new MerkleTree(block, CHUNK_SIZE, TREE_HEIGHT);
+    tree.build();
+    ByteArrayOutputStream levels = new ByteArrayOutputStream();
+    tree.writeLevels(levels, TREE_HEIGHT + 1);
+    // appended to a block of 5000 bytes, none of which is read back
+    builder.resume(levels.toByteArray(), 5000);
+    builder.write(block, 5000, 1000);
+    assertEquals(block.length, builder.getLength());
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    tree.writeLevels(expected, 3);
+    assertArrayEquals(expected.toByteArray(), builder.finishLevels());
+    // without the tree of the block, its root is not known
+    builder.resume(null, 5000);
+    builder.write(block, 5000, 1000);
+    assertNull(builder.finish());
+    builder.write(block, 0, 100);
+    assertArrayEquals(expectedRoot(Arrays.copyOf(block, 100)),
+        builder.finish());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testResumeUncovered() {
+    MerkleTreeBuilder builder = new MerkleTreeBuilder(CHUNK_SIZE, TREE_HEIGHT);
+    builder.resume(null, builder.getCoverage() - 1);
+  }
+
+  @Test
+  public void testPrefixLimit() {
+    MerkleTreeBuilder builder = new MerkleTreeBuilder(CHUNK_SIZE, TREE_HEIGHT);
+    builder.limitPrefix(1000);
+    // a short block within the limit, past it and covering all the leaves
+    for (int length : new int[]{1000, 1001, 4095, 4096, 5000}) {
+      byte[] block = randomBlock(length);
+      builder.write(block, 0, length);
+      boolean truncated = length > 1000 && length < builder.getCoverage();
+      assertEquals("length " + length, truncated, builder.isTruncated());
+      byte[] root = builder.finish();
+      if (truncated) {
+        assertNull("length " + length, root);
+      } else {
+        assertArrayEquals("length " + length, expectedRoot(block), root);
+      }
+    }
+  }
+}
@@ -47,9 +47,56 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int DFS_CHALLENGE_COUNT_DEFAULT = 1;
   public static final String DFS_MERKLE_PROOF_THREADS_KEY = "dfs.merkle.proof.threads";
   public static final int DFS_MERKLE_PROOF_THREADS_DEFAULT = 4;
+  public static final String DFS_MERKLE_PROOF_PIPELINE_DEPTH_KEY = "dfs.merkle.proof.pipeline.depth";
+  public static final int DFS_MERKLE_PROOF_PIPELINE_DEPTH_DEFAULT = 16;
+  public static final String DFS_MERKLE_PROOF_VOLUME_THREADS_KEY = "dfs.merkle.proof.volume.threads";
+  public static final int DFS_MERKLE_PROOF_VOLUME_THREADS_DEFAULT = 1;
   public static final String DFS_ZOKRATES_THREADS_KEY = "dfs.zokrates.threads";
   public static final int DFS_ZOKRATES_THREADS_DEFAULT = 1;
   public static final String  DFS_ZOKRATES_DIR_PATH_KEY = "dfs.zokrates.dir.path";
+  public static final String DFS_ZOKRATES_WORKER_COMMAND_KEY = "dfs.zokrates.worker.command";
+  public static final String DFS_ZOKRATES_WORK_DIR_KEY = "dfs.zokrates.work.dir";
+  public static final String DFS_ZOKRATES_WORK_DIR_DEFAULT = "/dev/shm";
+  public static final String DFS_BLOCKCHAIN_VERIFY_BATCH_SIZE_KEY = "dfs.blockchain.verify.batch.size";
+  public static final int DFS_BLOCKCHAIN_VERIFY_BATCH_SIZE_DEFAULT = 1;
+  public static final String DFS_BLOCKCHAIN_VERIFY_BATCH_DELAY_MS_KEY = "dfs.blockchain.verify.batch.delay.ms";
+  public static final long DFS_BLOCKCHAIN_VERIFY_BATCH_DELAY_MS_DEFAULT = 1000;
+  public static final String DFS_BLOCKCHAIN_REPORT_EVENTS_ENABLED_KEY = "dfs.blockchain.report.events.enabled";
+  public static final boolean DFS_BLOCKCHAIN_REPORT_EVENTS_ENABLED_DEFAULT = true;
+  public static final String DFS_BLOCKCHAIN_REPORT_TIMEOUT_MS_KEY = "dfs.blockchain.report.timeout.ms";
+  public static final long DFS_BLOCKCHAIN_REPORT_TIMEOUT_MS_DEFAULT = 120000;
+  public static final String DFS_BLOCKCHAIN_REPORT_RESUBMITS_KEY = "dfs.blockchain.report.resubmits";
+  public static final int DFS_BLOCKCHAIN_REPORT_RESUBMITS_DEFAULT = 2;
+  public static final String DFS_NAMENODE_BLOCKREPORT_INDEX_MAX_REPORTS_KEY = "dfs.namenode.blockreport.index.max.reports";
+  public static final int DFS_NAMENODE_BLOCKREPORT_INDEX_MAX_REPORTS_DEFAULT = 1000000;
+  public static final String DFS_NAMENODE_BLOCKREPORT_INDEX_CHECKPOINT_FILE_KEY = "dfs.namenode.blockreport.index.checkpoint.file";
+  public static final String DFS_NAMENODE_BLOCKREPORT_INDEX_CHECKPOINT_FILE_DEFAULT = "${hadoop.tmp.dir}/dfs/blockreport.index";
+  public static final String DFS_NAMENODE_BLOCKREPORT_INDEX_CHECKPOINT_INTERVAL_SECONDS_KEY = "dfs.namenode.blockreport.index.checkpoint.interval.seconds";
+  public static final long DFS_NAMENODE_BLOCKREPORT_INDEX_CHECKPOINT_INTERVAL_SECONDS_DEFAULT = 300;
+  public static final String DFS_NAMENODE_BLOCKMAP_CHANGES_ENABLED_KEY = "dfs.namenode.blockmap.changes.enabled";
+  public static final boolean DFS_NAMENODE_BLOCKMAP_CHANGES_ENABLED_DEFAULT = false;
+  public static final String DFS_NAMENODE_BLOCKMAP_CHANGES_MAX_KEY = "dfs.namenode.blockmap.changes.max";
+  public static final int DFS_NAMENODE_BLOCKMAP_CHANGES_MAX_DEFAULT = 1000000;
+  public static final String DFS_MERKLE_SIDECAR_LEVELS_KEY = "dfs.merkle.sidecar.levels";
+  public static final int DFS_MERKLE_SIDECAR_LEVELS_DEFAULT = 12;
+  public static final String DFS_MERKLE_SIDECAR_SCAN_PERIOD_HOURS_KEY = "dfs.merkle.sidecar.scan.period.hours";
+  public static final long DFS_MERKLE_SIDECAR_SCAN_PERIOD_HOURS_DEFAULT = 7 * 24;
+  public static final String DFS_MERKLE_SCANNER_ENABLED_KEY = "dfs.merkle.scanner.enabled";
+  public static final boolean DFS_MERKLE_SCANNER_ENABLED_DEFAULT = false;
+  public static final String DFS_MERKLE_AUDIT_DETECTION_PROBABILITY_KEY = "dfs.merkle.audit.detection.probability";
+  public static final double DFS_MERKLE_AUDIT_DETECTION_PROBABILITY_DEFAULT = 1.0;
+  public static final String DFS_MERKLE_AUDIT_CORRUPT_FRACTION_KEY = "dfs.merkle.audit.corrupt.fraction";
+  public static final double DFS_MERKLE_AUDIT_CORRUPT_FRACTION_DEFAULT = 0.01;
+  public static final String DFS_MERKLE_AUDIT_COVERAGE_WINDOW_HOURS_KEY = "dfs.merkle.audit.coverage.window.hours";
+  public static final long DFS_MERKLE_AUDIT_COVERAGE_WINDOW_HOURS_DEFAULT = 7 * 24;
+  public static final String DFS_MERKLE_LEVEL_CACHE_BYTES_KEY = "dfs.merkle.level.cache.bytes";
+  public static final long DFS_MERKLE_LEVEL_CACHE_BYTES_DEFAULT = 64L * 1024 * 1024;
+  public static final String DFS_MERKLE_LEVEL_CACHE_LEVELS_KEY = "dfs.merkle.level.cache.levels";
+  public static final int DFS_MERKLE_LEVEL_CACHE_LEVELS_DEFAULT = 12;
+  public static final String DFS_BLOCKCHAIN_SEED_PREFETCH_MS_KEY = "dfs.blockchain.seed.prefetch.ms";
+  public static final long DFS_BLOCKCHAIN_SEED_PREFETCH_MS_DEFAULT = 60000;
+  public static final String DFS_BLOCKCHAIN_SEED_VALIDITY_MS_KEY = "dfs.blockchain.seed.validity.ms";
+  public static final long DFS_BLOCKCHAIN_SEED_VALIDITY_MS_DEFAULT = 600000;
 
   public static final String  DFS_BLOCK_SIZE_KEY =
       HdfsClientConfigKeys.DFS_BLOCK_SIZE_KEY;
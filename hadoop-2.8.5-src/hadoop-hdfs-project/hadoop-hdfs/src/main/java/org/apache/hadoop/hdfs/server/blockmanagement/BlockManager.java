@@ -146,6 +146,8 @@ public class BlockManager implements BlockStatsMXBean {
   private final AtomicLong excessBlocksCount = new AtomicLong(0L);
   private final long startupDelayBlockDeletionInMs;
   private final BlockReportLeaseManager blockReportLeaseManager;
+  /** whether the namesystem keeps the changes of the block map */
+  private final boolean trackBlockLocations;
   private ObjectName mxBeanName;
 
   /** Used by metrics */
@@ -327,6 +329,9 @@ public class BlockManager implements BlockStatsMXBean {
         DFSConfigKeys.DFS_NAMENODE_STARTUP_DELAY_BLOCK_DELETION_SEC_DEFAULT) * 1000L;
     invalidateBlocks = new InvalidateBlocks(
         datanodeManager.blockInvalidateLimit, startupDelayBlockDeletionInMs);
+    trackBlockLocations = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKMAP_CHANGES_ENABLED_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKMAP_CHANGES_ENABLED_DEFAULT);
 
     // Compute the map capacity by allocating 2% of total memory
     blocksMap = new BlocksMap(
@@ -2631,6 +2636,9 @@ public class BlockManager implements BlockStatsMXBean {
 
     // just add it
     AddBlockResult result = storageInfo.addBlock(storedBlock);
+    if (result == AddBlockResult.ADDED) {
+      blockLocationsChanged(storedBlock);
+    }
 
     // Now check for completion of blocks and safe block count
     int numCurrentReplica = countLiveNodes(storedBlock);
@@ -2681,6 +2689,7 @@ public class BlockManager implements BlockStatsMXBean {
     int curReplicaDelta;
     if (result == AddBlockResult.ADDED) {
       curReplicaDelta = (node.isDecommissioned()) ? 0 : 1;
+      blockLocationsChanged(storedBlock);
       if (logEveryBlock) {
         blockLog.debug("BLOCK* addStoredBlock: {} is added to {} (size={})",
             node, storedBlock, storedBlock.getNumBytes());
@@ -3090,6 +3099,16 @@ public class BlockManager implements BlockStatsMXBean {
     }
   }
 
+  /**
+   * Tells the namesystem that a replica of the block was added or removed,
+   * if it keeps the changes of the block map.
+   */
+  private void blockLocationsChanged(BlockInfo storedBlock) {
+    if (trackBlockLocations) {
+      namesystem.blockLocationsChanged(storedBlock.getBlockCollectionId());
+    }
+  }
+
   private void removeStoredBlock(DatanodeStorageInfo storageInfo, Block block,
       DatanodeDescriptor node) {
     if (shouldPostponeBlocksFromFuture &&
@@ -3115,6 +3134,7 @@ public class BlockManager implements BlockStatsMXBean {
             " removed from node {}", block, node);
         return;
       }
+      blockLocationsChanged(storedBlock);
 
       CachedBlock cblock = namesystem.getCacheManager().getCachedBlocks()
           .get(new CachedBlock(block.getBlockId(), (short) 0, false));
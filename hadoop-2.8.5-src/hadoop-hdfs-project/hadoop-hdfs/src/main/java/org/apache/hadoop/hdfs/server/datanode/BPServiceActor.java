@@ -22,29 +22,45 @@ import static org.apache.hadoop.util.Time.monotonicNow;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.math.BigInteger;
 import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
+import org.apache.hadoop.blockchain.AuditSampler;
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.ha.HAServiceProtocol.HAServiceState;
 import org.apache.hadoop.hdfs.client.BlockReportOptions;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
@@ -68,6 +84,8 @@ import org.apache.hadoop.hdfs.server.protocol.StorageBlockReport;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.nativeio.NativeIO;
 import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.merkle_trees.MerkleProof;
 import org.apache.hadoop.merkle_trees.MerkleTree;
@@ -76,9 +94,6 @@ import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.util.Time;
 import org.apache.hadoop.util.VersionInfo;
 import org.apache.hadoop.util.VersionUtil;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.slf4j.Logger;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -93,10 +108,24 @@ import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CHALLENGE_COUNT_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CHALLENGE_COUNT_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_PROOF_THREADS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_PROOF_THREADS_DEFAULT;
-import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_ZOKRATES_THREADS_KEY;
-import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_ZOKRATES_THREADS_DEFAULT;
-
-import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_ZOKRATES_DIR_PATH_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_PROOF_PIPELINE_DEPTH_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_PROOF_VOLUME_THREADS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_PROOF_VOLUME_THREADS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_PROOF_PIPELINE_DEPTH_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_SIDECAR_LEVELS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_SIDECAR_LEVELS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_SIDECAR_SCAN_PERIOD_HOURS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_SIDECAR_SCAN_PERIOD_HOURS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_AUDIT_DETECTION_PROBABILITY_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_AUDIT_DETECTION_PROBABILITY_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_AUDIT_CORRUPT_FRACTION_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_AUDIT_CORRUPT_FRACTION_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_AUDIT_COVERAGE_WINDOW_HOURS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_AUDIT_COVERAGE_WINDOW_HOURS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_SEED_PREFETCH_MS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_SEED_PREFETCH_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_SEED_VALIDITY_MS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_SEED_VALIDITY_MS_DEFAULT;
 
 /**
  * A thread per active or standby namenode to perform:
@@ -130,6 +159,9 @@ class BPServiceActor implements Runnable {
   private volatile boolean shouldServiceRun = true;
   private final DataNode dn;
   private final DNConf dnConf;
+  // how long before a report its seed is created, and how long it can be used
+  private final long seedPrefetchMs;
+  private final long seedValidityMs;
   private long prevBlockReportId;
 
   private final IncrementalBlockReportManager ibrManager;
@@ -150,6 +182,10 @@ class BPServiceActor implements Runnable {
     this.initialRegistrationComplete = lifelineNnAddr != null ?
         new CountDownLatch(1) : null;
     this.dnConf = dn.getDnConf();
+    this.seedPrefetchMs = dn.getConf().getLong(DFS_BLOCKCHAIN_SEED_PREFETCH_MS_KEY,
+        DFS_BLOCKCHAIN_SEED_PREFETCH_MS_DEFAULT);
+    this.seedValidityMs = dn.getConf().getLong(DFS_BLOCKCHAIN_SEED_VALIDITY_MS_KEY,
+        DFS_BLOCKCHAIN_SEED_VALIDITY_MS_DEFAULT);
     this.ibrManager = new IncrementalBlockReportManager(dnConf.ibrInterval);
     prevBlockReportId = ThreadLocalRandom.current().nextLong();
     scheduler = new Scheduler(dnConf.heartBeatInterval,
@@ -354,200 +390,671 @@ class BPServiceActor implements Runnable {
 
   /**
    * Reads block from FileSystem, and builds the MerkleTree.
+   * If the top levels of the tree were stored by a previous report,
+   * only the challenged paths are hashed again (and checked against them),
+   * and so are replicas whose content was already hashed for another replica
+   * (see {@link MerkleLevelCache}).
    * The it returns all data required to produce the zk-proofs.
    * @return The MerkleProof struct for the given block
    */
   private final class MPTask implements Callable<MerkleProof> {
   		
-  	private long blockId;
-  	private byte[] seed;
+  	private FinalizedReplica replica;
+  	private Future<byte[]> seed;
     private int chunk_size, tree_height, chall_count;
+    // levels kept in the sidecar (0 for none) and its max age before a full rebuild
+    private int sidecar_levels;
+    private long scan_period_ms;
+    // the data of the replica once read, and its mapping if it is mapped
+    private ByteBuffer data = null;
+    private MappedByteBuffer mmap = null;
+    private MD5Hash fingerprint = null;
+    // call() is using the data, and the task is done with (or given up)
+    private boolean hashing = false;
+    private boolean released = false;
   		
-  	MPTask(long blockId, byte[] seed, int chunk_size, int tree_height, int chall_count) {
-  		this.blockId = blockId;
+  	MPTask(FinalizedReplica replica, Future<byte[]> seed, int chunk_size, int tree_height, int chall_count,
+  	    int sidecar_levels, long scan_period_ms) {
+  		this.replica = replica;
   		this.seed = seed;
       this.chunk_size = chunk_size;
       this.tree_height = tree_height;
       this.chall_count = chall_count;
+      this.sidecar_levels = sidecar_levels;
+      this.scan_period_ms = scan_period_ms;
   	}
 
+    /**
+     * Reads the replica, so that it is only hashed by {@link #call()}: it is
+     * mapped, and the mapping is loaded unless the proof will only need the
+     * challenged chunks (stored or cached levels), or it is read on the heap
+     * if it cannot be mapped. Called by the reader of the replica's volume,
+     * or else by call() itself. Nothing is kept if the task was released
+     * in the meantime.
+     */
+    void read() throws IOException {
+      synchronized (this) {
+        if (this.data != null || (this.released && !this.hashing)) {
+          return;
+        }
+      }
+      long blockId = this.replica.getBlockId();
+      // the meta file is read here too, next to the replica
+      MerkleLevelCache cache = dn.getMerkleLevelCache();
+      if (cache != null && cache.isEnabled()) {
+        this.fingerprint = fingerprint();
+      }
+      MappedByteBuffer mapped = null;
+      ByteBuffer data;
+      try {
+        // map the finalized replica and hash it in place (no heap copy)
+        mapped = mapBlockFile(this.replica.getBlockFile(), this.replica.getNumBytes());
+        boolean sparse = (this.sidecar_levels > 0
+            && MerkleSidecar.isFresh(this.replica.getMetaFile(), this.scan_period_ms))
+            || (this.fingerprint != null && cache.contains(this.fingerprint));
+        if (!sparse) {
+          mapped.load();
+        }
+        data = mapped;
+      } catch (IOException e) {
+        LOG.debug(bpos.getBlockPoolId()+"_"+blockId+": Could not map replica, reading it instead -> "+e.getMessage());
+        data = ByteBuffer.wrap(readBlock(blockId));
+      }
+      synchronized (this) {
+        if (this.released && !this.hashing) {
+          // the report was aborted while the replica was read
+          if (mapped != null) {
+            NativeIO.POSIX.munmap(mapped);
+          }
+          return;
+        }
+        this.mmap = mapped;
+        this.data = data;
+      }
+    }
+
   	@Override
   	public MerkleProof call() {
-  		// Read block from filesystem
-     	ExtendedBlock eb;
-       try {
-  			eb = new ExtendedBlock(bpos.getBlockPoolId(), dn.data.getStoredBlock(bpos.getBlockPoolId(), this.blockId));
-        InputStream in_stream = dn.data.getBlockInputStream(eb, 0);
-        byte[] buffer = new byte[(int) dn.data.getLength(eb)];
-        IOUtils.readFully(in_stream, buffer, 0, buffer.length);
+  		long blockId = this.replica.getBlockId();
+      synchronized (this) {
+        if (this.released) {
+          return null;
+        }
+        this.hashing = true;
+      }
+      try {
+        read();
+        ByteBuffer data = this.data;
+        if (this.sidecar_levels > 0) {
+          MerkleProof mp = sparseProof(data);
+          if (mp != null) {
+            return mp;
+          }
+        }
+        // another replica with the same content may have been hashed already
+        MerkleLevelCache cache = dn.getMerkleLevelCache();
+        MD5Hash fingerprint = this.fingerprint;
+        if (fingerprint != null) {
+          MerkleProof mp = cachedProof(cache, fingerprint, data);
+          if (mp != null) {
+            return mp;
+          }
+        }
         // Initialize and build MerkleTree
-        MerkleTree tree = new MerkleTree(buffer, this.chunk_size, this.tree_height);
+        MerkleTree tree = new MerkleTree(data, this.chunk_size, this.tree_height);
         tree.build();
-        // return MerkleProof for proof generation phase
-        return tree.getMerkleProof(this.blockId, this.seed, this.chall_count);
+        storeSidecar(tree, this.sidecar_levels);
+        if (fingerprint != null) {
+          cache.put(fingerprint, tree, this.tree_height);
+        }
+        // return MerkleProof for proof generation phase (challenged chunks are copied)
+        return tree.getMerkleProof(blockId, seed(), this.chall_count);
       } catch(IOException e){
         // if it fails, just return null so we can discard it later
         return null;
+      } finally {
+        synchronized (this) {
+          this.hashing = false;
+          release();
+        }
+      }
+    }
+
+    /**
+     * Unmaps the replica, once hashed or if it will not be (the report was
+     * aborted). Left to call() if it is hashing it, and to read() if it is
+     * still reading it.
+     */
+    synchronized void release() {
+      this.released = true;
+      if (this.hashing) {
+        return;
+      }
+      if (this.mmap != null) {
+        NativeIO.POSIX.munmap(this.mmap);
+        this.mmap = null;
+      }
+      this.data = null;
+    }
+
+    // proof from the stored levels, null if there are none or they do not match the data
+    private MerkleProof sparseProof(ByteBuffer data) {
+      long blockId = this.replica.getBlockId();
+      try {
+        MerkleTree tree = MerkleSidecar.load(this.replica.getMetaFile(), this.replica.getNumBytes(),
+            data, this.chunk_size, this.tree_height, this.scan_period_ms);
+        if (tree == null) {
+          return null;
+        }
+        MerkleProof mp = tree.getMerkleProof(blockId, seed(), this.chall_count);
+        if (mp.verify()) {
+          return mp;
+        }
+        // either the replica or the sidecar is corrupt, the full rebuild will tell
+        LOG.warn(bpos.getBlockPoolId()+"_"+blockId+": Challenged chunks do not match the stored merkle levels, rebuilding the tree.");
+      } catch (IOException e) {
+        LOG.warn(bpos.getBlockPoolId()+"_"+blockId+": Could not load merkle levels -> "+e.getMessage());
+      }
+      return null;
+    }
+
+    // proof from the levels of an identical content, null if there are none or they do not match the data
+    private MerkleProof cachedProof(MerkleLevelCache cache, MD5Hash fingerprint, ByteBuffer data) throws IOException {
+      long blockId = this.replica.getBlockId();
+      MerkleTree tree = cache.get(fingerprint, data, this.chunk_size, this.tree_height);
+      if (tree == null) {
+        return null;
+      }
+      MerkleProof mp = tree.getMerkleProof(blockId, seed(), this.chall_count);
+      if (mp.verify()) {
+        LOG.debug(bpos.getBlockPoolId()+"_"+blockId+": Merkle levels taken from a replica with the same content.");
+        storeSidecar(tree, Math.min(this.sidecar_levels, cache.getLevels()));
+        return mp;
+      }
+      // a fingerprint collision or a corrupt replica, the full rebuild will tell
+      LOG.warn(bpos.getBlockPoolId()+"_"+blockId+": Challenged chunks do not match the cached merkle levels, rebuilding the tree.");
+      cache.remove(fingerprint);
+      return null;
+    }
+
+    // the content fingerprint of the replica, null if its meta file cannot be read
+    private MD5Hash fingerprint() {
+      try {
+        return MerkleLevelCache.fingerprint(this.replica.getMetaFile(), this.replica.getNumBytes(),
+            this.chunk_size, this.tree_height);
+      } catch (IOException e) {
+        LOG.debug(bpos.getBlockPoolId()+"_"+this.replica.getBlockId()+": Could not fingerprint replica -> "+e.getMessage());
+        return null;
+      }
+    }
+
+    private void storeSidecar(MerkleTree tree, int levels) {
+      if (levels <= 0) {
+        return;
+      }
+      try {
+        MerkleSidecar.store(this.replica.getMetaFile(), this.replica.getNumBytes(),
+            tree, this.chunk_size, this.tree_height, levels);
+      } catch (IOException e) {
+        LOG.warn(bpos.getBlockPoolId()+"_"+this.replica.getBlockId()+": Could not store merkle levels -> "+e.getMessage());
+      }
+    }
+
+    // the seed of the report, which may still be being created on-chain
+    private byte[] seed() throws IOException {
+      try {
+        return this.seed.get();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted while waiting for the seed");
+      } catch (ExecutionException e) {
+        throw new IOException("No seed for the report", e.getCause());
+      }
+    }
+
+    private MappedByteBuffer mapBlockFile(File blockFile, long length)
+        throws IOException {
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("Replica too large to be mapped: " + length);
+      }
+      FileInputStream in = new FileInputStream(blockFile);
+      try {
+        return in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+      } finally {
+        IOUtils.closeStream(in);
+      }
+    }
+
+    private byte[] readBlock(long blockId) throws IOException {
+      ExtendedBlock eb = new ExtendedBlock(bpos.getBlockPoolId(), dn.data.getStoredBlock(bpos.getBlockPoolId(), blockId));
+      InputStream in_stream = dn.data.getBlockInputStream(eb, 0);
+      try {
+        byte[] buffer = new byte[(int) dn.data.getLength(eb)];
+        IOUtils.readFully(in_stream, buffer, 0, buffer.length);
+        return buffer;
+      } finally {
+        IOUtils.closeStream(in_stream);
       }
     }
   		
   }
 
   /**
-   * Creates and manages the threads that create and submit the zk-proofs
+   * Runs the on-chain report of a block pool as a streaming pipeline:
+   * replicas are read by the readers of their volume, hashed by a shared
+   * pool of threads (MPTask), each merkle proof goes to the prover of the
+   * DataNode as soon as it is ready, and the proofs are uploaded in the
+   * order the replicas were taken as they come out of the prover.
+   * <p>
+   * Each volume has its own readers (dfs.merkle.proof.volume.threads) that
+   * go through its replicas in on-disk order, and the replicas are taken
+   * from every volume in turn, so all the disks are read at once and none
+   * of them has more concurrent readers than configured.
+   * At most dfs.merkle.proof.pipeline.depth replicas are in flight at once,
+   * so memory is bounded by the depth rather than by the number of replicas,
+   * and the first proof is uploaded without waiting for the others.
+   * <p>
+   * With a dfs.merkle.audit.detection.probability below 1, only a sample of
+   * the replicas is proven (see {@link AuditSampler}), drawn once the seed
+   * exists, plus the replicas that the {@link ProofLedger} of their volume
+   * finds due for the coverage window. Those are proven whatever the seed,
+   * so they are read and hashed first, while it is created.
    */
   class ProofGenT implements Runnable {
 
-  	private List<MerkleProof> mps;
-  	//private List<CompletableFuture<TransactionReceipt>> ftrs = new ArrayList<CompletableFuture<TransactionReceipt>>();
-  	
-  	//protected void add_ftr(CompletableFuture<TransactionReceipt> ftr) {
-  	//	synchronized (this.ftrs) {
-		//		ftrs.add(ftr);
-		//	}
-  	//}
-  	
-  	public ProofGenT(List<Future<MerkleProof>> fmps) {
-			this.mps = new ArrayList<MerkleProof>();
-			for(Future<MerkleProof> fmp : fmps) {
-				try {
-				  MerkleProof mp = fmp.get();
-				  if(mp != null) {
-					  this.mps.add(mp);
-				  }
-			  } catch (Exception e) {
-				  /* Just ignore the entry */
-			  }
-			}
-		}
-  	
+  	private final List<FinalizedReplica> replicas;
+
+  	public ProofGenT(List<FinalizedReplica> replicas) {
+  		this.replicas = replicas;
+  	}
+
 		@Override
 		public void run() {
 			long zkproof_start = System.currentTimeMillis();
-			// now we can start generationg the zk-proofs and submit them through to our smart contract
-			// but make sure that we are the only BPActor that is running ZoKrates (resource issues)
+			Configuration conf = dn.getConf();
+			int depth = Math.max(1, conf.getInt(DFS_MERKLE_PROOF_PIPELINE_DEPTH_KEY, DFS_MERKLE_PROOF_PIPELINE_DEPTH_DEFAULT));
+			ExecutorService executor = Executors.newFixedThreadPool(
+					conf.getInt(DFS_MERKLE_PROOF_THREADS_KEY, DFS_MERKLE_PROOF_THREADS_DEFAULT));
+			int volume_threads = Math.max(1, conf.getInt(DFS_MERKLE_PROOF_VOLUME_THREADS_KEY, DFS_MERKLE_PROOF_VOLUME_THREADS_DEFAULT));
+			// the readers of each volume, by storage id
+			Map<String, ExecutorService> readers = new HashMap<String, ExecutorService>();
+			// the replicas in flight, in the order they are uploaded
+			Deque<Future<ProvedBlock>> window = new ArrayDeque<Future<ProvedBlock>>();
+			// the ledger of each volume, by storage id, and of each sampled replica, by block id
+			// (none if every replica is proven)
+			Map<String, ProofLedger> volume_ledgers = new HashMap<String, ProofLedger>();
+			Map<Long, ProofLedger> ledgers = new HashMap<Long, ProofLedger>();
+			double detection = conf.getDouble(DFS_MERKLE_AUDIT_DETECTION_PROBABILITY_KEY,
+					DFS_MERKLE_AUDIT_DETECTION_PROBABILITY_DEFAULT);
 			try {
-				synchronized (dn) {
-					ExecutorService executor = Executors.newFixedThreadPool(dn.getConf().getInt(DFS_ZOKRATES_THREADS_KEY, DFS_ZOKRATES_THREADS_DEFAULT));
-					// create a runnable for every block and wait until all finish and submit their proofs
-					for (MerkleProof mp : mps) {
-						if(mp != null) {
-							executor.submit(new ZKProofT(mp,
-																					dn.getConf().get(DFS_ZOKRATES_DIR_PATH_KEY),
-																					dn.getConf().getInt(DFS_CHALLENGE_COUNT_KEY, DFS_CHALLENGE_COUNT_DEFAULT)));
+				final long seed_start = System.currentTimeMillis();
+				CompletableFuture<byte[]> seed = dn.getCon().take_seed(bpos.getBlockPoolId(), seedValidityMs);
+				// while the seed is created
+				dn.getRootBatchIndex().refresh(bpos.getBlockPoolId());
+				seed.whenComplete(new BiConsumer<byte[], Throwable>() {
+					@Override
+					public void accept(byte[] value, Throwable t) {
+						// only the time the report waited for it, about 0 if it was prefetched in time
+						LOG.info("<seed_creation_time>:"+Long.toString(System.currentTimeMillis()-seed_start));
+					}
+				});
+				long first_upload_start = System.currentTimeMillis();
+				boolean first = true;
+				boolean seed_confirmed = false;
+				List<FinalizedReplica> replicas = this.replicas;
+				// the sample is drawn from the seed, once the replicas due are taken
+				boolean sampling = detection > 0 && detection < 1;
+				if (sampling) {
+					replicas = due(replicas, conf, volume_ledgers, ledgers);
+				}
+				Iterator<FinalizedReplica> it = volumeOrder(replicas).iterator();
+				while (it.hasNext() || sampling || !window.isEmpty()) {
+					// keep the pipeline full, without reading ahead more than depth replicas
+					while (window.size() < depth) {
+						if (!it.hasNext() && sampling) {
+							// the replicas in the window are read and hashed meanwhile, they
+							// only wait for the seed to derive their challenges
+							if (!confirmSeed(seed)) {
+								return;
+							}
+							seed_confirmed = true;
+							sampling = false;
+							it = volumeOrder(sample(this.replicas, getQuietly(seed), detection, conf,
+									volume_ledgers, ledgers)).iterator();
 						}
+						if (!it.hasNext()) {
+							break;
+						}
+						FinalizedReplica replica = it.next();
+						String storage = storageOf(replica);
+						ExecutorService reader = readers.get(storage);
+						if (reader == null) {
+							reader = Executors.newFixedThreadPool(volume_threads);
+							readers.put(storage, reader);
+						}
+						window.add(submit(newMPTask(replica, seed, conf), reader, executor));
+					}
+					if (window.isEmpty()) {
+						// nothing was due nor sampled
+						break;
+					}
+					ProvedBlock pb = getQuietly(window.poll());
+					if (!seed_confirmed) {
+						if (!confirmSeed(seed)) {
+							// no challenges without it, the whole report is off (the window is dropped below)
+							return;
+						}
+						seed_confirmed = true;
+					}
+					if (pb == null) {
+						// the replica could not be read, it is simply left out of the report
+						continue;
+					}
+					List<BigInteger> numbers = getQuietly(pb.proof);
+					long block_id = pb.mp.getBlock_id();
+					// only a real proof counts for the coverage window, once verified if the verdicts are followed
+					ProofLedger ledger = numbers != null && numbers.size() >= ZKProver.PROOF_SIZE ? ledgers.get(block_id) : null;
+					ProofReportHandler verdicts = dn.getProofReportHandler();
+					long now = System.currentTimeMillis();
+					if (ledger != null && verdicts != null) {
+						verdicts.awaitVerdict(bpos.getBlockPoolId(), block_id, ledger, now);
+					}
+					boolean sent = upload(pb.mp, numbers != null ? numbers : new ArrayList<BigInteger>());
+					if (ledger != null && !sent && verdicts != null) {
+						verdicts.forget(bpos.getBlockPoolId(), block_id);
+					} else if (ledger != null && sent && verdicts == null) {
+						ledger.proven(block_id, now);
+					}
+					if (first) {
+						LOG.info("<blockreport_first_upload_time>:"+Long.toString(System.currentTimeMillis()-first_upload_start));
+						first = false;
 					}
-					executor.shutdown();
-					executor.awaitTermination(10, TimeUnit.HOURS); // TODO: maybe we could change this one a bit
 				}
-			} catch (Exception e) {
+			} catch (InterruptedException e) {
 				LOG.warn(bpos.getBlockPoolId()+": ZK-Proofs generation interrupted -> "+e.getMessage());
 			} finally {
-				// iterate for all tx receipts to make sure everything was mined/rejected before releasing lock
-				//int total = 0;
-				//for (CompletableFuture<TransactionReceipt> ftr : this.ftrs) {
-				//	total++;
-				//	try {
-				//		ftr.get();
-				//	} catch (Exception e2) {
-				//		/* nothing */
-				//	}
-				//}
-				//LOG.info(bpos.getBlockPoolId()+": Proofs submitted of a total of "+Integer.toString(total)+" blocks");
+				// the replicas still in flight if the report was aborted, their tasks release them
+				for (Future<ProvedBlock> f : window) {
+					f.cancel(true);
+				}
+				for (ExecutorService reader : readers.values()) {
+					reader.shutdownNow();
+				}
+				executor.shutdownNow();
+				// saved even if none of its replicas was proven, for the ones first seen
+				for (ProofLedger ledger : volume_ledgers.values()) {
+					try {
+						ledger.save();
+					} catch (IOException e) {
+						LOG.warn(bpos.getBlockPoolId()+": Could not save proof ledger -> "+e.getMessage());
+					}
+				}
     		LOG.info("<blockreport_zkproof_generation_time>:"+Long.toString(System.currentTimeMillis()-zkproof_start));
     		LOG.info("<blockreport_upload_complete_at>:"+Long.toString(System.currentTimeMillis()));
 				// reset flag at the end of the report
 				bpos.proof_gen_in_progress.set(false);
 			}
 		}
-  	
-		/*
-	   * Uses ZoKrates to produce the zk-proofs, and submits them to the smart contract.
-	   */
-		class ZKProofT implements Runnable {
-			
-			MerkleProof mp;
-			String zok_dir;
-			int num_chall;
-			
-			ZKProofT(MerkleProof mp, String zok_dir, int num_chall) {
-				this.mp = mp;
-				this.zok_dir = zok_dir;
-				this.num_chall = num_chall;
+
+		/**
+		 * The replicas due for the coverage window according to the ledger of
+		 * their volume (loaded in volumes, and recorded in ledgers for the due
+		 * ones), which are proven whatever the seed.
+		 */
+		private List<FinalizedReplica> due(List<FinalizedReplica> replicas, Configuration conf,
+				Map<String, ProofLedger> volumes, Map<Long, ProofLedger> ledgers) {
+			long now = System.currentTimeMillis();
+			long window_ms = TimeUnit.HOURS.toMillis(conf.getLong(DFS_MERKLE_AUDIT_COVERAGE_WINDOW_HOURS_KEY,
+					DFS_MERKLE_AUDIT_COVERAGE_WINDOW_HOURS_DEFAULT));
+			// the replicas each ledger still has
+			Map<ProofLedger, Set<Long>> present = new HashMap<ProofLedger, Set<Long>>();
+			List<FinalizedReplica> due = new ArrayList<FinalizedReplica>();
+			for (FinalizedReplica replica : replicas) {
+				long id = replica.getBlockId();
+				ProofLedger ledger = ledgerOf(replica, volumes);
+				if (ledger == null) {
+					continue;
+				}
+				Set<Long> ids_of = present.get(ledger);
+				if (ids_of == null) {
+					ids_of = new HashSet<Long>();
+					present.put(ledger, ids_of);
+				}
+				ids_of.add(id);
+				if (window_ms > 0 && ledger.isDue(id, now, window_ms, dnConf.blockReportInterval)) {
+					due.add(replica);
+					ledgers.put(id, ledger);
+				}
 			}
-			
-			private BigInteger objToBigInt(Object obj) {
-			  String string = (String) obj;
-			  // get rid of '0x' prefix
-			  return new BigInteger(string.substring(2), 16);
-		  }
-
-			@Override
-			public void run() {
-				List<BigInteger> numbers = new ArrayList<BigInteger>();
-				// create a tmp dir to work with if it does not exist
-				String tmp_dir = zok_dir+"/"+bpos.getBlockPoolId()+"_"+mp.getBlock_id()+"/";
-				try {
-					File dir = new File(tmp_dir);
-					if(!dir.exists()) {
-						dir.mkdir();
-					}
-					// initialize a process builder to run ZoKrates
-					ProcessBuilder pb = new ProcessBuilder();
-					pb.directory(new File(zok_dir));
-					
-					// create all proofs for this block
-					while(!mp.isEmpty()) {
-						// ./zokrates compute-witness -a ........ -o ./.../witness
-						List<String> compute_witness_args = mp.nextWitness();
-						compute_witness_args.addAll(Arrays.asList("-o", tmp_dir+"witness"));
-						pb.command(compute_witness_args);
-						Process pr = pb.start();
-						pr.waitFor();
-						// ./zokrates generate-proof -w ./.../witness -j ./.../proof.json
-						pb.command("./zokrates", "generate-proof", "-w", tmp_dir+"witness", "-j", tmp_dir+"proof.json");
-						pr = pb.start();
-						pr.waitFor();
-						// now read the proof and add the generated numbers in correct order
-						JSONParser parser = new JSONParser();
-						JSONObject obj = (JSONObject) ((JSONObject) parser.parse(new FileReader(tmp_dir+"proof.json"))).get("proof");
-						JSONArray arr_a = (JSONArray) obj.get("a");
-						JSONArray arr_b = (JSONArray) obj.get("b");
-						JSONArray arr_c = (JSONArray) obj.get("c");
-						JSONArray arr_b1 = (JSONArray) arr_b.get(0);
-						JSONArray arr_b2 = (JSONArray) arr_b.get(1);
-						for(JSONArray arr : Arrays.asList(arr_a, arr_b1, arr_b2, arr_c)) {
-							numbers.add(objToBigInt(arr.get(0)));
-							numbers.add(objToBigInt(arr.get(1)));
-						}
+			for (Map.Entry<ProofLedger, Set<Long>> e : present.entrySet()) {
+				e.getKey().retain(e.getValue());
+			}
+			return due;
+		}
+
+		/**
+		 * Draws the sample of the seed, without the replicas already taken as
+		 * due (the ones in ledgers), and records the ledgers of the drawn ones.
+		 */
+		private List<FinalizedReplica> sample(List<FinalizedReplica> replicas, byte[] seed,
+				double detection, Configuration conf, Map<String, ProofLedger> volumes,
+				Map<Long, ProofLedger> ledgers) {
+			int size = AuditSampler.sample_size(replicas.size(), detection,
+					conf.getDouble(DFS_MERKLE_AUDIT_CORRUPT_FRACTION_KEY, DFS_MERKLE_AUDIT_CORRUPT_FRACTION_DEFAULT));
+			List<Long> ids = new ArrayList<Long>(replicas.size());
+			for (FinalizedReplica replica : replicas) {
+				ids.add(replica.getBlockId());
+			}
+			Set<Long> picked = new HashSet<Long>(new AuditSampler().select(seed, ids, size));
+			int due = ledgers.size();
+			List<FinalizedReplica> sampled = new ArrayList<FinalizedReplica>();
+			for (FinalizedReplica replica : replicas) {
+				long id = replica.getBlockId();
+				if (!picked.contains(id)) {
+					continue;
+				}
+				if (ledgers.containsKey(id)) {
+					// due, and proven already
+					due--;
+					continue;
+				}
+				sampled.add(replica);
+				ProofLedger ledger = ledgerOf(replica, volumes);
+				if (ledger != null) {
+					ledgers.put(id, ledger);
+				}
+			}
+			LOG.info(bpos.getBlockPoolId()+": Proving "+picked.size()+" sampled replicas out of "+replicas.size()
+					+", and "+due+" more due for coverage.");
+			return sampled;
+		}
+
+		private ProofLedger ledgerOf(FinalizedReplica replica, Map<String, ProofLedger> volumes) {
+			if (replica.getVolume() == null) {
+				return null;
+			}
+			String storage = storageOf(replica);
+			ProofLedger ledger = volumes.get(storage);
+			if (ledger == null) {
+				File bp_dir = new File(new File(replica.getVolume().getBasePath(),
+						DataStorage.STORAGE_DIR_CURRENT), bpos.getBlockPoolId());
+				ledger = dn.getProofLedger(bp_dir);
+				volumes.put(storage, ledger);
+			}
+			return ledger;
+		}
+
+		// waits for the seed before the first upload, false if it could not be created
+		private boolean confirmSeed(Future<byte[]> seed) throws InterruptedException {
+			try {
+				byte[] value = seed.get();
+				LOG.info(bpos.getBlockPoolId()+": Got my seed -> "+Util.bytesToHex(value));
+				return true;
+			} catch (ExecutionException e) {
+				LOG.warn(bpos.getBlockPoolId()+": Exception while fetching seed (aborting) -> "+e.getCause());
+				return false;
+			}
+		}
+
+		// reads the replica on a reader of its volume, then hashes and proves it on the shared pool
+		private Future<ProvedBlock> submit(final MPTask task, ExecutorService reader, ExecutorService executor) {
+			CompletableFuture<ProvedBlock> proved = CompletableFuture.runAsync(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.read();
+					} catch (IOException e) {
+						// call() tries again and gives up on the replica
+						LOG.debug(bpos.getBlockPoolId()+": Could not read replica -> "+e.getMessage());
 					}
-				} catch (Exception e) {
-					LOG.warn(bpos.getBlockPoolId()+"_"+mp.getBlock_id()+": Exception while creating zk-proofs. Filling with dummy data.");
-				} finally {
-				// cleanup tmp files before you continue
-					for (String file : Arrays.asList("witness", "proof.json", "")) {
-						new File(tmp_dir+file).delete();
+				}
+			}, reader).thenApplyAsync(new Function<Void, ProvedBlock>() {
+				@Override
+				public ProvedBlock apply(Void v) {
+					return new HashAndProve(task).call();
+				}
+			}, executor);
+			proved.whenComplete(new BiConsumer<ProvedBlock, Throwable>() {
+				@Override
+				public void accept(ProvedBlock pb, Throwable t) {
+					if (t != null) {
+						// cancelled by an aborted report, or the hashing was rejected by
+						// the pool being shut down: the replica may be mapped but never hashed
+						task.release();
 					}
 				}
-				// if something went wrong just fill up with dummy data so at least we get an event to emit
-				while(numbers.size() < 8 * num_chall) {
-					numbers.add(BigInteger.ZERO);
+			});
+			return proved;
+		}
+
+		private MPTask newMPTask(FinalizedReplica replica, Future<byte[]> seed, Configuration conf) {
+			return new MPTask(replica,
+					seed,
+					conf.getInt(DFS_CHUNK_SIZE_KEY, DFS_CHUNK_SIZE_DEFAULT),
+					conf.getInt(DFS_MERKLE_TREE_HEIGHT_KEY, DFS_MERKLE_TREE_HEIGHT_DEFAULT),
+					conf.getInt(DFS_CHALLENGE_COUNT_KEY, DFS_CHALLENGE_COUNT_DEFAULT),
+					conf.getInt(DFS_MERKLE_SIDECAR_LEVELS_KEY, DFS_MERKLE_SIDECAR_LEVELS_DEFAULT),
+					TimeUnit.HOURS.toMillis(conf.getLong(DFS_MERKLE_SIDECAR_SCAN_PERIOD_HOURS_KEY,
+							DFS_MERKLE_SIDECAR_SCAN_PERIOD_HOURS_DEFAULT)));
+		}
+
+		// the result of a stage, null if it failed (the failure is logged by the stage)
+		private <T> T getQuietly(Future<T> future) throws InterruptedException {
+			try {
+				return future.get();
+			} catch (ExecutionException e) {
+				LOG.warn(bpos.getBlockPoolId()+": Exception in the proof pipeline -> "+e.getCause());
+				return null;
+			}
+		}
+
+		// false if the proof could not be handed to the connection
+		private boolean upload(MerkleProof mp, List<BigInteger> numbers) {
+			// if something went wrong just fill up with dummy data so at least we get an event to emit
+			if(numbers.size() < ZKProver.PROOF_SIZE) {
+				LOG.warn(bpos.getBlockPoolId()+"_"+mp.getBlock_id()+": Missing zk-proofs. Filling with dummy data.");
+			}
+			while(numbers.size() < ZKProver.PROOF_SIZE) {
+				numbers.add(BigInteger.ZERO);
+			}
+			try {
+				// at last submit the proofs for the block, with the path of its root if it was committed in a batch
+				RootBatchIndex.Located located = dn.getRootBatchIndex().locate(bpos.getBlockPoolId(), mp.getBlock_id(), mp.getRoot());
+				if (located != null) {
+					dn.getCon().upload_proof_from_batch(bpos.getBlockPoolId(), mp.getBlock_id(), numbers,
+							mp.getRoot(), located.batch, located.index, located.siblings);
+					return true;
 				}
-				try {
-					// at last submit the proofs for the block
-					dn.getCon().upload_proof(bpos.getBlockPoolId(), mp.getBlock_id(), numbers);
-					//add_ftr(dn.getCon().upload_proofs(bpos.getBlockPoolId(), mp.getBlock_id(), numbers));
-					//String status = dn.getCon().upload_proofs(bpos.getBlockPoolId(), mp.getBlock_id(), numbers);
-					//LOG.info(bpos.getBlockPoolId()+"_"+mp.getBlock_id()+"BlockReport on chain returned with status -> "+status);
-				} catch (Exception e) {
-					LOG.warn(bpos.getBlockPoolId()+"_"+mp.getBlock_id()+": Exception when uploading proofs -> "+e.getMessage());
-				}				
+				dn.getCon().upload_proof(bpos.getBlockPoolId(), mp.getBlock_id(), numbers);
+				return true;
+			} catch (Exception e) {
+				LOG.warn(bpos.getBlockPoolId()+"_"+mp.getBlock_id()+": Exception when uploading proofs -> "+e.getMessage());
+				return false;
 			}
 		}
 		
+  }
+
+  private static String storageOf(FinalizedReplica replica) {
+    return replica.getVolume() != null ? replica.getVolume().getStorageID() : "";
+  }
+
+  /**
+   * Orders the replicas for the readers of their volumes: the replicas of
+   * a volume in on-disk order (by block file, i.e. directory by directory),
+   * and the volumes in turn, one replica of each after the other.
+   */
+  @VisibleForTesting
+  static List<FinalizedReplica> volumeOrder(List<FinalizedReplica> replicas) {
+    Map<String, List<FinalizedReplica>> per_volume = new LinkedHashMap<String, List<FinalizedReplica>>();
+    for (FinalizedReplica replica : replicas) {
+      String storage = storageOf(replica);
+      List<FinalizedReplica> list = per_volume.get(storage);
+      if (list == null) {
+        list = new ArrayList<FinalizedReplica>();
+        per_volume.put(storage, list);
+      }
+      list.add(replica);
+    }
+    List<Iterator<FinalizedReplica>> volumes = new ArrayList<Iterator<FinalizedReplica>>();
+    for (List<FinalizedReplica> list : per_volume.values()) {
+      Collections.sort(list, new Comparator<FinalizedReplica>() {
+        @Override
+        public int compare(FinalizedReplica a, FinalizedReplica b) {
+          return a.getBlockFile().compareTo(b.getBlockFile());
+        }
+      });
+      volumes.add(list.iterator());
+    }
+    List<FinalizedReplica> ordered = new ArrayList<FinalizedReplica>(replicas.size());
+    while (!volumes.isEmpty()) {
+      Iterator<Iterator<FinalizedReplica>> it = volumes.iterator();
+      while (it.hasNext()) {
+        Iterator<FinalizedReplica> volume = it.next();
+        ordered.add(volume.next());
+        if (!volume.hasNext()) {
+          it.remove();
+        }
+      }
+    }
+    return ordered;
+  }
+
+  /**
+   * A merkle proof and its pending zk-proofs.
+   */
+  private static final class ProvedBlock {
+  	final MerkleProof mp;
+  	final Future<List<BigInteger>> proof;
+
+  	ProvedBlock(MerkleProof mp, Future<List<BigInteger>> proof) {
+  		this.mp = mp;
+  		this.proof = proof;
+  	}
+  }
+
+  /**
+   * Builds the merkle proof of a replica and hands it to the prover
+   * right away, without waiting for the zk-proofs.
+   * @return null if the replica could not be read
+   */
+  private final class HashAndProve implements Callable<ProvedBlock> {
+
+  	private final MPTask task;
+
+  	HashAndProve(MPTask task) {
+  		this.task = task;
+  	}
+
+  	@Override
+  	public ProvedBlock call() {
+  		MerkleProof mp = this.task.call();
+  		if (mp == null) {
+  			return null;
+  		}
+  		return new ProvedBlock(mp, dn.getZKProver().prove(mp));
+  	}
   }
   
-	
 	/**
    * Report the list blocks to the Namenode and process any commands issued.
    * Also report to the blockchain if needed
@@ -594,46 +1101,9 @@ class BPServiceActor implements Runnable {
         }
         if(have_lock) {
         	LOG.info(bpos.getBlockPoolId()+": Found Finalized Replicas for upload : " + replicas.size());
-        	try {
-        		byte[] seed = null;
-        		try {
-							// create and retrieve seed
-        			long seed_start = System.currentTimeMillis(); // before creating seed
-        			dn.getCon().create_seed(bpos.getBlockPoolId());
-        			seed = dn.getCon().get_seed(bpos.getBlockPoolId());
-        			LOG.info("<seed_creation_time>:"+Long.toString(System.currentTimeMillis()-seed_start));
-        			LOG.info(bpos.getBlockPoolId()+": Got my seed -> "+Util.bytesToHex(seed));
-						} catch (Exception e) {
-							LOG.warn(bpos.getBlockPoolId()+": Exception while fetching seed (aborting) -> "+e.getMessage());
-	        		bpos.proof_gen_in_progress.set(false);
-							seed = null;
-						}
-        		if(seed != null) {
-        			long mproofs_start = System.currentTimeMillis();
-        			Collection<Callable<MerkleProof>> tasks = new ArrayList<>();
-        			for(FinalizedReplica replica : replicas){
-                      tasks.add(new MPTask(replica.getBlockId(),
-                                          seed,
-                                          dn.getConf().getInt(DFS_CHUNK_SIZE_KEY, DFS_CHUNK_SIZE_DEFAULT),
-                                          dn.getConf().getInt(DFS_MERKLE_TREE_HEIGHT_KEY, DFS_MERKLE_TREE_HEIGHT_DEFAULT),
-                                          dn.getConf().getInt(DFS_CHALLENGE_COUNT_KEY, DFS_CHALLENGE_COUNT_DEFAULT)));
-              }
-              ExecutorService executor = Executors.newFixedThreadPool(dn.getConf().getInt(DFS_MERKLE_PROOF_THREADS_KEY, DFS_MERKLE_PROOF_THREADS_DEFAULT));
-              LOG.info(bpos.getBlockPoolId()+": Starting parallel merkle proof generation.");
-              List<Future<MerkleProof>> future_mps = executor.invokeAll(tasks);
-        			LOG.info("<merkle_proofs_creation_time>:"+Long.toString(System.currentTimeMillis()-mproofs_start));
-              // after all threads have finished, start a new thread to produce and submit zk-proofs on blockchain
-              ProofGenT pgt = new ProofGenT(future_mps);
-              executor.shutdown();
-              LOG.info(bpos.getBlockPoolId()+": Starting main ProofGenThread.");
-              new Thread(pgt).start();
-        		}
-        	} catch (Exception e) {
-        		// if an exception is thrown, just abort and release lock
-        		// also log the exception message (just for debugging)
-        		LOG.info(bpos.getBlockPoolId()+": Aborting on-chain report and releasing proof_gen_lock: "+e.getMessage());
-        		bpos.proof_gen_in_progress.set(false);
-        	}
+        	// the on-chain report runs on its own, the NN report does not wait for it
+        	LOG.info(bpos.getBlockPoolId()+": Starting main ProofGenThread.");
+        	new Thread(new ProofGenT(replicas)).start();
         }
 
         // Convert the reports to the format expected by the NN.
@@ -846,6 +1316,24 @@ class BPServiceActor implements Runnable {
     }
   }
 
+  /**
+   * Creates the seed of the next on-chain report once it is less than
+   * dfs.blockchain.seed.prefetch.ms away, so the report does not wait for
+   * the create_seed transaction. Not while a report is running or due, nor
+   * while the proofs of the previous one are still queued, unmined or
+   * waiting for their event: the seed must not change under proofs that are
+   * not verified yet.
+   */
+  private void prefetchSeed(long now) {
+    long wait = scheduler.nextBlockReportTime - now;
+    if (seedPrefetchMs > 0 && wait > 0 && wait <= seedPrefetchMs
+        && bpos.getBpServiceToActive() == this
+        && !bpos.proof_gen_in_progress.get()
+        && !dn.getCon().has_pending_proofs(bpos.getBlockPoolId())) {
+      dn.getCon().prefetch_seed(bpos.getBlockPoolId());
+    }
+  }
+
   /**
    * Main loop for each BP thread. Run until shutdown,
    * forever calling remote NameNode functions.
@@ -939,6 +1427,7 @@ class BPServiceActor implements Runnable {
           //fullBlockReportLeaseId = 0;
           new Thread(new BlockReportT(bpos.getBpServiceToActive() == this)).start();
         }
+        prefetchSeed(startTime);
         //processCommand(cmds == null ? null : cmds.toArray(new DatanodeCommand[cmds.size()]));
 
         if (!dn.areCacheReportsDisabledForTests()) {
@@ -17,6 +17,12 @@
  */
 package org.apache.hadoop.hdfs.server.datanode;
 
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CHUNK_SIZE_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CHUNK_SIZE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_SIDECAR_LEVELS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_SIDECAR_LEVELS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_TREE_HEIGHT_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_TREE_HEIGHT_KEY;
 import static org.apache.hadoop.hdfs.server.datanode.DataNode.DN_CLIENTTRACE_FORMAT;
 
 import java.io.BufferedOutputStream;
@@ -24,9 +30,11 @@ import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
@@ -36,6 +44,7 @@ import java.util.LinkedList;
 import java.util.zip.Checksum;
 
 import org.apache.commons.logging.Log;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSOutputSummer;
 import org.apache.hadoop.fs.StorageType;
@@ -54,6 +63,7 @@ import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.nativeio.NativeIO;
+import org.apache.hadoop.merkle_trees.MerkleTreeBuilder;
 import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.StringUtils;
@@ -72,6 +82,7 @@ import org.slf4j.Logger;
 class BlockReceiver implements Closeable {
   public static final Logger LOG = DataNode.LOG;
   static final Log ClientTraceLog = DataNode.ClientTraceLog;
+  private static final int MERKLE_HASH_SIZE = 32;
 
   @VisibleForTesting
   static long CACHE_DROP_LAG_BYTES = 8 * 1024 * 1024;
@@ -142,6 +153,16 @@ class BlockReceiver implements Closeable {
   private long lastSentTime;
   private long maxSendIdleTime;
 
+  /**
+   * Hashes the data of the block at the last datanode of a client pipeline,
+   * to return its merkle root with the ack of the last packet.
+   */
+  private MerkleTreeBuilder merkleBuilder;
+  private int merkleChunkSize;
+  private int merkleTreeHeight;
+  private int merkleLevels;
+  private byte[] merkleRoot;
+
   BlockReceiver(final ExtendedBlock block, final StorageType storageType,
       final DataInputStream in,
       final String inAddr, final String myAddr,
@@ -714,6 +735,10 @@ class BlockReceiver implements Closeable {
           // Write data to disk.
           long begin = Time.monotonicNow();
           out.write(dataBuf.array(), startByteToDisk, numBytesToDisk);
+          if (merkleBuilder != null) {
+            hashData(dataBuf.array(), startByteToDisk, numBytesToDisk,
+                onDiskLen);
+          }
           long duration = Time.monotonicNow() - begin;
           if (duration > datanodeSlowLogThresholdMs) {
             LOG.warn("Slow BlockReceiver write data to disk cost:" + duration
@@ -1024,9 +1049,161 @@ class BlockReceiver implements Closeable {
         }
         responder = null;
       }
+      if (merkleBuilder != null) {
+        // the block was not finalized, its pipeline may be recovered
+        datanode.keepMerkleBuilder(block, merkleBuilder);
+        merkleBuilder = null;
+      }
+    }
+  }
+
+  /**
+   * Computes the merkle tree of the block while it is received, to return
+   * its root with the ack of the last packet and store its top levels in a
+   * {@link MerkleSidecar}. When the pipeline is recovered with this
+   * datanode last again, the data already in the replica is the data it
+   * hashed before the pipeline broke. Otherwise (when appending, or if
+   * another datanode was last) a replica that covers all the leaves is
+   * resumed from the levels in its sidecar, and the data of a shorter one
+   * is read back and hashed first: its leaves wrap around all of its data.
+   */
+  void computeMerkleRoot() {
+    if (!isClient || isTransfer) {
+      return;
+    }
+    Configuration conf = datanode.getConf();
+    merkleChunkSize = conf.getInt(DFS_CHUNK_SIZE_KEY, DFS_CHUNK_SIZE_DEFAULT);
+    merkleTreeHeight = conf.getInt(DFS_MERKLE_TREE_HEIGHT_KEY,
+        DFS_MERKLE_TREE_HEIGHT_DEFAULT);
+    merkleLevels = Math.max(0, Math.min(merkleTreeHeight + 1,
+        conf.getInt(DFS_MERKLE_SIDECAR_LEVELS_KEY,
+            DFS_MERKLE_SIDECAR_LEVELS_DEFAULT)));
+    long onDiskLen = replicaInfo.getBytesOnDisk();
+    MerkleTreeBuilder builder = datanode.takeMerkleBuilder(block);
+    if (builder != null && builder.getLength() == onDiskLen) {
+      merkleBuilder = builder;
+      return;
+    }
+    builder = new MerkleTreeBuilder(merkleChunkSize, merkleTreeHeight);
+    builder.keepLevels(merkleLevels);
+    builder.limitPrefix(MerkleTreeBuilder.STREAM_PREFIX_LIMIT);
+    if (onDiskLen >= builder.getCoverage() && resumeMerkleTree(builder)) {
+      merkleBuilder = builder;
+      return;
+    }
+    merkleBuilder = readMerkleTree(builder, onDiskLen);
+  }
+
+  /**
+   * Hashes the data of the replica covered by the tree.
+   * @return the builder, or null if the replica could not be read
+   */
+  private MerkleTreeBuilder readMerkleTree(MerkleTreeBuilder builder,
+      long len) {
+    if (len == 0) {
+      return builder;
+    }
+    InputStream blockIn = null;
+    try {
+      long covered = Math.min(len, builder.getCoverage());
+      blockIn = datanode.data.getBlockInputStream(block, 0);
+      IOUtils.copyBytes(blockIn, builder, covered, false);
+      builder.skip(len - covered);
+      return builder;
+    } catch (IOException e) {
+      LOG.warn("Not computing the merkle root of " + block
+          + ": could not read its replica", e);
+      return null;
+    } finally {
+      IOUtils.closeStream(blockIn);
     }
   }
 
+  /**
+   * Resumes the tree of a replica that covers all the leaves from the
+   * levels stored in its sidecar, kept across the append.
+   * @return false if the replica has no usable sidecar
+   */
+  private boolean resumeMerkleTree(MerkleTreeBuilder builder) {
+    long onDiskLen = replicaInfo.getBytesOnDisk();
+    byte[] levels;
+    try {
+      File metaFile = new File(
+          datanode.data.getBlockLocalPathInfo(block).getMetaPath());
+      levels = MerkleSidecar.loadLevels(metaFile, onDiskLen,
+          merkleChunkSize, merkleTreeHeight);
+    } catch (IOException e) {
+      LOG.debug("Could not load the merkle levels of " + block, e);
+      return false;
+    }
+    if (levels == null) {
+      return false;
+    }
+    int stored = Integer.numberOfTrailingZeros(
+        levels.length / MERKLE_HASH_SIZE + 1);
+    if (stored < merkleLevels) {
+      // the sidecar was stored with fewer levels, keep those
+      merkleLevels = stored;
+      builder.keepLevels(merkleLevels);
+    }
+    builder.resume(levels, onDiskLen);
+    return true;
+  }
+
+  /**
+   * Hashes the data written to the replica at the given offset.
+   */
+  private void hashData(byte[] b, int off, int len, long offsetInBlock) {
+    if (merkleBuilder.getLength() != offsetInBlock) {
+      LOG.warn("Not computing the merkle root of " + block + ": "
+          + merkleBuilder.getLength() + " bytes hashed, received data at "
+          + offsetInBlock);
+      merkleBuilder = null;
+      return;
+    }
+    merkleBuilder.write(b, off, len);
+  }
+
+  /**
+   * Completes the merkle tree of the finalized block, and stores its top
+   * levels in the sidecar of the replica.
+   * @return the merkle root of the block, null if it was not computed
+   */
+  private byte[] finishMerkleTree() {
+    MerkleTreeBuilder builder = merkleBuilder;
+    merkleBuilder = null;
+    if (builder == null) {
+      return null;
+    }
+    if (builder.getLength() != block.getNumBytes()) {
+      LOG.warn("Not returning the merkle root of " + block + ": "
+          + builder.getLength() + " bytes hashed");
+      return null;
+    }
+    if (builder.isTruncated()) {
+      // the data of the short block was not all kept, hash it again once
+      builder = new MerkleTreeBuilder(merkleChunkSize, merkleTreeHeight);
+      builder.keepLevels(merkleLevels);
+      if (readMerkleTree(builder, block.getNumBytes()) == null) {
+        return null;
+      }
+    }
+    if (merkleLevels == 0 || block.getNumBytes() == 0) {
+      return builder.finish();
+    }
+    byte[] levels = builder.finishLevels();
+    try {
+      File metaFile = new File(
+          datanode.data.getBlockLocalPathInfo(block).getMetaPath());
+      MerkleSidecar.store(metaFile, block.getNumBytes(), levels,
+          merkleChunkSize, merkleTreeHeight);
+    } catch (IOException e) {
+      LOG.warn("Could not store the merkle levels of " + block, e);
+    }
+    // the root comes first, in heap order
+    return Arrays.copyOf(levels, MERKLE_HASH_SIZE);
+  }
+
   /** Cleanup a partial block 
    * if this write is for a replication request (and not from a client)
    */
@@ -1440,6 +1617,7 @@ class BlockReceiver implements Closeable {
         block.setNumBytes(replicaInfo.getNumBytes());
         datanode.data.finalizeBlock(block, dirSyncOnFinalize);
       }
+      merkleRoot = finishMerkleTree();
 
       if (pinning) {
         datanode.data.setPinning(block);
@@ -1540,8 +1718,16 @@ class BlockReceiver implements Closeable {
               + "thread is corrupt");
         }
       }
+      // the merkle root of the block comes with the ack of its last packet
+      byte[] root = null;
+      if (type == PacketResponderType.LAST_IN_PIPELINE) {
+        root = merkleRoot;
+      } else if (type == PacketResponderType.HAS_DOWNSTREAM_IN_PIPELINE
+          && ack != null && !mirrorError) {
+        root = ack.getMerkleRoot();
+      }
       PipelineAck replyAck = new PipelineAck(seqno, replies,
-          totalAckTimeNanos);
+          totalAckTimeNanos, root);
       if (replyAck.isSuccess()
           && offsetInBlock > replicaInfo.getBytesAcked()) {
         replicaInfo.setBytesAcked(offsetInBlock);
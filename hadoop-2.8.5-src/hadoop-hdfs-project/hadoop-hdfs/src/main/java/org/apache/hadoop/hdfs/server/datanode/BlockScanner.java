@@ -22,6 +22,14 @@ import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_BYTE
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CHUNK_SIZE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CHUNK_SIZE_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_TREE_HEIGHT_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_TREE_HEIGHT_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_SIDECAR_LEVELS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_SIDECAR_LEVELS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_SCANNER_ENABLED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_SCANNER_ENABLED_DEFAULT;
 
 import java.io.IOException;
 import java.util.Map.Entry;
@@ -113,6 +121,11 @@ public class BlockScanner {
     final long scanPeriodMs;
     final long cursorSaveMs;
     final Class<? extends ScanResultHandler> resultHandler;
+    // merkle tree of the scanned replicas, and the levels stored in their
+    // sidecar (0 to hash nothing)
+    final int merkleChunkSize;
+    final int merkleTreeHeight;
+    final int merkleLevels;
 
     private static long getUnitTestLong(Configuration conf, String key,
                                         long defVal) {
@@ -170,6 +183,18 @@ public class BlockScanner {
       } else {
         this.resultHandler = ScanResultHandler.class;
       }
+      this.merkleChunkSize = conf.getInt(DFS_CHUNK_SIZE_KEY,
+          DFS_CHUNK_SIZE_DEFAULT);
+      this.merkleTreeHeight = conf.getInt(DFS_MERKLE_TREE_HEIGHT_KEY,
+          DFS_MERKLE_TREE_HEIGHT_DEFAULT);
+      if (conf.getBoolean(DFS_MERKLE_SCANNER_ENABLED_KEY,
+          DFS_MERKLE_SCANNER_ENABLED_DEFAULT)) {
+        this.merkleLevels = Math.max(0, Math.min(this.merkleTreeHeight + 1,
+            conf.getInt(DFS_MERKLE_SIDECAR_LEVELS_KEY,
+                DFS_MERKLE_SIDECAR_LEVELS_DEFAULT)));
+      } else {
+        this.merkleLevels = 0;
+      }
     }
   }
 
@@ -161,6 +161,9 @@ class BlockSender implements java.io.Closeable {
   /** The replica of the block that is being read. */
   private final Replica replica;
 
+  /** Also receives the data that is sent, once its checksums are verified */
+  private OutputStream dataSink = null;
+
   // Cache-management related fields
   private final long readaheadLength;
 
@@ -632,6 +635,9 @@ class BlockSender implements java.io.Closeable {
       if (verifyChecksum) {
         verifyChecksum(buf, dataOff, dataLen, numChunks, checksumOff);
       }
+      if (dataSink != null) {
+        dataSink.write(buf, dataOff, dataLen);
+      }
     }
     
     try {
@@ -921,6 +927,15 @@ class BlockSender implements java.io.Closeable {
     return size;
   }
   
+  /**
+   * Sets a stream that also receives the data of the block as it is read,
+   * e.g. to hash it without reading it again. The data is not copied to it
+   * when it is sent with transferTo.
+   */
+  void setDataSink(OutputStream dataSink) {
+    this.dataSink = dataSink;
+  }
+
   boolean didSendEntireByteRange() {
     return sentEntireByteRange;
   }
@@ -20,7 +20,21 @@ package org.apache.hadoop.hdfs.server.datanode;
 // config key imports for merkle proofs and blockchain connection
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_ADDRESS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_CHAINID_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_REPORT_EVENTS_ENABLED_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_REPORT_EVENTS_ENABLED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_REPORT_RESUBMITS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_REPORT_RESUBMITS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_REPORT_TIMEOUT_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_REPORT_TIMEOUT_MS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_VERIFY_BATCH_DELAY_MS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_VERIFY_BATCH_DELAY_MS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_VERIFY_BATCH_SIZE_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKCHAIN_VERIFY_BATCH_SIZE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_WALLET_PASSWORD_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_LEVEL_CACHE_BYTES_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_LEVEL_CACHE_BYTES_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_LEVEL_CACHE_LEVELS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_MERKLE_LEVEL_CACHE_LEVELS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_WALLET_PATH_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CONTRACT_ADDRESS_KEY;
 
@@ -89,6 +103,7 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -193,6 +208,7 @@ import org.apache.hadoop.io.ReadaheadPool;
 import org.apache.hadoop.io.nativeio.NativeIO;
 import org.apache.hadoop.ipc.ProtobufRpcEngine;
 import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.merkle_trees.MerkleTreeBuilder;
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.metrics2.util.MBeans;
 import org.apache.hadoop.net.DNS;
@@ -238,6 +254,7 @@ import com.google.protobuf.BlockingService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.blockchain.DatanodeConnection;
+import org.apache.hadoop.blockchain.RootBatch;
 
 /**********************************************************
  * DataNode is a class (and program) that stores a set of
@@ -412,6 +429,25 @@ public class DataNode extends ReconfigurableBase
   private ScheduledThreadPoolExecutor metricsLoggerTimer;
 
   private DatanodeConnection con = null;
+  private ZKProver zkProver = null;
+  private MerkleLevelCache merkleLevelCache = null;
+  private RootBatchIndex rootBatchIndex = null;
+  // null if the outcome of the proofs is not followed
+  private ProofReportHandler proofReportHandler = null;
+  // the ledgers of the block pool directories, kept across reports
+  private final Map<File, ProofLedger> proofLedgers = new HashMap<File, ProofLedger>();
+  // the merkle builders of the client pipelines that broke with this
+  // datanode last, by block, for the receivers recovering them; only a few
+  // are kept as each holds up to the data covered by the tree
+  private static final int KEPT_MERKLE_BUILDERS = 4;
+  private final Map<String, MerkleTreeBuilder> merkleBuilders =
+      new LinkedHashMap<String, MerkleTreeBuilder>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(
+            Map.Entry<String, MerkleTreeBuilder> e) {
+          return size() > KEPT_MERKLE_BUILDERS;
+        }
+      };
 
   /**
    * Creates a dummy DataNode for testing purpose.
@@ -1359,6 +1395,20 @@ public class DataNode extends ReconfigurableBase
 
     metrics = DataNodeMetrics.create(conf, getDisplayName());
     metrics.getJvmMetrics().setPauseMonitor(pauseMonitor);
+    zkProver = new ZKProver(conf, metrics);
+    merkleLevelCache = new MerkleLevelCache(
+        conf.getLong(DFS_MERKLE_LEVEL_CACHE_BYTES_KEY, DFS_MERKLE_LEVEL_CACHE_BYTES_DEFAULT),
+        conf.getInt(DFS_MERKLE_LEVEL_CACHE_LEVELS_KEY, DFS_MERKLE_LEVEL_CACHE_LEVELS_DEFAULT));
+    rootBatchIndex = new RootBatchIndex(conf, new Path(RootBatch.DIR));
+    con.setBatching(conf.getInt(DFS_BLOCKCHAIN_VERIFY_BATCH_SIZE_KEY, DFS_BLOCKCHAIN_VERIFY_BATCH_SIZE_DEFAULT),
+        conf.getLong(DFS_BLOCKCHAIN_VERIFY_BATCH_DELAY_MS_KEY, DFS_BLOCKCHAIN_VERIFY_BATCH_DELAY_MS_DEFAULT));
+    if (conf.getBoolean(DFS_BLOCKCHAIN_REPORT_EVENTS_ENABLED_KEY, DFS_BLOCKCHAIN_REPORT_EVENTS_ENABLED_DEFAULT)) {
+      // the outcome of the proofs comes back as BlockReport events
+      proofReportHandler = new ProofReportHandler(this);
+      con.subscribe_reports(proofReportHandler,
+          conf.getLong(DFS_BLOCKCHAIN_REPORT_TIMEOUT_MS_KEY, DFS_BLOCKCHAIN_REPORT_TIMEOUT_MS_DEFAULT),
+          conf.getInt(DFS_BLOCKCHAIN_REPORT_RESUBMITS_KEY, DFS_BLOCKCHAIN_REPORT_RESUBMITS_DEFAULT));
+    }
 
     blockRecoveryWorker = new BlockRecoveryWorker(this);
 
@@ -2040,6 +2090,15 @@ public class DataNode extends ReconfigurableBase
       dataNodeInfoBeanName = null;
     }
     if (shortCircuitRegistry != null) shortCircuitRegistry.shutdown();
+    if (zkProver != null) {
+      zkProver.close();
+    }
+    if (con != null) {
+      con.unsubscribe_reports();
+    }
+    if (rootBatchIndex != null) {
+      rootBatchIndex.close();
+    }
     LOG.info("Shutdown complete.");
     synchronized(this) {
       // it is already false, but setting it again to avoid a findbug warning.
@@ -2394,7 +2453,7 @@ public class DataNode extends ReconfigurableBase
         new Sender(out).writeBlock(b, targetStorageTypes[0], accessToken,
             clientname, targets, targetStorageTypes, srcNode,
             stage, 0, 0, 0, 0, blockSender.getChecksum(), cachingStrategy,
-            false, false, null);
+            false, false, null, false);
 
         // send data & checksum
         blockSender.sendBlock(out, unbufOut, null);
@@ -3371,7 +3430,61 @@ public class DataNode extends ReconfigurableBase
   public DatanodeConnection getCon() {
       return this.con;
   }
+
+  public ZKProver getZKProver() {
+    return this.zkProver;
+  }
+
+  public MerkleLevelCache getMerkleLevelCache() {
+    return this.merkleLevelCache;
+  }
+
+  RootBatchIndex getRootBatchIndex() {
+    return this.rootBatchIndex;
+  }
+
+  ProofReportHandler getProofReportHandler() {
+    return this.proofReportHandler;
+  }
+
+  /**
+   * @return the proof ledger of a block pool directory, loaded once so the
+   * verdicts that come after a report are kept for the next one
+   */
+  ProofLedger getProofLedger(File bpDir) {
+    synchronized (proofLedgers) {
+      ProofLedger ledger = proofLedgers.get(bpDir);
+      if (ledger == null) {
+        ledger = ProofLedger.load(bpDir);
+        proofLedgers.put(bpDir, ledger);
+      }
+      return ledger;
+    }
+  }
   
+  /**
+   * Keeps the merkle builder of a block whose pipeline broke before the
+   * block was finalized, so the pipeline is recovered without reading the
+   * replica back.
+   */
+  void keepMerkleBuilder(ExtendedBlock block, MerkleTreeBuilder builder) {
+    synchronized (merkleBuilders) {
+      merkleBuilders.put(block.getBlockPoolId() + "_" + block.getBlockId(),
+          builder);
+    }
+  }
+
+  /**
+   * @return the merkle builder kept for the block, null if none, which is
+   * not kept anymore
+   */
+  MerkleTreeBuilder takeMerkleBuilder(ExtendedBlock block) {
+    synchronized (merkleBuilders) {
+      return merkleBuilders.remove(
+          block.getBlockPoolId() + "_" + block.getBlockId());
+    }
+  }
+
   /* Just a simple servlet with an endpoint to corrupt blocks
    * stored on the datanode filesystem. For zk_hadoop
    * presentation purposes only.
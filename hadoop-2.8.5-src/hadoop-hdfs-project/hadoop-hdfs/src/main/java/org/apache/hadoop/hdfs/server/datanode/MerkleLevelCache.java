@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.merkle_trees.MerkleTree;
+import org.slf4j.Logger;
+
+/**
+ * DataNode-wide cache of the top levels of merkle trees, keyed by the
+ * content of the replicas rather than by their block, so that replicas with
+ * identical data (copies of the same file, short blocks of the same bytes)
+ * are hashed only once.
+ * <p>
+ * The fingerprint of a replica is the MD5 of its meta file (the CRCs of all
+ * its checksum chunks) together with its length and the tree parameters, a
+ * few KB to read instead of the whole replica. Trees taken from the cache
+ * are only trusted once the challenged chunks are checked against them,
+ * like the ones of a {@link MerkleSidecar}.
+ * <p>
+ * Entries are evicted in least recently used order to keep the stored
+ * levels within the configured number of bytes.
+ */
+@InterfaceAudience.Private
+public class MerkleLevelCache {
+  static final Logger LOG = DataNode.LOG;
+
+  private static final int HASH_SIZE = 32;
+
+  private final long capacity;
+  private final int levels;
+  private final LinkedHashMap<MD5Hash, byte[]> entries =
+      new LinkedHashMap<MD5Hash, byte[]>(16, 0.75f, true);
+  private long used = 0;
+  private long hits = 0, misses = 0;
+
+  /**
+   * @param capacity the bytes of stored levels to keep (non-positive: disabled)
+   * @param levels the number of top levels kept for each tree
+   */
+  public MerkleLevelCache(long capacity, int levels) {
+    this.capacity = capacity;
+    this.levels = levels;
+  }
+
+  public boolean isEnabled() {
+    return this.capacity > 0 && this.levels > 0;
+  }
+
+  /**
+   * @return the fingerprint of the content of a replica
+   */
+  public static MD5Hash fingerprint(File metaFile, long length,
+      int chunk_size, int tree_height) throws IOException {
+    MessageDigest digester = MD5Hash.getDigester();
+    digester.update(ByteBuffer.allocate(16).putLong(length)
+        .putInt(chunk_size).putInt(tree_height).array());
+    FileInputStream in = new FileInputStream(metaFile);
+    try {
+      byte[] buffer = new byte[64 * 1024];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        digester.update(buffer, 0, n);
+      }
+    } finally {
+      IOUtils.closeStream(in);
+    }
+    return new MD5Hash(digester.digest());
+  }
+
+  /**
+   * Looks up the stored levels of a content, on top of a replica's data.
+   * @param data the data of the replica, must stay valid while the tree is in use
+   * @return the tree, or null if the content is not cached
+   */
+  public MerkleTree get(MD5Hash key, ByteBuffer data, int chunk_size, int tree_height) {
+    byte[] nodes;
+    synchronized (this) {
+      nodes = this.entries.get(key);
+      if (nodes == null) {
+        this.misses++;
+        return null;
+      }
+      this.hits++;
+    }
+    // the levels are never modified, they can be shared by the trees
+    return new MerkleTree(data, chunk_size, tree_height, nodes);
+  }
+
+  /**
+   * @return whether the levels of a content are cached, without counting it as a use
+   */
+  public synchronized boolean contains(MD5Hash key) {
+    return this.entries.containsKey(key);
+  }
+
+  /**
+   * Keeps the top levels of a (built) tree for the given content,
+   * evicting the least recently used ones beyond the capacity.
+   */
+  public void put(MD5Hash key, MerkleTree tree, int tree_height) {
+    int count = Math.min(this.levels, tree_height + 1);
+    long size = ((1L << count) - 1) * HASH_SIZE;
+    if (size > this.capacity) {
+      return;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream((int) size);
+    try {
+      tree.writeLevels(out, count);
+    } catch (IOException e) {
+      // not from a byte array
+      throw new IllegalStateException(e);
+    }
+    byte[] nodes = out.toByteArray();
+    synchronized (this) {
+      byte[] previous = this.entries.put(key, nodes);
+      if (previous != null) {
+        this.used -= previous.length;
+      }
+      this.used += nodes.length;
+      Iterator<Map.Entry<MD5Hash, byte[]>> it = this.entries.entrySet().iterator();
+      while (this.used > this.capacity && it.hasNext()) {
+        this.used -= it.next().getValue().length;
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Drops the levels of a content, e.g. once they did not match the data.
+   */
+  public synchronized void remove(MD5Hash key) {
+    byte[] previous = this.entries.remove(key);
+    if (previous != null) {
+      this.used -= previous.length;
+    }
+  }
+
+  public int getLevels() {
+    return this.levels;
+  }
+
+  public synchronized int size() {
+    return this.entries.size();
+  }
+
+  public synchronized long getUsed() {
+    return this.used;
+  }
+
+  public synchronized long getHits() {
+    return this.hits;
+  }
+
+  public synchronized long getMisses() {
+    return this.misses;
+  }
+}
@@ -0,0 +1,215 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.util.AtomicFileOutputStream;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.merkle_trees.MerkleTree;
+import org.slf4j.Logger;
+
+/**
+ * Stores the top levels of a finalized replica's merkle tree in a file next
+ * to its meta file (blk_id_gs.merkle), so that block reports only have to
+ * hash the challenged chunks and the subtrees below the stored levels.
+ * <p>
+ * The header records the tree parameters and the replica length, a file
+ * that does not match them is ignored (and later overwritten). Data past
+ * the coverage of the leaves does not change the tree, so the levels of a
+ * replica that covers all the leaves stay valid when it is appended to.
+ */
+@InterfaceAudience.Private
+public class MerkleSidecar {
+  static final Logger LOG = DataNode.LOG;
+
+  public static final String MERKLE_EXTENSION = ".merkle";
+  private static final int MAGIC = 0x4d524b4c; // "MRKL"
+  private static final int VERSION = 1;
+  private static final int HASH_SIZE = 32;
+
+  /** @return the sidecar file of the replica with the given meta file */
+  public static File getSidecarFile(File metaFile) {
+    String name = metaFile.getName();
+    if (name.endsWith(Block.METADATA_EXTENSION)) {
+      name = name.substring(0, name.length() - Block.METADATA_EXTENSION.length());
+    }
+    return new File(metaFile.getParentFile(), name + MERKLE_EXTENSION);
+  }
+
+  /**
+   * Removes the sidecar of a replica, if any. Called whenever the replica
+   * is deleted.
+   */
+  public static void delete(File metaFile) {
+    File f = getSidecarFile(metaFile);
+    if (f.exists() && !f.delete()) {
+      LOG.warn("Failed to delete merkle sidecar " + f);
+    }
+  }
+
+  /**
+   * Moves the sidecar of a replica along with its meta file (append, new
+   * generation stamp). The header still records the previous length, so
+   * it is only used again if the levels did not change (see {@link #load}).
+   */
+  public static void rename(File oldMeta, File newMeta) {
+    File from = getSidecarFile(oldMeta);
+    if (from.exists() && !from.renameTo(getSidecarFile(newMeta))) {
+      LOG.warn("Failed to rename merkle sidecar " + from);
+      delete(oldMeta);
+    }
+  }
+
+  /**
+   * @return whether the replica has a sidecar that {@link #load} would not
+   * discard for its age (its header is not checked)
+   */
+  public static boolean isFresh(File metaFile, long maxAgeMs) {
+    long modified = getSidecarFile(metaFile).lastModified();
+    return modified != 0
+        && (maxAgeMs <= 0 || System.currentTimeMillis() - modified <= maxAgeMs);
+  }
+
+  /**
+   * Loads the stored levels of a replica's tree, on top of its data.
+   * @param metaFile the meta file of the replica
+   * @param length the length of the replica
+   * @param data the data of the replica, must stay valid while the tree is in use
+   * @param maxAgeMs sidecars older than this are ignored (non-positive: never)
+   * @return the tree, or null if there is no usable sidecar
+   */
+  public static MerkleTree load(File metaFile, long length, ByteBuffer data,
+      int chunk_size, int tree_height, long maxAgeMs) throws IOException {
+    File f = getSidecarFile(metaFile);
+    long modified = f.lastModified();
+    if (modified == 0) {
+      return null;
+    }
+    if (maxAgeMs > 0 && System.currentTimeMillis() - modified > maxAgeMs) {
+      LOG.debug("Merkle sidecar " + f + " is due for a full verification");
+      return null;
+    }
+    byte[] nodes = readNodes(f, length, chunk_size, tree_height);
+    return nodes == null ? null
+        : new MerkleTree(data, chunk_size, tree_height, nodes);
+  }
+
+  /**
+   * Loads the stored levels of a replica's tree, whatever their age, to
+   * resume the tree of an appended replica that covers all the leaves.
+   * @return the hashes of the stored levels in heap order, or null if
+   * there is no usable sidecar
+   */
+  public static byte[] loadLevels(File metaFile, long length, int chunk_size,
+      int tree_height) throws IOException {
+    return readNodes(getSidecarFile(metaFile), length, chunk_size,
+        tree_height);
+  }
+
+  private static byte[] readNodes(File f, long length, int chunk_size,
+      int tree_height) throws IOException {
+    DataInputStream in;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION
+          || in.readInt() != chunk_size || in.readInt() != tree_height) {
+        LOG.debug("Ignoring merkle sidecar " + f + " of different parameters");
+        return null;
+      }
+      int levels = in.readInt();
+      long stored = in.readLong();
+      long coverage = (long) chunk_size << tree_height;
+      // the data appended past the coverage does not change the tree
+      boolean same = stored == length
+          || (stored >= coverage && length >= coverage);
+      if (!same || levels < 1 || levels > tree_height + 1) {
+        LOG.debug("Ignoring stale merkle sidecar " + f);
+        return null;
+      }
+      byte[] nodes = new byte[((1 << levels) - 1) * HASH_SIZE];
+      in.readFully(nodes);
+      return nodes;
+    } finally {
+      IOUtils.closeStream(in);
+    }
+  }
+
+  /**
+   * Writes the top levels of a replica's (built) tree to its sidecar,
+   * atomically replacing the previous one.
+   * @param levels the number of levels to store, capped to tree_height + 1
+   */
+  public static void store(File metaFile, long length, MerkleTree tree,
+      int chunk_size, int tree_height, int levels) throws IOException {
+    store(metaFile, length, tree, null, chunk_size, tree_height,
+        Math.min(levels, tree_height + 1));
+  }
+
+  /**
+   * Same as {@link #store(File, long, MerkleTree, int, int, int)}, from
+   * the hashes of the top levels in heap order (e.g. kept by a
+   * {@link org.apache.hadoop.merkle_trees.MerkleTreeBuilder}).
+   */
+  public static void store(File metaFile, long length, byte[] nodes,
+      int chunk_size, int tree_height) throws IOException {
+    int levels = Integer.numberOfTrailingZeros(nodes.length / HASH_SIZE + 1);
+    store(metaFile, length, null, nodes, chunk_size, tree_height, levels);
+  }
+
+  private static void store(File metaFile, long length, MerkleTree tree,
+      byte[] nodes, int chunk_size, int tree_height, int levels)
+      throws IOException {
+    AtomicFileOutputStream afos = new AtomicFileOutputStream(getSidecarFile(metaFile));
+    boolean success = false;
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(afos));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(chunk_size);
+      out.writeInt(tree_height);
+      out.writeInt(levels);
+      out.writeLong(length);
+      if (tree != null) {
+        tree.writeLevels(out, levels);
+      } else {
+        out.write(nodes, 0, ((1 << levels) - 1) * HASH_SIZE);
+      }
+      out.close();
+      success = true;
+    } finally {
+      if (!success) {
+        afos.abort();
+      }
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.util.AtomicFileOutputStream;
+import org.apache.hadoop.io.IOUtils;
+import org.slf4j.Logger;
+
+/**
+ * Records when each replica of a block pool on a volume was last proven
+ * on-chain, so that sampled reports still prove every replica within the
+ * coverage window (see {@link #isDue}).
+ * <p>
+ * A replica first seen by the ledger counts as proven at a time spread over
+ * the past window according to its id, so that the replicas of a new (or
+ * upgraded) volume come due over a whole window rather than all at once.
+ * <p>
+ * The ledger is kept in the block pool directory of the volume
+ * (current/BP-.../proof.ledger) and replaced atomically when saved.
+ */
+@InterfaceAudience.Private
+class ProofLedger {
+  static final Logger LOG = DataNode.LOG;
+
+  static final String LEDGER_FILE = "proof.ledger";
+  private static final int MAGIC = 0x50524c47; // "PRLG"
+  private static final int VERSION = 1;
+
+  private final File file;
+  private final Map<Long, Long> proven = new HashMap<Long, Long>();
+
+  private ProofLedger(File file) {
+    this.file = file;
+  }
+
+  /**
+   * Loads the ledger of a block pool directory, empty if there is none or
+   * it cannot be read.
+   */
+  static ProofLedger load(File bpDir) {
+    ProofLedger ledger = new ProofLedger(new File(bpDir, LEDGER_FILE));
+    DataInputStream in;
+    try {
+      in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(ledger.file)));
+    } catch (FileNotFoundException e) {
+      return ledger;
+    }
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        LOG.warn("Ignoring proof ledger " + ledger.file + " of unknown format");
+        return ledger;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        ledger.proven.put(in.readLong(), in.readLong());
+      }
+    } catch (EOFException e) {
+      LOG.warn("Proof ledger " + ledger.file + " is truncated, "
+          + ledger.proven.size() + " replicas read");
+    } catch (IOException e) {
+      LOG.warn("Could not read proof ledger " + ledger.file + " -> "
+          + e.getMessage());
+    } finally {
+      IOUtils.closeStream(in);
+    }
+    return ledger;
+  }
+
+  /**
+   * @return when the replica was last proven, recording it as first seen
+   * now if it is not known yet
+   */
+  synchronized long lastProven(long blockId, long now, long windowMs) {
+    Long last = this.proven.get(blockId);
+    if (last == null) {
+      // spread over the past window, by a mix of the bits of the id
+      long h = blockId * 0x9E3779B97F4A7C15L;
+      last = now - (windowMs > 0 ? ((h ^ (h >>> 32)) & Long.MAX_VALUE) % windowMs : 0);
+      this.proven.put(blockId, last);
+    }
+    return last;
+  }
+
+  /**
+   * @param intervalMs the time until the next report
+   * @return whether the replica must be proven by this report, as the next
+   * one would come after the end of its window
+   */
+  boolean isDue(long blockId, long now, long windowMs, long intervalMs) {
+    return now - lastProven(blockId, now, windowMs) + intervalMs >= windowMs;
+  }
+
+  synchronized void proven(long blockId, long now) {
+    this.proven.put(blockId, now);
+  }
+
+  /**
+   * Forgets the replicas that are not in the given set anymore.
+   */
+  synchronized void retain(Set<Long> blockIds) {
+    Iterator<Long> it = this.proven.keySet().iterator();
+    while (it.hasNext()) {
+      if (!blockIds.contains(it.next())) {
+        it.remove();
+      }
+    }
+  }
+
+  synchronized int size() {
+    return this.proven.size();
+  }
+
+  /**
+   * Writes the ledger, atomically replacing the previous one.
+   */
+  synchronized void save() throws IOException {
+    AtomicFileOutputStream afos = new AtomicFileOutputStream(this.file);
+    boolean success = false;
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(afos));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(this.proven.size());
+      for (Map.Entry<Long, Long> e : this.proven.entrySet()) {
+        out.writeLong(e.getKey());
+        out.writeLong(e.getValue());
+      }
+      out.close();
+      success = true;
+    } finally {
+      if (!success) {
+        afos.abort();
+      }
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.blockchain.ReportTracker;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.slf4j.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Feeds the on-chain verdicts of this DataNode's proofs back into HDFS.
+ * <p>
+ * A replica reported corrupt is handed to the {@link BlockScanner} as a
+ * suspect, which scans it ahead of the others and reports it to the
+ * NameNode if its checksums do not match, so it is re-replicated within
+ * seconds instead of at the next full block report. A proof can also fail
+ * without the data being corrupt (e.g. one made with a seed that has since
+ * changed), so the verdict alone does not condemn the replica, unless the
+ * block scanner is disabled.
+ * <p>
+ * A replica is only recorded as proven in the {@link ProofLedger} of its
+ * volume once its proof is verified on-chain, see
+ * {@link #awaitVerdict(String, long, ProofLedger, long)}.
+ */
+@InterfaceAudience.Private
+class ProofReportHandler implements ReportTracker.Listener {
+  static final Logger LOG = DataNode.LOG;
+
+  /** A ledger to update once the proof of a replica is verified. */
+  private static final class Awaited {
+    final ProofLedger ledger;
+    final long provenAt;
+
+    Awaited(ProofLedger ledger, long provenAt) {
+      this.ledger = ledger;
+      this.provenAt = provenAt;
+    }
+  }
+
+  private final DataNode dn;
+  // by bp_id + "_" + block_id, until the verdict (or its absence) comes
+  private final Map<String, Awaited> awaited =
+      new ConcurrentHashMap<String, Awaited>();
+
+  ProofReportHandler(DataNode dn) {
+    this.dn = dn;
+  }
+
+  /**
+   * Records the replica as proven at provenAt in the ledger if the proof
+   * about to be sent is verified, or forgets it if the send fails.
+   */
+  void awaitVerdict(String bp_id, long block_id, ProofLedger ledger,
+      long provenAt) {
+    awaited.put(bp_id + "_" + block_id, new Awaited(ledger, provenAt));
+  }
+
+  void forget(String bp_id, long block_id) {
+    awaited.remove(bp_id + "_" + block_id);
+  }
+
+  @VisibleForTesting
+  int awaiting() {
+    return awaited.size();
+  }
+
+  @Override
+  public void reported(String bp_id, long block_id, boolean corrupt) {
+    Awaited a = awaited.remove(bp_id + "_" + block_id);
+    if (!corrupt) {
+      LOG.debug(bp_id + "_" + block_id + ": Proof verified on-chain.");
+      if (a != null) {
+        a.ledger.proven(block_id, a.provenAt);
+      }
+      return;
+    }
+    LOG.warn(bp_id + "_" + block_id + ": Proof rejected on-chain, checking the replica.");
+    try {
+      Block stored = dn.getFSDataset().getStoredBlock(bp_id, block_id);
+      if (stored == null) {
+        LOG.info(bp_id + "_" + block_id + ": Replica is gone, nothing to check.");
+        return;
+      }
+      ExtendedBlock block = new ExtendedBlock(bp_id, stored);
+      FsVolumeSpi volume = dn.getFSDataset().getVolume(block);
+      if (volume == null) {
+        LOG.warn("Cannot find FsVolumeSpi to check block: " + block);
+        return;
+      }
+      BlockScanner scanner = dn.getBlockScanner();
+      if (scanner != null && scanner.isEnabled()) {
+        scanner.markSuspectBlock(volume.getStorageID(), block);
+      } else {
+        dn.reportBadBlocks(block, volume);
+      }
+    } catch (IOException e) {
+      LOG.warn(bp_id + "_" + block_id + ": Could not handle the rejected proof -> " + e.getMessage());
+    }
+  }
+
+  @Override
+  public void missing(String bp_id, long block_id) {
+    forget(bp_id, block_id);
+    // proven again, with a new seed, by the next report
+    LOG.warn(bp_id + "_" + block_id + ": No on-chain report for the proof of the block.");
+  }
+}
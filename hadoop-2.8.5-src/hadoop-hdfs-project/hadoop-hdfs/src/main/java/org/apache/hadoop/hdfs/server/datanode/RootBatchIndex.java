@@ -0,0 +1,230 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.hadoop.blockchain.RootBatch;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.slf4j.Logger;
+
+/**
+ * Finds the committed {@link RootBatch} holding the merkle root of a
+ * replica, so its proof can be checked on-chain with verify_from_batch:
+ * the root of a block written with dfs.client.blockchain.root.batch.size
+ * is only on-chain as part of the root of its batch.
+ * <p>
+ * The writers keep each batch in a file of its own, named after its first
+ * block (see {@link RootBatch#pathOf(String, long)}). Only the range of
+ * block ids of each file is kept in memory: {@link #refresh(String)} reads
+ * the files that are new or were replaced since the last report, and
+ * {@link #locate(String, long, byte[])} reads again the few whose range
+ * holds the block, keeping the last ones as consecutive blocks share them.
+ * The blocks of a batch are allocated in increasing order (the block
+ * appended to, if any, is committed on its own), so its first block has the
+ * smallest id and its last block the largest, as the contract requires.
+ */
+@InterfaceAudience.Private
+class RootBatchIndex implements Closeable {
+  static final Logger LOG = DataNode.LOG;
+
+  private static final int CACHED_BATCHES = 16;
+
+  /** The range of block ids of a batch file. */
+  private static final class Range {
+    final long last;
+    final long modified;
+
+    Range(long last, long modified) {
+      this.last = last;
+      this.modified = modified;
+    }
+  }
+
+  /** Where the root of a block is in a committed batch. */
+  static final class Located {
+    final long batch;
+    final int index;
+    final List<byte[]> siblings;
+
+    Located(long batch, int index, List<byte[]> siblings) {
+      this.batch = batch;
+      this.index = index;
+      this.siblings = siblings;
+    }
+  }
+
+  private final Configuration conf;
+  private final Path dir;
+  private FileSystem fs = null;
+  // the batch files of each block pool, by first block id
+  private final Map<String, TreeMap<Long, Range>> pools =
+      new HashMap<String, TreeMap<Long, Range>>();
+  // the widest range of each block pool
+  private final Map<String, Long> spans = new HashMap<String, Long>();
+  // the last batches read, by block pool id and first block id
+  private final LinkedHashMap<String, RootBatch> cache =
+      new LinkedHashMap<String, RootBatch>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RootBatch> e) {
+          return size() > CACHED_BATCHES;
+        }
+      };
+
+  /**
+   * @param conf the configuration of the file system holding the batches
+   * @param dir the directory of the batches, {@link RootBatch#DIR} but in tests
+   */
+  RootBatchIndex(Configuration conf, Path dir) {
+    this.conf = conf;
+    this.dir = dir;
+  }
+
+  private FileSystem getFileSystem() throws IOException {
+    if (fs == null) {
+      fs = FileSystem.newInstance(dir.toUri(), conf);
+    }
+    return fs;
+  }
+
+  /**
+   * Picks up the batches committed since the last call, before a report.
+   * The ones that cannot be read are left out, their blocks are then
+   * proven as if their root was committed on its own.
+   */
+  synchronized void refresh(String bp_id) {
+    TreeMap<Long, Range> ranges = pools.get(bp_id);
+    if (ranges == null) {
+      ranges = new TreeMap<Long, Range>();
+      pools.put(bp_id, ranges);
+    }
+    FileStatus[] files;
+    try {
+      files = getFileSystem().listStatus(new Path(dir, bp_id));
+    } catch (FileNotFoundException e) {
+      // no file of the block pool was written with batches
+      files = new FileStatus[0];
+    } catch (IOException e) {
+      LOG.warn(bp_id + ": Could not list the merkle root batches -> " + e.getMessage());
+      return;
+    }
+    Set<Long> listed = new HashSet<Long>();
+    long span = spans.containsKey(bp_id) ? spans.get(bp_id) : 0;
+    for (FileStatus file : files) {
+      long first;
+      try {
+        first = Long.parseLong(file.getPath().getName());
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      listed.add(first);
+      Range range = ranges.get(first);
+      if (range != null && range.modified == file.getModificationTime()) {
+        continue;
+      }
+      // written again since the last refresh
+      cache.remove(bp_id + "_" + first);
+      RootBatch batch = read(bp_id, first);
+      if (batch == null) {
+        ranges.remove(first);
+        continue;
+      }
+      ranges.put(first, new Range(batch.getLastBlockId(), file.getModificationTime()));
+      span = Math.max(span, batch.getLastBlockId() - first);
+    }
+    ranges.keySet().retainAll(listed);
+    spans.put(bp_id, span);
+  }
+
+  /**
+   * @return where the block is in the last batch that committed the given
+   * root for it, or null if none did
+   */
+  synchronized Located locate(String bp_id, long block_id, byte[] root) {
+    TreeMap<Long, Range> ranges = pools.get(bp_id);
+    if (ranges == null || ranges.isEmpty()) {
+      return null;
+    }
+    long span = spans.get(bp_id);
+    for (Map.Entry<Long, Range> e : ranges.subMap(block_id - span, true,
+        block_id, true).descendingMap().entrySet()) {
+      if (e.getValue().last < block_id) {
+        continue;
+      }
+      RootBatch batch = read(bp_id, e.getKey());
+      if (batch == null) {
+        continue;
+      }
+      int index = batch.indexOf(block_id, root);
+      if (index >= 0) {
+        return new Located(e.getKey(), index, batch.getPath(index));
+      }
+    }
+    return null;
+  }
+
+  // the batch of the file, from the cache if it did not change since
+  private RootBatch read(String bp_id, long first) {
+    String key = bp_id + "_" + first;
+    RootBatch batch = cache.get(key);
+    if (batch != null) {
+      return batch;
+    }
+    Path path = new Path(new Path(dir, bp_id), Long.toString(first));
+    FSDataInputStream in = null;
+    try {
+      byte[] value = new byte[(int) getFileSystem().getFileStatus(path).getLen()];
+      in = getFileSystem().open(path);
+      IOUtils.readFully(in, value, 0, value.length);
+      List<RootBatch> batches = RootBatch.readAll(value);
+      if (batches.size() != 1 || batches.get(0).isEmpty()) {
+        LOG.warn("Ignoring malformed merkle root batch " + path);
+        return null;
+      }
+      batch = batches.get(0);
+      cache.put(key, batch);
+      return batch;
+    } catch (IOException e) {
+      LOG.warn("Could not read the merkle root batch " + path + " -> " + e.getMessage());
+      return null;
+    } finally {
+      IOUtils.closeStream(in);
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    IOUtils.cleanup(null, fs);
+    fs = null;
+  }
+}
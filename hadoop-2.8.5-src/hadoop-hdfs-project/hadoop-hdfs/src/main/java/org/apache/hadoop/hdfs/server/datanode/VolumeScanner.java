@@ -19,6 +19,7 @@
 package org.apache.hadoop.hdfs.server.datanode;
 
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Iterator;
@@ -40,6 +41,7 @@ import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.merkle_trees.MerkleTreeBuilder;
 import org.apache.hadoop.util.Time;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -119,6 +121,13 @@ public class VolumeScanner extends Thread {
   private final DataOutputStream nullStream =
       new DataOutputStream(new IOUtils.NullOutputStream());
 
+  /**
+   * Hashes the data of the scanned blocks, so that their merkle levels are
+   * stored in a {@link MerkleSidecar} and block reports do not read them
+   * again.  Null if disabled.
+   */
+  private final MerkleTreeBuilder merkleBuilder;
+
   /**
    * The block iterators associated with this VolumeScanner.<p/>
    *
@@ -314,6 +323,13 @@ public class VolumeScanner extends Thread {
       handler = new ScanResultHandler();
     }
     this.resultHandler = handler;
+    if (conf.merkleLevels > 0) {
+      this.merkleBuilder = new MerkleTreeBuilder(conf.merkleChunkSize,
+          conf.merkleTreeHeight);
+      this.merkleBuilder.keepLevels(conf.merkleLevels);
+    } else {
+      this.merkleBuilder = null;
+    }
     setName("VolumeScannerThread(" + volume.getBasePath() + ")");
     setDaemon(true);
   }
@@ -445,8 +461,15 @@ public class VolumeScanner extends Thread {
       blockSender = new BlockSender(block, 0, -1,
           false, true, true, datanode, null,
           CachingStrategy.newDropBehind());
+      if (merkleBuilder != null) {
+        merkleBuilder.reset();
+        blockSender.setDataSink(merkleBuilder);
+      }
       throttler.setBandwidth(bytesPerSec);
       long bytesRead = blockSender.sendBlock(nullStream, null, throttler);
+      if (merkleBuilder != null) {
+        storeMerkleLevels(block);
+      }
       resultHandler.handle(block, null);
       metrics.incrBlocksVerified();
       return bytesRead;
@@ -459,6 +482,29 @@ public class VolumeScanner extends Thread {
     return -1;
   }
 
+  /**
+   * Stores the merkle levels of a block whose data was entirely hashed
+   * while being scanned, i.e. whose checksums were all verified.
+   */
+  private void storeMerkleLevels(ExtendedBlock block) {
+    if (merkleBuilder.getLength() != block.getNumBytes()) {
+      // the replica changed while it was being scanned
+      LOG.debug("{}: not storing the merkle levels of {}, {} bytes scanned " +
+          "out of {}", this, block, merkleBuilder.getLength(),
+          block.getNumBytes());
+      return;
+    }
+    try {
+      File metaFile = new File(
+          volume.getDataset().getBlockLocalPathInfo(block).getMetaPath());
+      MerkleSidecar.store(metaFile, block.getNumBytes(),
+          merkleBuilder.finishLevels(), conf.merkleChunkSize,
+          conf.merkleTreeHeight);
+    } catch (IOException e) {
+      LOG.warn("{}: could not store the merkle levels of {}", this, block, e);
+    }
+  }
+
   @VisibleForTesting
   static boolean calculateShouldScan(String storageId, long targetBytesPerSec,
                    long scannedBytesSum, long startMinute, long curMinute) {
@@ -0,0 +1,331 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_ZOKRATES_DIR_PATH_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_ZOKRATES_THREADS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_ZOKRATES_THREADS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_ZOKRATES_WORKER_COMMAND_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_ZOKRATES_WORK_DIR_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_ZOKRATES_WORK_DIR_KEY;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.ProcessBuilder.Redirect;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.merkle_trees.MerkleProof;
+import org.apache.hadoop.util.Time;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Long-lived prover of the DataNode, shared by all the block pools, which
+ * never runs more than dfs.zokrates.threads proofs at a time, no matter how
+ * many block reports are in progress.
+ * <p>
+ * All the challenges of a {@link MerkleProof} are proven at once with the
+ * circuit of merkle_proof_multi.zok, and the proof is returned as its 8 field
+ * elements (a, b and c), in the order the verifier contract expects them.
+ * <p>
+ * The proofs are made by as many worker processes, started once in
+ * dfs.zokrates.dir.path with dfs.zokrates.worker.command (by default
+ * {@link #WORKER_SCRIPT}, which proves with ZoKrates). Each of them reads
+ * the circuit arguments of a block on its stdin and answers with a single
+ * line on its stdout:
+ * <pre>
+ *   OK &lt;witness ms&gt; &lt;proof ms&gt; &lt;proof.json&gt;
+ *   ERR &lt;stage&gt; &lt;message&gt;
+ * </pre>
+ * A worker that dies is restarted by its next request. Any prover that
+ * answers the same way can be the command of the workers.
+ */
+@InterfaceAudience.Private
+public class ZKProver implements Closeable {
+  static final Logger LOG = DataNode.LOG;
+
+  /** Field elements of a single proof. */
+  public static final int PROOF_SIZE = 8;
+  /** The worker, expected in dfs.zokrates.dir.path. */
+  public static final String WORKER_SCRIPT = "zokrates_worker.sh";
+
+  private final String zok_dir;
+  private final String command;
+  private final String work_dir;
+  private final DataNodeMetrics metrics;
+  private final ExecutorService executor;
+  // idle workers, taken by a thread of the executor for the duration of a proof
+  private final BlockingQueue<Worker> workers;
+  private final List<Worker> all_workers = new ArrayList<Worker>();
+  private volatile boolean closed = false;
+
+  /**
+   * @param metrics where the latencies of the workers are reported, may be null
+   */
+  public ZKProver(Configuration conf, DataNodeMetrics metrics) {
+    this.zok_dir = conf.get(DFS_ZOKRATES_DIR_PATH_KEY);
+    String command = conf.getTrimmed(DFS_ZOKRATES_WORKER_COMMAND_KEY, "");
+    this.command = command.isEmpty() && this.zok_dir != null
+        ? new File(this.zok_dir, WORKER_SCRIPT).getAbsolutePath() : command;
+    this.work_dir = conf.get(DFS_ZOKRATES_WORK_DIR_KEY, DFS_ZOKRATES_WORK_DIR_DEFAULT);
+    this.metrics = metrics;
+    int threads = Math.max(1, conf.getInt(DFS_ZOKRATES_THREADS_KEY, DFS_ZOKRATES_THREADS_DEFAULT));
+    this.executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+        .setDaemon(true).setNameFormat("ZKProver-%d").build());
+    this.workers = new ArrayBlockingQueue<Worker>(threads);
+    if (this.zok_dir == null) {
+      LOG.warn(DFS_ZOKRATES_DIR_PATH_KEY + " is not set, zk-proofs cannot be generated.");
+      return;
+    }
+    if (!new File(this.command).exists()) {
+      LOG.warn(this.command + " not found, zk-proofs will fail.");
+    }
+    // the processes are only started on their first request
+    for (int i = 0; i < threads; i++) {
+      Worker worker = new Worker();
+      this.all_workers.add(worker);
+      this.workers.add(worker);
+    }
+  }
+
+  /**
+   * Proves all the (remaining) challenges of a merkle proof in the background.
+   * @return the PROOF_SIZE field elements of the proof, none if it failed
+   */
+  public Future<List<BigInteger>> prove(final MerkleProof mp) {
+    return this.executor.submit(new Callable<List<BigInteger>>() {
+      @Override
+      public List<BigInteger> call() throws Exception {
+        return proveAll(mp);
+      }
+    });
+  }
+
+  private List<BigInteger> proveAll(MerkleProof mp) throws InterruptedException {
+    List<BigInteger> numbers = new ArrayList<BigInteger>();
+    if (mp.isEmpty()) {
+      return numbers;
+    }
+    if (this.all_workers.isEmpty()) {
+      if (this.metrics != null) {
+        this.metrics.incrZkProofFailures();
+      }
+      return numbers;
+    }
+    Worker worker = this.workers.take();
+    try {
+      long start = Time.monotonicNow();
+      Response response = Response.parse(worker.call(StringUtils.join(mp.witnessArgs(), ' ')));
+      if (this.metrics != null) {
+        this.metrics.addZkWitnessMs(response.witness_ms);
+        this.metrics.addZkProofMs(response.proof_ms);
+        this.metrics.addZkRoundTripMs(Time.monotonicNow() - start);
+      }
+      numbers.addAll(response.proof);
+    } catch (IOException e) {
+      if (this.metrics != null) {
+        this.metrics.incrZkProofFailures();
+      }
+      LOG.warn(mp.getBlock_id() + ": Exception while creating zk-proofs -> " + e.getMessage());
+    } finally {
+      this.workers.add(worker);
+    }
+    return numbers;
+  }
+
+  /**
+   * A worker process, used by a single thread at a time.
+   */
+  private class Worker {
+    private volatile Process process;
+    private volatile BufferedWriter requests;
+    private volatile BufferedReader responses;
+    private boolean started = false;
+
+    // sends a request and waits for its response line
+    String call(String request) throws IOException {
+      boolean fresh = this.process == null;
+      if (fresh) {
+        start();
+      }
+      try {
+        return send(request);
+      } catch (IOException e) {
+        if (fresh) {
+          throw e;
+        }
+        // the worker died since its last request, a new one gets this request
+        start();
+        return send(request);
+      }
+    }
+
+    private String send(String request) throws IOException {
+      String line;
+      try {
+        this.requests.write(request);
+        this.requests.newLine();
+        this.requests.flush();
+        line = this.responses.readLine();
+      } catch (IOException e) {
+        stop();
+        throw e;
+      }
+      if (line == null) {
+        stop();
+        throw new IOException(command + " exited unexpectedly");
+      }
+      return line;
+    }
+
+    private void start() throws IOException {
+      if (this.started && metrics != null) {
+        metrics.incrZkWorkerRestarts();
+      }
+      this.started = true;
+      // the worker keeps its files under the work dir
+      ProcessBuilder pb = new ProcessBuilder(command, work_dir);
+      pb.directory(new File(zok_dir));
+      pb.redirectError(Redirect.INHERIT);
+      if (closed) {
+        throw new IOException("The prover is closed");
+      }
+      Process pr = pb.start();
+      this.requests = new BufferedWriter(
+          new OutputStreamWriter(pr.getOutputStream(), Charsets.UTF_8));
+      this.responses = new BufferedReader(
+          new InputStreamReader(pr.getInputStream(), Charsets.UTF_8));
+      this.process = pr;
+      // closed while starting, close() may have missed this process
+      if (closed) {
+        stop();
+        throw new IOException("The prover is closed");
+      }
+    }
+
+    // the pipes are closed once the process is gone, which unblocks a pending read
+    private void stop() {
+      destroy();
+      IOUtils.cleanup(null, this.requests, this.responses);
+    }
+
+    // may be called from any thread, unblocks a pending call
+    private void destroy() {
+      Process pr = this.process;
+      this.process = null;
+      if (pr != null) {
+        pr.destroy();
+      }
+    }
+
+    // from another thread than the caller, when the prover is closed
+    void close() {
+      stop();
+    }
+  }
+
+  /**
+   * A response line of a worker.
+   */
+  static class Response {
+    final long witness_ms;
+    final long proof_ms;
+    final List<BigInteger> proof;
+
+    private Response(long witness_ms, long proof_ms, List<BigInteger> proof) {
+      this.witness_ms = witness_ms;
+      this.proof_ms = proof_ms;
+      this.proof = proof;
+    }
+
+    static Response parse(String line) throws IOException {
+      String[] parts = line.split(" ", 4);
+      if (parts.length < 4 || !"OK".equals(parts[0])) {
+        throw new IOException("The worker failed: " + line);
+      }
+      try {
+        return new Response(Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+            parseProof(new StringReader(parts[3])));
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed response: " + line, e);
+      }
+    }
+  }
+
+  /**
+   * Reads a proof.json of ZoKrates.
+   * @return the field elements of the proof (a, b[0], b[1], c)
+   */
+  static List<BigInteger> parseProof(Reader reader) throws IOException {
+    try {
+      JSONObject obj = (JSONObject) ((JSONObject) new JSONParser().parse(reader)).get("proof");
+      JSONArray arr_b = (JSONArray) obj.get("b");
+      List<BigInteger> numbers = new ArrayList<BigInteger>(PROOF_SIZE);
+      for (Object o : Arrays.asList(obj.get("a"), arr_b.get(0), arr_b.get(1), obj.get("c"))) {
+        JSONArray arr = (JSONArray) o;
+        numbers.add(hexToBigInt(arr.get(0)));
+        numbers.add(hexToBigInt(arr.get(1)));
+      }
+      return numbers;
+    } catch (ParseException | ClassCastException | NullPointerException e) {
+      throw new IOException("Malformed proof: " + e.getMessage(), e);
+    }
+  }
+
+  private static BigInteger hexToBigInt(Object obj) {
+    String string = (String) obj;
+    // get rid of '0x' prefix
+    return new BigInteger(string.substring(2), 16);
+  }
+
+  @Override
+  public void close() {
+    this.closed = true;
+    this.executor.shutdownNow();
+    for (Worker worker : this.all_workers) {
+      worker.close();
+    }
+  }
+}
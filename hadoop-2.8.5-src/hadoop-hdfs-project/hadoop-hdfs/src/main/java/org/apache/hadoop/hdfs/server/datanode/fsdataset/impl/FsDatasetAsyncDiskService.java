@@ -34,6 +34,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.MerkleSidecar;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.protocol.BlockCommand;
 import org.apache.hadoop.io.IOUtils;
@@ -292,6 +293,8 @@ class FsDatasetAsyncDiskService {
       final long metaLength = metaFile.length();
       boolean result;
 
+      // the merkle levels can always be recomputed, never keep them in trash
+      MerkleSidecar.delete(metaFile);
       result = (trashDirectory == null) ? deleteFiles() : moveFiles();
 
       if (!result) {
@@ -82,6 +82,7 @@ import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetricHelper;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.DatanodeUtil;
 import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
+import org.apache.hadoop.hdfs.server.datanode.MerkleSidecar;
 import org.apache.hadoop.hdfs.server.datanode.Replica;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaAlreadyExistsException;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaBeingWritten;
@@ -1227,6 +1228,10 @@ class FsDatasetImpl implements FsDatasetSpi<FsVolumeImpl> {
 
       File newmeta = newReplicaInfo.getMetaFile();
 
+      // the stored merkle levels still match the appended replica if it
+      // covers all the leaves
+      MerkleSidecar.rename(oldmeta, newmeta);
+
       // rename meta file to rbw directory
       if (LOG.isDebugEnabled()) {
         LOG.debug("Renaming " + oldmeta + " to " + newmeta);
@@ -1395,6 +1400,7 @@ class FsDatasetImpl implements FsDatasetSpi<FsVolumeImpl> {
     File oldmeta = replicaInfo.getMetaFile();
     replicaInfo.setGenerationStamp(newGS);
     File newmeta = replicaInfo.getMetaFile();
+    MerkleSidecar.rename(oldmeta, newmeta);
 
     // rename meta file to new GS
     if (LOG.isDebugEnabled()) {
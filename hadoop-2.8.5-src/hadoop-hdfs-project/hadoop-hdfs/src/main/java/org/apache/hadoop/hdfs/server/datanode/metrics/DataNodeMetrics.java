@@ -126,6 +126,13 @@ public class DataNodeMetrics {
   @Metric MutableRate sendDataPacketTransferNanos;
   final MutableQuantiles[] sendDataPacketTransferNanosQuantiles;
 
+  @Metric("Time to compute a ZoKrates witness") MutableRate zkWitnessMs;
+  @Metric("Time to generate a zk-proof from its witness") MutableRate zkProofMs;
+  @Metric("Time of a zk-proof request to a ZoKrates worker, end to end")
+  MutableRate zkRoundTripMs;
+  @Metric MutableCounterLong zkProofFailures;
+  @Metric MutableCounterLong zkWorkerRestarts;
+
   final MetricsRegistry registry = new MetricsRegistry("datanode");
   final String name;
   JvmMetrics jvmMetrics = null;
@@ -415,4 +422,24 @@ public class DataNodeMetrics {
       q.add(latencyMs);
     }
   }
+
+  public void addZkWitnessMs(long latencyMs) {
+    zkWitnessMs.add(latencyMs);
+  }
+
+  public void addZkProofMs(long latencyMs) {
+    zkProofMs.add(latencyMs);
+  }
+
+  public void addZkRoundTripMs(long latencyMs) {
+    zkRoundTripMs.add(latencyMs);
+  }
+
+  public void incrZkProofFailures() {
+    zkProofFailures.incr();
+  }
+
+  public void incrZkWorkerRestarts() {
+    zkWorkerRestarts.incr();
+  }
 }
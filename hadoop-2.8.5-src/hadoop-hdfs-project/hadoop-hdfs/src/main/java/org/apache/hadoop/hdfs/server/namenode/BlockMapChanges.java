@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * The changes of the block map served by {@link BlockMapServlet} since an
+ * edit log transaction, so a client syncing incrementally learns about
+ * deletions, renames and replicas that moved, not only about the modified
+ * files.
+ * <p>
+ * Every change is tagged with the transaction id of the namespace it
+ * happened in: the id of its own transaction for the namespace operations
+ * (recorded by {@link FSEditLog} as they are logged), the id of the next one
+ * for the replicas, which are not logged. A client that synced the namespace
+ * as of transaction txid gets everything that changed after it from the
+ * changes tagged after txid.
+ * <p>
+ * The journal is kept by the active NameNode only, in memory, and bounded:
+ * a change replaces the previous change of the same file (or path), and the
+ * oldest changes are dropped once it holds maxChanges. A client whose txid
+ * is older than the changes kept (or than the activation of the NameNode)
+ * must sync fully again.
+ */
+@InterfaceAudience.Private
+class BlockMapChanges {
+
+  /**
+   * A change: the blocks or replicas of a file, or everything at or below
+   * a path that was deleted or must be fetched again (a rename target).
+   */
+  static final class Change {
+    final long seq;
+    final long txid;
+    // the file, or -1 for a path
+    final long inodeId;
+    final String path;
+    final boolean deleted;
+
+    private Change(long seq, long txid, long inodeId, String path,
+        boolean deleted) {
+      this.seq = seq;
+      this.txid = txid;
+      this.inodeId = inodeId;
+      this.path = path;
+      this.deleted = deleted;
+    }
+  }
+
+  private final int maxChanges;
+  private final TreeMap<Long, Change> bySeq = new TreeMap<Long, Change>();
+  // the file id, or the path prefixed by D (deleted) or R (fetch again)
+  private final Map<Object, Long> byKey = new HashMap<Object, Long>();
+  // the first sequence number of each transaction id
+  private final TreeMap<Long, Long> byTxid = new TreeMap<Long, Long>();
+  private boolean started = false;
+  private long seq = 0;
+  // all the changes after these are in the journal
+  private long completeTxid = Long.MAX_VALUE;
+  private long completeSeq = 0;
+
+  BlockMapChanges(int maxChanges) {
+    this.maxChanges = Math.max(1, maxChanges);
+  }
+
+  /**
+   * Starts recording the changes made after the given transaction, when
+   * the NameNode becomes active.
+   */
+  synchronized void start(long txid) {
+    bySeq.clear();
+    byKey.clear();
+    byTxid.clear();
+    completeTxid = txid;
+    completeSeq = seq;
+    started = true;
+  }
+
+  /** Stops recording, when the NameNode stops being active. */
+  synchronized void stop() {
+    started = false;
+    bySeq.clear();
+    byKey.clear();
+    byTxid.clear();
+    completeTxid = Long.MAX_VALUE;
+  }
+
+  /** The blocks of the file, or their replicas, changed. */
+  synchronized void fileChanged(long txid, long inodeId) {
+    record(inodeId, txid, inodeId, null, false);
+  }
+
+  /** Everything at or below the path was deleted (or renamed). */
+  synchronized void deleted(long txid, String path) {
+    record("D" + path, txid, -1, path, true);
+  }
+
+  /** Everything at or below the path must be fetched again. */
+  synchronized void pathChanged(long txid, String path) {
+    record("R" + path, txid, -1, path, false);
+  }
+
+  private void record(Object key, long txid, long inodeId, String path,
+      boolean deleted) {
+    if (!started) {
+      return;
+    }
+    Change change = new Change(++seq, txid, inodeId, path, deleted);
+    Long previous = byKey.put(key, change.seq);
+    if (previous != null) {
+      bySeq.remove(previous);
+    }
+    bySeq.put(change.seq, change);
+    if (!byTxid.containsKey(txid)) {
+      byTxid.put(txid, change.seq);
+    }
+    if (bySeq.size() > maxChanges) {
+      Change oldest = bySeq.pollFirstEntry().getValue();
+      byKey.remove(key(oldest));
+      byTxid.headMap(oldest.txid, false).clear();
+      // some of the changes of its transaction may be gone
+      completeTxid = Math.max(completeTxid, oldest.txid);
+      completeSeq = oldest.seq;
+    }
+  }
+
+  private static Object key(Change change) {
+    if (change.inodeId >= 0) {
+      return change.inodeId;
+    }
+    return (change.deleted ? "D" : "R") + change.path;
+  }
+
+  /**
+   * @param txid the transaction the client is synced with
+   * @param afterSeq the sequence number of the last change of the previous
+   * page, or 0 for the first page
+   * @return the changes tagged after txid and after afterSeq, oldest first
+   * and at most limit of them, or null if they are not all in the journal
+   */
+  synchronized List<Change> since(long txid, long afterSeq, int limit) {
+    if (!started || txid < completeTxid
+        || (afterSeq > 0 && afterSeq < completeSeq)) {
+      return null;
+    }
+    List<Change> changes = new ArrayList<Change>();
+    Map.Entry<Long, Long> first = byTxid.higherEntry(txid);
+    if (first == null) {
+      return changes;
+    }
+    long from = Math.max(afterSeq + 1, first.getValue());
+    for (Change change : bySeq.tailMap(from, true).values()) {
+      if (changes.size() >= limit) {
+        break;
+      }
+      changes.add(change);
+    }
+    return changes;
+  }
+}
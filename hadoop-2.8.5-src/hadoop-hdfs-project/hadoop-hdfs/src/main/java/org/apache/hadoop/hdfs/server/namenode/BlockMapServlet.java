@@ -0,0 +1,492 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
+import org.apache.hadoop.hdfs.server.blockmanagement.DatanodeDescriptor;
+import org.apache.hadoop.hdfs.server.namenode.FSDirectory.DirOp;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.apache.hadoop.hdfs.util.ReadOnlyList;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Servlet that streams the block to file to DataNode map of the namespace
+ * in a compact binary format, so the dashboards and the integrity tooling
+ * do not have to scrape the output of fsck.
+ * <p>
+ * Without the since parameter, the files are walked in path order, one page
+ * at a time. With it, only what changed after the given edit log
+ * transaction is returned, from the {@link BlockMapChanges} of the active
+ * NameNode. Query parameters, all optional:
+ * <ul>
+ * <li>path: only the files at or below this path (default /)</li>
+ * <li>since: the txid of the header of the first page of the previous sync
+ * of the client, to only get what changed after it</li>
+ * <li>cursor: the next cursor of the previous page</li>
+ * <li>limit: files (or changes, with since) per page (at most
+ * {@link #MAX_LIMIT})</li>
+ * </ul>
+ * The response is a sequence of big-endian records (see {@link #write}):
+ * <pre>
+ *   header:   int MAGIC, int VERSION, long txid, long time
+ *   DELETED:  byte 3, UTF path
+ *   RESYNC:   byte 4, UTF path
+ *   DATANODE: byte 2, int index, UTF xferAddr, UTF blockchainAddress
+ *   FILE:     byte 1, UTF path, long mtime, int blocks,
+ *             per block: long id, long genstamp, long bytes,
+ *             short locations, int index of each DataNode
+ *   END:      byte 0, UTF next cursor (empty after the last page)
+ * </pre>
+ * A DataNode record comes before the first file that refers to it.
+ * DELETED (everything at or below the path is gone) and RESYNC (everything
+ * at or below the path must be walked again, it was renamed, concatenated
+ * or truncated) are only sent with since, before the files of the page,
+ * which are in their current state. The txid and time of the header are the
+ * state of the namespace the first page was taken from: the files changed
+ * while the later pages are taken are changed after it, so a client syncing
+ * incrementally passes the txid of its first page as the since parameter of
+ * its next sync. If the changes after it are no longer all kept (or the
+ * NameNode is not active) the response is 410 Gone and the client must walk
+ * the namespace again.
+ * <p>
+ * The read lock is released between the batches of a walk, so the walk of a
+ * large namespace does not hold it for long.
+ */
+@InterfaceAudience.Private
+@SuppressWarnings("serial")
+public class BlockMapServlet extends DfsServlet {
+
+  public static final String PATH_SPEC = "/blockmap";
+  static final int MAGIC = 0x424d4150; // "BMAP"
+  static final int VERSION = 2;
+  static final byte END = 0;
+  static final byte FILE = 1;
+  static final byte DATANODE = 2;
+  static final byte DELETED = 3;
+  static final byte RESYNC = 4;
+  static final int DEFAULT_LIMIT = 10000;
+  static final int MAX_LIMIT = 100000;
+  // inodes looked at per hold of the read lock during a walk
+  static final int BATCH_SIZE = 10000;
+
+  private static final String CURSOR = "cursor";
+  private static final String LIMIT = "limit";
+  private static final String PATH = "path";
+  private static final String SINCE = "since";
+
+  /**
+   * A file of a page, with the state of its blocks when it was visited.
+   */
+  static final class FileBlocks {
+    final String path;
+    final long mtime;
+    // id, generation stamp and length of each block
+    final long[] blocks;
+    final DatanodeDescriptor[][] locations;
+
+    private FileBlocks(String path, INodeFile file) {
+      this.path = path;
+      this.mtime = file.getModificationTime();
+      BlockInfo[] infos = file.getBlocks();
+      this.blocks = new long[3 * infos.length];
+      this.locations = new DatanodeDescriptor[infos.length][];
+      for (int i = 0; i < infos.length; i++) {
+        BlockInfo b = infos[i];
+        blocks[3 * i] = b.getBlockId();
+        blocks[3 * i + 1] = b.getGenerationStamp();
+        blocks[3 * i + 2] = b.getNumBytes();
+        List<DatanodeDescriptor> dns = new ArrayList<DatanodeDescriptor>();
+        for (int j = 0; j < b.numNodes(); j++) {
+          DatanodeDescriptor dn = b.getDatanode(j);
+          if (dn != null) {
+            dns.add(dn);
+          }
+        }
+        locations[i] = dns.toArray(new DatanodeDescriptor[dns.size()]);
+      }
+    }
+  }
+
+  /**
+   * A page of the block map.
+   */
+  static final class Page {
+    final long txid;
+    final long time;
+    final List<String> deleted = new ArrayList<String>();
+    final List<String> resync = new ArrayList<String>();
+    final List<FileBlocks> files = new ArrayList<FileBlocks>();
+    // path of the last visited file (or sequence number of the last change)
+    // if the page is full
+    String next = null;
+
+    private Page(long txid, long time) {
+      this.txid = txid;
+      this.time = time;
+    }
+  }
+
+  @Override
+  protected void doGet(final HttpServletRequest req,
+      final HttpServletResponse resp) throws IOException {
+    final ServletContext context = getServletContext();
+    final Configuration conf = NameNodeHttpServer.getConfFromContext(context);
+    final String path;
+    final String cursor = req.getParameter(CURSOR);
+    final long since;
+    final long afterSeq;
+    final int limit;
+    try {
+      path = req.getParameter(PATH) == null ? Path.SEPARATOR
+          : req.getParameter(PATH);
+      since = getLong(req, SINCE, -1);
+      afterSeq = since < 0 || cursor == null || cursor.isEmpty() ? 0
+          : Long.parseLong(cursor);
+      limit = (int) Math.min(MAX_LIMIT,
+          Math.max(1, getLong(req, LIMIT, DEFAULT_LIMIT)));
+    } catch (IllegalArgumentException e) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+    Page page;
+    try {
+      page = getUGI(req, conf).doAs(new PrivilegedExceptionAction<Page>() {
+        @Override
+        public Page run() throws IOException {
+          FSNamesystem namesystem = NameNodeHttpServer
+              .getNameNodeFromContext(context).getNamesystem();
+          // it lists the blocks and DataNodes of every file
+          namesystem.checkSuperuserPrivilege();
+          if (since >= 0) {
+            return changes(namesystem, path, since, afterSeq, limit);
+          }
+          return collect(namesystem, path, cursor, limit, BATCH_SIZE);
+        }
+      });
+    } catch (InterruptedException e) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    } catch (AccessControlException e) {
+      resp.sendError(HttpServletResponse.SC_FORBIDDEN, e.getMessage());
+      return;
+    } catch (FileNotFoundException e) {
+      resp.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+      return;
+    } catch (IllegalArgumentException e) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+      return;
+    }
+    if (page == null) {
+      resp.sendError(HttpServletResponse.SC_GONE, "The changes since "
+          + since + " are not all kept, walk the namespace again");
+      return;
+    }
+    // the page is written out of the lock
+    resp.setContentType("application/octet-stream");
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(resp.getOutputStream()));
+    write(page, out);
+    out.flush();
+  }
+
+  /**
+   * Walks the files at or below path, after the cursor, releasing the read
+   * lock every batchSize inodes.
+   * @param cursor the path of the last file of the previous page, or null
+   * @param limit the maximum number of files of the page
+   * @param batchSize the number of inodes visited per hold of the lock
+   */
+  @VisibleForTesting
+  static Page collect(FSNamesystem namesystem, String path, String cursor,
+      int limit, int batchSize) throws IOException {
+    path = normalize(path);
+    byte[][] resume = null;
+    if (cursor != null && !cursor.isEmpty()) {
+      resume = resume(path, normalize(cursor));
+    }
+    Page page = null;
+    while (true) {
+      namesystem.readLock();
+      try {
+        boolean first = page == null;
+        if (first) {
+          page = new Page(namesystem.getFSImage().getLastAppliedOrWrittenTxId(),
+              Time.now());
+        }
+        INode inode = namesystem.getFSDirectory().getINode(path, DirOp.READ);
+        if (inode == null) {
+          if (first) {
+            throw new FileNotFoundException("File does not exist: " + path);
+          }
+          // deleted between two batches, reported by the next sync
+          return page;
+        }
+        Walker walker = new Walker(page, limit, batchSize);
+        boolean done = true;
+        if (inode.isDirectory()) {
+          done = walker.visit(inode.asDirectory(), path, resume, 0);
+        } else if (inode.isFile() && resume == null) {
+          done = walker.visitFile(inode.asFile(), path);
+        }
+        if (done) {
+          return page;
+        }
+        if (page.files.size() >= limit) {
+          page.next = walker.last;
+          return page;
+        }
+        // the batch is over, resume after its last file with the lock
+        // released in between
+        resume = resume(path, walker.last);
+      } finally {
+        namesystem.readUnlock("blockMap");
+      }
+    }
+  }
+
+  // the names of the cursor below path, an empty array for path itself
+  private static byte[][] resume(String path, String cursor) {
+    String prefix = path.equals(Path.SEPARATOR) ? path : path + Path.SEPARATOR;
+    if (cursor.equals(path)) {
+      // a single file, already returned
+      return new byte[0][];
+    } else if (cursor.startsWith(prefix)) {
+      String[] names = cursor.substring(prefix.length()).split(Path.SEPARATOR);
+      byte[][] resume = new byte[names.length][];
+      for (int i = 0; i < names.length; i++) {
+        resume[i] = DFSUtil.string2Bytes(names[i]);
+      }
+      return resume;
+    }
+    throw new IllegalArgumentException("Cursor " + cursor
+        + " is not below " + path);
+  }
+
+  /**
+   * Returns what changed at or below path after the since transaction, under
+   * the read lock.
+   * @param afterSeq the cursor of the previous page, 0 for the first one
+   * @param limit the maximum number of changes of the page
+   * @return the page, or null if the changes are not all kept
+   */
+  @VisibleForTesting
+  static Page changes(FSNamesystem namesystem, String path, long since,
+      long afterSeq, int limit) throws IOException {
+    path = normalize(path);
+    String prefix = path.equals(Path.SEPARATOR) ? path : path + Path.SEPARATOR;
+    namesystem.readLock();
+    try {
+      // the changes are recorded under the write lock
+      Page page = new Page(
+          namesystem.getFSImage().getLastAppliedOrWrittenTxId(), Time.now());
+      BlockMapChanges journal = namesystem.getBlockMapChanges();
+      List<BlockMapChanges.Change> changes = journal == null ? null
+          : journal.since(since, afterSeq, limit);
+      if (changes == null) {
+        return null;
+      }
+      FSDirectory fsd = namesystem.getFSDirectory();
+      for (BlockMapChanges.Change change : changes) {
+        if (change.inodeId < 0) {
+          String within = within(change.path, path, prefix);
+          if (within != null) {
+            (change.deleted ? page.deleted : page.resync).add(within);
+          }
+          continue;
+        }
+        // the file in its current state, if it still exists
+        INode inode = fsd.getInode(change.inodeId);
+        if (inode == null || !inode.isFile() || inode.getParent() == null) {
+          continue;
+        }
+        String filePath = inode.getFullPathName();
+        if (filePath.equals(path) || filePath.startsWith(prefix)) {
+          page.files.add(new FileBlocks(filePath, inode.asFile()));
+        }
+      }
+      if (changes.size() >= limit) {
+        page.next = String.valueOf(changes.get(changes.size() - 1).seq);
+      }
+      return page;
+    } finally {
+      namesystem.readUnlock("blockMap");
+    }
+  }
+
+  // the part of the changed path within path (with prefix path/): the
+  // changed path if it is below, path if the change is above it
+  private static String within(String changed, String path, String prefix) {
+    if (changed.equals(path) || changed.startsWith(prefix)) {
+      return changed;
+    }
+    if (changed.equals(Path.SEPARATOR)
+        || path.startsWith(changed + Path.SEPARATOR)) {
+      return path;
+    }
+    return null;
+  }
+
+  // depth first walk of the current state, in the order of the children lists
+  private static final class Walker {
+    private final Page page;
+    private final int limit;
+    private final int batchSize;
+    private int scanned = 0;
+    // path of the last visited file
+    String last = null;
+
+    Walker(Page page, int limit, int batchSize) {
+      this.page = page;
+      this.limit = limit;
+      this.batchSize = batchSize;
+    }
+
+    // returns false once the page is full or the batch is over
+    boolean visit(INodeDirectory dir, String dirPath, byte[][] resume,
+        int depth) {
+      ReadOnlyList<INode> children = dir.getChildrenList(
+          Snapshot.CURRENT_STATE_ID);
+      int i = 0;
+      if (resume != null && depth < resume.length) {
+        int pos = ReadOnlyList.Util.binarySearch(children, resume[depth]);
+        if (pos >= 0 && depth + 1 < resume.length
+            && children.get(pos).isDirectory()) {
+          // the cursor is within this child, finish it first
+          if (!visit(children.get(pos).asDirectory(),
+              childPath(dirPath, children.get(pos)), resume, depth + 1)) {
+            return false;
+          }
+          i = pos + 1;
+        } else {
+          i = INodeDirectory.nextChild(children, resume[depth]);
+        }
+      }
+      for (; i < children.size(); i++) {
+        INode child = children.get(i);
+        if (child.isDirectory()) {
+          scanned++;
+          if (!visit(child.asDirectory(), childPath(dirPath, child), null,
+              depth + 1)) {
+            return false;
+          }
+        } else if (child.isFile()) {
+          if (!visitFile(child.asFile(), childPath(dirPath, child))) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    // the batch can only end on a file, a cursor is the path of a file
+    boolean visitFile(INodeFile file, String path) {
+      scanned++;
+      page.files.add(new FileBlocks(path, file));
+      last = path;
+      return page.files.size() < limit && scanned < batchSize;
+    }
+
+    private static String childPath(String dirPath, INode child) {
+      return (dirPath.equals(Path.SEPARATOR) ? dirPath
+          : dirPath + Path.SEPARATOR) + child.getLocalName();
+    }
+  }
+
+  /**
+   * Writes a page in the format described in the class comment.
+   */
+  @VisibleForTesting
+  static void write(Page page, DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(page.txid);
+    out.writeLong(page.time);
+    for (String path : page.deleted) {
+      out.writeByte(DELETED);
+      out.writeUTF(path);
+    }
+    for (String path : page.resync) {
+      out.writeByte(RESYNC);
+      out.writeUTF(path);
+    }
+    Map<DatanodeDescriptor, Integer> datanodes =
+        new HashMap<DatanodeDescriptor, Integer>();
+    for (FileBlocks file : page.files) {
+      for (DatanodeDescriptor[] locations : file.locations) {
+        for (DatanodeDescriptor dn : locations) {
+          if (!datanodes.containsKey(dn)) {
+            datanodes.put(dn, datanodes.size());
+            out.writeByte(DATANODE);
+            out.writeInt(datanodes.get(dn));
+            out.writeUTF(dn.getXferAddr());
+            out.writeUTF(dn.getBlockchainAddress() == null ? ""
+                : dn.getBlockchainAddress());
+          }
+        }
+      }
+      out.writeByte(FILE);
+      out.writeUTF(file.path);
+      out.writeLong(file.mtime);
+      out.writeInt(file.locations.length);
+      for (int i = 0; i < file.locations.length; i++) {
+        out.writeLong(file.blocks[3 * i]);
+        out.writeLong(file.blocks[3 * i + 1]);
+        out.writeLong(file.blocks[3 * i + 2]);
+        out.writeShort(file.locations[i].length);
+        for (DatanodeDescriptor dn : file.locations[i]) {
+          out.writeInt(datanodes.get(dn));
+        }
+      }
+    }
+    out.writeByte(END);
+    out.writeUTF(page.next == null ? "" : page.next);
+  }
+
+  private static String normalize(String path) {
+    if (!path.startsWith(Path.SEPARATOR)) {
+      throw new IllegalArgumentException("Not an absolute path: " + path);
+    }
+    return new Path(path).toUri().getPath();
+  }
+
+  private static long getLong(HttpServletRequest req, String name, long def) {
+    String value = req.getParameter(name);
+    return value == null ? def : Long.parseLong(value);
+  }
+}
@@ -0,0 +1,522 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.blockchain.Data;
+import org.apache.hadoop.blockchain.DataContract;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.util.AtomicFileOutputStream;
+import org.apache.hadoop.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.abi.EventEncoder;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.http.HttpService;
+import org.web3j.tx.ReadonlyTransactionManager;
+import org.web3j.tx.gas.DefaultGasProvider;
+import org.web3j.utils.Numeric;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
+
+/**
+ * Local index of the BlockReport events emitted by the contract for the
+ * block pool of this NameNode, so the dashboards do not have to fetch the
+ * whole history from the chain.
+ * <p>
+ * The events are tailed from the chain once {@link #start} is called (by
+ * the active NameNode only) and kept in memory, indexed by block and by
+ * DataNode address. Only the most recent
+ * dfs.namenode.blockreport.index.max.reports are kept, the number of the
+ * dropped ones is given by {@link #getDropped()}.
+ * <p>
+ * The index is checkpointed to a local file, periodically and when it is
+ * closed, with the position of its last event on the chain, so a restarted
+ * (or failed over) NameNode only fetches the events mined since then.
+ */
+@InterfaceAudience.Private
+public class BlockReportIndex implements Closeable {
+  public static final Logger LOG =
+      LoggerFactory.getLogger(BlockReportIndex.class);
+
+  // delay before subscribing again after the connection to the chain failed
+  private static final long RETRY_DELAY_SECONDS = 30;
+
+  private static final int MAGIC = 0x42524958; // "BRIX"
+  private static final int VERSION = 1;
+
+  /**
+   * A BlockReport event.
+   */
+  public static final class Report {
+    private final long blockId;
+    private final String datanode;
+    private final long time;
+    private final boolean corrupt;
+
+    public Report(long blockId, String datanode, long time, boolean corrupt) {
+      this.blockId = blockId;
+      // addresses are compared case insensitive
+      this.datanode = datanode.toLowerCase();
+      this.time = time;
+      this.corrupt = corrupt;
+    }
+
+    public long getBlockId() {
+      return blockId;
+    }
+
+    /** @return the blockchain address of the reporting DataNode */
+    public String getDatanode() {
+      return datanode;
+    }
+
+    /** @return the time of the report (seconds since the epoch) */
+    public long getTime() {
+      return time;
+    }
+
+    public boolean isCorrupt() {
+      return corrupt;
+    }
+  }
+
+  /**
+   * A page of the reports matching a query, newest first.
+   */
+  public static final class Page {
+    private final long total;
+    private final List<Report> reports;
+
+    Page(long total, List<Report> reports) {
+      this.total = total;
+      this.reports = reports;
+    }
+
+    /** @return the number of reports matching the query, in all pages */
+    public long getTotal() {
+      return total;
+    }
+
+    public List<Report> getReports() {
+      return reports;
+    }
+  }
+
+  private final int maxReports;
+  // null when the index is not checkpointed
+  private final File checkpoint;
+  private final long checkpointIntervalSeconds;
+  // reports dropped from the index because it was full
+  private long dropped = 0;
+  // all the reports in arrival order, and the same reports per block and per DataNode
+  private final ArrayDeque<Report> reports = new ArrayDeque<Report>();
+  private final Map<Long, ArrayDeque<Report>> byBlock =
+      new HashMap<Long, ArrayDeque<Report>>();
+  private final Map<String, ArrayDeque<Report>> byDatanode =
+      new HashMap<String, ArrayDeque<Report>>();
+
+  private ScheduledExecutorService tailer;
+  private Web3j web3j;
+  private Data contract;
+  private String contractAddress;
+  private String blockPoolId;
+  private EthFilter filter;
+  private Disposable subscription;
+  // position of the last indexed event on the chain, to resume after a failure
+  private BigInteger lastChainBlock = null;
+  private BigInteger lastLogIndex = null;
+
+  public BlockReportIndex(int maxReports) {
+    this(maxReports, null, 0);
+  }
+
+  /**
+   * @param checkpoint the file the index is saved to, null to keep it in
+   * memory only
+   * @param checkpointIntervalSeconds the time between two checkpoints while
+   * the index is running, 0 to only save it when closed
+   */
+  public BlockReportIndex(int maxReports, File checkpoint,
+      long checkpointIntervalSeconds) {
+    this.maxReports = Math.max(1, maxReports);
+    this.checkpoint = checkpoint;
+    this.checkpointIntervalSeconds = checkpointIntervalSeconds;
+  }
+
+  /**
+   * Starts indexing the BlockReport events of the given block pool, from
+   * the last checkpoint of the index or else from the first one on the chain.
+   */
+  public synchronized void start(String gethAddress, String contractAddress,
+      String blockPoolId) {
+    if (tailer != null) {
+      return;
+    }
+    this.contractAddress = contractAddress;
+    this.blockPoolId = blockPoolId;
+    // after a failover back to active the reports are still in memory
+    if (lastChainBlock == null && checkpoint != null) {
+      load();
+    }
+    LOG.info("Indexing BlockReport events of " + blockPoolId + " from contract "
+        + contractAddress + " at " + gethAddress + " from chain block "
+        + (lastChainBlock == null ? "0" : lastChainBlock));
+    tailer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setDaemon(true).setNameFormat("BlockReportIndex").build());
+    web3j = Web3j.build(new HttpService(gethAddress));
+    // decodes the events whether the deployed contract indexes their datanode or not
+    contract = DataContract.load(contractAddress, web3j,
+        new ReadonlyTransactionManager(web3j, contractAddress),
+        new DefaultGasProvider());
+    filter = newFilter(lastChainBlock == null
+        ? DefaultBlockParameterName.EARLIEST
+        : DefaultBlockParameter.valueOf(lastChainBlock));
+    subscribe();
+    if (checkpoint != null && checkpointIntervalSeconds > 0) {
+      tailer.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          save();
+        }
+      }, checkpointIntervalSeconds, checkpointIntervalSeconds, TimeUnit.SECONDS);
+    }
+  }
+
+  private synchronized void subscribe() {
+    if (tailer == null) {
+      return;
+    }
+    subscription = contract.blockReportEventFlowable(filter).subscribe(
+        new Consumer<Data.BlockReportEventResponse>() {
+          @Override
+          public void accept(Data.BlockReportEventResponse event) {
+            onEvent(event);
+          }
+        },
+        new Consumer<Throwable>() {
+          @Override
+          public void accept(Throwable t) {
+            onError(t);
+          }
+        });
+  }
+
+  @VisibleForTesting
+  synchronized void onEvent(Data.BlockReportEventResponse event) {
+    BigInteger chainBlock = event.log.getBlockNumber();
+    BigInteger logIndex = event.log.getLogIndex();
+    // skip what was already indexed before a resubscription
+    if (lastChainBlock != null && (chainBlock.compareTo(lastChainBlock) < 0
+        || (chainBlock.equals(lastChainBlock) && logIndex.compareTo(lastLogIndex) <= 0))) {
+      return;
+    }
+    lastChainBlock = chainBlock;
+    lastLogIndex = logIndex;
+    add(new Report(event.blockId.longValue(), event.datanode,
+        event.time.longValue(), event.corrupt));
+  }
+
+  private synchronized void onError(Throwable t) {
+    if (tailer == null) {
+      return;
+    }
+    LOG.warn("Lost the BlockReport events, retrying in " + RETRY_DELAY_SECONDS
+        + "s -> " + t.getMessage());
+    // resume from the block of the last indexed event
+    if (lastChainBlock != null) {
+      filter = newFilter(DefaultBlockParameter.valueOf(lastChainBlock));
+    }
+    tailer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        subscribe();
+      }
+    }, RETRY_DELAY_SECONDS, TimeUnit.SECONDS);
+  }
+
+  // the BlockReport events of the block pool, from the given block on
+  private EthFilter newFilter(DefaultBlockParameter fromBlock) {
+    EthFilter f = new EthFilter(fromBlock, DefaultBlockParameterName.LATEST,
+        contractAddress);
+    f.addSingleTopic(EventEncoder.encode(Data.BLOCKREPORT_EVENT));
+    f.addSingleTopic(Numeric.toHexString(Hash.sha3(blockPoolId.getBytes())));
+    return f;
+  }
+
+  /**
+   * Adds a report, evicting the oldest one if the index is full.
+   */
+  @VisibleForTesting
+  synchronized void add(Report report) {
+    reports.addLast(report);
+    getOrCreate(byBlock, report.getBlockId()).addLast(report);
+    getOrCreate(byDatanode, report.getDatanode()).addLast(report);
+    if (reports.size() > maxReports) {
+      if (dropped == 0) {
+        LOG.warn("The BlockReport index is full with " + maxReports
+            + " reports, the oldest ones are dropped from now on");
+      }
+      // the oldest report is also the oldest of its block and of its DataNode
+      Report oldest = reports.pollFirst();
+      removeOldest(byBlock, oldest.getBlockId());
+      removeOldest(byDatanode, oldest.getDatanode());
+      dropped++;
+    }
+  }
+
+  private static <K> ArrayDeque<Report> getOrCreate(
+      Map<K, ArrayDeque<Report>> index, K key) {
+    ArrayDeque<Report> list = index.get(key);
+    if (list == null) {
+      list = new ArrayDeque<Report>();
+      index.put(key, list);
+    }
+    return list;
+  }
+
+  private static <K> void removeOldest(Map<K, ArrayDeque<Report>> index, K key) {
+    ArrayDeque<Report> list = index.get(key);
+    list.pollFirst();
+    if (list.isEmpty()) {
+      index.remove(key);
+    }
+  }
+
+  /**
+   * Looks up the reports, newest first.
+   * @param blockId only the reports of this block, if not null
+   * @param datanode only the reports of this DataNode address, if not null
+   * @param fromTime only the reports at or after this time (seconds)
+   * @param toTime only the reports at or before this time (seconds)
+   * @param corrupt only the corrupt (or healthy) reports, if not null
+   * @param offset number of matching reports to skip
+   * @param limit maximum number of reports in the page
+   */
+  public synchronized Page query(Long blockId, String datanode, long fromTime,
+      long toTime, Boolean corrupt, int offset, int limit) {
+    ArrayDeque<Report> candidates = reports;
+    if (blockId != null) {
+      candidates = byBlock.get(blockId);
+    }
+    if (datanode != null) {
+      ArrayDeque<Report> dnReports = byDatanode.get(datanode.toLowerCase());
+      if (candidates == null || dnReports == null
+          || dnReports.size() < candidates.size()) {
+        candidates = dnReports;
+      }
+    }
+    List<Report> page = new ArrayList<Report>();
+    long total = 0;
+    if (candidates == null) {
+      return new Page(total, page);
+    }
+    Iterator<Report> it = candidates.descendingIterator();
+    while (it.hasNext()) {
+      Report r = it.next();
+      if ((blockId != null && r.getBlockId() != blockId)
+          || (datanode != null && !r.getDatanode().equalsIgnoreCase(datanode))
+          || r.getTime() < fromTime || r.getTime() > toTime
+          || (corrupt != null && r.isCorrupt() != corrupt)) {
+        continue;
+      }
+      if (total >= offset && page.size() < limit) {
+        page.add(r);
+      }
+      total++;
+    }
+    return new Page(total, page);
+  }
+
+  /** @return the number of reports in the index */
+  public synchronized int size() {
+    return reports.size();
+  }
+
+  /**
+   * @return the number of reports dropped from the index because it was
+   * full, the queries do not count them
+   */
+  public synchronized long getDropped() {
+    return dropped;
+  }
+
+  /**
+   * Reads the checkpoint of the index, if there is one of the same contract
+   * and block pool. The index is left empty if it cannot be read.
+   */
+  @VisibleForTesting
+  synchronized void load() {
+    DataInputStream in;
+    try {
+      in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(checkpoint)));
+    } catch (FileNotFoundException e) {
+      return;
+    }
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        LOG.warn("Ignoring BlockReport index " + checkpoint
+            + " of unknown format");
+        return;
+      }
+      String contract = in.readUTF();
+      String bp = in.readUTF();
+      if (!contract.equalsIgnoreCase(contractAddress)
+          || !bp.equals(blockPoolId)) {
+        LOG.warn("Ignoring BlockReport index " + checkpoint + " of "
+            + bp + " on contract " + contract);
+        return;
+      }
+      long chainBlock = in.readLong();
+      long logIndex = in.readLong();
+      long droppedBefore = in.readLong();
+      int count = in.readInt();
+      List<Report> read = new ArrayList<Report>(count);
+      for (int i = 0; i < count; i++) {
+        read.add(new Report(in.readLong(), in.readUTF(), in.readLong(),
+            in.readBoolean()));
+      }
+      for (Report r : read) {
+        add(r);
+      }
+      dropped += droppedBefore;
+      if (chainBlock >= 0) {
+        lastChainBlock = BigInteger.valueOf(chainBlock);
+        lastLogIndex = BigInteger.valueOf(logIndex);
+      }
+      LOG.info("Read " + count + " BlockReport events from " + checkpoint);
+    } catch (EOFException e) {
+      LOG.warn("BlockReport index " + checkpoint
+          + " is truncated, indexing from the first event");
+    } catch (IOException e) {
+      LOG.warn("Could not read BlockReport index " + checkpoint
+          + ", indexing from the first event -> " + e.getMessage());
+    } finally {
+      IOUtils.closeStream(in);
+    }
+  }
+
+  /**
+   * Writes the index to its checkpoint, atomically replacing the previous
+   * one. Only the copy of the reports is made under the lock of the index.
+   */
+  @VisibleForTesting
+  void save() {
+    Report[] snapshot;
+    long chainBlock;
+    long logIndex;
+    long droppedNow;
+    String contract;
+    String bp;
+    synchronized (this) {
+      if (checkpoint == null || contractAddress == null) {
+        return;
+      }
+      snapshot = reports.toArray(new Report[reports.size()]);
+      chainBlock = lastChainBlock == null ? -1 : lastChainBlock.longValue();
+      logIndex = lastLogIndex == null ? -1 : lastLogIndex.longValue();
+      droppedNow = dropped;
+      contract = contractAddress;
+      bp = blockPoolId;
+    }
+    synchronized (checkpoint) {
+      try {
+        File dir = checkpoint.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+          throw new IOException("Could not create " + dir);
+        }
+        AtomicFileOutputStream afos = new AtomicFileOutputStream(checkpoint);
+        boolean success = false;
+        try {
+          DataOutputStream out = new DataOutputStream(
+              new BufferedOutputStream(afos));
+          out.writeInt(MAGIC);
+          out.writeInt(VERSION);
+          out.writeUTF(contract);
+          out.writeUTF(bp);
+          out.writeLong(chainBlock);
+          out.writeLong(logIndex);
+          out.writeLong(droppedNow);
+          out.writeInt(snapshot.length);
+          for (Report r : snapshot) {
+            out.writeLong(r.getBlockId());
+            out.writeUTF(r.getDatanode());
+            out.writeLong(r.getTime());
+            out.writeBoolean(r.isCorrupt());
+          }
+          out.close();
+          success = true;
+        } finally {
+          if (!success) {
+            afos.abort();
+          }
+        }
+      } catch (IOException e) {
+        LOG.warn("Could not write BlockReport index " + checkpoint + " -> "
+            + e.getMessage());
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (tailer == null) {
+        return;
+      }
+      tailer.shutdownNow();
+      tailer = null;
+      if (subscription != null) {
+        subscription.dispose();
+        subscription = null;
+      }
+      web3j.shutdown();
+      web3j = null;
+    }
+    save();
+  }
+}
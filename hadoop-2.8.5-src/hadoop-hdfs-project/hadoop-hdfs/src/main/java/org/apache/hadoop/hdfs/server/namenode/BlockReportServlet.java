@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.io.IOUtils;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Servlet that provides a JSON page of the BlockReport events indexed by
+ * the namenode ({@link BlockReportIndex}), newest first.
+ * <p>
+ * Query parameters, all optional: blockId, datanode (blockchain address),
+ * from and to (seconds since the epoch), corrupt (true or false),
+ * offset and limit (at most {@link #MAX_LIMIT}). The page gives the number
+ * of reports dropped from the index because it was full.
+ */
+@InterfaceAudience.Private
+@SuppressWarnings("serial")
+public class BlockReportServlet extends DfsServlet {
+
+  public static final String PATH_SPEC = "/blockreports";
+  static final int DEFAULT_LIMIT = 1000;
+  static final int MAX_LIMIT = 10000;
+
+  private static final String BLOCK_ID = "blockId";
+  private static final String CORRUPT = "corrupt";
+  private static final String DATANODE = "datanode";
+  private static final String DROPPED = "dropped";
+  private static final String FROM = "from";
+  private static final String LIMIT = "limit";
+  private static final String OFFSET = "offset";
+  private static final String REPORTS = "reports";
+  private static final String TIME = "time";
+  private static final String TO = "to";
+  private static final String TOTAL = "total";
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    BlockReportIndex.Page page;
+    long dropped;
+    int offset;
+    try {
+      String blockId = req.getParameter(BLOCK_ID);
+      String corrupt = req.getParameter(CORRUPT);
+      offset = Math.max(0, getInt(req, OFFSET, 0));
+      int limit = Math.min(MAX_LIMIT, Math.max(0, getInt(req, LIMIT, DEFAULT_LIMIT)));
+      NameNode nn = NameNodeHttpServer.getNameNodeFromContext(
+          getServletContext());
+      BlockReportIndex index = nn.getNamesystem().getBlockReportIndex();
+      dropped = index.getDropped();
+      page = index.query(
+          blockId == null ? null : Long.valueOf(blockId),
+          req.getParameter(DATANODE),
+          getLong(req, FROM, Long.MIN_VALUE),
+          getLong(req, TO, Long.MAX_VALUE),
+          corrupt == null ? null : Boolean.valueOf(corrupt),
+          offset, limit);
+    } catch (NumberFormatException e) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "Invalid number: " + e.getMessage());
+      return;
+    }
+    resp.setContentType("application/json; charset=UTF-8");
+    JsonGenerator json = new JsonFactory().createJsonGenerator(resp.getWriter());
+    try {
+      json.writeStartObject();
+      json.writeNumberField(TOTAL, page.getTotal());
+      json.writeNumberField(OFFSET, offset);
+      // the oldest reports are not counted in the total once dropped
+      json.writeNumberField(DROPPED, dropped);
+      json.writeArrayFieldStart(REPORTS);
+      for (BlockReportIndex.Report report : page.getReports()) {
+        json.writeStartObject();
+        // as a string, javascript numbers cannot hold every block id
+        json.writeStringField(BLOCK_ID, Long.toString(report.getBlockId()));
+        json.writeStringField(DATANODE, report.getDatanode());
+        json.writeNumberField(TIME, report.getTime());
+        json.writeBooleanField(CORRUPT, report.isCorrupt());
+        json.writeEndObject();
+      }
+      json.writeEndArray();
+      json.writeEndObject();
+    } finally {
+      IOUtils.cleanup(LOG, json);
+    }
+  }
+
+  private static int getInt(HttpServletRequest req, String name, int def) {
+    String value = req.getParameter(name);
+    return value == null ? def : Integer.parseInt(value);
+  }
+
+  private static long getLong(HttpServletRequest req, String name, long def) {
+    String value = req.getParameter(name);
+    return value == null ? def : Long.parseLong(value);
+  }
+}
@@ -160,6 +160,9 @@ public class FSEditLog implements LogsPurgeable {
   // so make txid volatile instead of AtomicLong.
   private volatile long txid = 0;
 
+  // the changes of the block map, recorded as they are logged, if kept
+  private volatile BlockMapChanges blockMapChanges = null;
+
   // stores the last synced transactionId.
   private long synctxid = 0;
 
@@ -789,6 +792,7 @@ public class FSEditLog implements LogsPurgeable {
         .setNewBlock(newBlock);
     logRpcIds(op, toLogRpcIds);
     logEdit(op);
+    fileChanged(file);
   }
 
   /** 
@@ -826,6 +830,7 @@ public class FSEditLog implements LogsPurgeable {
 
     logRpcIds(op, toLogRpcIds);
     logEdit(op);
+    fileChanged(newNode);
   }
 
   /** 
@@ -842,6 +847,32 @@ public class FSEditLog implements LogsPurgeable {
       .setPermissionStatus(newNode.getPermissionStatus());
     
     logEdit(op);
+    fileChanged(newNode);
+  }
+
+  void setBlockMapChanges(BlockMapChanges changes) {
+    this.blockMapChanges = changes;
+  }
+
+  // the changes are tagged with the transaction that was just logged
+  private void fileChanged(INodeFile file) {
+    BlockMapChanges changes = blockMapChanges;
+    if (changes != null) {
+      changes.fileChanged(getLastWrittenTxIdWithoutLock(), file.getId());
+    }
+  }
+
+  private void pathsChanged(String deleted, String changed) {
+    BlockMapChanges changes = blockMapChanges;
+    if (changes != null) {
+      long id = getLastWrittenTxIdWithoutLock();
+      if (deleted != null) {
+        changes.deleted(id, deleted);
+      }
+      if (changed != null) {
+        changes.pathChanged(id, changed);
+      }
+    }
   }
   
   public void logAddBlock(String path, INodeFile file) {
@@ -853,6 +884,7 @@ public class FSEditLog implements LogsPurgeable {
     AddBlockOp op = AddBlockOp.getInstance(cache.get()).setPath(path)
         .setPenultimateBlock(pBlock).setLastBlock(lastBlock);
     logEdit(op);
+    fileChanged(file);
   }
   
   public void logUpdateBlocks(String path, INodeFile file, boolean toLogRpcIds) {
@@ -862,6 +894,7 @@ public class FSEditLog implements LogsPurgeable {
       .setBlocks(file.getBlocks());
     logRpcIds(op, toLogRpcIds);
     logEdit(op);
+    fileChanged(file);
   }
   
   /** 
@@ -900,6 +933,7 @@ public class FSEditLog implements LogsPurgeable {
       .setTimestamp(timestamp);
     logRpcIds(op, toLogRpcIds);
     logEdit(op);
+    pathsChanged(src, dst);
   }
 
   /** 
@@ -916,6 +950,7 @@ public class FSEditLog implements LogsPurgeable {
       .setOptions(options);
     logRpcIds(op, toLogRpcIds);
     logEdit(op);
+    pathsChanged(src, dst);
   }
   
   /** 
@@ -986,6 +1021,10 @@ public class FSEditLog implements LogsPurgeable {
       .setTimestamp(timestamp);
     logRpcIds(op, toLogRpcIds);
     logEdit(op);
+    for (String src : srcs) {
+      pathsChanged(src, null);
+    }
+    pathsChanged(null, trg);
   }
   
   /** 
@@ -997,6 +1036,7 @@ public class FSEditLog implements LogsPurgeable {
       .setTimestamp(timestamp);
     logRpcIds(op, toLogRpcIds);
     logEdit(op);
+    pathsChanged(src, null);
   }
   
   /**
@@ -1012,6 +1052,7 @@ public class FSEditLog implements LogsPurgeable {
       .setTimestamp(timestamp)
       .setTruncateBlock(truncateBlock);
     logEdit(op);
+    pathsChanged(null, src);
   }
 
   /**
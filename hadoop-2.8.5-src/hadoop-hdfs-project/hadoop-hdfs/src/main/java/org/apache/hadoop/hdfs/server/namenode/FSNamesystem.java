@@ -47,6 +47,16 @@ import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCKMAP_CHANGES_ENABLED_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCKMAP_CHANGES_ENABLED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCKMAP_CHANGES_MAX_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCKMAP_CHANGES_MAX_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_INDEX_CHECKPOINT_FILE_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_INDEX_CHECKPOINT_FILE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_INDEX_CHECKPOINT_INTERVAL_SECONDS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_INDEX_CHECKPOINT_INTERVAL_SECONDS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_INDEX_MAX_REPORTS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_INDEX_MAX_REPORTS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_CHECKPOINT_TXNS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_CHECKPOINT_TXNS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DEFAULT_AUDIT_LOGGER_NAME;
@@ -561,6 +571,9 @@ public class FSNamesystem implements Namesystem, FSNamesystemMBean,
   
   private String gethAddress = null;
   private String contractAddress = null;
+  private final BlockReportIndex blockReportIndex;
+  // null unless the changes of the block map are kept
+  private final BlockMapChanges blockMapChanges;
 
   /**
    * Notify that loading of this FSDirectory is complete, and
@@ -762,6 +775,25 @@ public class FSNamesystem implements Namesystem, FSNamesystemMBean,
 
       this.gethAddress = conf.get(DFS_BLOCKCHAIN_ADDRESS_KEY);
       this.contractAddress = conf.get(DFS_CONTRACT_ADDRESS_KEY);
+      String indexCheckpoint = conf.getTrimmed(
+          DFS_NAMENODE_BLOCKREPORT_INDEX_CHECKPOINT_FILE_KEY,
+          DFS_NAMENODE_BLOCKREPORT_INDEX_CHECKPOINT_FILE_DEFAULT);
+      this.blockReportIndex = new BlockReportIndex(conf.getInt(
+          DFS_NAMENODE_BLOCKREPORT_INDEX_MAX_REPORTS_KEY,
+          DFS_NAMENODE_BLOCKREPORT_INDEX_MAX_REPORTS_DEFAULT),
+          indexCheckpoint.isEmpty() ? null : new File(indexCheckpoint),
+          conf.getLong(DFS_NAMENODE_BLOCKREPORT_INDEX_CHECKPOINT_INTERVAL_SECONDS_KEY,
+              DFS_NAMENODE_BLOCKREPORT_INDEX_CHECKPOINT_INTERVAL_SECONDS_DEFAULT));
+      this.blockMapChanges = conf.getBoolean(
+          DFS_NAMENODE_BLOCKMAP_CHANGES_ENABLED_KEY,
+          DFS_NAMENODE_BLOCKMAP_CHANGES_ENABLED_DEFAULT)
+          ? new BlockMapChanges(conf.getInt(
+              DFS_NAMENODE_BLOCKMAP_CHANGES_MAX_KEY,
+              DFS_NAMENODE_BLOCKMAP_CHANGES_MAX_DEFAULT))
+          : null;
+      if (blockMapChanges != null && fsImage.getEditLog() != null) {
+        fsImage.getEditLog().setBlockMapChanges(blockMapChanges);
+      }
       this.blockManager = new BlockManager(this, conf);
       this.datanodeStatistics = blockManager.getDatanodeManager().getDatanodeStatistics();
       this.blockIdManager = new BlockIdManager(blockManager);
@@ -1247,11 +1279,18 @@ public class FSNamesystem implements Namesystem, FSNamesystemMBean,
         FSDirEncryptionZoneOp.warmUpEdekCache(edekCacheLoader, dir,
             edekCacheLoaderDelay, edekCacheLoaderInterval);
       }
+      if (blockMapChanges != null) {
+        blockMapChanges.start(editLog.getLastWrittenTxIdWithoutLock());
+      }
     } finally {
       startingActiveService = false;
       checkSafeMode();
       writeUnlock("startActiveServices");
     }
+    // only the active NameNode indexes the BlockReport events
+    if (gethAddress != null && contractAddress != null) {
+      blockReportIndex.start(gethAddress, contractAddress, getBlockPoolId());
+    }
   }
 
   private boolean inActiveState() {
@@ -1277,8 +1316,13 @@ public class FSNamesystem implements Namesystem, FSNamesystemMBean,
    */
   void stopActiveServices() {
     LOG.info("Stopping services started for active state");
+    // checkpoints the index, not under the namesystem lock
+    blockReportIndex.close();
     writeLock();
     try {
+      if (blockMapChanges != null) {
+        blockMapChanges.stop();
+      }
       stopSecretManager();
       leaseManager.stopMonitor();
       if (nnrmthread != null) {
@@ -6130,6 +6174,32 @@ public class FSNamesystem implements Namesystem, FSNamesystemMBean,
   public String getContractAddress() {
   	return this.contractAddress;
   }
+
+  /**
+   * @return the BlockReport events of the block pool, tailed from the contract
+   */
+  public BlockReportIndex getBlockReportIndex() {
+    return this.blockReportIndex;
+  }
+
+  /**
+   * @return the changes of the block map since the activation of the
+   * NameNode, for the incremental syncs of {@link BlockMapServlet}, or null
+   * if they are not kept
+   */
+  BlockMapChanges getBlockMapChanges() {
+    return this.blockMapChanges;
+  }
+
+  @Override // Namesystem
+  public void blockLocationsChanged(long blockCollectionID) {
+    if (blockMapChanges != null
+        && blockCollectionID != INodeId.INVALID_INODE_ID) {
+      // the replicas are not logged, they belong to the next transaction
+      blockMapChanges.fileChanged(
+          getEditLog().getLastWrittenTxIdWithoutLock() + 1, blockCollectionID);
+    }
+  }
   
   @Override // NameNodeMXBean
   public String getVersion() {
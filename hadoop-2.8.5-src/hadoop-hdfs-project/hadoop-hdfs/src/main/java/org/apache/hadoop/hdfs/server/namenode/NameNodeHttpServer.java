@@ -307,6 +307,10 @@ public class NameNodeHttpServer {
         FileChecksumServlets.RedirectServlet.class, false);
     httpServer.addInternalServlet("contentSummary", "/contentSummary/*",
         ContentSummaryServlet.class, false);
+    httpServer.addInternalServlet("blockReports",
+        BlockReportServlet.PATH_SPEC, BlockReportServlet.class, false);
+    httpServer.addInternalServlet("blockMap",
+        BlockMapServlet.PATH_SPEC, BlockMapServlet.class, true);
   }
 
   static FSImage getFsImageFromContext(ServletContext context) {
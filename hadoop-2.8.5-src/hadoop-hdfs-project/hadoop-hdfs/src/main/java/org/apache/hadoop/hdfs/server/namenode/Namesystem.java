@@ -48,6 +48,9 @@ public interface Namesystem extends RwLock, SafeMode {
 
   boolean isInSnapshot(long blockCollectionID);
 
+  /** The replicas of the blocks of the collection were added or removed. */
+  void blockLocationsChanged(long blockCollectionID);
+
   CacheManager getCacheManager();
   HAContext getHAContext();
 }
@@ -353,7 +353,7 @@
             // else if searched specific file view details too
             view_file_details(filepath.split('/').at(-1), filepath);
           }
-          // just remove multiple '/' so it can match with fsck output
+          // just remove multiple '/' so it can match with the block map
           filepath = filepath.replaceAll(/\/+/ig, '/');
           
           const block_list = file_to_blocklist[filepath];
@@ -380,7 +380,7 @@
             });
           } else {
             code = 4;
-            console.warn("File not visible from fsck. Seems fishy, try reloading.");
+            console.warn("File not visible in the block map. Seems fishy, try reloading.");
             window.location.reload(); // might be better to just reload the page
           }
           // finally insert the right symbol
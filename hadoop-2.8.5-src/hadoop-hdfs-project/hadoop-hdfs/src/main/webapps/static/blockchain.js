@@ -22,100 +22,139 @@ const block_to_file = {};
 }
 
 
+// BlockReport events loaded per request, and at most by default
+const REPORTS_PAGE_SIZE = 1000;
+const MAX_REPORTS = 20000;
+// first bytes of a block map page ("BMAP")
+const BLOCK_MAP_MAGIC = 0x424d4150;
+
 /**
- * Fetches BlockReport events from blockchain and data from hdfs.
+ * Fetches BlockReport events from the namenode index and data from hdfs.
  * Then parses all events according to a function parameter.
  * @param {Function} myfunc Event parsing function
+ * @param {Object} query Optional filters of /blockreports (blockId, datanode,
+ *                 from, to, corrupt) and max_reports, the newest are loaded first
  */
-async function blockchain(myfunc){
+async function blockchain(myfunc, query = {}){
 
-  async function parse_fsck_output() {
+  /**
+   * Reads one page of the binary block map of the namenode (see BlockMapServlet).
+   * Returns the next cursor, empty after the last page.
+   */
+  function parse_block_map(buffer) {
+    const view = new DataView(buffer);
+    const decoder = new TextDecoder('utf-8');
+    const page_datanodes = [];
+    let pos = 0;
+    // modified UTF-8 of java, the same as UTF-8 for the usual paths
+    const read_utf = () => {
+      const length = view.getUint16(pos);
+      const string = decoder.decode(new Uint8Array(buffer, pos + 2, length));
+      pos += 2 + length;
+      return string;
+    };
+    if (view.getInt32(0) !== BLOCK_MAP_MAGIC)
+      throw new Error('not a block map');
+    // skip version, txid and time
+    pos = 24;
+    while (true) {
+      const tag = view.getUint8(pos++);
+      if (tag === 0) {
+        return read_utf();
+      } else if (tag === 2) {
+        const index = view.getInt32(pos);
+        pos += 4;
+        page_datanodes[index] = read_utf();
+        read_utf(); // blockchain address, also known from jmx
+      } else if (tag === 1) {
+        const file = read_utf();
+        pos += 8; // modification time
+        const blocks = view.getInt32(pos);
+        pos += 4;
+        file_to_blocklist[file] = [];
+        for (let i = 0; i < blocks; i++) {
+          // as a string, javascript numbers cannot hold every block id
+          const block_id = view.getBigInt64(pos).toString();
+          pos += 24; // id, generation stamp and length
+          const locations = view.getInt16(pos);
+          pos += 2;
+          for (let j = 0; j < locations; j++) {
+            const datanode = page_datanodes[view.getInt32(pos)];
+            pos += 4;
+            if (datanode_to_blocklist[datanode] === undefined)
+              datanode_to_blocklist[datanode] = [block_id];
+            else
+              datanode_to_blocklist[datanode].push(block_id);
+          }
+          file_to_blocklist[file].push(block_id);
+          block_to_file[block_id] = file;
+        }
+      } else {
+        throw new Error('unknown block map record ' + tag);
+      }
+    }
+  }
+
+  /**
+   * Loads the block map of the whole namespace, one page at a time, to construct:
+   * datanode_to_blocklist, file_to_blocklist and block_to_file dicts
+   * datanodes list
+   */
+  async function fetch_block_map() {
     console.log('Requesting block list from local hadoop cluster...');
-    await $.get(
-      '/fsck?ugi=hadoop&locations=1&blocks=1&files=1&path=%2F',
-        data => {
-          /*
-           * step 1: parse data in order to construct:
-           * datanode_to_blocklist dict
-           * datanodes list
-           */
-          data.split('\n').filter(line => /^\d+\. /.test(line)).forEach(function(line) {
-            let currDatanodesInfo = line.split('DatanodeInfoWithStorage[');
-            let currDatanodes = [];
-            for (var i = 1; i < currDatanodesInfo.length; i++) {
-              currDatanodes.push(currDatanodesInfo[i].split(',')[0]);
-            }
-            let block_id = line.split('_')[1];
-            for (const datanode of currDatanodes) {
-              if (datanode_to_blocklist[datanode] === undefined)
-                datanode_to_blocklist[datanode] = [block_id];
-              else
-                datanode_to_blocklist[datanode].push(block_id);
-            }
-          });
-          
-          for (const datanode in datanode_to_blocklist)
-            datanode_to_blocklist[datanode].sort();
-          
-            datanodes = Object.keys(datanode_to_blocklist);
-
-            console.log('... done. Local hadoop cluster consists of',
-                        datanodes.length,
-                        'datanode' + (datanodes.length > 1 ? 's' : '') + '.');
-
-            /*
-             * step 2: parse data again in order to construct:
-             * file_to_blocklist dict
-             * block_to_file dict
-             */
-            let lines = data.split('\n');
-            let i = 0;
-            let fileMode = false;
-            let currFile;
-            let currLine;
-            while (i < lines.length) {
-              currLine = lines[i];
-              if (fileMode) {
-                if (/^\d+\. /.test(currLine)) {
-                  let block_id = currLine.split('_')[1];
-                  file_to_blocklist[currFile].push(block_id);
-                  block_to_file[block_id] = currFile;
-                } else if (!currLine) {
-                  fileMode = false;
-                }
-              } else {
-                if (currLine.startsWith('/') && !currLine.endsWith('<dir>')) {
-                  fileMode = true;
-                  currFile = currLine.split(' ')[0];
-                  file_to_blocklist[currFile] = [];
-                }
-              }
-              i++;
-            }
-
-            console.log('Created mappings between files and HDFS blocks');
-    })
-    .fail(error => {
-      alert("HTTP Filesystem check request failed");
-      console.log("fsck query failed: "+error);
-    });
+    try {
+      let cursor = '';
+      do {
+        const params = new URLSearchParams({'ugi': 'hadoop', 'path': '/', 'cursor': cursor});
+        const resp = await fetch('/blockmap?' + params);
+        if (!resp.ok)
+          throw new Error(resp.status + ' ' + resp.statusText);
+        cursor = parse_block_map(await resp.arrayBuffer());
+      } while (cursor);
+    } catch (error) {
+      alert("HTTP block map request failed");
+      console.log("block map query failed: "+error);
+      return;
+    }
+
+    for (const datanode in datanode_to_blocklist)
+      datanode_to_blocklist[datanode].sort();
+
+    datanodes = Object.keys(datanode_to_blocklist);
+
+    console.log('... done. Local hadoop cluster consists of',
+                datanodes.length,
+                'datanode' + (datanodes.length > 1 ? 's' : '') + '.');
+    console.log('Created mappings between files and HDFS blocks');
   }
 
 
   /**
-   * Initializes the contract object
-   * @returns The contract
+   * Fetches the BlockReport events indexed by the namenode, newest first,
+   * one page at a time until max_reports are loaded.
+   * Returns them in the shape of the contract events (returnValues).
    */
-  function get_contract(geth_addr, contract_addr) {
-    const web3 = new Web3(new Web3.providers.HttpProvider(geth_addr));
-    const CONTRACT_ABI = [{"inputs":[],"stateMutability":"nonpayable","type":"constructor"},{"anonymous":false,"inputs":[{"indexed":true,"internalType":"bytes32","name":"blockpool","type":"bytes32"},{"indexed":false,"internalType":"address","name":"datanode","type":"address"},{"indexed":false,"internalType":"uint256","name":"time","type":"uint256"},{"indexed":false,"internalType":"uint256","name":"blockId","type":"uint256"},{"indexed":false,"internalType":"bool","name":"corrupt","type":"bool"}],"name":"BlockReport","type":"event"},{"inputs":[{"internalType":"bytes32","name":"_bp_id","type":"bytes32"},{"internalType":"uint256","name":"_block_id","type":"uint256"},{"internalType":"bytes32","name":"_root","type":"bytes32"}],"name":"add_digest","outputs":[],"stateMutability":"nonpayable","type":"function"},{"inputs":[{"internalType":"bytes32","name":"_bp_id","type":"bytes32"},{"internalType":"uint256","name":"randomness","type":"uint256"}],"name":"create_seed","outputs":[],"stateMutability":"nonpayable","type":"function"},{"inputs":[{"internalType":"bytes32","name":"_bp_id","type":"bytes32"}],"name":"peek_seed","outputs":[{"internalType":"bytes","name":"","type":"bytes"}],"stateMutability":"view","type":"function","constant":true},{"inputs":[{"internalType":"bytes32","name":"_bp_id","type":"bytes32"},{"internalType":"uint256","name":"_block_id","type":"uint256"},{"internalType":"uint256[]","name":"numbers","type":"uint256[]"}],"name":"verify","outputs":[],"stateMutability":"nonpayable","type":"function"}];
-    return new web3.eth.Contract(CONTRACT_ABI, contract_addr);
+  async function fetch_reports() {
+    const events = [];
+    const params = Object.assign({}, query);
+    const max_reports = params.max_reports || MAX_REPORTS;
+    delete params.max_reports;
+    params.limit = Math.min(REPORTS_PAGE_SIZE, max_reports);
+    params.offset = 0;
+    while (events.length < max_reports) {
+      const page = await $.get('/blockreports', params);
+      page.reports.forEach(report => events.push({'returnValues': report}));
+      params.offset += page.reports.length;
+      if (page.reports.length === 0 || params.offset >= page.total)
+        break;
+    }
+    return events;
   }
-  
 
-  var blockpool, geth_addr, contract_addr;
-  // start filesystem check call asyncronously
-  const foo = parse_fsck_output();
+
+  var blockpool;
+  // start loading the block map asyncronously
+  const foo = fetch_block_map();
 
   // get hdfs and blockchain info from namenode
   await $.get(
@@ -130,8 +169,6 @@ async function blockchain(myfunc){
         bc_to_ip[bc] = ip;
       }
       blockpool = info.BlockPoolId;
-      geth_addr = info.GethAddress;
-      contract_addr = info.ContractAddress;
     }
   )
   .fail(error => {
@@ -139,18 +176,14 @@ async function blockchain(myfunc){
     console.error("JMX Query failed: "+error);
   });
   await foo;
-  // initialize contract
-  // Get all BlockReport events and process them according to parameter function
-  const events = await get_contract(geth_addr, contract_addr).getPastEvents('BlockReport', {
-    filter: {'blockpool': Web3.utils.sha3(blockpool)},
-    fromBlock: 'earliest',
-    toBlock: 'latest'
-  }, (error, _) => {
-    if(error) {
-      alert("[web3] Error while fetching BlockReports from blockchain");
-      console.error(error);
-    }
-  });
+  // Get the BlockReport events and process them according to parameter function
+  var events = [];
+  try {
+    events = await fetch_reports();
+  } catch (error) {
+    alert("Failed to fetch BlockReports from Namenode");
+    console.error("BlockReport query failed: "+error);
+  }
   return myfunc(events);
 
 };
\ No newline at end of file
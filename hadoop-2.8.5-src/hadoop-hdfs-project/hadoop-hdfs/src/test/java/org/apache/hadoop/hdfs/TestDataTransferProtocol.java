@@ -17,8 +17,10 @@
  */
 package org.apache.hadoop.hdfs;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
@@ -554,6 +556,28 @@ public class TestDataTransferProtocol {
         .CHECKSUM_OK), newAck.getHeaderFlag(0));
   }
 
+  @Test
+  public void testPipelineAckMerkleRoot() throws IOException {
+    int[] replies = new int[] {PipelineAck.combineHeader(
+        PipelineAck.ECN.DISABLED, Status.SUCCESS)};
+    byte[] root = new byte[32];
+    new Random().nextBytes(root);
+
+    ByteArrayOutputStream ackBytes = new ByteArrayOutputStream();
+    new PipelineAck(100, replies, 0L, root).write(ackBytes);
+    new PipelineAck(101, replies, 0L).write(ackBytes);
+    DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(ackBytes.toByteArray()));
+    PipelineAck ack = new PipelineAck();
+    ack.readFields(in);
+    assertEquals(100, ack.getSeqno());
+    assertArrayEquals(root, ack.getMerkleRoot());
+    // only the ack of the last packet of a block carries one
+    ack.readFields(in);
+    assertEquals(101, ack.getSeqno());
+    assertNull(ack.getMerkleRoot());
+  }
+
   void writeBlock(String poolId, long blockId, DataChecksum checksum) throws IOException {
     writeBlock(new ExtendedBlock(poolId, blockId),
         BlockConstructionStage.PIPELINE_SETUP_CREATE, 0L, checksum);
@@ -565,6 +589,6 @@ public class TestDataTransferProtocol {
         BlockTokenSecretManager.DUMMY_TOKEN, "cl",
         new DatanodeInfo[1], new StorageType[1], null, stage,
         0, block.getNumBytes(), block.getNumBytes(), newGS,
-        checksum, CachingStrategy.newDefaultStrategy(), false, false, null);
+        checksum, CachingStrategy.newDefaultStrategy(), false, false, null, false);
   }
 }
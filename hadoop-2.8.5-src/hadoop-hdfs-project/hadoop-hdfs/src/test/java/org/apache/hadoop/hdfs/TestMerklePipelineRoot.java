@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.blockchain.ClientConnection;
+import org.apache.hadoop.blockchain.TxPipeline;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
+import org.apache.hadoop.hdfs.server.datanode.MerkleSidecar;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
+import org.apache.hadoop.merkle_trees.MerkleTree;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.internal.util.reflection.Whitebox;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Writes files whose merkle roots are returned by the last datanode of the
+ * pipeline (dfs.client.merkle.pipeline.root), and checks the roots uploaded
+ * by the client against the trees of the data.
+ */
+public class TestMerklePipelineRoot {
+
+  private static final int CHUNK_SIZE = 512;
+  private static final int TREE_HEIGHT = 4;
+  // the blocks are covered by the leaves, like with the defaults
+  private static final int BLOCK_SIZE = CHUNK_SIZE << TREE_HEIGHT;
+  private static final int DATANODES = 3;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+  // the last root uploaded for each block
+  private final Map<Long, byte[]> roots = new HashMap<Long, byte[]>();
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(
+        HdfsClientConfigKeys.DFS_CLIENT_MERKLE_PIPELINE_ROOT_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_CHUNK_SIZE_KEY, CHUNK_SIZE);
+    conf.setInt(DFSConfigKeys.DFS_MERKLE_TREE_HEIGHT_KEY, TREE_HEIGHT);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    // the pipelines go on with the datanodes left
+    conf.setBoolean(
+        HdfsClientConfigKeys.BlockWrite.ReplaceDatanodeOnFailure.ENABLE_KEY,
+        false);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(DATANODES).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+
+    ClientConnection con = mock(ClientConnection.class);
+    when(con.uploadHash(anyString(), anyLong(), any(byte[].class))).thenAnswer(
+        new Answer<TxPipeline.Tx>() {
+          @Override
+          public TxPipeline.Tx answer(InvocationOnMock invocation) {
+            Object[] args = invocation.getArguments();
+            synchronized (roots) {
+              roots.put((Long) args[1], (byte[]) args[2]);
+            }
+            return null;
+          }
+        });
+    Whitebox.setInternalState(fs.getClient(), "con", con);
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Checks the root uploaded for every block of the file, and that the
+   * levels of its tree are kept next to one of its replicas if sidecars.
+   */
+  private void checkRoots(Path file, byte[] data, boolean sidecars)
+      throws IOException {
+    List<LocatedBlock> blocks = fs.getClient().getLocatedBlocks(
+        file.toString(), 0, data.length).getLocatedBlocks();
+    assertEquals((data.length + BLOCK_SIZE - 1) / BLOCK_SIZE, blocks.size());
+    for (LocatedBlock located : blocks) {
+      ExtendedBlock block = located.getBlock();
+      int from = (int) located.getStartOffset();
+      MerkleTree tree = new MerkleTree(Arrays.copyOfRange(data, from,
+          from + (int) block.getNumBytes()), CHUNK_SIZE, TREE_HEIGHT);
+      tree.build();
+      byte[] root;
+      synchronized (roots) {
+        root = roots.get(block.getBlockId());
+      }
+      assertArrayEquals("root of " + block, tree.getRoot(), root);
+      if (!sidecars) {
+        continue;
+      }
+      boolean sidecar = false;
+      for (DataNode dn : cluster.getDataNodes()) {
+        ReplicaInfo replica = DataNodeTestUtils.fetchReplicaInfo(dn,
+            block.getBlockPoolId(), block.getBlockId());
+        sidecar |= replica != null
+            && MerkleSidecar.getSidecarFile(replica.getMetaFile()).exists();
+      }
+      assertTrue("no merkle sidecar for " + block, sidecar);
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testPipelineRoot() throws IOException {
+    Path file = new Path("/testPipelineRoot");
+    // full blocks, and a short last one
+    byte[] data = AppendTestUtil.randomBytes(1, 2 * BLOCK_SIZE + 1000);
+    FSDataOutputStream out = fs.create(file, (short) DATANODES);
+    out.write(data);
+    out.close();
+    checkRoots(file, data, true);
+  }
+
+  @Test(timeout = 120000)
+  public void testAppend() throws IOException {
+    Path file = new Path("/testAppend");
+    byte[] data = AppendTestUtil.randomBytes(2, BLOCK_SIZE + 3000);
+    FSDataOutputStream out = fs.create(file, (short) DATANODES);
+    out.write(data, 0, BLOCK_SIZE + 1000);
+    out.close();
+    // the last datanode hashes the replica of the last block first
+    out = fs.append(file);
+    out.write(data, BLOCK_SIZE + 1000, 2000);
+    out.close();
+    checkRoots(file, data, true);
+  }
+
+  @Test(timeout = 120000)
+  public void testPipelineRecovery() throws IOException {
+    Path file = new Path("/testPipelineRecovery");
+    byte[] data = AppendTestUtil.randomBytes(3, 2 * BLOCK_SIZE);
+    FSDataOutputStream out = fs.create(file, (short) DATANODES);
+    out.write(data, 0, BLOCK_SIZE / 2);
+    out.hflush();
+    // the first datanode fails, the last one goes on with its tree
+    DatanodeInfo[] pipeline =
+        ((DFSOutputStream) out.getWrappedStream()).getPipeline();
+    cluster.stopDataNode(pipeline[0].getXferAddr());
+    out.write(data, BLOCK_SIZE / 2, BLOCK_SIZE / 4);
+    out.hflush();
+    // and then the last one, the new last one reads its replica back
+    pipeline = ((DFSOutputStream) out.getWrappedStream()).getPipeline();
+    cluster.stopDataNode(pipeline[pipeline.length - 1].getXferAddr());
+    out.write(data, 3 * BLOCK_SIZE / 4, data.length - 3 * BLOCK_SIZE / 4);
+    out.close();
+    checkRoots(file, data, true);
+  }
+
+  @Test(timeout = 120000)
+  public void testRecoveryOfLastPacket() throws IOException {
+    DFSClientFaultInjector faultInjector =
+        Mockito.mock(DFSClientFaultInjector.class);
+    DFSClientFaultInjector oldInjector = DFSClientFaultInjector.get();
+    DFSClientFaultInjector.set(faultInjector);
+    try {
+      Path file = new Path("/testRecoveryOfLastPacket");
+      byte[] data = AppendTestUtil.randomBytes(4, BLOCK_SIZE + 1000);
+      // the ack of the last packet of each block, with its root, is lost
+      // and the client reads the block back
+      Mockito.when(faultInjector.failPacket()).thenReturn(true);
+      FSDataOutputStream out = fs.create(file, (short) DATANODES);
+      out.write(data);
+      out.close();
+      // the replicas were finalized before their recovery, which drops
+      // the sidecars of their previous generation stamp
+      checkRoots(file, data, false);
+    } finally {
+      DFSClientFaultInjector.set(oldInjector);
+    }
+  }
+}
@@ -904,6 +904,34 @@ public class TestBlockManager {
     bm.setInitializedReplQueues(false);
   }
 
+  @Test
+  public void testBlockLocationsChangedOnlyIfEnabled() throws Exception {
+    for (boolean enabled : new boolean[] {false, true}) {
+      Configuration conf = new HdfsConfiguration();
+      conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_BLOCKMAP_CHANGES_ENABLED_KEY,
+          enabled);
+      bm = new BlockManager(fsn, conf);
+      DatanodeDescriptor node = nodes.get(0);
+      DatanodeStorageInfo ds = node.getStorageInfos()[0];
+      node.setAlive(true);
+      bm.getDatanodeManager().registerDatanode(
+          new DatanodeRegistration(node, null, null, ""));
+      bm.getDatanodeManager().addDatanode(node);
+
+      // a replica is received, and then deleted (of a new file every time)
+      BlockInfo block = addBlockToBM(42);
+      ReceivedDeletedBlockInfo[] rdbis = {
+          new ReceivedDeletedBlockInfo(new Block(block),
+              ReceivedDeletedBlockInfo.BlockStatus.RECEIVED_BLOCK, null),
+          new ReceivedDeletedBlockInfo(new Block(block),
+              ReceivedDeletedBlockInfo.BlockStatus.DELETED_BLOCK, null) };
+      bm.processIncrementalBlockReport(node, new StorageReceivedDeletedBlocks(
+          new DatanodeStorage(ds.getStorageID()), rdbis));
+      verify(fsn, Mockito.times(enabled ? 2 : 0))
+          .blockLocationsChanged(block.getBlockCollectionId());
+    }
+  }
+
   private BlockInfo addBlockToBM(long blkId) {
     Block block = new Block(blkId);
     BlockInfo blockInfo = new BlockInfoContiguous(block, (short) 3);
@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.merkle_trees.MerkleTree;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+
+public class TestMerkleLevelCache {
+
+  private static final int CHUNK_SIZE = 64;
+  private static final int TREE_HEIGHT = 4;
+  // a tree of height 4 has 31 nodes
+  private static final int TREE_BYTES = 31 * 32;
+
+  private static byte[] randomBytes(Random random, int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  private static MerkleTree buildTree(byte[] data) {
+    MerkleTree tree = new MerkleTree(ByteBuffer.wrap(data), CHUNK_SIZE, TREE_HEIGHT, null);
+    tree.build();
+    return tree;
+  }
+
+  @Test
+  public void testFingerprint() throws IOException {
+    File dir = GenericTestUtils.getTestDir("TestMerkleLevelCache");
+    FileUtils.deleteQuietly(dir);
+    assertTrue(dir.mkdirs());
+    Random random = new Random(0);
+    byte[] checksums = randomBytes(random, 1000);
+    File a = new File(dir, "blk_1_1001.meta");
+    File b = new File(dir, "blk_2_1002.meta");
+    FileUtils.writeByteArrayToFile(a, checksums);
+    FileUtils.writeByteArrayToFile(b, checksums);
+    // only the content matters, not the block
+    MD5Hash fa = MerkleLevelCache.fingerprint(a, 1024, CHUNK_SIZE, TREE_HEIGHT);
+    assertEquals(fa, MerkleLevelCache.fingerprint(b, 1024, CHUNK_SIZE, TREE_HEIGHT));
+    assertFalse(fa.equals(MerkleLevelCache.fingerprint(b, 1023, CHUNK_SIZE, TREE_HEIGHT)));
+    assertFalse(fa.equals(MerkleLevelCache.fingerprint(b, 1024, CHUNK_SIZE, TREE_HEIGHT + 1)));
+    checksums[500] ^= 1;
+    FileUtils.writeByteArrayToFile(b, checksums);
+    assertFalse(fa.equals(MerkleLevelCache.fingerprint(b, 1024, CHUNK_SIZE, TREE_HEIGHT)));
+    FileUtils.deleteQuietly(dir);
+  }
+
+  @Test
+  public void testProofFromCachedLevels() {
+    Random random = new Random(1);
+    byte[] data = randomBytes(random, CHUNK_SIZE * 16);
+    byte[] seed = randomBytes(random, 84);
+    MerkleTree tree = buildTree(data);
+    // only the top 3 levels are kept
+    MerkleLevelCache cache = new MerkleLevelCache(1 << 20, 3);
+    MD5Hash key = MD5Hash.digest("content");
+    assertNull(cache.get(key, ByteBuffer.wrap(data), CHUNK_SIZE, TREE_HEIGHT));
+    cache.put(key, tree, TREE_HEIGHT);
+    assertEquals(7 * 32, cache.getUsed());
+
+    // another replica with the same content
+    MerkleTree cached = cache.get(key, ByteBuffer.wrap(data.clone()), CHUNK_SIZE, TREE_HEIGHT);
+    assertNotNull(cached);
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertArrayEquals(tree.getRoot(), cached.getRoot());
+    assertTrue(cached.getMerkleProof(1073741825L, seed, 4).verify());
+
+    // a replica whose content differs does not match the cached levels
+    byte[] other = data.clone();
+    for (int i = 0; i < other.length; i += CHUNK_SIZE) {
+      other[i] ^= 1;
+    }
+    cached = cache.get(key, ByteBuffer.wrap(other), CHUNK_SIZE, TREE_HEIGHT);
+    assertFalse(cached.getMerkleProof(1073741825L, seed, 4).verify());
+  }
+
+  @Test
+  public void testEviction() {
+    Random random = new Random(2);
+    // room for two full trees
+    MerkleLevelCache cache = new MerkleLevelCache(2 * TREE_BYTES, TREE_HEIGHT + 1);
+    MD5Hash[] keys = new MD5Hash[3];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = MD5Hash.digest("content" + i);
+    }
+    byte[] data = randomBytes(random, CHUNK_SIZE * 16);
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    MerkleTree tree = buildTree(data);
+    cache.put(keys[0], tree, TREE_HEIGHT);
+    cache.put(keys[1], tree, TREE_HEIGHT);
+    // the first one is used again, the second one is the eldest
+    assertNotNull(cache.get(keys[0], buffer, CHUNK_SIZE, TREE_HEIGHT));
+    cache.put(keys[2], tree, TREE_HEIGHT);
+    assertEquals(2, cache.size());
+    assertEquals(2 * TREE_BYTES, cache.getUsed());
+    assertNull(cache.get(keys[1], buffer, CHUNK_SIZE, TREE_HEIGHT));
+    assertNotNull(cache.get(keys[0], buffer, CHUNK_SIZE, TREE_HEIGHT));
+    assertNotNull(cache.get(keys[2], buffer, CHUNK_SIZE, TREE_HEIGHT));
+
+    cache.remove(keys[0]);
+    assertEquals(1, cache.size());
+    assertEquals(TREE_BYTES, cache.getUsed());
+
+    // entries larger than the whole budget are not kept
+    MerkleLevelCache small = new MerkleLevelCache(TREE_BYTES - 1, TREE_HEIGHT + 1);
+    small.put(keys[0], tree, TREE_HEIGHT);
+    assertEquals(0, small.size());
+    assertFalse(new MerkleLevelCache(0, TREE_HEIGHT).isEnabled());
+  }
+}
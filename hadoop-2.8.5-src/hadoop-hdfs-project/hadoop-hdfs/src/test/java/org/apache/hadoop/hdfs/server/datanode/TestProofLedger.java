@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestProofLedger {
+
+  private static final long HOUR = 3600 * 1000L;
+  private static final long WINDOW = 7 * 24 * HOUR;
+  private static final long NOW = 1000 * WINDOW;
+
+  @Test
+  public void testFirstSeenSpreadOverWindow() {
+    ProofLedger ledger = ProofLedger.load(
+        GenericTestUtils.getTestDir("TestProofLedger-none"));
+    assertEquals(0, ledger.size());
+    // every replica comes due within a window, about one in 7 a day
+    int due = 0;
+    for (long id = 1073741825L; id < 1073741825L + 7000; id++) {
+      long last = ledger.lastProven(id, NOW, WINDOW);
+      assertTrue(last <= NOW && last > NOW - WINDOW);
+      if (ledger.isDue(id, NOW, WINDOW, 24 * HOUR)) {
+        due++;
+      }
+    }
+    assertTrue("due " + due, due > 800 && due < 1200);
+    // and stays the same once seen
+    assertEquals(ledger.lastProven(1073741825L, NOW, WINDOW),
+        ledger.lastProven(1073741825L, NOW + HOUR, WINDOW));
+  }
+
+  @Test
+  public void testDue() {
+    ProofLedger ledger = ProofLedger.load(
+        GenericTestUtils.getTestDir("TestProofLedger-none"));
+    ledger.proven(1, NOW);
+    assertFalse(ledger.isDue(1, NOW + WINDOW - 2 * HOUR, WINDOW, HOUR));
+    // the next report would come too late
+    assertTrue(ledger.isDue(1, NOW + WINDOW - HOUR, WINDOW, HOUR));
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    File dir = GenericTestUtils.getTestDir("TestProofLedger");
+    FileUtils.deleteQuietly(dir);
+    assertTrue(dir.mkdirs());
+    ProofLedger ledger = ProofLedger.load(dir);
+    ledger.proven(1, NOW);
+    ledger.proven(2, NOW - HOUR);
+    ledger.proven(3, NOW - 2 * HOUR);
+    // the third replica was deleted
+    ledger.retain(new HashSet<Long>(Arrays.asList(1L, 2L)));
+    ledger.save();
+
+    ProofLedger loaded = ProofLedger.load(dir);
+    assertEquals(2, loaded.size());
+    assertEquals(NOW, loaded.lastProven(1, NOW + HOUR, WINDOW));
+    assertEquals(NOW - HOUR, loaded.lastProven(2, NOW + HOUR, WINDOW));
+    FileUtils.deleteQuietly(dir);
+  }
+
+  @Test
+  public void testProvenOnVerdict() throws IOException {
+    ProofLedger ledger = ProofLedger.load(
+        GenericTestUtils.getTestDir("TestProofLedger-none"));
+    DataNode dn = Mockito.mock(DataNode.class);
+    FsDatasetSpi<?> dataset = Mockito.mock(FsDatasetSpi.class);
+    Mockito.doReturn(dataset).when(dn).getFSDataset();
+    ProofReportHandler verdicts = new ProofReportHandler(dn);
+    verdicts.awaitVerdict("BP-1", 1, ledger, NOW);
+    verdicts.awaitVerdict("BP-1", 2, ledger, NOW);
+    verdicts.awaitVerdict("BP-1", 3, ledger, NOW);
+    verdicts.awaitVerdict("BP-1", 4, ledger, NOW);
+    verdicts.forget("BP-1", 4);
+
+    // only the proof verified on-chain counts
+    verdicts.reported("BP-1", 1, false);
+    verdicts.reported("BP-1", 2, true);
+    verdicts.missing("BP-1", 3);
+    assertEquals(0, verdicts.awaiting());
+    assertEquals(1, ledger.size());
+    assertEquals(NOW, ledger.lastProven(1, NOW + HOUR, WINDOW));
+  }
+}
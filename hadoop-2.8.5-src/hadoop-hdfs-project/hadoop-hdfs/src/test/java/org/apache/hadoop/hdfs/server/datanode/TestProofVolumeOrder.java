@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestProofVolumeOrder {
+
+  private static FsVolumeSpi volume(String storageId) {
+    FsVolumeSpi volume = Mockito.mock(FsVolumeSpi.class);
+    Mockito.when(volume.getStorageID()).thenReturn(storageId);
+    return volume;
+  }
+
+  // in the directory its id maps to, like a replica loaded by the dataset
+  private static FinalizedReplica replica(long blockId, FsVolumeSpi volume) {
+    File dir = DatanodeUtil.idToBlockDir(
+        new File("/" + volume.getStorageID() + "/finalized"), blockId);
+    return new FinalizedReplica(blockId, 1024, 1001, volume, dir);
+  }
+
+  private static List<Long> ids(List<FinalizedReplica> replicas) {
+    List<Long> ids = new ArrayList<Long>();
+    for (FinalizedReplica replica : replicas) {
+      ids.add(replica.getBlockId());
+    }
+    return ids;
+  }
+
+  @Test
+  public void testVolumesInTurn() {
+    FsVolumeSpi a = volume("DS-a");
+    FsVolumeSpi b = volume("DS-b");
+    // as listed by the dataset, volumes and directories mixed
+    List<FinalizedReplica> replicas = Arrays.asList(
+        replica(0x10001, a),  // subdir1/subdir0
+        replica(0x100, b),    // subdir0/subdir1
+        replica(2, a),        // subdir0/subdir0
+        replica(0x101, a),    // subdir0/subdir1
+        replica(3, b),        // subdir0/subdir0
+        replica(1, a));       // subdir0/subdir0
+    // each volume directory by directory, one replica of each volume in turn
+    assertEquals(Arrays.asList(1L, 3L, 2L, 0x100L, 0x101L, 0x10001L),
+        ids(BPServiceActor.volumeOrder(replicas)));
+  }
+
+  @Test
+  public void testSingleVolume() {
+    FsVolumeSpi a = volume("DS-a");
+    List<FinalizedReplica> replicas = Arrays.asList(
+        replica(0x100, a),
+        replica(5, a));
+    assertEquals(Arrays.asList(5L, 0x100L),
+        ids(BPServiceActor.volumeOrder(replicas)));
+    assertEquals(0, BPServiceActor.volumeOrder(
+        new ArrayList<FinalizedReplica>()).size());
+  }
+}
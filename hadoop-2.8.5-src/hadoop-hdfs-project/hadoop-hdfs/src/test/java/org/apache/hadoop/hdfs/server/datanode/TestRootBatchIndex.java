@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.blockchain.RootBatch;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestRootBatchIndex {
+
+  private static final String BP = "BP-1";
+
+  private File dir;
+  private FileSystem fs;
+  private RootBatchIndex index;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = GenericTestUtils.getTestDir("TestRootBatchIndex");
+    FileUtils.deleteDirectory(dir);
+    Configuration conf = new Configuration();
+    fs = FileSystem.getLocal(conf);
+    index = new RootBatchIndex(conf, new Path(dir.getAbsolutePath()));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    index.close();
+    FileUtils.deleteDirectory(dir);
+  }
+
+  private static RootBatch batch(long first, int size, long seed) {
+    Random random = new Random(seed);
+    RootBatch batch = new RootBatch();
+    for (int i = 0; i < size; i++) {
+      byte[] root = new byte[32];
+      random.nextBytes(root);
+      batch.add(first + i, root);
+    }
+    return batch;
+  }
+
+  private void write(RootBatch batch, long modified) throws IOException {
+    Path path = new Path(new Path(dir.getAbsolutePath(), BP),
+        Long.toString(batch.getFirstBlockId()));
+    FSDataOutputStream out = fs.create(path, true);
+    try {
+      out.write(RootBatch.writeAll(Collections.singletonList(batch)));
+    } finally {
+      out.close();
+    }
+    fs.setTimes(path, modified, -1);
+  }
+
+  private void assertLocated(RootBatch batch, int i) {
+    long block_id = batch.getFirstBlockId() + i;
+    RootBatchIndex.Located located =
+        index.locate(BP, block_id, batch.getBlockRoot(i));
+    assertEquals(batch.getFirstBlockId(), located.batch);
+    assertEquals(i, located.index);
+    // what verify_from_batch checks
+    assertArrayEquals(batch.getRoot(), RootBatch.rootOf(block_id,
+        batch.getBlockRoot(i), located.index, located.siblings));
+  }
+
+  @Test
+  public void testLocate() throws IOException {
+    // nothing written yet
+    index.refresh(BP);
+    assertNull(index.locate(BP, 1000, new byte[32]));
+
+    RootBatch first = batch(1000, 5, 1);
+    RootBatch second = batch(1005, 3, 2);
+    write(first, 1000);
+    write(second, 1000);
+    index.refresh(BP);
+    for (int i = 0; i < 5; i++) {
+      assertLocated(first, i);
+    }
+    for (int i = 0; i < 3; i++) {
+      assertLocated(second, i);
+    }
+    // another root, or a block of no batch
+    assertNull(index.locate(BP, 1001, first.getBlockRoot(2)));
+    assertNull(index.locate(BP, 1008, new byte[32]));
+    assertNull(index.locate("BP-2", 1001, first.getBlockRoot(1)));
+  }
+
+  @Test
+  public void testReplaced() throws IOException {
+    RootBatch before = batch(1000, 2, 1);
+    write(before, 1000);
+    index.refresh(BP);
+    assertLocated(before, 1);
+
+    // the last block was appended to, and committed again with new blocks
+    RootBatch after = batch(1001, 4, 2);
+    write(after, 1000);
+    // a batch with the same first block replaces the previous one
+    RootBatch replaced = batch(1000, 3, 3);
+    write(replaced, 2000);
+    index.refresh(BP);
+    assertLocated(after, 0);
+    assertLocated(after, 3);
+    assertLocated(replaced, 0);
+    assertNull(index.locate(BP, 1000, before.getBlockRoot(0)));
+
+    // and a batch that is gone is forgotten
+    fs.delete(new Path(new Path(dir.getAbsolutePath(), BP), "1001"), false);
+    index.refresh(BP);
+    assertNull(index.locate(BP, 1004, after.getBlockRoot(3)));
+  }
+}
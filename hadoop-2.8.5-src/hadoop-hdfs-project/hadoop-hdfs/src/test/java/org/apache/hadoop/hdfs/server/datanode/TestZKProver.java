@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.merkle_trees.MerkleProof;
+import org.apache.hadoop.merkle_trees.MerkleTree;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+
+public class TestZKProver {
+
+  private static final String PROOF_JSON = "{\"scheme\":\"g16\",\"curve\":\"bn128\","
+      + "\"proof\":{\"a\":[\"0x01\",\"0x02\"],"
+      + "\"b\":[[\"0x03\",\"0x04\"],[\"0x05\",\"0x06\"]],"
+      + "\"c\":[\"0x07\",\"0x0a\"]},\"inputs\":[\"0x00\"]}";
+
+  @Test
+  public void testParseProof() throws IOException {
+    List<BigInteger> numbers = ZKProver.parseProof(new StringReader(PROOF_JSON));
+    assertEquals(ZKProver.PROOF_SIZE, numbers.size());
+    long[] expected = {1, 2, 3, 4, 5, 6, 7, 10};
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(BigInteger.valueOf(expected[i]), numbers.get(i));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testParseMalformedProof() throws IOException {
+    ZKProver.parseProof(new StringReader("{\"proof\":{\"a\":[\"0x01\"]}}"));
+  }
+
+  @Test
+  public void testParseResponse() throws IOException {
+    ZKProver.Response response = ZKProver.Response.parse("OK 12 345 " + PROOF_JSON);
+    assertEquals(12, response.witness_ms);
+    assertEquals(345, response.proof_ms);
+    assertEquals(ZKProver.PROOF_SIZE, response.proof.size());
+  }
+
+  @Test(expected = IOException.class)
+  public void testParseErrorResponse() throws IOException {
+    ZKProver.Response.parse("ERR witness compute-witness failed");
+  }
+
+  /**
+   * Runs the prover against a fake worker, that answers every request
+   * with the same proof and exits after the first one.
+   */
+  @Test(timeout = 60000)
+  public void testWorkerRestart() throws Exception {
+    File dir = GenericTestUtils.getTestDir("TestZKProver");
+    FileUtil.fullyDelete(dir);
+    assertTrue(dir.mkdirs());
+    File script = new File(dir, ZKProver.WORKER_SCRIPT);
+    FileUtils.writeStringToFile(script, "#!/usr/bin/env bash\n"
+        + "read -r line && echo 'OK 1 2 " + PROOF_JSON + "'\n");
+    assertTrue(script.setExecutable(true));
+    Configuration conf = new Configuration();
+    conf.set(DFSConfigKeys.DFS_ZOKRATES_DIR_PATH_KEY, dir.getAbsolutePath());
+    ZKProver prover = new ZKProver(conf, null);
+    try {
+      MerkleTree tree = new MerkleTree(new byte[256], 64, 2);
+      tree.build();
+      // both challenges are proven by a single request
+      MerkleProof mp = tree.getMerkleProof(1, new byte[32], 2);
+      assertEquals(ZKProver.PROOF_SIZE, prover.prove(mp).get().size());
+      assertTrue(mp.isEmpty());
+      // the worker is gone, the next proof restarts it
+      mp = tree.getMerkleProof(2, new byte[32], 1);
+      assertEquals(ZKProver.PROOF_SIZE, prover.prove(mp).get().size());
+    } finally {
+      prover.close();
+      FileUtil.fullyDelete(dir);
+    }
+  }
+
+  private static int openFiles() {
+    String[] fds = new File("/proc/self/fd").list();
+    return fds == null ? -1 : fds.length;
+  }
+
+  /**
+   * Runs the prover against a fake worker set with
+   * dfs.zokrates.worker.command, and checks that closing the prover
+   * releases the pipes of the workers.
+   */
+  @Test(timeout = 60000)
+  public void testWorkerCommand() throws Exception {
+    File dir = GenericTestUtils.getTestDir("TestZKProverCommand");
+    FileUtil.fullyDelete(dir);
+    assertTrue(dir.mkdirs());
+    File script = new File(dir, "fake_worker.sh");
+    FileUtils.writeStringToFile(script, "#!/usr/bin/env bash\n"
+        + "while read -r line; do echo 'OK 1 2 " + PROOF_JSON + "'; done\n");
+    assertTrue(script.setExecutable(true));
+    Configuration conf = new Configuration();
+    conf.set(DFSConfigKeys.DFS_ZOKRATES_DIR_PATH_KEY, dir.getAbsolutePath());
+    conf.set(DFSConfigKeys.DFS_ZOKRATES_WORKER_COMMAND_KEY,
+        script.getAbsolutePath());
+    conf.setInt(DFSConfigKeys.DFS_ZOKRATES_THREADS_KEY, 2);
+    MerkleTree tree = new MerkleTree(new byte[128], 64, 1);
+    tree.build();
+    int open_files = openFiles();
+    ZKProver prover = new ZKProver(conf, null);
+    try {
+      for (int i = 0; i < 4; i++) {
+        MerkleProof mp = tree.getMerkleProof(i, new byte[32], 1);
+        assertEquals(ZKProver.PROOF_SIZE, prover.prove(mp).get().size());
+      }
+    } finally {
+      prover.close();
+      FileUtil.fullyDelete(dir);
+    }
+    assertEquals(open_files, openFiles());
+  }
+}
@@ -0,0 +1,374 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoContiguous;
+import org.apache.hadoop.hdfs.server.blockmanagement.DatanodeStorageInfo;
+import org.apache.hadoop.hdfs.server.namenode.BlockMapServlet.FileBlocks;
+import org.apache.hadoop.hdfs.server.namenode.BlockMapServlet.Page;
+import org.apache.hadoop.hdfs.server.namenode.FSDirectory.DirOp;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestBlockMapServlet {
+
+  private static final List<String> FILES = Arrays.asList(
+      "/a", "/b/c/d", "/b/c/e", "/b/f", "/b/g/h", "/i");
+  private static final PermissionStatus PERM = new PermissionStatus(
+      "user", "group", FsPermission.getDefault());
+
+  private static final INodeDirectory root = new INodeDirectory(
+      INodeId.ROOT_INODE_ID, DFSUtil.string2Bytes(""), PERM, 0);
+  private static final DatanodeStorageInfo[] storages =
+      DFSTestUtil.createDatanodeStorageInfos(2);
+  private static final Map<Long, INode> inodes = new HashMap<Long, INode>();
+  private static final BlockMapChanges changes = new BlockMapChanges(100);
+  private static FSNamesystem namesystem;
+  private static long inodeId = INodeId.ROOT_INODE_ID;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    // created out of order, and an empty directory
+    for (int i = FILES.size() - 1; i >= 0; i--) {
+      BlockInfo[] blocks = new BlockInfo[0];
+      if (FILES.get(i).equals("/b/f")) {
+        // two blocks, on both DataNodes and on the second one only
+        blocks = new BlockInfo[] {
+            new BlockInfoContiguous(new Block(1, 100, 1001), (short) 2),
+            new BlockInfoContiguous(new Block(2, 50, 1001), (short) 2) };
+        storages[0].addBlock(blocks[0]);
+        storages[1].addBlock(blocks[0]);
+        storages[1].addBlock(blocks[1]);
+      }
+      add(FILES.get(i), new INodeFile(++inodeId, null, PERM, 1000 * (i + 1),
+          0, blocks, (short) 2, 1024));
+    }
+    add("/b/empty", new INodeDirectory(++inodeId, null, PERM, 0));
+    namesystem = newNamesystem();
+  }
+
+  private static FSNamesystem newNamesystem() throws Exception {
+    // the namespace is resolved from the tree above
+    FSDirectory fsd = mock(FSDirectory.class);
+    when(fsd.getINode(anyString(), eq(DirOp.READ))).thenAnswer(
+        new Answer<INode>() {
+          @Override
+          public INode answer(InvocationOnMock invocation) {
+            return resolve((String) invocation.getArguments()[0]);
+          }
+        });
+    when(fsd.getInode(anyLong())).thenAnswer(new Answer<INode>() {
+      @Override
+      public INode answer(InvocationOnMock invocation) {
+        return inodes.get(invocation.getArguments()[0]);
+      }
+    });
+    FSImage image = mock(FSImage.class);
+    when(image.getLastAppliedOrWrittenTxId()).thenReturn(42L);
+    FSNamesystem ns = mock(FSNamesystem.class);
+    when(ns.getFSDirectory()).thenReturn(fsd);
+    when(ns.getFSImage()).thenReturn(image);
+    when(ns.getBlockMapChanges()).thenReturn(changes);
+    return ns;
+  }
+
+  // adds an inode and its missing parent directories
+  private static void add(String path, INode inode) {
+    String[] names = path.substring(1).split("/");
+    INodeDirectory dir = root;
+    for (int i = 0; i < names.length - 1; i++) {
+      INode child = dir.getChild(DFSUtil.string2Bytes(names[i]),
+          Snapshot.CURRENT_STATE_ID);
+      if (child == null) {
+        child = new INodeDirectory(++inodeId,
+            DFSUtil.string2Bytes(names[i]), PERM, 0);
+        dir.addChild(child);
+      }
+      dir = child.asDirectory();
+    }
+    inode.setLocalName(DFSUtil.string2Bytes(names[names.length - 1]));
+    dir.addChild(inode);
+    inodes.put(inode.getId(), inode);
+  }
+
+  private static INode resolve(String path) {
+    INode inode = root;
+    for (String name : path.split("/")) {
+      if (!name.isEmpty()) {
+        if (inode == null || !inode.isDirectory()) {
+          return null;
+        }
+        inode = inode.asDirectory().getChild(DFSUtil.string2Bytes(name),
+            Snapshot.CURRENT_STATE_ID);
+      }
+    }
+    return inode;
+  }
+
+  private static List<String> paths(Page page) {
+    List<String> paths = new ArrayList<String>();
+    for (FileBlocks file : page.files) {
+      paths.add(file.path);
+    }
+    return paths;
+  }
+
+  @Test
+  public void testWalk() throws Exception {
+    Page page = BlockMapServlet.collect(namesystem, "/", null, 100, 100);
+    assertEquals(FILES, paths(page));
+    assertNull(page.next);
+
+    page = BlockMapServlet.collect(namesystem, "/b/", null, 100, 100);
+    assertEquals(FILES.subList(1, 5), paths(page));
+
+    page = BlockMapServlet.collect(namesystem, "/b/f", null, 100, 100);
+    assertEquals(Arrays.asList("/b/f"), paths(page));
+    page = BlockMapServlet.collect(namesystem, "/b/f", "/b/f", 100, 100);
+    assertEquals(0, page.files.size());
+  }
+
+  @Test
+  public void testCursor() throws Exception {
+    List<String> all = new ArrayList<String>();
+    String cursor = null;
+    int pages = 0;
+    do {
+      Page page = BlockMapServlet.collect(namesystem, "/", cursor, 2, 100);
+      all.addAll(paths(page));
+      cursor = page.next;
+      pages++;
+    } while (cursor != null);
+    assertEquals(FILES, all);
+    // the last page is empty, the walk stopped right at the end of the third
+    assertEquals(4, pages);
+
+    // resumes within a directory
+    Page page = BlockMapServlet.collect(namesystem, "/", "/b/c/d", 100, 100);
+    assertEquals(FILES.subList(2, 6), paths(page));
+  }
+
+  @Test
+  public void testBatches() throws Exception {
+    FSNamesystem ns = newNamesystem();
+    Page page = BlockMapServlet.collect(ns, "/", null, 100, 2);
+    assertEquals(FILES, paths(page));
+    assertNull(page.next);
+    // /a /b /b/c /b/c/d, /b/c/e /b/empty /b/f, /b/g /b/g/h, /i
+    verify(ns, times(4)).readLock();
+    verify(ns, times(4)).readUnlock("blockMap");
+
+    // a full page ends the walk, whatever the batch
+    page = BlockMapServlet.collect(ns, "/b", null, 3, 2);
+    assertEquals(FILES.subList(1, 4), paths(page));
+    assertEquals("/b/f", page.next);
+  }
+
+  @Test
+  public void testChanges() throws Exception {
+    INode f = resolve("/b/f");
+    INode i = resolve("/i");
+    changes.start(40);
+    changes.fileChanged(41, f.getId());
+    changes.deleted(41, "/x");
+    changes.pathChanged(42, "/b/g");
+    changes.fileChanged(43, i.getId());
+    // gone since
+    changes.fileChanged(43, inodeId + 1);
+
+    Page page = BlockMapServlet.changes(namesystem, "/", 40, 0, 100);
+    assertEquals(42, page.txid);
+    assertEquals(Arrays.asList("/x"), page.deleted);
+    assertEquals(Arrays.asList("/b/g"), page.resync);
+    assertEquals(Arrays.asList("/b/f", "/i"), paths(page));
+    assertNull(page.next);
+
+    page = BlockMapServlet.changes(namesystem, "/", 41, 0, 100);
+    assertEquals(Collections.emptyList(), page.deleted);
+    assertEquals(Arrays.asList("/b/g"), page.resync);
+    assertEquals(Arrays.asList("/i"), paths(page));
+
+    // below a path
+    page = BlockMapServlet.changes(namesystem, "/b", 40, 0, 100);
+    assertEquals(Collections.emptyList(), page.deleted);
+    assertEquals(Arrays.asList("/b/g"), page.resync);
+    assertEquals(Arrays.asList("/b/f"), paths(page));
+
+    // paged by changes
+    page = BlockMapServlet.changes(namesystem, "/", 40, 0, 2);
+    assertEquals(Arrays.asList("/x"), page.deleted);
+    assertEquals(Arrays.asList("/b/f"), paths(page));
+    assertEquals("2", page.next);
+    page = BlockMapServlet.changes(namesystem, "/", 40, 2, 2);
+    assertEquals(Arrays.asList("/b/g"), page.resync);
+    assertEquals(Arrays.asList("/i"), paths(page));
+    assertEquals("4", page.next);
+
+    // a change above the path is a change of the path
+    changes.deleted(44, "/b");
+    page = BlockMapServlet.changes(namesystem, "/b/g", 43, 0, 100);
+    assertEquals(Arrays.asList("/b/g"), page.deleted);
+
+    // older than the activation
+    assertNull(BlockMapServlet.changes(namesystem, "/", 39, 0, 100));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BlockMapServlet.write(page, new DataOutputStream(bytes));
+    DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray()));
+    in.readInt();
+    in.readInt();
+    in.readLong();
+    in.readLong();
+    assertEquals(BlockMapServlet.DELETED, in.readByte());
+    assertEquals("/b/g", in.readUTF());
+    assertEquals(BlockMapServlet.END, in.readByte());
+    changes.stop();
+  }
+
+  @Test
+  public void testChangesBounded() throws Exception {
+    BlockMapChanges c = new BlockMapChanges(2);
+    assertNull(c.since(0, 0, 10));
+    c.start(10);
+    c.fileChanged(11, 1);
+    c.fileChanged(12, 2);
+    assertEquals(2, c.since(10, 0, 10).size());
+    // the change of 11 is dropped
+    c.fileChanged(13, 3);
+    assertNull(c.since(10, 0, 10));
+    assertEquals(2, c.since(11, 0, 10).size());
+    // a page resumed right after the dropped change
+    assertEquals(2, c.since(11, 1, 10).size());
+
+    // a file changed again is moved to its last change
+    c.fileChanged(14, 2);
+    List<BlockMapChanges.Change> since = c.since(11, 0, 10);
+    assertEquals(3, since.get(0).inodeId);
+    assertEquals(2, since.get(1).inodeId);
+    assertEquals(14, since.get(1).txid);
+    assertEquals(1, c.since(13, 0, 10).size());
+
+    // a page resumed before a dropped change
+    c.fileChanged(15, 5);
+    assertEquals(2, c.since(13, 0, 10).size());
+    assertNull(c.since(13, 2, 10));
+
+    c.stop();
+    assertNull(c.since(11, 0, 10));
+  }
+
+  @Test
+  public void testChangesNotKept() throws Exception {
+    // dfs.namenode.blockmap.changes.enabled is off, the client walks again
+    FSNamesystem ns = newNamesystem();
+    when(ns.getBlockMapChanges()).thenReturn(null);
+    assertNull(BlockMapServlet.changes(ns, "/", 40, 0, 100));
+  }
+
+  @Test(expected = FileNotFoundException.class)
+  public void testMissingPath() throws Exception {
+    BlockMapServlet.collect(namesystem, "/missing", null, 100, 100);
+  }
+
+  @Test
+  public void testWrite() throws Exception {
+    Page page = BlockMapServlet.collect(namesystem, "/b", null, 3, 100);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BlockMapServlet.write(page, new DataOutputStream(bytes));
+
+    DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(BlockMapServlet.MAGIC, in.readInt());
+    assertEquals(2, in.readInt());
+    assertEquals(42, in.readLong());
+    assertEquals(page.time, in.readLong());
+    List<String> paths = new ArrayList<String>();
+    List<String> datanodes = new ArrayList<String>();
+    byte tag;
+    while ((tag = in.readByte()) != BlockMapServlet.END) {
+      if (tag == BlockMapServlet.DATANODE) {
+        assertEquals(datanodes.size(), in.readInt());
+        datanodes.add(in.readUTF());
+        in.readUTF();
+        continue;
+      }
+      assertEquals(BlockMapServlet.FILE, tag);
+      String path = in.readUTF();
+      paths.add(path);
+      assertEquals(1000 * (FILES.indexOf(path) + 1), in.readLong());
+      int blocks = in.readInt();
+      if (!path.equals("/b/f")) {
+        assertEquals(0, blocks);
+        continue;
+      }
+      assertEquals(2, blocks);
+      // first block on both DataNodes
+      assertEquals(1, in.readLong());
+      assertEquals(1001, in.readLong());
+      assertEquals(100, in.readLong());
+      assertEquals(2, in.readShort());
+      assertEquals(storages[0].getDatanodeDescriptor().getXferAddr(),
+          datanodes.get(in.readInt()));
+      assertEquals(storages[1].getDatanodeDescriptor().getXferAddr(),
+          datanodes.get(in.readInt()));
+      // second block on the second DataNode
+      assertEquals(2, in.readLong());
+      assertEquals(1001, in.readLong());
+      assertEquals(50, in.readLong());
+      assertEquals(1, in.readShort());
+      assertEquals(storages[1].getDatanodeDescriptor().getXferAddr(),
+          datanodes.get(in.readInt()));
+    }
+    assertEquals("/b/f", in.readUTF());
+    assertEquals(FILES.subList(1, 4), paths);
+    assertEquals(2, datanodes.size());
+    assertEquals(-1, in.read());
+  }
+}
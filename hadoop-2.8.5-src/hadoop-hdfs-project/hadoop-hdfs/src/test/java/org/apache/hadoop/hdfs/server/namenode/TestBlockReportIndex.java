@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.math.BigInteger;
+
+import org.apache.hadoop.blockchain.Data;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.server.namenode.BlockReportIndex.Page;
+import org.apache.hadoop.hdfs.server.namenode.BlockReportIndex.Report;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+import org.web3j.protocol.core.methods.response.Log;
+
+public class TestBlockReportIndex {
+
+  private static final String DN1 = "0xAbC1";
+  private static final String DN2 = "0xdef2";
+
+  private static BlockReportIndex newIndex(int maxReports) {
+    BlockReportIndex index = new BlockReportIndex(maxReports);
+    // two reports per block and DataNode, the second at t = 200
+    for (int t = 100; t <= 200; t += 100) {
+      for (long block = 1; block <= 5; block++) {
+        index.add(new Report(block, DN1, t, block == 3));
+        index.add(new Report(block, DN2, t, false));
+      }
+    }
+    return index;
+  }
+
+  @Test
+  public void testQuery() {
+    BlockReportIndex index = newIndex(100);
+    assertEquals(20, index.size());
+    Page page = index.query(null, null, Long.MIN_VALUE, Long.MAX_VALUE, null, 0, 5);
+    assertEquals(20, page.getTotal());
+    assertEquals(5, page.getReports().size());
+    // newest first
+    assertEquals(5, page.getReports().get(0).getBlockId());
+    assertEquals(200, page.getReports().get(0).getTime());
+
+    page = index.query(3L, null, Long.MIN_VALUE, Long.MAX_VALUE, null, 0, 10);
+    assertEquals(4, page.getTotal());
+    for (Report r : page.getReports()) {
+      assertEquals(3, r.getBlockId());
+    }
+
+    // addresses are case insensitive
+    page = index.query(null, "0xABC1", Long.MIN_VALUE, Long.MAX_VALUE, true, 0, 10);
+    assertEquals(2, page.getTotal());
+    for (Report r : page.getReports()) {
+      assertTrue(r.isCorrupt());
+      assertEquals("0xabc1", r.getDatanode());
+    }
+
+    page = index.query(2L, DN2, 150, 250, null, 0, 10);
+    assertEquals(1, page.getTotal());
+    assertEquals(200, page.getReports().get(0).getTime());
+
+    page = index.query(42L, null, Long.MIN_VALUE, Long.MAX_VALUE, null, 0, 10);
+    assertEquals(0, page.getTotal());
+  }
+
+  @Test
+  public void testPaging() {
+    BlockReportIndex index = newIndex(100);
+    long seen = 0;
+    for (int offset = 0; offset < 20; offset += 7) {
+      Page page = index.query(null, null, Long.MIN_VALUE, Long.MAX_VALUE, null,
+          offset, 7);
+      assertEquals(20, page.getTotal());
+      seen += page.getReports().size();
+    }
+    assertEquals(20, seen);
+  }
+
+  @Test
+  public void testEviction() {
+    BlockReportIndex index = newIndex(10);
+    assertEquals(10, index.size());
+    assertEquals(10, index.getDropped());
+    // only the reports at t = 200 are left
+    Page page = index.query(null, null, Long.MIN_VALUE, 150, null, 0, 100);
+    assertEquals(0, page.getTotal());
+    page = index.query(1L, null, Long.MIN_VALUE, Long.MAX_VALUE, null, 0, 100);
+    assertEquals(2, page.getTotal());
+    page = index.query(null, DN1, Long.MIN_VALUE, Long.MAX_VALUE, null, 0, 100);
+    assertEquals(5, page.getTotal());
+  }
+
+  private static Data.BlockReportEventResponse event(long chainBlock,
+      long logIndex, long blockId) {
+    Data.BlockReportEventResponse event = new Data.BlockReportEventResponse();
+    event.log = new Log();
+    event.log.setBlockNumber("0x" + Long.toHexString(chainBlock));
+    event.log.setLogIndex("0x" + Long.toHexString(logIndex));
+    event.datanode = DN1;
+    event.time = BigInteger.valueOf(100 + chainBlock);
+    event.blockId = BigInteger.valueOf(blockId);
+    event.corrupt = false;
+    return event;
+  }
+
+  @Test
+  public void testCheckpoint() throws Exception {
+    File dir = GenericTestUtils.getTestDir("TestBlockReportIndex");
+    FileUtil.fullyDelete(dir);
+    File file = new File(dir, "blockreport.index");
+    // no node behind, the subscription keeps failing
+    String node = "http://127.0.0.1:1";
+    String contract = "0x9fa427dE298287D627bBe47b5e2eFFac4eA4F45c";
+    try {
+      BlockReportIndex index = new BlockReportIndex(3, file, 0);
+      index.start(node, contract, "BP-1");
+      index.onEvent(event(10, 0, 1));
+      index.onEvent(event(10, 1, 2));
+      index.onEvent(event(11, 0, 3));
+      index.onEvent(event(12, 4, 4));
+      assertEquals(3, index.size());
+      index.close();
+      assertTrue(file.exists());
+
+      // resumed from the checkpoint, without the events seen before
+      index = new BlockReportIndex(3, file, 0);
+      index.start(node, contract.toLowerCase(), "BP-1");
+      assertEquals(3, index.size());
+      assertEquals(1, index.getDropped());
+      assertEquals(0, index.query(1L, null, Long.MIN_VALUE, Long.MAX_VALUE,
+          null, 0, 10).getTotal());
+      assertEquals(1, index.query(4L, null, Long.MIN_VALUE, Long.MAX_VALUE,
+          null, 0, 10).getTotal());
+      index.onEvent(event(12, 4, 4));
+      index.onEvent(event(11, 2, 5));
+      assertEquals(3, index.size());
+      index.onEvent(event(12, 5, 6));
+      assertEquals(2, index.getDropped());
+      // a failover back to active keeps the reports in memory
+      index.close();
+      index.start(node, contract.toLowerCase(), "BP-1");
+      assertEquals(3, index.size());
+      assertEquals(2, index.getDropped());
+      index.close();
+
+      // the checkpoint of another block pool is not read
+      index = new BlockReportIndex(3, file, 0);
+      index.start(node, contract, "BP-2");
+      assertEquals(0, index.size());
+      index.close();
+    } finally {
+      FileUtil.fullyDelete(dir);
+    }
+  }
+}
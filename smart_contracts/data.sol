@@ -8,29 +8,67 @@ import "./verifier.sol";
 contract Data {
 
     // Need to be instantiated on deployment
-    uint constant num_chall = 1;     // challenges/block
+    uint constant num_chall = 1;     // challenges/block, proven by a single proof (merkle_proof_multi.zok with K = num_chall)
     uint constant num_chunks = 8192;    // chunks/block
 
+    // a committed batch of blocks, its range and its number of blocks
+    struct batch_struct {
+        bytes32 root;
+        uint last;
+        uint count;
+    }
+
     struct bp_struct {
         mapping (uint=>bytes32) roots;
         mapping (address=>uint) seeds;
+        // batches of blocks, by the id of their first block, written once
+        mapping (uint=>batch_struct) batches;
     }
     
     mapping (bytes32=>bp_struct) bp_data;
     Verifier verifier;
+    // the deployer, who registers the accounts of the clients allowed to commit roots
+    address owner;
+    mapping (address=>bool) writers;
 
-    event BlockReport(bytes32 indexed blockpool, address datanode, uint time,  uint blockId, bool corrupt);
+    event BlockReport(bytes32 indexed blockpool, address indexed datanode, uint time,  uint blockId, bool corrupt);
+    event DigestBatch(bytes32 indexed blockpool, uint firstBlockId, uint lastBlockId, uint count, bytes32 root);
 
     
     constructor () {
         verifier = new Verifier();
+        owner = msg.sender;
     }
 
+    modifier only_writer() {
+        require(writers[msg.sender], "not a writer");
+        _;
+    }
 
-    function add_digest(bytes32 _bp_id, uint _block_id, bytes32 _root) external {
+    function set_writer(address _writer, bool _allowed) external {
+        require(msg.sender == owner, "not the owner");
+        writers[_writer] = _allowed;
+    }
+
+
+    function add_digest(bytes32 _bp_id, uint _block_id, bytes32 _root) external only_writer {
         bp_data[_bp_id].roots[_block_id] = _root;
     }
 
+    // commits the roots of many blocks at once, as the root of a merkle tree whose
+    // leaves are keccak256(block_id, root) in order (padded with zeros to a power of 2),
+    // the ids of the blocks increasing from _first_block_id to _last_block_id
+    function add_digest_batch(bytes32 _bp_id, uint _first_block_id, uint _last_block_id, uint _count, bytes32 _root) external only_writer {
+        require(_first_block_id <= _last_block_id, "empty range");
+        require(_count > 0 && _count <= _last_block_id - _first_block_id + 1, "count does not fit the range");
+        batch_struct storage batch = bp_data[_bp_id].batches[_first_block_id];
+        require(batch.count == 0, "batch already committed");
+        batch.root = _root;
+        batch.last = _last_block_id;
+        batch.count = _count;
+        emit DigestBatch(_bp_id, _first_block_id, _last_block_id, _count, _root);
+    }
+
     function create_seed(bytes32 _bp_id, uint randomness) external {
         uint seed = block.timestamp;
         // pack both randomness and timestamp in 256bit uint (timestamp on LSBs)
@@ -59,43 +97,80 @@ contract Data {
     }
 
     
-    function get_input_vector(bytes32 root) internal pure returns(uint[5] memory) {
-        uint[5] memory input;
-        // implemented with inline assembly for gas efficiency
-        assembly {
-            mstore(add(input, 0x40), and(root, 0xffffffffffffffffffffffffffffffff))
-            mstore(add(input, 0x20), and(div(root, 0x100000000000000000000000000000000), 0xffffffffffffffffffffffffffffffff))
+    // public inputs of merkle_proof_multi.zok: the challenges, the root (as 2 fields of 128 bits),
+    // the nullifier and the output of the circuit (same as merkle_proof.zok for a single challenge)
+    function get_input_vector(bytes32 root, uint[num_chall] memory challenges) internal pure returns(uint[num_chall + 4] memory) {
+        uint[num_chall + 4] memory input;
+        for(uint i = 0; i < num_chall; i++) {
+            input[i] = challenges[i];
         }
+        input[num_chall] = uint256(root) >> 128;
+        input[num_chall + 1] = uint256(root) & 0xffffffffffffffffffffffffffffffff;
+        input[num_chall + 2] = challenges[0];
+        input[num_chall + 3] = 1;
         return input;
     }
 
     
     function verify(bytes32 _bp_id, uint _block_id, uint[] memory numbers) external{
-        // first get a reference to the blockpool storage
-        bp_struct storage bp_pointer = bp_data[_bp_id];
-        // grab the seed and generate challenges
-        uint seed = bp_pointer.seeds[tx.origin];
+        // grab the seed of the datanode, the challenges are derived from it
+        uint seed = bp_data[_bp_id].seeds[tx.origin];
+        verify_block(_bp_id, abi.encodePacked(seed, _bp_id, tx.origin), seed, _block_id, bp_data[_bp_id].roots[_block_id], numbers, 0);
+    }
+
+    // same as verify for a block whose root was committed by add_digest_batch,
+    // the root is checked against the batch with its merkle path (siblings from the leaf up)
+    function verify_from_batch(bytes32 _bp_id, uint _block_id, bytes32 _root, uint _batch, uint _index, bytes32[] memory _siblings, uint[] memory numbers) external{
+        batch_struct storage batch = bp_data[_bp_id].batches[_batch];
+        require(_batch <= _block_id && _block_id <= batch.last, "block is not in the range of the batch");
+        require(_index < batch.count, "index is not in the batch");
+        require(batch_root(_block_id, _root, _index, _siblings) == batch.root, "root is not in the batch");
+        uint seed = bp_data[_bp_id].seeds[tx.origin];
+        verify_block(_bp_id, abi.encodePacked(seed, _bp_id, tx.origin), seed, _block_id, _root, numbers, 0);
+    }
+
+    function batch_root(uint _block_id, bytes32 _root, uint _index, bytes32[] memory _siblings) internal pure returns (bytes32) {
+        bytes32 node = keccak256(abi.encodePacked(_block_id, _root));
+        for(uint i = 0; i < _siblings.length; i++) {
+            if((_index >> i) & 1 == 1) {
+                node = keccak256(abi.encodePacked(_siblings[i], node));
+            } else {
+                node = keccak256(abi.encodePacked(node, _siblings[i]));
+            }
+        }
+        return node;
+    }
+
+    // same as verify for many blocks of a blockpool in one transaction,
+    // numbers holds the proofs of every block one after the other (8 each)
+    function verify_batch(bytes32 _bp_id, uint[] memory _block_ids, uint[] memory numbers) external{
+        require(numbers.length == _block_ids.length * 8, "proofs do not match the blocks");
+        // the seed is the same for the whole batch
+        uint seed = bp_data[_bp_id].seeds[tx.origin];
+        bytes memory packed_seed = abi.encodePacked(seed, _bp_id, tx.origin);
+        for(uint j = 0; j < _block_ids.length; j++) {
+            verify_block(_bp_id, packed_seed, seed, _block_ids[j], bp_data[_bp_id].roots[_block_ids[j]], numbers, j * 8);
+        }
+    }
+
+    // verifies the proofs of a block (with the given root) starting at numbers[offset] and emits its report
+    function verify_block(bytes32 _bp_id, bytes memory _packed_seed, uint seed, uint _block_id, bytes32 _root, uint[] memory numbers, uint offset) internal {
         uint time;
         assembly{
             time := and(seed, 0xffffffffffffffffffffffffffffffff)
         }
-        uint[num_chall] memory challenges = gen_challenges(abi.encodePacked(seed, _bp_id, tx.origin), _block_id);
-        // get the input vector for the verification
-        uint[5] memory input = get_input_vector(bp_pointer.roots[_block_id]);
-        input[3] = challenges[0];
-        input[4] = 1;
-        for(uint i = 0; i < num_chall; i++) {
-            input[0] = challenges[i];
-            Verifier.Proof memory proof;
-            proof.a = Pairing.G1Point(numbers[i*8], numbers[i*8+1]);
-            proof.b = Pairing.G2Point([numbers[i*8+2], numbers[i*8+3]], [numbers[i*8+4], numbers[i*8+5]]);
-            proof.c = Pairing.G1Point(numbers[i*8+6], numbers[i*8+7]);
-            if(!verifier.verifyTx(proof, input)) {
-                emit BlockReport(_bp_id, tx.origin, time, _block_id, true);
-                return;
-            }
-        }
-        emit BlockReport(_bp_id, tx.origin, time, _block_id, false);
+        uint[num_chall] memory challenges = gen_challenges(_packed_seed, _block_id);
+        // all the challenges of the block are proven at once, a single pairing check
+        bool corrupt = !verifier.verifyTx(get_proof(numbers, offset), get_input_vector(_root, challenges));
+        emit BlockReport(_bp_id, tx.origin, time, _block_id, corrupt);
+    }
+
+    function get_proof(uint[] memory numbers, uint start) internal pure returns (Verifier.Proof memory) {
+        Verifier.Proof memory proof;
+        proof.a = Pairing.G1Point(numbers[start], numbers[start+1]);
+        proof.b = Pairing.G2Point([numbers[start+2], numbers[start+3]], [numbers[start+4], numbers[start+5]]);
+        proof.c = Pairing.G1Point(numbers[start+6], numbers[start+7]);
+        return proof;
     }
 
 }
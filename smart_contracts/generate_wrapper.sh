@@ -0,0 +1,25 @@
+#!/usr/bin/env bash
+#
+# Compiles data.sol and regenerates the web3j wrapper of the Data contract,
+# org.apache.hadoop.blockchain.Data of hadoop-hdfs-extras, with its BINARY.
+#
+# Needs solc 0.8.6 (the version the deployed contract was compiled with,
+# SOLC to use another one) and the web3j command line tools (WEB3J).
+# The generated wrapper replaces Data.java as is: the functions written in it
+# by hand (verify_batch, add_digest_batch, verify_from_batch) are generated
+# from data.sol with the same signatures, so the connections need no change.
+#
+#   ./generate_wrapper.sh [output dir, a temporary one by default]
+
+set -e
+
+SOLC="${SOLC:-solc}"
+WEB3J="${WEB3J:-web3j}"
+HERE="$(cd "$(dirname "$0")" && pwd)"
+SRC="${HERE}/../hadoop-2.8.5-src/hadoop-hdfs-project/hadoop-hdfs-extras/src/main/java"
+OUT="${1:-$(mktemp -d)}"
+
+"${SOLC}" --optimize --bin --abi --overwrite -o "${OUT}" "${HERE}/data.sol"
+"${WEB3J}" generate solidity -b "${OUT}/Data.bin" -a "${OUT}/Data.abi" \
+  -o "${SRC}" -p org.apache.hadoop.blockchain
+echo "Regenerated ${SRC}/org/apache/hadoop/blockchain/Data.java"
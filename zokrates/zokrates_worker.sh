@@ -0,0 +1,43 @@
+#!/usr/bin/env bash
+#
+# Long-running ZoKrates worker, started by the DataNode prover (ZKProver)
+# from the directory of the zokrates executable, next to the compiled
+# circuit (out) and its proving key (proving.key).
+#
+# Reads one request per line on stdin, the arguments of the circuit
+# (as given to compute-witness -a), and answers each one with a single
+# line on stdout:
+#   OK <witness ms> <proof ms> <proof.json on a single line>
+#   ERR <stage> <message>
+# The witness and the proof are kept in a memory-backed directory
+# (the first argument, /dev/shm by default), private to this worker.
+# The worker exits when its stdin is closed.
+# Another prover that answers the same way can be run by the DataNode
+# instead of this script, with dfs.zokrates.worker.command.
+
+base_dir="${1:-/dev/shm}"
+work_dir="$(mktemp -d "${base_dir}/zokrates_worker.XXXXXX")" || exit 1
+trap 'rm -rf "${work_dir}"' EXIT
+
+now_ms() {
+  echo $(( $(date +%s%N) / 1000000 ))
+}
+
+while read -r -a args; do
+  if [ "${#args[@]}" -eq 0 ]; then
+    continue
+  fi
+  start=$(now_ms)
+  if ! ./zokrates compute-witness -a "${args[@]}" -o "${work_dir}/witness" > /dev/null 2>&1; then
+    echo "ERR witness compute-witness failed"
+    continue
+  fi
+  witness_done=$(now_ms)
+  rm -f "${work_dir}/proof.json"
+  if ! ./zokrates generate-proof -w "${work_dir}/witness" -j "${work_dir}/proof.json" > /dev/null 2>&1; then
+    echo "ERR proof generate-proof failed"
+    continue
+  fi
+  proof_done=$(now_ms)
+  echo "OK $(( witness_done - start )) $(( proof_done - witness_done )) $(tr -d '\n' < "${work_dir}/proof.json")"
+done